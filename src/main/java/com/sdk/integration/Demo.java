@@ -2,14 +2,16 @@ package com.sdk.integration;
 
 import com.sdk.integration.shared.Constants;
 import com.sdk.wialon.core.Errors;
+import com.sdk.wialon.core.PagedIterator;
+import com.sdk.wialon.core.SearchItemsIterator;
 import com.sdk.wialon.core.Session;
 import com.sdk.wialon.extra.SearchSpec;
 import com.sdk.wialon.item.Item;
 import com.sdk.wialon.remote.handlers.ResponseHandler;
-import com.sdk.wialon.remote.handlers.SearchResponseHandler;
 
 public class Demo {
-
+	/** How many units to request from server at once */
+	private static final int UNITS_PAGE_SIZE=100;
 	
 	
 	
@@ -33,8 +35,13 @@ public class Demo {
 				super.onSuccess(response);
 				// login succeed
 				System.out.println(String.format("Logged successfully. User name is %s", session.getCurrUser().getName()));
-				//call search units
-				searchUnits();
+				//call search units, paged search is blocking so it is performed outside of callback thread
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						searchUnits();
+					}
+				}).start();
 			}
  
 			@Override
@@ -57,33 +64,29 @@ public class Demo {
 		searchSpec.setPropValueMask("*");
 		//Set sort type by units name
 		searchSpec.setSortType("sys_name");
-		//Send search by created search specification with items base data flag and from 0 to maximum number
-		session.searchItems(searchSpec, 1, Item.dataFlag.base.getValue(), 0, Integer.MAX_VALUE, new SearchResponseHandler() {
-			@Override
-			public void onSuccessSearch(Item... items) {
-				super.onSuccessSearch(items);
-				// Search succeed
-				System.out.println("Search items is successful");
-				printUnitsNames(items);
-				logout();
-			}
-			@Override
-			public void onFailure(int errorCode, Throwable throwableError) {
-				super.onFailure(errorCode, throwableError);
-				// search item failed, print error
-				System.out.println(Errors.getErrorText(errorCode));
-				logout();
+		//Iterate over units found by created search specification with items base data flag, page by page,
+		//next page is loaded while current one is printed
+		SearchItemsIterator units=session.searchItemsPaged(searchSpec, 1, Item.dataFlag.base.getValue(), UNITS_PAGE_SIZE);
+		try {
+			System.out.println("Printing units names...");
+			int count=0;
+			while (units.hasNext()) {
+				printUnitName(units.next());
+				count++;
 			}
-		});
+			// Search succeed
+			System.out.println(String.format("%d units found", count));
+		} catch (PagedIterator.FetchException e) {
+			// search items failed, print error
+			System.out.println(Errors.getErrorText(e.getErrorCode()));
+		} finally {
+			units.close();
+			logout();
+		}
 	}
 
-	private void printUnitsNames(Item... items){
-		if (items!=null && items.length>0) {
-			System.out.println(String.format("%d units found\r\nPrinting their names...", items.length));
-			//Print items names
-			for (Item item : items)
-				System.out.println(String.format("\t%s", item.getName()));
-		}
+	private void printUnitName(Item item){
+		System.out.println(String.format("\t%s", item.getName()));
 	}
 	// Logout
 	private void logout(){
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.core;
+
+import com.sdk.wialon.extra.UpdateSpec;
+import com.sdk.wialon.item.Item;
+import com.sdk.wialon.remote.handlers.ResponseHandler;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Data flags subscriptions manager.
+ * Keep track which data flags every application component (owner) is interested in for every item,
+ * and send to server only difference between flags already loaded into session and flags required by all owners together.
+ * All calls to core/update_data_flags for items managed here should go through this object,
+ * otherwise direct calls of Session.updateDataFlags will be overridden on next change.
+ */
+public class DataFlagsManager {
+	/** Default maximum count of items IDs in one core/update_data_flags request */
+	public static final int DEFAULT_CHUNK_SIZE=5000;
+	/** Update flags modes, see Session.updateDataFlags */
+	private static final int MODE_SET=0;
+	private static final int MODE_ADD=1;
+	private static final int MODE_REMOVE=2;
+
+	private final Session session;
+	/** Subscriptions by item Id */
+	private final Map<Long, Subscription> subscriptions=new HashMap<Long, Subscription>();
+	/** Items which required flags differ from applied ones */
+	private final Set<Long> dirtyItems=new LinkedHashSet<Long>();
+	private int chunkSize=DEFAULT_CHUNK_SIZE;
+
+	DataFlagsManager(Session session) {
+		this.session=session;
+	}
+
+	/**
+	 * Max count of items IDs in one core/update_data_flags request, bigger updates will be split into several requests
+	 * @param chunkSize items count, should be positive
+	 */
+	public synchronized void setChunkSize(int chunkSize) {
+		if (chunkSize>0)
+			this.chunkSize=chunkSize;
+	}
+
+	public synchronized int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Get data flags required for item by all owners together
+	 * @param itemId item ID
+	 * @return flags value, zero if nobody is interested in item
+	 */
+	public synchronized long getFlags(long itemId) {
+		Subscription subscription=subscriptions.get(itemId);
+		return subscription==null ? 0 : subscription.required;
+	}
+
+	/**
+	 * Get data flags required for item by given owner
+	 * @param owner application component
+	 * @param itemId item ID
+	 * @return flags value, zero if owner is not interested in item
+	 */
+	public synchronized long getFlags(Object owner, long itemId) {
+		Subscription subscription=subscriptions.get(itemId);
+		if (subscription==null)
+			return 0;
+		Long flags=subscription.owners.get(owner);
+		return flags==null ? 0 : flags;
+	}
+
+	/**
+	 * Add data flags interest of owner to items
+	 * @param owner application component, used as reference for further unsubscribe
+	 * @param itemsIds items IDs
+	 * @param flags data flags, see Item.dataFlag and item specific flags
+	 * @param callback callback that is called once all required requests are completed, may be null
+	 */
+	public void subscribe(Object owner, Collection<Long> itemsIds, long flags, ResponseHandler callback) {
+		synchronized (this) {
+			for (Long itemId : itemsIds) {
+				Subscription subscription=subscriptions.get(itemId);
+				if (subscription==null) {
+					subscription=new Subscription();
+					subscriptions.put(itemId, subscription);
+				}
+				Long ownerFlags=subscription.owners.get(owner);
+				long newFlags=(ownerFlags==null ? 0 : ownerFlags) | flags;
+				if (ownerFlags==null || ownerFlags!=newFlags) {
+					subscription.owners.put(owner, newFlags);
+					updateRequired(itemId, subscription);
+				}
+			}
+		}
+		flush(callback);
+	}
+
+	/**
+	 * Remove data flags interest of owner from items
+	 * @param owner application component used in subscribe call
+	 * @param itemsIds items IDs
+	 * @param flags data flags to remove, pass -1 to remove all owner flags
+	 * @param callback callback that is called once all required requests are completed, may be null
+	 */
+	public void unsubscribe(Object owner, Collection<Long> itemsIds, long flags, ResponseHandler callback) {
+		synchronized (this) {
+			for (Long itemId : itemsIds) {
+				Subscription subscription=subscriptions.get(itemId);
+				if (subscription==null)
+					continue;
+				Long ownerFlags=subscription.owners.get(owner);
+				if (ownerFlags==null)
+					continue;
+				long newFlags=ownerFlags & ~flags;
+				if (newFlags==0)
+					subscription.owners.remove(owner);
+				else
+					subscription.owners.put(owner, newFlags);
+				updateRequired(itemId, subscription);
+			}
+		}
+		flush(callback);
+	}
+
+	/**
+	 * Remove all data flags interest of owner, e.g. when application component is disposed
+	 * @param owner application component used in subscribe call
+	 * @param callback callback that is called once all required requests are completed, may be null
+	 */
+	public void unsubscribeAll(Object owner, ResponseHandler callback) {
+		List<Long> itemsIds=new ArrayList<Long>();
+		synchronized (this) {
+			for (Map.Entry<Long, Subscription> entry : subscriptions.entrySet())
+				if (entry.getValue().owners.containsKey(owner))
+					itemsIds.add(entry.getKey());
+		}
+		unsubscribe(owner, itemsIds, -1, callback);
+	}
+
+	/**
+	 * Forget all subscriptions without any server calls, used on session cleanup
+	 */
+	synchronized void clear() {
+		subscriptions.clear();
+		dirtyItems.clear();
+	}
+
+	/**
+	 * Recalculate flags required by all owners of item and mark item as dirty if they differ from applied ones
+	 */
+	private void updateRequired(Long itemId, Subscription subscription) {
+		long required=0;
+		for (Long ownerFlags : subscription.owners.values())
+			required|=ownerFlags;
+		// base flag should always be set for loaded items
+		if (required!=0)
+			required|=Item.dataFlag.base.getValue();
+		subscription.required=required;
+		if (required==0 && subscription.applied==0)
+			subscriptions.remove(itemId);
+		if (required!=subscription.applied)
+			dirtyItems.add(itemId);
+		else
+			dirtyItems.remove(itemId);
+	}
+
+	/**
+	 * Send minimal flags deltas for all dirty items
+	 * @param callback user callback, may be null
+	 */
+	private void flush(ResponseHandler callback) {
+		List<Chunk> chunks=new ArrayList<Chunk>();
+		synchronized (this) {
+			// group items by identical changes, so they can be sent as one "col" spec
+			Map<Long, List<Long>> added=new LinkedHashMap<Long, List<Long>>();
+			Map<Long, List<Long>> removed=new LinkedHashMap<Long, List<Long>>();
+			List<Long> unloaded=new ArrayList<Long>();
+			Map<Long, Long> previous=new HashMap<Long, Long>();
+			for (Long itemId : dirtyItems) {
+				Subscription subscription=subscriptions.get(itemId);
+				long applied=subscription.applied;
+				long required=subscription.required;
+				previous.put(itemId, applied);
+				if (required==0) {
+					unloaded.add(itemId);
+					subscriptions.remove(itemId);
+				} else {
+					long addFlags=required & ~applied;
+					long removeFlags=applied & ~required;
+					if (removeFlags!=0)
+						addToGroup(removed, removeFlags, itemId);
+					if (addFlags!=0)
+						addToGroup(added, addFlags, itemId);
+				}
+				subscription.applied=required;
+			}
+			dirtyItems.clear();
+			// removals first, so server doesn't hold unneeded data while adding new one
+			Chunk chunk=new Chunk(previous);
+			chunk=addSpecs(chunks, chunk, MODE_SET, 0, unloaded);
+			for (Map.Entry<Long, List<Long>> entry : removed.entrySet())
+				chunk=addSpecs(chunks, chunk, MODE_REMOVE, entry.getKey(), entry.getValue());
+			for (Map.Entry<Long, List<Long>> entry : added.entrySet())
+				chunk=addSpecs(chunks, chunk, MODE_ADD, entry.getKey(), entry.getValue());
+			if (chunk.size>0)
+				chunks.add(chunk);
+		}
+		if (chunks.isEmpty()) {
+			if (callback!=null)
+				callback.onSuccess(null);
+			return;
+		}
+		sendChunks(chunks, callback);
+	}
+
+	private static void addToGroup(Map<Long, List<Long>> groups, long flags, Long itemId) {
+		List<Long> group=groups.get(flags);
+		if (group==null) {
+			group=new ArrayList<Long>();
+			groups.put(flags, group);
+		}
+		group.add(itemId);
+	}
+
+	/**
+	 * Add "col" specs for given items to chunks, splitting them by chunk size
+	 * @return chunk that is not full yet
+	 */
+	private Chunk addSpecs(List<Chunk> chunks, Chunk chunk, int mode, long flags, List<Long> itemsIds) {
+		int index=0;
+		while (index<itemsIds.size()) {
+			if (chunk.size>=chunkSize) {
+				chunks.add(chunk);
+				chunk=new Chunk(chunk.previous);
+			}
+			int count=Math.min(chunkSize-chunk.size, itemsIds.size()-index);
+			List<Long> col=itemsIds.subList(index, index+count);
+			UpdateSpec spec=new UpdateSpec();
+			spec.setType("col");
+			spec.setData(col.toArray(new Long[count]));
+			spec.setFlags(flags);
+			spec.setMode(mode);
+			chunk.specs.add(spec);
+			chunk.itemsIds.addAll(col);
+			chunk.size+=count;
+			index+=count;
+		}
+		return chunk;
+	}
+
+	private void sendChunks(List<Chunk> chunks, final ResponseHandler userCallback) {
+		final AtomicInteger pending=new AtomicInteger(chunks.size());
+		final int[] lastError=new int[1];
+		for (final Chunk chunk : chunks) {
+			session.updateDataFlags(chunk.specs.toArray(new UpdateSpec[chunk.specs.size()]), new ResponseHandler() {
+				@Override
+				public void onSuccess(String response) {
+					onChunkCompleted(0);
+				}
+
+				@Override
+				public void onFailure(int errorCode, Throwable throwableError) {
+					rollback(chunk);
+					onChunkCompleted(errorCode==0 ? 6 : errorCode);
+				}
+
+				private void onChunkCompleted(int errorCode) {
+					synchronized (lastError) {
+						if (errorCode!=0)
+							lastError[0]=errorCode;
+					}
+					// user callback is named differently, "callback" field of ResponseHandler would hide it here
+					if (pending.decrementAndGet()==0 && userCallback!=null) {
+						if (lastError[0]!=0)
+							userCallback.onFailure(lastError[0], null);
+						else
+							userCallback.onSuccess(null);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Chunk request failed: restore applied flags of its items, so they will be sent again with next change
+	 */
+	private synchronized void rollback(Chunk chunk) {
+		for (Long itemId : chunk.itemsIds) {
+			Long applied=chunk.previous.get(itemId);
+			if (applied==null)
+				continue;
+			Subscription subscription=subscriptions.get(itemId);
+			if (subscription==null) {
+				// item was unloaded by this request
+				subscription=new Subscription();
+				subscriptions.put(itemId, subscription);
+			}
+			subscription.applied=applied;
+			if (subscription.required!=applied)
+				dirtyItems.add(itemId);
+		}
+	}
+
+	private static class Subscription {
+		/** Flags by owner */
+		final Map<Object, Long> owners=new HashMap<Object, Long>(2);
+		/** Union of owners flags */
+		long required;
+		/** Flags requested from server */
+		long applied;
+	}
+
+	private static class Chunk {
+		final List<UpdateSpec> specs=new ArrayList<UpdateSpec>();
+		final List<Long> itemsIds=new ArrayList<Long>();
+		final Map<Long, Long> previous;
+		int size;
+
+		Chunk(Map<Long, Long> previous) {
+			this.previous=previous;
+		}
+	}
+}
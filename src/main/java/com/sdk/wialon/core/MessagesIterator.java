@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.core;
+
+import com.google.gson.JsonElement;
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.remote.handlers.MessagesResponseHandler;
+import com.sdk.wialon.remote.handlers.ResponseHandler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterator over messages of time interval. Interval is loaded into server side loader without messages,
+ * then messages are requested page by page with messages/get_messages. Loader is unloaded when iterator is closed,
+ * close waits for unload response.
+ * Server keeps one messages loader per session, so only one iterator or load request can be used at a time.
+ */
+public class MessagesIterator extends PagedIterator<Message> {
+	private final MessagesLoader loader;
+	private final long itemId;
+	private final long timeFrom;
+	private final long timeTo;
+	private final long flags;
+	private final long flagsMask;
+
+	MessagesIterator(MessagesLoader loader, long itemId, long timeFrom, long timeTo, long flags, long flagsMask, int pageSize) {
+		super(pageSize);
+		this.loader=loader;
+		this.itemId=itemId;
+		this.timeFrom=timeFrom;
+		this.timeTo=timeTo;
+		this.flags=flags;
+		this.flagsMask=flagsMask;
+	}
+
+	@Override
+	protected void fetchPage(final int indexFrom, final int indexTo, final CompletableFuture<List<Message>> result) {
+		if (indexFrom>0) {
+			getMessages(indexFrom, indexTo, result);
+			return;
+		}
+		// load interval into server loader, first page is requested when count is known
+		loader.loadInterval(itemId, timeFrom, timeTo, flags, flagsMask, 0, new MessagesResponseHandler() {
+			@Override
+			public void onSuccess(String response) {
+				long count=0;
+				try {
+					JsonElement json=Session.getInstance().getJsonParser().parse(response);
+					if (json.isJsonObject() && json.getAsJsonObject().has("count"))
+						count=json.getAsJsonObject().get("count").getAsLong();
+				} catch (Exception e) {
+					result.completeExceptionally(new FetchException(6, e));
+					return;
+				}
+				setTotalCount(count);
+				if (count==0)
+					result.complete(Collections.<Message>emptyList());
+				else
+					getMessages(indexFrom, (int)Math.min(indexTo, count-1), result);
+			}
+
+			@Override
+			public void onFailure(int errorCode, Throwable throwableError) {
+				result.completeExceptionally(new FetchException(errorCode, throwableError));
+			}
+		});
+	}
+
+	/**
+	 * Unload loader and wait for response, up to page timeout, so load request sent after close
+	 * is not overtaken by unload on the server
+	 */
+	@Override
+	protected void onClose() {
+		final CountDownLatch unloaded=new CountDownLatch(1);
+		loader.unload(new ResponseHandler() {
+			@Override
+			public void onSuccess(String response) {
+				unloaded.countDown();
+			}
+
+			@Override
+			public void onFailure(int errorCode, Throwable throwableError) {
+				unloaded.countDown();
+			}
+		});
+		try {
+			unloaded.await(getPageTimeout(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void getMessages(int indexFrom, int indexTo, final CompletableFuture<List<Message>> result) {
+		loader.getMessages(indexFrom, indexTo, new MessagesResponseHandler() {
+			@Override
+			public void onSuccessMessages(Message... messages) {
+				result.complete(Arrays.asList(messages));
+			}
+
+			@Override
+			public void onFailure(int errorCode, Throwable throwableError) {
+				result.completeExceptionally(new FetchException(errorCode, throwableError));
+			}
+		});
+	}
+}
@@ -16,18 +16,41 @@
 
 package com.sdk.wialon.core;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.messages.MessageBuffer;
+import com.sdk.wialon.messages.MessageDecoder;
+import com.sdk.wialon.messages.MessageFilter;
+import com.sdk.wialon.messages.PackedMessagesDecoder;
+import com.sdk.wialon.messages.ParamColumns;
+import com.sdk.wialon.messages.PositionColumns;
 import com.sdk.wialon.remote.RemoteHttpClient;
+import com.sdk.wialon.remote.handlers.BinaryResponseHandler;
 import com.sdk.wialon.remote.handlers.MessagesResponseHandler;
+import com.sdk.wialon.remote.handlers.PositionsResponseHandler;
 import com.sdk.wialon.remote.handlers.ResponseHandler;
 
+import java.nio.ByteBuffer;
+
 /**
  * Wialon messages loader object.
  * Allow to load messages from units, users, resources into session, retrieve and delete them.
  */
-public class MessagesLoader {
+public class MessagesLoader extends EventProvider {
+	/** Item which messages are loaded into loader, null if nothing loaded */
+	private volatile Long loadedItemId;
+	/** Decode parameters of loaded messages into columns */
+	private volatile boolean columnarParams;
+	/** Client side filter of loaded messages, null if messages are not filtered */
+	private volatile MessageFilter filter;
+
+	/**
+	 * Get ID of item which messages are loaded
+	 * @return item ID or null
+	 */
+	public Long getLoadedItemId() {
+		return loadedItemId;
+	}
+
 	/**
 	 * Load messages for given time interval, require ACL wialon.core.Item.accessFlag.execReports
 	 *
@@ -40,6 +63,28 @@ public class MessagesLoader {
 	 * @param callback  callback function that is called after messages are loaded, result: {count: N, messages: [...]}
 	 */
 	public void loadInterval(long itemId, long timeFrom, long timeTo, long flags, long flagsMask, int loadCount, MessagesResponseHandler callback) {
+		loadInterval(itemId, timeFrom, timeTo, flags, flagsMask, null, loadCount, callback);
+	}
+
+	/**
+	 * Load messages for given time interval with filter. Filter conditions expressed by flags are applied by server,
+	 * other conditions are checked while messages are decoded, for this and following getMessages calls,
+	 * so returned arrays can be shorter than requested and indexes refer to messages loaded on server.
+	 *
+	 * @param itemId    item Id for which to load messages
+	 * @param timeFrom  interval beginning
+	 * @param timeTo    interval ending
+	 * @param filter    messages filter
+	 * @param loadCount how many message to pass initially in callback
+	 * @param callback  callback function that is called after messages are loaded, result: {count: N, messages: [...]}
+	 */
+	public void loadInterval(long itemId, long timeFrom, long timeTo, MessageFilter filter, int loadCount, MessagesResponseHandler callback) {
+		loadInterval(itemId, timeFrom, timeTo, filter.getFlags(), filter.getFlagsMask(), filter, loadCount, callback);
+	}
+
+	private void loadInterval(long itemId, long timeFrom, long timeTo, long flags, long flagsMask, MessageFilter filter, int loadCount, MessagesResponseHandler callback) {
+		loadedItemId=itemId;
+		this.filter=filter;
 		// perform remote call for initialization
 		RemoteHttpClient.getInstance().remoteCall("messages/load_interval",
 				"{\"itemId\":" + itemId + "," +
@@ -56,6 +101,35 @@ public class MessagesLoader {
 				});
 	}
 
+	/**
+	 * Decode parameters of received messages into one ParamColumns per response instead of map per message,
+	 * parameters maps of messages become read-only views, see Message.getParameters
+	 * @param columnarParams true to enable columnar mode
+	 */
+	public void setColumnarParams(boolean columnarParams) {
+		this.columnarParams=columnarParams;
+	}
+
+	public boolean isColumnarParams() {
+		return columnarParams;
+	}
+
+	/**
+	 * Iterate over messages of time interval page by page, see MessagesIterator.
+	 * Iterator is blocking, it should not be used from callbacks of remote calls.
+	 *
+	 * @param itemId    item Id for which to load messages
+	 * @param timeFrom  interval beginning
+	 * @param timeTo    interval ending
+	 * @param flags     messages flags, see wialon.messages.Message.messageFlag for possible values
+	 * @param flagsMask messages flags mask, see wialon.messages.Message.messageFlag for possible values
+	 * @param pageSize  count of messages requested at once
+	 * @return iterator, should be closed if not iterated till the end
+	 */
+	public MessagesIterator iterateInterval(long itemId, long timeFrom, long timeTo, long flags, long flagsMask, int pageSize) {
+		return new MessagesIterator(this, itemId, timeFrom, timeTo, flags, flagsMask, pageSize);
+	}
+
 	/**
 	 * Load last N messages, require ACL wialon.core.Item.accessFlag.execReports
 	 *
@@ -68,6 +142,26 @@ public class MessagesLoader {
 	 * @param callback  callback function that is called after messages are loaded, result: {count: N, messages: [...]}
 	 */
 	public void loadLast(long itemId, long lastTime, int lastCount, long flags, long flagsMask, int loadCount, MessagesResponseHandler callback) {
+		loadLast(itemId, lastTime, lastCount, flags, flagsMask, null, loadCount, callback);
+	}
+
+	/**
+	 * Load last N messages with filter, see loadInterval with filter
+	 *
+	 * @param itemId    item Id for which to load messages
+	 * @param lastTime  time of end of interval, to get last count messages paass zero
+	 * @param lastCount how many last messages will be loaded before client side filtering
+	 * @param filter    messages filter
+	 * @param loadCount how many message to pass initially in callback
+	 * @param callback  callback function that is called after messages are loaded, result: {count: N, messages: [...]}
+	 */
+	public void loadLast(long itemId, long lastTime, int lastCount, MessageFilter filter, int loadCount, MessagesResponseHandler callback) {
+		loadLast(itemId, lastTime, lastCount, filter.getFlags(), filter.getFlagsMask(), filter, loadCount, callback);
+	}
+
+	private void loadLast(long itemId, long lastTime, int lastCount, long flags, long flagsMask, MessageFilter filter, int loadCount, MessagesResponseHandler callback) {
+		loadedItemId=itemId;
+		this.filter=filter;
 		// perform remote call for initialization
 		RemoteHttpClient.getInstance().remoteCall("messages/load_last",
 				"{\"itemId\":" + itemId + "," +
@@ -90,12 +184,22 @@ public class MessagesLoader {
 	 * @param callback callback function that is called after messages unloaded
 	 */
 	public void unload(ResponseHandler callback) {
+		loadedItemId=null;
+		filter=null;
 		// perform remote call for initialization
 		RemoteHttpClient.getInstance().remoteCall("messages/unload", "{}", callback);
 	}
 
 	/**
-	 * Get messages data for given indices
+	 * Get filter of loaded messages
+	 * @return filter passed to loadInterval or loadLast, null if messages are not filtered
+	 */
+	public MessageFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Get messages data for given indices, messages are filtered with filter of load call
 	 *
 	 * @param indexFrom {Integer} starting index (inclusive)
 	 * @param indexTo   {Integer} ending index (inclusive)
@@ -112,6 +216,36 @@ public class MessagesLoader {
 				});
 	}
 
+	/**
+	 * Get messages data for given indices into buffer instead of array, for loads which don't fit into heap.
+	 * Messages are filtered with filter of load call.
+	 *
+	 * @param indexFrom starting index (inclusive)
+	 * @param indexTo   ending index (inclusive)
+	 * @param buffer    buffer to append messages to
+	 * @param callback  callback that is called after messages are added to buffer
+	 */
+	public void getMessages(int indexFrom, int indexTo, final MessageBuffer buffer, ResponseHandler callback) {
+		RemoteHttpClient.getInstance().remoteCall("messages/get_messages",
+				"{\"indexFrom\":" + indexFrom + ",\"indexTo\":" + indexTo + "}",
+				new ResponseHandler(callback){
+					@Override
+					public void onSuccess(String response) {
+						if (response==null) {
+							super.onFailure(6, null);
+							return;
+						}
+						try {
+							buffer.readResponse(response, filter);
+						} catch (Exception e) {
+							super.onFailure(6, e);
+							return;
+						}
+						super.onSuccess(response);
+					}
+				});
+	}
+
 	/**
 	 * Delete message from database, it is not possible to delete unit last message or latest message with position information.
 	 * Require ACL wialon.core.Unit.accessFlag.deleteMessages over item.
@@ -130,39 +264,82 @@ public class MessagesLoader {
 
 	private void onMessagesReceived(String response, ResponseHandler callback){
 		if (response!=null) {
-			callback.onSuccess(response);
-			JsonElement jsonElement=Session.getInstance().getJsonParser().parse(response);
-			JsonArray messagesArray;
-			if (jsonElement.isJsonObject())
-				messagesArray=jsonElement.getAsJsonObject().get("messages").getAsJsonArray();
-			else if (jsonElement.isJsonArray())
-				messagesArray=jsonElement.getAsJsonArray();
-			else
+			Message[] messages;
+			try {
+				// messages are decoded from response text without intermediate JSON tree
+				MessageDecoder decoder=new MessageDecoder();
+				if (columnarParams)
+					decoder.setParamColumns(new ParamColumns());
+				decoder.setFilter(filter);
+				messages=decoder.readResponse(response);
+			} catch (Exception e) {
+				callback.onFailure(6, e);
 				return;
-			Message[] messages=new Message[messagesArray.size()];
-			for (int i=0; i<messagesArray.size(); i++){
-				JsonElement messageElement=messagesArray.get(i);
-				if (messageElement.isJsonObject() && messageElement.getAsJsonObject().has("f") && messageElement.getAsJsonObject().has("f")) {
-					String tp=messageElement.getAsJsonObject().get("tp").getAsString();
-					long f=messageElement.getAsJsonObject().get("f").getAsLong();
-					Message.messageFlag flag=Message.messageFlag.getMessageFlag(f);
-					if (flag==null)
-						continue;
-					Class clazz=Message.MessageType.getMessageClass(flag, tp);
-					if (clazz!=null)
-						messages[i]=(Message)Session.getInstance().getGson().fromJson(messageElement, clazz);
-				}
 			}
+			// success is reported only for decoded response
+			callback.onSuccess(response);
+			if (messages==null)
+				return;
 			if (callback instanceof MessagesResponseHandler)
 				((MessagesResponseHandler) callback).onSuccessMessages(messages);
+			fireEvent(events.messagesLoaded, this, loadedItemId, messages);
 			return;
 		}
 		callback.onFailure(6, null);
 	}
 
+	/** Events */
+	public static enum events {
+		/** messages received from server by load or get requests<br/>
+		 * {@see EventHandler#onEvent(java.lang.Enum event, java.lang.Object object, java.lang.Object oldData, java.lang.Object newData)} with:<br/>
+		 * {@code event - } {@see MessagesLoader.events#messagesLoaded}<br/>
+		 * {@code object - } {@see MessagesLoader} {@code loader}<br/>
+		 * {@code oldData - } {@see Long} {@code itemId}, null if unknown<br/>
+		 * {@code newData - } {@see Message}[] {@code messages}
+		 * */
+		messagesLoaded
+	}
+
 	public void getPackedMessages(long itemId, long timeFrom, long timeTo, ResponseHandler callback){
 		RemoteHttpClient.getInstance().remoteCall(
 				"messages/get_packed_messages",
 				"{\"itemId\":" + itemId+ ",\"timeFrom\":" + timeFrom+ ",\"timeTo\":" + timeTo+"}", callback);
 	}
+
+	/**
+	 * Get packed messages and decode positions of unit data messages, see PackedMessagesDecoder
+	 *
+	 * @param itemId   item Id for which to get messages
+	 * @param timeFrom interval beginning
+	 * @param timeTo   interval ending
+	 * @param callback callback that get positions in onSuccessPositions
+	 */
+	public void getPackedMessages(long itemId, long timeFrom, long timeTo, PositionsResponseHandler callback){
+		// binary handler has own callback field
+		final PositionsResponseHandler positionsCallback=callback;
+		RemoteHttpClient.getInstance().remoteCall(
+				"messages/get_packed_messages",
+				"{\"itemId\":" + itemId+ ",\"timeFrom\":" + timeFrom+ ",\"timeTo\":" + timeTo+"}",
+				new BinaryResponseHandler() {
+					@Override
+					public void onSuccessBinary(byte[] data) {
+						PositionColumns positions=new PositionColumns();
+						try {
+							PackedMessagesDecoder.decode(ByteBuffer.wrap(data), positions);
+						} catch (PackedMessagesDecoder.ErrorResponseException e) {
+							positionsCallback.onFailure(e.getErrorCode(), null);
+							return;
+						} catch (Exception e) {
+							positionsCallback.onFailure(6, e);
+							return;
+						}
+						positionsCallback.onSuccessPositions(positions);
+					}
+
+					@Override
+					public void onFailure(int errorCode, Throwable throwableError) {
+						positionsCallback.onFailure(errorCode, throwableError);
+					}
+				});
+	}
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.core;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Base iterator over server side collections which are requested by pages with indexFrom/indexTo.
+ * Next page is requested in background while current one is consumed, so only two pages are held in memory.
+ * Iterator is blocking, so it should not be used from callbacks of remote calls.
+ * @param <T> type of elements
+ */
+public abstract class PagedIterator<T> implements Iterator<T>, Closeable {
+	/** Default time to wait for one page, in milliseconds */
+	public static final long DEFAULT_PAGE_TIMEOUT=60*1000;
+
+	private final int pageSize;
+	private long pageTimeout=DEFAULT_PAGE_TIMEOUT;
+	/** Total count of elements, negative if unknown, may be set from callback of page request */
+	private volatile long totalCount=-1;
+	/** Index of first element of next page to request */
+	private long nextIndex;
+	private CompletableFuture<List<T>> pending;
+	private List<T> page;
+	private int position;
+	private boolean finished;
+	private boolean closed;
+
+	protected PagedIterator(int pageSize) {
+		if (pageSize<=0)
+			throw new IllegalArgumentException("Page size should be positive");
+		this.pageSize=pageSize;
+	}
+
+	/**
+	 * Request page of elements from server
+	 * @param indexFrom starting index (inclusive)
+	 * @param indexTo ending index (inclusive)
+	 * @param result future to complete with page elements or with FetchException
+	 */
+	protected abstract void fetchPage(int indexFrom, int indexTo, CompletableFuture<List<T>> result);
+
+	/**
+	 * Called once when iterator is closed or all elements are consumed
+	 */
+	protected void onClose() {
+	}
+
+	/**
+	 * Set total count of elements, if it is known, to avoid request of empty page at the end
+	 * @param totalCount elements count
+	 */
+	protected void setTotalCount(long totalCount) {
+		this.totalCount=totalCount;
+	}
+
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Max time to wait for one page
+	 * @param timeoutMs time in milliseconds
+	 */
+	public void setPageTimeout(long timeoutMs) {
+		this.pageTimeout=timeoutMs;
+	}
+
+	public long getPageTimeout() {
+		return pageTimeout;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed)
+			return false;
+		while (true) {
+			// skip elements which can't be constructed
+			while (page!=null && position<page.size() && page.get(position)==null)
+				position++;
+			if (page!=null && position<page.size())
+				return true;
+			// nothing to request, e.g. table without rows
+			if (finished || (pending==null && totalCount>=0 && nextIndex>=totalCount)) {
+				close();
+				return false;
+			}
+			if (pending==null)
+				pending=requestPage();
+			page=await(pending);
+			position=0;
+			pending=null;
+			if (page.size()<pageSize || (totalCount>=0 && nextIndex>=totalCount))
+				finished=true;
+			else
+				// prefetch next page while this one is consumed
+				pending=requestPage();
+		}
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return page.get(position++);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stop iteration, pending page request result is dropped
+	 */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed=true;
+		if (pending!=null)
+			pending.cancel(false);
+		pending=null;
+		page=null;
+		onClose();
+	}
+
+	/**
+	 * Get sequential ordered stream of elements, closing of stream closes iterator
+	 * @return stream of elements
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(new Runnable() {
+					@Override
+					public void run() {
+						close();
+					}
+				});
+	}
+
+	private CompletableFuture<List<T>> requestPage() {
+		CompletableFuture<List<T>> result=new CompletableFuture<List<T>>();
+		long indexTo=nextIndex+pageSize-1;
+		if (totalCount>=0)
+			indexTo=Math.min(indexTo, totalCount-1);
+		fetchPage((int)nextIndex, (int)indexTo, result);
+		nextIndex+=pageSize;
+		return result;
+	}
+
+	private List<T> await(CompletableFuture<List<T>> future) {
+		try {
+			return future.get(pageTimeout, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			close();
+			if (e.getCause() instanceof FetchException)
+				throw (FetchException)e.getCause();
+			throw new FetchException(5, e.getCause());
+		} catch (TimeoutException e) {
+			close();
+			throw new FetchException(5, e);
+		} catch (InterruptedException e) {
+			close();
+			Thread.currentThread().interrupt();
+			throw new FetchException(5, e);
+		}
+	}
+
+	/**
+	 * Error of page request, contains error code for Errors.getErrorText
+	 */
+	public static class FetchException extends RuntimeException {
+		private static final long serialVersionUID=1L;
+		private final int errorCode;
+
+		public FetchException(int errorCode, Throwable cause) {
+			super(Errors.getErrorText(errorCode), cause);
+			this.errorCode=errorCode;
+		}
+
+		public int getErrorCode() {
+			return errorCode;
+		}
+	}
+}
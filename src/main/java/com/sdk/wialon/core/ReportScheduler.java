@@ -0,0 +1,536 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+package com.sdk.wialon.core;
+
+import com.sdk.wialon.item.prop.Report;
+import com.sdk.wialon.item.prop.ReportResult;
+import com.sdk.wialon.remote.handlers.ReportResponseHandler;
+import com.sdk.wialon.remote.handlers.ResponseHandler;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queue of report executions for session. Server executes one report per session at a time and keeps
+ * its result until report/cleanup_result, so jobs are run one by one: exec_report, then job handler processes
+ * result, e.g. iterates table rows, then cleanup_result. Scheduler belongs to Session.getInstance(),
+ * so throughput is limited to one session.
+ * Jobs are grouped, e.g. by customer, groups share execution by weights: next job is taken from group
+ * with least run time per weight, inside of group jobs are taken by priority, then in order of submission.
+ * Group which was idle continues from least run time of active groups, so it doesn't take over the queue.
+ * Execution refused with error 1003 because of other report of session is retried after delay.
+ */
+public class ReportScheduler {
+	/** Error code of busy session */
+	private static final int BUSY_ERROR=1003;
+
+	/**
+	 * Processing of report results
+	 */
+	public interface JobHandler {
+		/**
+		 * Report is executed, its result is available on server until done is called
+		 * @param job job
+		 * @param result report result, its rows can be requested until done is called
+		 * @param done should be called when result is processed, cleanup and next job follow
+		 */
+		void onExecuted(Job job, ReportResult result, Runnable done);
+
+		/**
+		 * Report execution failed or job was cancelled
+		 * @param job job
+		 * @param errorCode error code, 0 if job was cancelled
+		 * @param throwableError error or null
+		 */
+		void onFailed(Job job, int errorCode, Throwable throwableError);
+	}
+
+	private final Map<String, Group> groups=new LinkedHashMap<String, Group>();
+	private final Metrics metrics=new Metrics();
+	private final ScheduledExecutorService timer=Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread=new Thread(runnable, "report-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private long sequence;
+	private Job running;
+	/** Running job waiting for retry after busy session error */
+	private Job retrying;
+	private boolean shutdown;
+	private long retryDelay=1000;
+	private int maxRetries=30;
+	private long processTimeout=10*60*1000;
+
+	ReportScheduler() {
+	}
+
+	/**
+	 * Delay before retry of job refused by busy session, doubled for every next retry up to 30 seconds
+	 * @param retryDelay delay, in milliseconds
+	 */
+	public synchronized void setRetryDelay(long retryDelay) {
+		this.retryDelay=retryDelay;
+	}
+
+	/**
+	 * Max count of retries of job refused by busy session
+	 */
+	public synchronized void setMaxRetries(int maxRetries) {
+		this.maxRetries=maxRetries;
+	}
+
+	/**
+	 * Max time of result processing by job handler, after it result is cleaned up and next job is started
+	 * @param processTimeout timeout, in milliseconds
+	 */
+	public synchronized void setProcessTimeout(long processTimeout) {
+		this.processTimeout=processTimeout;
+	}
+
+	/**
+	 * Set share of group, groups get execution time in proportion to weights
+	 * @param group group name
+	 * @param weight weight, default is 1
+	 */
+	public synchronized void setGroupWeight(String group, double weight) {
+		if (weight<=0)
+			throw new IllegalArgumentException("Weight should be positive");
+		getGroup(group).weight=weight;
+	}
+
+	/**
+	 * Add report execution to queue
+	 * @param report reports of resource, see Resource.getReportPlugin
+	 * @param reportId report template ID
+	 * @param reportObjectId report object ID
+	 * @param reportObjectSecId secondary report object ID
+	 * @param interval report interval
+	 * @param group group of job for fair share, null for default group
+	 * @param priority priority of job inside of group, bigger is earlier
+	 * @param handler result handler
+	 * @return job
+	 */
+	public Job submit(Report report, long reportId, long reportObjectId, long reportObjectSecId, Report.ReportInterval interval,
+					  String group, int priority, JobHandler handler) {
+		Job job;
+		synchronized (this) {
+			if (shutdown)
+				throw new IllegalStateException("Scheduler is shut down");
+			job=new Job(report, reportId, reportObjectId, reportObjectSecId, interval, group==null ? "" : group,
+					priority, handler, sequence++, now());
+			Group jobGroup=getGroup(job.group);
+			if (jobGroup.jobs.isEmpty())
+				activate(jobGroup);
+			jobGroup.jobs.add(job);
+			metrics.submitted++;
+		}
+		startNext();
+		return job;
+	}
+
+	/**
+	 * Remove job from queue, running job can't be cancelled
+	 * @param job job
+	 * @return true if job was removed, handler gets failure with zero code
+	 */
+	public boolean cancel(Job job) {
+		synchronized (this) {
+			Group group=groups.get(job.group);
+			if (group==null || !group.jobs.remove(job))
+				return false;
+			metrics.cancelled++;
+		}
+		job.handler.onFailed(job, 0, null);
+		return true;
+	}
+
+	/**
+	 * Count of jobs waiting in queue
+	 */
+	public synchronized int getQueueSize() {
+		int size=0;
+		for (Group group : groups.values())
+			size+=group.jobs.size();
+		return size;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Cancel queued jobs and stop scheduler, called on session cleanup.
+	 * Job waiting for retry after busy session error fails with that error.
+	 */
+	public void shutdown() {
+		List<Job> cancelled=new ArrayList<Job>();
+		Job failed;
+		synchronized (this) {
+			shutdown=true;
+			for (Group group : groups.values()) {
+				cancelled.addAll(group.jobs);
+				group.jobs.clear();
+			}
+			metrics.cancelled+=cancelled.size();
+			failed=retrying;
+			retrying=null;
+			if (failed!=null) {
+				running=null;
+				metrics.addRun(now()-failed.startTime, false);
+			}
+		}
+		timer.shutdownNow();
+		if (failed!=null)
+			failed.handler.onFailed(failed, BUSY_ERROR, null);
+		for (Job job : cancelled)
+			job.handler.onFailed(job, 0, null);
+	}
+
+	/**
+	 * Current time, in milliseconds
+	 */
+	long now() {
+		return System.currentTimeMillis();
+	}
+
+	private Group getGroup(String name) {
+		Group group=groups.get(name);
+		if (group==null) {
+			group=new Group();
+			groups.put(name, group);
+		}
+		return group;
+	}
+
+	/**
+	 * Move used time of idle group which gets a job up to least used time of active groups
+	 */
+	private void activate(Group group) {
+		Group runningGroup=running==null ? null : groups.get(running.group);
+		double least=Double.MAX_VALUE;
+		for (Group other : groups.values())
+			if (other!=group && (!other.jobs.isEmpty() || other==runningGroup))
+				least=Math.min(least, other.usedTime);
+		if (least!=Double.MAX_VALUE)
+			group.usedTime=Math.max(group.usedTime, least);
+	}
+
+	/**
+	 * Start next job if nothing is running
+	 */
+	private void startNext() {
+		Job job;
+		synchronized (this) {
+			if (running!=null || shutdown)
+				return;
+			Group selected=null;
+			for (Group group : groups.values())
+				if (!group.jobs.isEmpty() && (selected==null || group.usedTime<selected.usedTime))
+					selected=group;
+			if (selected==null)
+				return;
+			job=selected.jobs.poll();
+			running=job;
+			job.startTime=now();
+			metrics.addWait(job.startTime-job.submitTime);
+		}
+		execute(job);
+	}
+
+	private void execute(final Job job) {
+		job.report.execReport(job.reportId, job.reportObjectId, job.reportObjectSecId, job.interval, new ReportResponseHandler() {
+			@Override
+			public void onSuccessReport(ReportResult result) {
+				final AtomicBoolean finished=new AtomicBoolean();
+				final ScheduledFuture<?>[] timeout=new ScheduledFuture<?>[1];
+				final Runnable done=new Runnable() {
+					@Override
+					public void run() {
+						if (!finished.compareAndSet(false, true))
+							return;
+						synchronized (timeout) {
+							if (timeout[0]!=null)
+								timeout[0].cancel(false);
+						}
+						cleanup(job, true);
+					}
+				};
+				synchronized (timeout) {
+					timeout[0]=scheduleTimeout(done);
+				}
+				try {
+					job.handler.onExecuted(job, result, done);
+				} catch (RuntimeException e) {
+					if (!finished.compareAndSet(false, true))
+						return;
+					synchronized (timeout) {
+						if (timeout[0]!=null)
+							timeout[0].cancel(false);
+					}
+					// result wasn't processed
+					job.handler.onFailed(job, 6, e);
+					cleanup(job, false);
+				}
+			}
+
+			@Override
+			public void onFailure(int errorCode, Throwable throwableError) {
+				if (errorCode==BUSY_ERROR && retry(job))
+					return;
+				job.handler.onFailed(job, errorCode, throwableError);
+				cleanup(job, false);
+			}
+		});
+	}
+
+	private ScheduledFuture<?> scheduleTimeout(Runnable done) {
+		long timeout;
+		synchronized (this) {
+			if (shutdown)
+				return null;
+			timeout=processTimeout;
+		}
+		try {
+			return timer.schedule(done, timeout, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// scheduler is shut down, result is processed without timeout
+			return null;
+		}
+	}
+
+	/**
+	 * Schedule execution of job again
+	 * @return false if retries limit is reached
+	 */
+	private boolean retry(final Job job) {
+		long delay;
+		synchronized (this) {
+			if (shutdown || job.retries>=maxRetries)
+				return false;
+			delay=Math.min(retryDelay<<Math.min(job.retries, 16), 30000);
+			job.retries++;
+			metrics.retries++;
+			retrying=job;
+		}
+		try {
+			timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (ReportScheduler.this) {
+						// job is failed by shutdown
+						if (retrying!=job)
+							return;
+						retrying=null;
+					}
+					execute(job);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				if (retrying!=job)
+					// failed by shutdown
+					return true;
+				retrying=null;
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private void cleanup(final Job job, boolean executed) {
+		synchronized (this) {
+			long runTime=now()-job.startTime;
+			Group group=groups.get(job.group);
+			if (group!=null)
+				group.usedTime+=runTime/group.weight;
+			metrics.addRun(runTime, executed);
+		}
+		job.report.cleanupResult(new ResponseHandler() {
+			@Override
+			public void onSuccess(String response) {
+				finishJob();
+			}
+
+			@Override
+			public void onFailure(int errorCode, Throwable throwableError) {
+				finishJob();
+			}
+		});
+	}
+
+	private void finishJob() {
+		synchronized (this) {
+			running=null;
+		}
+		startNext();
+	}
+
+	private static final class Group {
+		private final PriorityQueue<Job> jobs=new PriorityQueue<Job>();
+		private double weight=1;
+		/** Run time of group jobs divided by weight, in milliseconds */
+		private double usedTime;
+	}
+
+	/**
+	 * Queued report execution
+	 */
+	public static class Job implements Comparable<Job> {
+		private final Report report;
+		private final long reportId;
+		private final long reportObjectId;
+		private final long reportObjectSecId;
+		private final Report.ReportInterval interval;
+		private final String group;
+		private final int priority;
+		private final JobHandler handler;
+		private final long sequence;
+		private final long submitTime;
+		private long startTime;
+		private int retries;
+
+		Job(Report report, long reportId, long reportObjectId, long reportObjectSecId, Report.ReportInterval interval,
+			String group, int priority, JobHandler handler, long sequence, long submitTime) {
+			this.report=report;
+			this.reportId=reportId;
+			this.reportObjectId=reportObjectId;
+			this.reportObjectSecId=reportObjectSecId;
+			this.interval=interval;
+			this.group=group;
+			this.priority=priority;
+			this.handler=handler;
+			this.sequence=sequence;
+			this.submitTime=submitTime;
+		}
+
+		public long getReportId() {
+			return reportId;
+		}
+
+		public long getReportObjectId() {
+			return reportObjectId;
+		}
+
+		public String getGroup() {
+			return group;
+		}
+
+		public int getPriority() {
+			return priority;
+		}
+
+		/** Time of job submission, in milliseconds */
+		public long getSubmitTime() {
+			return submitTime;
+		}
+
+		/** Count of retries because of busy session */
+		public int getRetries() {
+			return retries;
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			if (priority!=other.priority)
+				return priority>other.priority ? -1 : 1;
+			return sequence<other.sequence ? -1 : (sequence==other.sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Throughput and queue wait statistics
+	 */
+	public static class Metrics {
+		private final long startTime=System.currentTimeMillis();
+		private volatile long submitted;
+		private volatile long completed;
+		private volatile long failed;
+		private volatile long cancelled;
+		private volatile long retries;
+		private volatile long started;
+		private volatile long totalWait;
+		private volatile long maxWait;
+		private volatile long totalRun;
+
+		synchronized void addWait(long wait) {
+			started++;
+			totalWait+=wait;
+			if (wait>maxWait)
+				maxWait=wait;
+		}
+
+		synchronized void addRun(long runTime, boolean executed) {
+			totalRun+=runTime;
+			if (executed)
+				completed++;
+			else
+				failed++;
+		}
+
+		public long getSubmitted() {
+			return submitted;
+		}
+
+		/** Jobs which report was executed and processed */
+		public long getCompleted() {
+			return completed;
+		}
+
+		public long getFailed() {
+			return failed;
+		}
+
+		public long getCancelled() {
+			return cancelled;
+		}
+
+		/** Retries because of busy session */
+		public long getRetries() {
+			return retries;
+		}
+
+		/** Average time from submission to start, in milliseconds */
+		public double getAverageWait() {
+			return started==0 ? 0 : (double)totalWait/started;
+		}
+
+		/** Max time from submission to start, in milliseconds */
+		public long getMaxWait() {
+			return maxWait;
+		}
+
+		/** Average time from start to cleanup, including retries, in milliseconds */
+		public double getAverageRunTime() {
+			long finished=completed+failed;
+			return finished==0 ? 0 : (double)totalRun/finished;
+		}
+
+		/** Completed jobs per minute since scheduler creation */
+		public double getThroughput() {
+			long elapsed=System.currentTimeMillis()-startTime;
+			return elapsed<=0 ? 0 : completed*60000.0/elapsed;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.core;
+
+import com.sdk.wialon.extra.SearchSpec;
+import com.sdk.wialon.item.Item;
+import com.sdk.wialon.remote.handlers.SearchResponseHandler;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Iterator over result of core/search_items, items are requested page by page.
+ * Only first page is requested with force flag, next pages are taken from search result cached by server.
+ */
+public class SearchItemsIterator extends PagedIterator<Item> {
+	private final Session session;
+	private final SearchSpec searchSpec;
+	private final int forceRefresh;
+	private final long dataFlags;
+
+	SearchItemsIterator(Session session, SearchSpec searchSpec, int forceRefresh, long dataFlags, int pageSize) {
+		super(pageSize);
+		this.session=session;
+		this.searchSpec=searchSpec;
+		this.forceRefresh=forceRefresh;
+		this.dataFlags=dataFlags;
+	}
+
+	@Override
+	protected void fetchPage(int indexFrom, int indexTo, final CompletableFuture<List<Item>> result) {
+		session.searchItems(searchSpec, indexFrom==0 ? forceRefresh : 0, dataFlags, indexFrom, indexTo, new SearchResponseHandler() {
+			@Override
+			public void onSuccess(String response) {
+				JsonElement responseJson=response==null ? null : session.getJsonParser().parse(response);
+				if (responseJson==null || !responseJson.isJsonObject()) {
+					result.completeExceptionally(new FetchException(6, null));
+					return;
+				}
+				JsonObject searchResult=responseJson.getAsJsonObject();
+				if (searchResult.has("totalItemsCount"))
+					setTotalCount(searchResult.get("totalItemsCount").getAsLong());
+				// onSuccessSearch is not called for response without items
+				if (!searchResult.has("items") || !searchResult.get("items").isJsonArray() || !searchResult.has("dataFlags"))
+					result.complete(Collections.<Item>emptyList());
+			}
+
+			@Override
+			public void onSuccessSearch(Item... items) {
+				result.complete(Arrays.asList(items));
+			}
+
+			@Override
+			public void onFailure(int errorCode, Throwable throwableError) {
+				result.completeExceptionally(new FetchException(errorCode, throwableError));
+			}
+		});
+	}
+}
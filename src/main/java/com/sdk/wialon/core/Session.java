@@ -20,9 +20,14 @@ import com.sdk.wialon.extra.SearchSpec;
 import com.sdk.wialon.extra.UpdateSpec;
 import com.sdk.wialon.remote.RemoteHttpClient;
 import com.sdk.wialon.remote.handlers.ResponseHandler;
+import com.sdk.wialon.item.FleetStore;
 import com.sdk.wialon.item.Item;
+import com.sdk.wialon.item.ItemTypeAdapter;
+import com.sdk.wialon.item.Unit;
 import com.sdk.wialon.item.User;
 import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.messages.MessageDecoder;
+import com.sdk.wialon.messages.MessageTypeAdapter;
 import com.sdk.wialon.remote.handlers.SearchResponseHandler;
 import com.sdk.wialon.render.Renderer;
 import com.google.gson.*;
@@ -69,6 +74,17 @@ public class Session extends EventProvider {
 	private JsonObject features;
 	/** messages loader object*/
 	private MessagesLoader messagesLoader;
+	/** data flags subscriptions manager object*/
+	private DataFlagsManager dataFlagsManager;
+	private ReportScheduler reportScheduler;
+	/** Compact store of units hot state, optional */
+	private FleetStore fleetStore;
+	/** Pool for processing of big server responses */
+	private ForkJoinPool itemsPool;
+	/** Minimal count of items in response to process it in parallel */
+	private static final int PARALLEL_ITEMS_THRESHOLD=1000;
+	/** Count of items processed by one task of items pool */
+	private static final int PARALLEL_ITEMS_BATCH=250;
 
 	public static Session getInstance() {
 		return instance;
@@ -144,17 +160,26 @@ public class Session extends EventProvider {
 		this.baseUrl=baseUrl;
 		this.renderer=new Renderer();
 		this.messagesLoader=new MessagesLoader();
+		this.dataFlagsManager=new DataFlagsManager(this);
+		if (reportScheduler!=null)
+			reportScheduler.shutdown();
+		this.reportScheduler=new ReportScheduler();
 		if (httpClient==null)
 			httpClient= RemoteHttpClient.getInstance();
 		if (jsonParser==null)
 			jsonParser=new JsonParser();
-		if (gson==null)
-			gson=new GsonBuilder().registerTypeAdapter(String.class, new JsonDeserializer<String>(){
+		if (gson==null) {
+			GsonBuilder gsonBuilder=new GsonBuilder().registerTypeAdapter(String.class, new JsonDeserializer<String>(){
 				@Override
 				public String deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
 					return jsonElement.isJsonPrimitive() ? jsonElement.getAsString() : jsonElement.toString();
 				}
-			}).create();
+			});
+			// items and messages are read with streaming adapters, without reflection
+			ItemTypeAdapter.registerAll(gsonBuilder);
+			MessageTypeAdapter.registerAll(gsonBuilder);
+			gson=gsonBuilder.create();
+		}
 		return initialized=true;
 	}
 
@@ -343,6 +368,19 @@ public class Session extends EventProvider {
 				});
 	}
 
+	/**
+	 * Search for items page by page, next page is requested while current one is consumed.
+	 * Iterator is blocking, so don't use it from callbacks of remote calls.
+	 * @param searchSpec search specification, see searchItems
+	 * @param forceRefresh if non-zero value used, skip any caching and perform operation in realtime, used only for first page
+	 * @param dataFlags what data-flags returned items should have
+	 * @param pageSize how many items to request at once
+	 * @return iterator over found items, should be closed if not consumed till the end
+	 */
+	public SearchItemsIterator searchItemsPaged(SearchSpec searchSpec, int forceRefresh, long dataFlags, int pageSize) {
+		return new SearchItemsIterator(this, searchSpec, forceRefresh, dataFlags, pageSize);
+	}
+
 	/**
 	 * Search for item
 	 * @param id ID of item to search for
@@ -368,6 +406,7 @@ public class Session extends EventProvider {
 	 *		where flags: what flags to setup
 	 *		type - selector: id - item-id, item - item type, col - collection of items ID
 	 *		mode - update flags mode: 0 - set, 1 - add, 2 - remove
+	 *		When several application components load the same items use getDataFlagsManager() instead, so they don't override flags of each other.
 	 * @param callback {ResponseHandler} callback function that is called after remote call: callback(code), where zero code is success
 	 */
 	public void updateDataFlags(UpdateSpec[] spec, ResponseHandler callback) {
@@ -408,6 +447,51 @@ public class Session extends EventProvider {
 		return this.messagesLoader;
 	}
 
+	/**
+	 * Get data flags subscriptions manager for given session
+	 * @return DataFlagsManager manager
+	 */
+	public DataFlagsManager getDataFlagsManager(){
+		return this.dataFlagsManager;
+	}
+
+	/**
+	 * Get queue of report executions for given session, reports should be executed through it
+	 * when several application components run reports
+	 * @return ReportScheduler scheduler
+	 */
+	public ReportScheduler getReportScheduler(){
+		return this.reportScheduler;
+	}
+
+	/**
+	 * Keep position, last message time and counters of session units in compact store instead of unit objects,
+	 * use for big fleets. Units already registered in session are moved to new store.
+	 * @param fleetStore store or null to keep state in units
+	 */
+	public synchronized void setFleetStore(FleetStore fleetStore) {
+		if (this.fleetStore==fleetStore)
+			return;
+		Collection<Unit> units=itemsById==null ? null : getItems(Unit.class);
+		if (units!=null)
+			for (Unit unit : new ArrayList<Unit>(units)) {
+				// binding to new store moves unit from old one with its last message time
+				if (fleetStore!=null)
+					fleetStore.bind(unit);
+				else
+					this.fleetStore.release(unit);
+			}
+		this.fleetStore=fleetStore;
+	}
+
+	/**
+	 * Get compact store of units hot state
+	 * @return store or null if not used
+	 */
+	public FleetStore getFleetStore() {
+		return fleetStore;
+	}
+
 	/**
 	 * Check on initialize Wialon session
 	 * @return {boolean} initialization state
@@ -813,6 +897,15 @@ public class Session extends EventProvider {
 		classes=null;
 		renderer=null;
 		messagesLoader=null;
+		if (dataFlagsManager!=null)
+			dataFlagsManager.clear();
+		dataFlagsManager=null;
+		if (reportScheduler!=null)
+			reportScheduler.shutdown();
+		reportScheduler=null;
+		if (fleetStore!=null)
+			fleetStore.clear();
+		shutdownItemsPool();
 		features = null;
 	}
 
@@ -902,17 +995,7 @@ public class Session extends EventProvider {
 		if (itemsJson==null || !itemsJson.isJsonArray() || dataFlags==null || dataFlags.getAsNumber()==null) {
 			return;
 		}
-		JsonArray responseItems=itemsJson.getAsJsonArray();
-		Item[] items=new Item[responseItems.size()];
-		for (int i=0; i<responseItems.size(); i++) {
-			try{
-				JsonObject itemData=responseItems.get(i).getAsJsonObject();
-				Item item=constructItem(itemData, dataFlags.getAsLong());
-				items[i]=item;
-			} catch (Exception e){
-				e.printStackTrace();
-			}
-		}
+		Item[] items=constructItems(itemsJson.getAsJsonArray(), dataFlags.getAsLong());
 		if (callback instanceof  SearchResponseHandler)
 			((SearchResponseHandler)callback).onSuccessSearch(items);
 	}
@@ -929,43 +1012,86 @@ public class Session extends EventProvider {
 			return;
 		}
 		JsonArray responseItems=((JsonArray)responseJson);
-		// iterate over returned array
+		Queue<Exception> errors=new ConcurrentLinkedQueue<Exception>();
+		// construct new items, big responses are split between threads of items pool
+		Item[] newItems=new Item[responseItems.size()];
+		if (responseItems.size()>=PARALLEL_ITEMS_THRESHOLD)
+			getItemsPool().invoke(new DataFlagsUpdateTask(responseItems, newItems, 0, responseItems.size(), errors));
+		else
+			constructNewItems(responseItems, newItems, 0, responseItems.size(), errors);
+		// register, update and remove items in response order on current thread, so item events are fired sequentially
 		for (int i=0; i<responseItems.size(); i++) {
 			try {
-				// update items data, construct new items
-				long itemId=responseItems.get(i).getAsJsonObject().get("i").getAsLong();
-				long itemFlags=responseItems.get(i).getAsJsonObject().get("f").getAsLong();
-				JsonObject itemData=null;
-				if (responseItems.get(i).getAsJsonObject().get("d").isJsonObject())
-					itemData=responseItems.get(i).getAsJsonObject().get("d").getAsJsonObject();
-				// check if we need to construct this item
-				Item item=itemsById.get(itemId);
-				if (item==null && itemFlags!=0 && itemData!=null) {
-					// construct item
-					item=constructItem(itemData, itemFlags);
-					if (item!=null)
-						registerItem(item);
-				} else {
-					// remove item
-					if (itemFlags==0)
-						removeItem(item);
-					else {
-						if (item==null)
-							continue;
-						// update item
-						if (itemData!=null)
-							updateItem(item, itemData);
-						item.setDataFlags(itemFlags);
-					}
-				}
+				applyDataFlagsUpdate(responseItems.get(i).getAsJsonObject(), newItems[i]);
 			} catch (Exception e) {
 				e.printStackTrace();
-				callback.onFailure(6, e);
+				errors.add(e);
 			}
 		}
+		for (Exception e : errors)
+			callback.onFailure(6, e);
 		callback.onSuccess(result);
 	}
 
+	/**
+	 * Construct items which are new to session in part of core/update_data_flags response, no events are fired here
+	 * @param responseItems response array
+	 * @param newItems array to store constructed items in, at index of item update
+	 * @param from starting index (inclusive)
+	 * @param to ending index (exclusive)
+	 * @param errors collection to store errors in
+	 */
+	private void constructNewItems(JsonArray responseItems, Item[] newItems, int from, int to, Queue<Exception> errors) {
+		ItemClassCache classCache=new ItemClassCache();
+		for (int i=from; i<to; i++) {
+			try {
+				JsonObject itemUpdate=responseItems.get(i).getAsJsonObject();
+				long itemFlags=itemUpdate.get("f").getAsLong();
+				if (itemFlags==0 || !itemUpdate.get("d").isJsonObject() || itemsById.containsKey(itemUpdate.get("i").getAsLong()))
+					continue;
+				JsonObject itemData=itemUpdate.get("d").getAsJsonObject();
+				newItems[i]=constructItem(itemData, itemFlags, classCache.getItemClass(itemData));
+			} catch (Exception e) {
+				e.printStackTrace();
+				errors.add(e);
+			}
+		}
+	}
+
+	private void applyDataFlagsUpdate(JsonObject itemUpdate, Item newItem) {
+		if (newItem!=null) {
+			registerItem(newItem);
+			return;
+		}
+		// update items data
+		long itemId=itemUpdate.get("i").getAsLong();
+		long itemFlags=itemUpdate.get("f").getAsLong();
+		Item item=itemsById.get(itemId);
+		if (item==null)
+			return;
+		// remove item
+		if (itemFlags==0)
+			removeItem(item);
+		else {
+			// update item
+			if (itemUpdate.get("d").isJsonObject())
+				updateItem(item, itemUpdate.get("d").getAsJsonObject());
+			item.setDataFlags(itemFlags);
+		}
+	}
+
+	private synchronized ForkJoinPool getItemsPool() {
+		if (itemsPool==null)
+			itemsPool=new ForkJoinPool();
+		return itemsPool;
+	}
+
+	private synchronized void shutdownItemsPool() {
+		if (itemsPool!=null)
+			itemsPool.shutdown();
+		itemsPool=null;
+	}
+
 	/**
 	 * Handle item deletion result from server
 	 */
@@ -984,10 +1110,18 @@ public class Session extends EventProvider {
 		if (item==null || itemsById==null)
 			return;
 		itemsById.put(item.getId(), item);
+		if (fleetStore!=null && item instanceof Unit)
+			fleetStore.bind((Unit)item);
 		List <Item> itemsByCurrentType=itemsByType.get(item.getItemType());
 		if (itemsByCurrentType==null) {
-			itemsByCurrentType=Collections.synchronizedList(new ArrayList<Item>());
-			itemsByType.put(item.getItemType(), itemsByCurrentType);
+			// items can be registered from several threads of items pool
+			synchronized (itemsByType) {
+				itemsByCurrentType=itemsByType.get(item.getItemType());
+				if (itemsByCurrentType==null) {
+					itemsByCurrentType=Collections.synchronizedList(new ArrayList<Item>());
+					itemsByType.put(item.getItemType(), itemsByCurrentType);
+				}
+			}
 		}
 		itemsByCurrentType.add(item);
 	}
@@ -997,6 +1131,8 @@ public class Session extends EventProvider {
 			return;
 		// remove item from hashes
 		itemsById.remove(item.getId());
+		if (fleetStore!=null && item instanceof Unit)
+			fleetStore.release((Unit)item);
 		List<Item> itemsByCurrentType=itemsByType.get(item.getItemType());
 		if (itemsByCurrentType!=null)
 			itemsByCurrentType.remove(item);
@@ -1018,13 +1154,43 @@ public class Session extends EventProvider {
 		if (itemData==null || itemFlags==null)
 			return null;
 		Item.ItemType itemType=classes.get(itemData.get("cls").getAsInt());
-		if (itemType!=null && itemType.getItemClass()!=null) {
-			Item item=(Item)gson.fromJson(itemData, itemType.getItemClass());
-			item.setDataFlags(itemFlags);
-			return item;
-			//Todo skipped updates
+		return constructItem(itemData, itemFlags, itemType==null ? null : itemType.getItemClass());
+	}
+
+	private Item constructItem(JsonObject itemData, Long itemFlags, Class<? extends Item> itemClass) {
+		if (itemData==null || itemFlags==null || itemClass==null)
+			return null;
+		Item item=gson.fromJson(itemData, itemClass);
+		item.setDataFlags(itemFlags);
+		return item;
+		//Todo skipped updates
+	}
+
+	/**
+	 * Construct items of server response keeping their order, big responses are constructed in items pool
+	 * @param itemsData array of items data
+	 * @param itemFlags data flags of all items
+	 * @return items array, item that can't be constructed is null
+	 */
+	private Item[] constructItems(JsonArray itemsData, long itemFlags) {
+		Item[] items=new Item[itemsData.size()];
+		if (items.length>=PARALLEL_ITEMS_THRESHOLD)
+			getItemsPool().invoke(new ConstructItemsTask(itemsData, itemFlags, items, 0, items.length));
+		else
+			constructItems(itemsData, itemFlags, items, 0, items.length);
+		return items;
+	}
+
+	private void constructItems(JsonArray itemsData, long itemFlags, Item[] items, int from, int to) {
+		ItemClassCache classCache=new ItemClassCache();
+		for (int i=from; i<to; i++) {
+			try {
+				JsonObject itemData=itemsData.get(i).getAsJsonObject();
+				items[i]=constructItem(itemData, itemFlags, classCache.getItemClass(itemData));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
 		}
-		return null;
 	}
 
 	private void poolEvents() {
@@ -1075,12 +1241,12 @@ public class Session extends EventProvider {
 								else if (type.equals("m")) {// new message event
 									String tp=evtData.get("d").getAsJsonObject().get("tp").getAsString();
 									long f=evtData.get("d").getAsJsonObject().get("f").getAsLong();
-									Message.messageFlag flag=Message.messageFlag.getMessageFlag(f);
-									if (flag==null)
-										continue;
-									Class clazz=Message.MessageType.getMessageClass(flag, tp);
-									if (clazz!=null)
-										item.handleMessage((Message)gson.fromJson(evtData.get("d"), clazz));
+									Message.MessageType messageType=MessageDecoder.getMessageType(f, tp);
+									if (messageType!=null) {
+										Message message=(Message)gson.fromJson(evtData.get("d"), messageType.getMessageClass());
+										item.handleMessage(message);
+										fireEvent(Session.events.messageReceived, item, null, message);
+									}
 								} else if (type.equals("d"))
 									onItemDeleted(item);
 							}
@@ -1107,6 +1273,86 @@ public class Session extends EventProvider {
 		fireEvent(events.serverUpdated, null, null, serverTime);
 	}
 
+	/**
+	 * Task of items pool, construct new items of part of core/update_data_flags response
+	 */
+	private final class DataFlagsUpdateTask extends RecursiveAction {
+		private static final long serialVersionUID=1L;
+		private final JsonArray responseItems;
+		private final Item[] newItems;
+		private final int from;
+		private final int to;
+		private final Queue<Exception> errors;
+
+		DataFlagsUpdateTask(JsonArray responseItems, Item[] newItems, int from, int to, Queue<Exception> errors) {
+			this.responseItems=responseItems;
+			this.newItems=newItems;
+			this.from=from;
+			this.to=to;
+			this.errors=errors;
+		}
+
+		@Override
+		protected void compute() {
+			if (to-from<=PARALLEL_ITEMS_BATCH) {
+				constructNewItems(responseItems, newItems, from, to, errors);
+				return;
+			}
+			int middle=(from+to)>>>1;
+			invokeAll(new DataFlagsUpdateTask(responseItems, newItems, from, middle, errors),
+					new DataFlagsUpdateTask(responseItems, newItems, middle, to, errors));
+		}
+	}
+
+	/**
+	 * Task of items pool, construct part of items array
+	 */
+	private final class ConstructItemsTask extends RecursiveAction {
+		private static final long serialVersionUID=1L;
+		private final JsonArray itemsData;
+		private final long itemFlags;
+		private final Item[] items;
+		private final int from;
+		private final int to;
+
+		ConstructItemsTask(JsonArray itemsData, long itemFlags, Item[] items, int from, int to) {
+			this.itemsData=itemsData;
+			this.itemFlags=itemFlags;
+			this.items=items;
+			this.from=from;
+			this.to=to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to-from<=PARALLEL_ITEMS_BATCH) {
+				constructItems(itemsData, itemFlags, items, from, to);
+				return;
+			}
+			int middle=(from+to)>>>1;
+			invokeAll(new ConstructItemsTask(itemsData, itemFlags, items, from, middle),
+					new ConstructItemsTask(itemsData, itemFlags, items, middle, to));
+		}
+	}
+
+	/**
+	 * Item class lookup for batch of items, server class is resolved only when it differs from previous item one
+	 */
+	private final class ItemClassCache {
+		private int cls=-1;
+		private Class<? extends Item> itemClass;
+
+		Class<? extends Item> getItemClass(JsonObject itemData) {
+			int itemCls=itemData.get("cls").getAsInt();
+			if (itemCls!=cls) {
+				Item.ItemType itemType=classes.get(itemCls);
+				itemClass=itemType==null ? null : itemType.getItemClass();
+				cls=itemCls;
+			}
+			return itemClass;
+		}
+	}
+
 	private final class PoolEvents implements Runnable {
 
 		@Override
@@ -1135,6 +1381,14 @@ public class Session extends EventProvider {
 		 * */
 		fileUploaded,
 		/** Billing features available for current user has been changed*/
-		featuresUpdated
+		featuresUpdated,
+		/** new message for item arrived with events, fired after item has handled message<br/>
+		 * {@see EventHandler#onEvent(java.lang.Enum event, java.lang.Object object, java.lang.Object oldData, java.lang.Object newData)} with:<br/>
+		 * {@code event - } {@see Session.events#messageReceived}<br/>
+		 * {@code object - } {@see Item} {@code item}<br/>
+		 * {@code oldData - null}<br/>
+		 * {@code newData - } {@see Message} {@code message}
+		 * */
+		messageReceived
 	}
 }
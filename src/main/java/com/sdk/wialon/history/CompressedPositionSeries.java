@@ -0,0 +1,394 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.messages.PositionVisitor;
+import com.sdk.wialon.messages.UnitData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compressed in-memory series of unit positions. Times are stored as delta-of-delta, latitude and longitude
+ * as XOR with previous value, speed, course, altitude and satellites count as deltas, all with variable bit length.
+ * Positions are grouped into blocks which are decoded independently, blocks index is used to seek by time
+ * and to drop old positions. Positions should be appended in time order, older ones are ignored.
+ */
+public class CompressedPositionSeries {
+	/** Default count of positions in block */
+	public static final int DEFAULT_BLOCK_SIZE=256;
+
+	private final int blockSize;
+	private final List<Block> blocks=new ArrayList<Block>();
+	private int size;
+
+	/**
+	 * Create series
+	 * @param blockSize count of positions in block, bigger blocks compress better but seek slower
+	 */
+	public CompressedPositionSeries(int blockSize) {
+		if (blockSize<2)
+			throw new IllegalArgumentException("Block size should be at least 2");
+		this.blockSize=blockSize;
+	}
+
+	public CompressedPositionSeries() {
+		this(DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Append position
+	 * @param position position, its time is used
+	 * @return false if position is older than last one
+	 */
+	public boolean append(UnitData.Position position) {
+		return append(position.getTime(), position.getLatitude(), position.getLongitude(), position.getSpeed(),
+				position.getCourse(), position.getAltitude(), position.getSatellitesCount());
+	}
+
+	/**
+	 * Append position
+	 * @return false if position is older than last one
+	 */
+	public synchronized boolean append(long time, double latitude, double longitude, int speed, int course, int altitude, int satellites) {
+		Block block=blocks.isEmpty() ? null : blocks.get(blocks.size()-1);
+		if (block!=null && time<block.lastTime)
+			return false;
+		if (block==null || block.count==blockSize) {
+			if (block!=null)
+				block.seal();
+			block=new Block();
+			blocks.add(block);
+		}
+		block.append(time, latitude, longitude, speed, course, altitude, satellites);
+		size++;
+		return true;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Time of first position or 0 if series is empty
+	 */
+	public synchronized long getFirstTime() {
+		return blocks.isEmpty() ? 0 : blocks.get(0).firstTime;
+	}
+
+	/**
+	 * Time of last position or 0 if series is empty
+	 */
+	public synchronized long getLastTime() {
+		return blocks.isEmpty() ? 0 : blocks.get(blocks.size()-1).lastTime;
+	}
+
+	/**
+	 * Approximate heap size of compressed data, in bytes
+	 */
+	public synchronized long getMemoryBytes() {
+		long bytes=0;
+		for (Block block : blocks)
+			bytes+=48+block.bits.words.length*8L;
+		return bytes;
+	}
+
+	/**
+	 * Drop whole blocks which positions are all older than given time, e.g. to keep trail of last 24 hours
+	 * @param time time of oldest position to keep
+	 * @return count of dropped positions
+	 */
+	public synchronized int trim(long time) {
+		int dropped=0;
+		int blocksCount=0;
+		while (blocksCount<blocks.size()-1 && blocks.get(blocksCount).lastTime<time)
+			dropped+=blocks.get(blocksCount++).count;
+		if (blocksCount>0) {
+			blocks.subList(0, blocksCount).clear();
+			size-=dropped;
+		}
+		return dropped;
+	}
+
+	/**
+	 * Decode all positions
+	 * @param visitor positions receiver
+	 */
+	public void forEach(PositionVisitor visitor) {
+		forEach(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+	}
+
+	/**
+	 * Decode positions of time interval, blocks before interval are not decoded
+	 * @param timeFrom interval beginning, inclusive
+	 * @param timeTo interval ending, inclusive
+	 * @param visitor positions receiver
+	 * @return count of visited positions
+	 */
+	public synchronized int forEach(long timeFrom, long timeTo, PositionVisitor visitor) {
+		int low=0, high=blocks.size();
+		// first block which ends not before interval beginning
+		while (low<high) {
+			int middle=(low+high)>>>1;
+			if (blocks.get(middle).lastTime<timeFrom)
+				low=middle+1;
+			else
+				high=middle;
+		}
+		int visited=0;
+		for (int i=low; i<blocks.size(); i++) {
+			Block block=blocks.get(i);
+			if (block.firstTime>timeTo)
+				break;
+			visited+=block.decode(timeFrom, timeTo, visitor);
+		}
+		return visited;
+	}
+
+	/**
+	 * Block of positions, first position is stored with full values
+	 */
+	private static final class Block {
+		private final BitOutput bits=new BitOutput();
+		private int count;
+		private long firstTime;
+		private long lastTime;
+		// encoder state
+		private long lastDelta;
+		private final XorState latitude=new XorState();
+		private final XorState longitude=new XorState();
+		private int lastSpeed;
+		private int lastCourse;
+		private int lastAltitude;
+		private int lastSatellites;
+
+		void append(long time, double latitude, double longitude, int speed, int course, int altitude, int satellites) {
+			if (count==0) {
+				firstTime=time;
+				bits.write(time, 64);
+				this.latitude.first(bits, Double.doubleToRawLongBits(latitude));
+				this.longitude.first(bits, Double.doubleToRawLongBits(longitude));
+				bits.write(speed, 32);
+				bits.write(course, 32);
+				bits.write(altitude, 32);
+				bits.write(satellites, 32);
+			} else {
+				long delta=time-lastTime;
+				writeDelta(bits, delta-lastDelta);
+				lastDelta=delta;
+				this.latitude.write(bits, Double.doubleToRawLongBits(latitude));
+				this.longitude.write(bits, Double.doubleToRawLongBits(longitude));
+				writeDelta(bits, speed-lastSpeed);
+				writeDelta(bits, course-lastCourse);
+				writeDelta(bits, altitude-lastAltitude);
+				writeDelta(bits, satellites-lastSatellites);
+			}
+			lastTime=time;
+			lastSpeed=speed;
+			lastCourse=course;
+			lastAltitude=altitude;
+			lastSatellites=satellites;
+			count++;
+		}
+
+		/**
+		 * Release unused capacity of full block
+		 */
+		void seal() {
+			bits.trim();
+		}
+
+		int decode(long timeFrom, long timeTo, PositionVisitor visitor) {
+			BitInput in=new BitInput(bits);
+			XorState latitudeState=new XorState();
+			XorState longitudeState=new XorState();
+			long time=in.read(64);
+			long delta=0;
+			long latitudeBits=latitudeState.first(in);
+			long longitudeBits=longitudeState.first(in);
+			int speed=(int)in.read(32);
+			int course=(int)in.read(32);
+			int altitude=(int)in.read(32);
+			int satellites=(int)in.read(32);
+			int visited=0;
+			for (int i=0; ; ) {
+				if (time>timeTo)
+					break;
+				if (time>=timeFrom) {
+					visitor.visit(time, Double.longBitsToDouble(latitudeBits), Double.longBitsToDouble(longitudeBits),
+							speed, course, altitude, satellites);
+					visited++;
+				}
+				if (++i==count)
+					break;
+				delta+=readDelta(in);
+				time+=delta;
+				latitudeBits=latitudeState.read(in);
+				longitudeBits=longitudeState.read(in);
+				speed+=(int)readDelta(in);
+				course+=(int)readDelta(in);
+				altitude+=(int)readDelta(in);
+				satellites+=(int)readDelta(in);
+			}
+			return visited;
+		}
+	}
+
+	/**
+	 * Write signed value with prefix code: 0 - zero, 10 - 7 bits, 110 - 9 bits, 1110 - 12 bits, 1111 - 32 bits
+	 */
+	private static void writeDelta(BitOutput out, long value) {
+		if (value==0)
+			out.write(0, 1);
+		else if (value>=-63 && value<=64) {
+			out.write(2, 2);
+			out.write(value+63, 7);
+		} else if (value>=-255 && value<=256) {
+			out.write(6, 3);
+			out.write(value+255, 9);
+		} else if (value>=-2047 && value<=2048) {
+			out.write(14, 4);
+			out.write(value+2047, 12);
+		} else {
+			out.write(15, 4);
+			out.write(value, 32);
+		}
+	}
+
+	private static long readDelta(BitInput in) {
+		if (in.read(1)==0)
+			return 0;
+		if (in.read(1)==0)
+			return in.read(7)-63;
+		if (in.read(1)==0)
+			return in.read(9)-255;
+		if (in.read(1)==0)
+			return in.read(12)-2047;
+		return (int)in.read(32);
+	}
+
+	/**
+	 * XOR encoding of double values: 0 - same value, 10 - meaningful bits within previous leading and trailing zeros,
+	 * 11 - 5 bits of leading zeros count, 6 bits of meaningful bits length and meaningful bits
+	 */
+	private static final class XorState {
+		private long previous;
+		private int leading=-1;
+		private int trailing;
+
+		void first(BitOutput out, long value) {
+			out.write(value, 64);
+			previous=value;
+		}
+
+		long first(BitInput in) {
+			previous=in.read(64);
+			return previous;
+		}
+
+		void write(BitOutput out, long value) {
+			long xor=value^previous;
+			previous=value;
+			if (xor==0) {
+				out.write(0, 1);
+				return;
+			}
+			int leadingZeros=Math.min(Long.numberOfLeadingZeros(xor), 31);
+			int trailingZeros=Long.numberOfTrailingZeros(xor);
+			if (leading>=0 && leadingZeros>=leading && trailingZeros>=trailing) {
+				out.write(2, 2);
+				out.write(xor>>>trailing, 64-leading-trailing);
+				return;
+			}
+			leading=leadingZeros;
+			trailing=trailingZeros;
+			int length=64-leading-trailing;
+			out.write(3, 2);
+			out.write(leading, 5);
+			out.write(length-1, 6);
+			out.write(xor>>>trailing, length);
+		}
+
+		long read(BitInput in) {
+			if (in.read(1)==0)
+				return previous;
+			if (in.read(1)==1) {
+				leading=(int)in.read(5);
+				trailing=64-leading-((int)in.read(6)+1);
+			}
+			previous^=in.read(64-leading-trailing)<<trailing;
+			return previous;
+		}
+	}
+
+	private static long mask(int bits) {
+		return bits==64 ? -1L : (1L<<bits)-1;
+	}
+
+	private static final class BitOutput {
+		private long[] words=new long[16];
+		private int length;
+
+		void write(long value, int bits) {
+			if (bits==0)
+				return;
+			if (length+bits>words.length*64)
+				words=Arrays.copyOf(words, words.length*2);
+			int index=length>>>6;
+			int free=64-(length & 63);
+			value&=mask(bits);
+			if (bits<=free)
+				words[index]|=value<<(free-bits);
+			else {
+				int rest=bits-free;
+				words[index]|=value>>>rest;
+				words[index+1]|=value<<(64-rest);
+			}
+			length+=bits;
+		}
+
+		void trim() {
+			words=Arrays.copyOf(words, (length+63)>>>6);
+		}
+	}
+
+	private static final class BitInput {
+		private final long[] words;
+		private int position;
+
+		BitInput(BitOutput out) {
+			this.words=out.words;
+		}
+
+		long read(int bits) {
+			if (bits==0)
+				return 0;
+			int index=position>>>6;
+			int free=64-(position & 63);
+			long value;
+			if (bits<=free)
+				value=(words[index]>>>(free-bits)) & mask(bits);
+			else {
+				int rest=bits-free;
+				value=((words[index] & mask(free))<<rest) | (words[index+1]>>>(64-rest));
+			}
+			position+=bits;
+			return value;
+		}
+	}
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.core.MessagesLoader;
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.remote.handlers.MessagesResponseHandler;
+
+import java.util.*;
+
+/**
+ * Cache of loaded messages in front of session messages loader.
+ * Remembers time intervals already loaded for item, flags and flags mask, loads only missing gaps
+ * and returns messages merged in time order. Intervals after last known server time are not cached,
+ * new messages can still arrive there. Requests are executed one by one, server keeps one loader per session.
+ */
+public class HistoryCache {
+	/** loadCount to get all messages of interval in load_interval response */
+	private static final int LOAD_ALL=Integer.MAX_VALUE;
+
+	private final int maxMessages;
+	private int messagesCount;
+	/** Cached entries in access order */
+	private final LinkedHashMap<Key, Entry> entries=new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	/** Requests waiting for messages loader */
+	private final Queue<Request> requests=new ArrayDeque<Request>();
+	/** Request in progress and its gaps left to load */
+	private Request current;
+	private List<long[]> currentGaps;
+	/** Gap of current request is being loaded from server */
+	private boolean loading;
+	/** Some thread executes requests loop */
+	private boolean running;
+	/** Loop should check requests again, set when loop is resumed while it is running */
+	private boolean resumed;
+
+	/**
+	 * Create cache
+	 * @param maxMessages max count of cached messages, least recently used entries are dropped
+	 */
+	public HistoryCache(int maxMessages) {
+		this.maxMessages=maxMessages;
+	}
+
+	/**
+	 * Get messages for given time interval, see MessagesLoader.loadInterval.
+	 * Messages are passed to onSuccessMessages only, without server response text.
+	 * @param itemId item ID
+	 * @param timeFrom interval beginning
+	 * @param timeTo interval ending
+	 * @param flags messages flags
+	 * @param flagsMask messages flags mask
+	 * @param callback callback that get messages sorted by time
+	 */
+	public void loadInterval(long itemId, long timeFrom, long timeTo, long flags, long flagsMask, MessagesResponseHandler callback) {
+		synchronized (this) {
+			requests.add(new Request(new Key(itemId, flags, flagsMask), timeFrom, timeTo, callback));
+		}
+		processRequests();
+	}
+
+	/**
+	 * Drop cached messages of item
+	 * @param itemId item ID
+	 */
+	public synchronized void invalidate(long itemId) {
+		Iterator<Map.Entry<Key, Entry>> iterator=entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, Entry> entry=iterator.next();
+			if (entry.getKey().itemId==itemId) {
+				messagesCount-=entry.getValue().messages.size();
+				iterator.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		messagesCount=0;
+	}
+
+	/**
+	 * Count of cached messages
+	 */
+	public synchronized int getMessagesCount() {
+		return messagesCount;
+	}
+
+	/**
+	 * Execute queued requests in loop until queue is empty or gap is loaded from server.
+	 * Completed requests and loaded gaps resume the loop instead of recursive calls, so stack doesn't grow with queue length.
+	 */
+	private void processRequests() {
+		synchronized (this) {
+			if (running) {
+				resumed=true;
+				return;
+			}
+			running=true;
+		}
+		while (true) {
+			if (!processStep())
+				synchronized (this) {
+					if (!resumed) {
+						running=false;
+						return;
+					}
+					resumed=false;
+				}
+		}
+	}
+
+	/**
+	 * Do one step of current request: take next request, complete request or start loading of gap
+	 * @return false if there is nothing to do until gap is loaded or new request is added
+	 */
+	private boolean processStep() {
+		final Request request;
+		final long[] gap;
+		Message[] messages=null;
+		synchronized (this) {
+			if (loading)
+				return false;
+			if (current==null) {
+				current=requests.poll();
+				if (current==null)
+					return false;
+				currentGaps=getGaps(current);
+			}
+			request=current;
+			if (currentGaps.isEmpty()) {
+				gap=null;
+				messages=getMessages(request);
+				current=null;
+			} else {
+				gap=currentGaps.remove(0);
+				loading=true;
+			}
+		}
+		if (gap==null) {
+			try {
+				request.callback.onSuccessMessages(messages);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			return true;
+		}
+		MessagesLoader loader=Session.getInstance().getMessagesLoader();
+		if (loader==null) {
+			onFailure(request, 2, null);
+			return true;
+		}
+		loader.loadInterval(request.key.itemId, gap[0], gap[1], request.key.flags, request.key.flagsMask, LOAD_ALL, new MessagesResponseHandler() {
+			@Override
+			public void onSuccessMessages(Message... messages) {
+				synchronized (HistoryCache.this) {
+					putMessages(request, gap[0], gap[1], messages);
+					request.loaded.addAll(getUncached(request.key, gap[1], messages));
+					loading=false;
+				}
+				processRequests();
+			}
+
+			@Override
+			public void onFailure(int errorCode, Throwable throwableError) {
+				HistoryCache.this.onFailure(request, errorCode, throwableError);
+				processRequests();
+			}
+		});
+		return false;
+	}
+
+	private synchronized List<long[]> getGaps(Request request) {
+		Entry entry=entries.get(request.key);
+		List<long[]> gaps=new ArrayList<long[]>();
+		long from=request.timeFrom;
+		if (entry!=null)
+			for (long[] interval : entry.intervals) {
+				if (interval[1]<from)
+					continue;
+				if (interval[0]>request.timeTo)
+					break;
+				if (interval[0]>from)
+					gaps.add(new long[] {from, interval[0]-1});
+				from=interval[1]+1;
+			}
+		if (from<=request.timeTo)
+			gaps.add(new long[] {from, request.timeTo});
+		return gaps;
+	}
+
+	private void onFailure(Request request, int errorCode, Throwable throwableError) {
+		synchronized (this) {
+			loading=false;
+			current=null;
+		}
+		try {
+			request.callback.onFailure(errorCode, throwableError);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Put messages of loaded gap into cache, only part before server time is cached
+	 */
+	private void putMessages(Request request, long timeFrom, long timeTo, Message[] messages) {
+		Key key=request.key;
+		long cachedTo=Math.min(timeTo, Session.getInstance().getServerTime());
+		if (cachedTo<timeFrom)
+			return;
+		Entry entry=entries.get(key);
+		if (entry==null) {
+			entry=new Entry();
+			entries.put(key, entry);
+		}
+		List<Message> loaded=new ArrayList<Message>();
+		for (Message message : messages)
+			if (message!=null && message.getTime()<=cachedTo)
+				loaded.add(message);
+		Collections.sort(loaded, TIME_ORDER);
+		// gap doesn't intersect cached intervals, insert messages as one block
+		int index=search(entry.messages, timeFrom);
+		entry.messages.addAll(index, loaded);
+		messagesCount+=loaded.size();
+		entry.addInterval(timeFrom, cachedTo);
+		evict(key);
+		if (messagesCount>maxMessages) {
+			// entry of request alone is above limit: keep its messages for request only
+			int from=search(entry.messages, request.timeFrom);
+			int to=search(entry.messages, request.timeTo+1);
+			request.loaded.addAll(entry.messages.subList(from, to));
+			messagesCount-=entry.messages.size();
+			entries.remove(key);
+		}
+	}
+
+	/**
+	 * Messages of loaded gap which were not cached because they are after server time
+	 */
+	private List<Message> getUncached(Key key, long timeTo, Message[] messages) {
+		long cachedTo=Math.min(timeTo, Session.getInstance().getServerTime());
+		List<Message> uncached=new ArrayList<Message>();
+		for (Message message : messages)
+			if (message!=null && message.getTime()>cachedTo)
+				uncached.add(message);
+		return uncached;
+	}
+
+	private Message[] getMessages(Request request) {
+		List<Message> result=new ArrayList<Message>();
+		Entry entry=entries.get(request.key);
+		if (entry!=null) {
+			int from=search(entry.messages, request.timeFrom);
+			int to=search(entry.messages, request.timeTo+1);
+			result.addAll(entry.messages.subList(from, to));
+		}
+		if (!request.loaded.isEmpty()) {
+			result.addAll(request.loaded);
+			Collections.sort(result, TIME_ORDER);
+		}
+		return result.toArray(new Message[result.size()]);
+	}
+
+	private void evict(Key current) {
+		Iterator<Map.Entry<Key, Entry>> iterator=entries.entrySet().iterator();
+		while (messagesCount>maxMessages && iterator.hasNext()) {
+			Map.Entry<Key, Entry> entry=iterator.next();
+			if (entry.getKey().equals(current))
+				continue;
+			messagesCount-=entry.getValue().messages.size();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Index of first message with time not less than given
+	 */
+	private static int search(List<Message> messages, long time) {
+		int low=0, high=messages.size();
+		while (low<high) {
+			int middle=(low+high)>>>1;
+			if (messages.get(middle).getTime()<time)
+				low=middle+1;
+			else
+				high=middle;
+		}
+		return low;
+	}
+
+	private static final Comparator<Message> TIME_ORDER=new Comparator<Message>() {
+		@Override
+		public int compare(Message first, Message second) {
+			return first.getTime()<second.getTime() ? -1 : (first.getTime()==second.getTime() ? 0 : 1);
+		}
+	};
+
+	private static final class Key {
+		private final long itemId;
+		private final long flags;
+		private final long flagsMask;
+
+		Key(long itemId, long flags, long flagsMask) {
+			this.itemId=itemId;
+			this.flags=flags;
+			this.flagsMask=flagsMask;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key))
+				return false;
+			Key key=(Key)object;
+			return itemId==key.itemId && flags==key.flags && flagsMask==key.flagsMask;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int)(itemId*31+flags)*31+(int)flagsMask;
+		}
+	}
+
+	/**
+	 * Cached messages of one key
+	 */
+	private static final class Entry {
+		/** Sorted disjoint loaded intervals */
+		private final List<long[]> intervals=new ArrayList<long[]>();
+		/** Messages sorted by time */
+		private final List<Message> messages=new ArrayList<Message>();
+
+		void addInterval(long timeFrom, long timeTo) {
+			int index=0;
+			while (index<intervals.size() && intervals.get(index)[1]<timeFrom-1)
+				index++;
+			// merge with touching and overlapping intervals
+			while (index<intervals.size() && intervals.get(index)[0]<=timeTo+1) {
+				long[] interval=intervals.remove(index);
+				timeFrom=Math.min(timeFrom, interval[0]);
+				timeTo=Math.max(timeTo, interval[1]);
+			}
+			intervals.add(index, new long[] {timeFrom, timeTo});
+		}
+	}
+
+	private static final class Request {
+		private final Key key;
+		private final long timeFrom;
+		private final long timeTo;
+		private final MessagesResponseHandler callback;
+		/** Loaded messages which are not cached */
+		private final List<Message> loaded=new ArrayList<Message>();
+
+		Request(Key key, long timeFrom, long timeTo, MessagesResponseHandler callback) {
+			this.key=key;
+			this.timeFrom=timeFrom;
+			this.timeTo=timeTo;
+			this.callback=callback;
+		}
+	}
+}
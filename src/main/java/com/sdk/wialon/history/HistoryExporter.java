@@ -0,0 +1,337 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.core.MessagesIterator;
+import com.sdk.wialon.core.MessagesLoader;
+import com.sdk.wialon.core.PagedIterator;
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.messages.Message;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Export of messages history of many units. Work is split into chunks by unit and time interval,
+ * chunks are passed to consumer in order: by units, then by time.
+ * Export works through Session.getInstance(), so throughput is limited to one session: chunks are downloaded
+ * one by one in background thread while consumer processes previous ones.
+ * Processed chunks are written to optional checkpoint file and skipped when export is started again.
+ * Run is blocking, it should not be called from callbacks of remote calls.
+ */
+public class HistoryExporter {
+	/** Count of downloaded chunks waiting for consumer */
+	private static final int QUEUE_SIZE=2;
+	/** Messages page size for chunk download */
+	private static final int PAGE_SIZE=10000;
+
+	/**
+	 * Receiver of downloaded chunks
+	 */
+	public interface ChunkConsumer {
+		/**
+		 * Process messages of one chunk, chunk is written to checkpoint after successful return
+		 * @param unitId unit ID
+		 * @param timeFrom chunk beginning
+		 * @param timeTo chunk ending
+		 * @param messages messages sorted by time
+		 */
+		void onChunk(long unitId, long timeFrom, long timeTo, List<Message> messages) throws Exception;
+	}
+
+	private final List<Long> unitIds;
+	private final long timeFrom;
+	private final long timeTo;
+	private final long chunkInterval;
+	private long flags;
+	private long flagsMask;
+	private int maxRetries=2;
+	private File checkpointFile;
+	private final Metrics metrics=new Metrics();
+	private volatile boolean cancelled;
+
+	/**
+	 * Create exporter
+	 * @param unitIds units to export
+	 * @param timeFrom interval beginning
+	 * @param timeTo interval ending
+	 * @param chunkInterval length of one chunk, in seconds, e.g. 86400 for daily chunks
+	 */
+	public HistoryExporter(Collection<Long> unitIds, long timeFrom, long timeTo, long chunkInterval) {
+		if (chunkInterval<=0)
+			throw new IllegalArgumentException("Chunk interval should be positive");
+		this.unitIds=new ArrayList<Long>(unitIds);
+		this.timeFrom=timeFrom;
+		this.timeTo=timeTo;
+		this.chunkInterval=chunkInterval;
+	}
+
+	/**
+	 * Messages flags filter, see MessagesLoader.loadInterval
+	 */
+	public void setFlags(long flags, long flagsMask) {
+		this.flags=flags;
+		this.flagsMask=flagsMask;
+	}
+
+	/**
+	 * Count of additional download attempts of failed chunk
+	 */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries=maxRetries;
+	}
+
+	/**
+	 * File with processed chunks, used to resume interrupted export
+	 */
+	public void setCheckpointFile(File checkpointFile) {
+		this.checkpointFile=checkpointFile;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Stop export after current chunk
+	 */
+	public void cancel() {
+		cancelled=true;
+	}
+
+	/**
+	 * Export history, blocks until all chunks are processed or export is cancelled.
+	 * Unexpected download error stops export and is thrown from here.
+	 * @param consumer chunks receiver
+	 * @return export metrics
+	 */
+	public Metrics run(ChunkConsumer consumer) throws Exception {
+		final MessagesLoader loader=Session.getInstance().getMessagesLoader();
+		if (loader==null)
+			throw new IllegalStateException("Session is not initialized");
+		Set<String> processed=readCheckpoint();
+		final List<Chunk> chunks=new ArrayList<Chunk>();
+		for (long unitId : unitIds)
+			for (long from=timeFrom; from<=timeTo; from+=chunkInterval) {
+				Chunk chunk=new Chunk(unitId, from, Math.min(from+chunkInterval-1, timeTo));
+				if (processed.contains(chunk.toString()))
+					metrics.chunksSkipped++;
+				else
+					chunks.add(chunk);
+			}
+		metrics.chunksTotal=chunks.size()+metrics.chunksSkipped;
+		metrics.startTime=System.currentTimeMillis();
+
+		final BlockingQueue<Chunk> downloaded=new ArrayBlockingQueue<Chunk>(QUEUE_SIZE);
+		Thread downloader=new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (Chunk chunk : chunks) {
+						if (cancelled)
+							break;
+						try {
+							download(loader, chunk);
+						} catch (Throwable e) {
+							// unexpected failure, pass it to consumer thread and stop download
+							chunk.error=e;
+							chunk.fatal=true;
+							downloaded.put(chunk);
+							break;
+						}
+						downloaded.put(chunk);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					try {
+						downloaded.put(Chunk.END);
+					} catch (InterruptedException e) {
+						// consumer has stopped
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, "history-exporter");
+		downloader.setDaemon(true);
+		downloader.start();
+
+		Writer checkpoint=checkpointFile==null ? null : new BufferedWriter(new FileWriter(checkpointFile, true));
+		try {
+			while (true) {
+				Chunk chunk=downloaded.take();
+				if (chunk==Chunk.END)
+					break;
+				if (chunk.error!=null) {
+					metrics.chunksFailed++;
+					metrics.failedChunks.add(chunk.toString());
+					if (chunk.fatal) {
+						if (chunk.error instanceof Error)
+							throw (Error)chunk.error;
+						if (chunk.error instanceof Exception)
+							throw (Exception)chunk.error;
+						throw new Exception(chunk.error);
+					}
+					continue;
+				}
+				long started=System.nanoTime();
+				consumer.onChunk(chunk.unitId, chunk.timeFrom, chunk.timeTo, chunk.messages);
+				metrics.processNanos+=System.nanoTime()-started;
+				metrics.chunksDone++;
+				if (checkpoint!=null) {
+					checkpoint.write(chunk.toString());
+					checkpoint.write('\n');
+					checkpoint.flush();
+				}
+				// release messages of processed chunk
+				chunk.messages=null;
+			}
+		} finally {
+			cancelled=true;
+			downloader.interrupt();
+			if (checkpoint!=null)
+				checkpoint.close();
+			metrics.endTime=System.currentTimeMillis();
+		}
+		return metrics;
+	}
+
+	void download(MessagesLoader loader, Chunk chunk) {
+		long started=System.nanoTime();
+		for (int attempt=0; attempt<=maxRetries && !cancelled; attempt++) {
+			MessagesIterator iterator=loader.iterateInterval(chunk.unitId, chunk.timeFrom, chunk.timeTo, flags, flagsMask, PAGE_SIZE);
+			try {
+				List<Message> messages=new ArrayList<Message>();
+				while (iterator.hasNext())
+					messages.add(iterator.next());
+				chunk.messages=messages;
+				chunk.error=null;
+				synchronized (metrics) {
+					metrics.messages+=messages.size();
+				}
+				break;
+			} catch (PagedIterator.FetchException e) {
+				chunk.error=e;
+			} finally {
+				iterator.close();
+			}
+		}
+		synchronized (metrics) {
+			metrics.downloadNanos+=System.nanoTime()-started;
+		}
+	}
+
+	private Set<String> readCheckpoint() throws IOException {
+		Set<String> processed=new HashSet<String>();
+		if (checkpointFile==null || !checkpointFile.isFile())
+			return processed;
+		BufferedReader reader=new BufferedReader(new FileReader(checkpointFile));
+		try {
+			String line;
+			while ((line=reader.readLine())!=null)
+				if (!line.isEmpty())
+					processed.add(line);
+		} finally {
+			reader.close();
+		}
+		return processed;
+	}
+
+	static final class Chunk {
+		/** Marker of end of download */
+		private static final Chunk END=new Chunk(0, 0, 0);
+		private final long unitId;
+		private final long timeFrom;
+		private final long timeTo;
+		private List<Message> messages;
+		private Throwable error;
+		/** Download stopped on this chunk */
+		private boolean fatal;
+
+		Chunk(long unitId, long timeFrom, long timeTo) {
+			this.unitId=unitId;
+			this.timeFrom=timeFrom;
+			this.timeTo=timeTo;
+		}
+
+		@Override
+		public String toString() {
+			return unitId+" "+timeFrom+" "+timeTo;
+		}
+	}
+
+	/**
+	 * Export progress and throughput
+	 */
+	public static class Metrics {
+		private volatile int chunksTotal;
+		private volatile int chunksDone;
+		private volatile int chunksSkipped;
+		private volatile int chunksFailed;
+		private volatile long messages;
+		private volatile long downloadNanos;
+		private volatile long processNanos;
+		private volatile long startTime;
+		private volatile long endTime;
+		private final List<String> failedChunks=Collections.synchronizedList(new ArrayList<String>());
+
+		public int getChunksTotal() {
+			return chunksTotal;
+		}
+
+		public int getChunksDone() {
+			return chunksDone;
+		}
+
+		/** Chunks processed by previous runs, taken from checkpoint */
+		public int getChunksSkipped() {
+			return chunksSkipped;
+		}
+
+		public int getChunksFailed() {
+			return chunksFailed;
+		}
+
+		/** Failed chunks in form "unitId timeFrom timeTo" */
+		public List<String> getFailedChunks() {
+			return failedChunks;
+		}
+
+		/** Count of downloaded messages */
+		public long getMessages() {
+			return messages;
+		}
+
+		/** Time spent on download, in milliseconds */
+		public long getDownloadTime() {
+			return downloadNanos/1000000;
+		}
+
+		/** Time spent in consumer, in milliseconds */
+		public long getProcessTime() {
+			return processNanos/1000000;
+		}
+
+		/** Downloaded messages per second of export time */
+		public double getMessagesPerSecond() {
+			long elapsed=(endTime>0 ? endTime : System.currentTimeMillis())-startTime;
+			return startTime==0 || elapsed<=0 ? 0 : messages*1000.0/elapsed;
+		}
+	}
+}
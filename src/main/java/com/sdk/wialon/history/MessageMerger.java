@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.messages.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * K-way merge of message lists sorted by time. Messages of different lists with equal time, flags and type
+ * are treated as duplicates, e.g. messages at boundaries of overlapping time slices, and only first one is kept.
+ * Messages with equal time are ordered by index of list.
+ */
+public final class MessageMerger {
+	private MessageMerger() {
+	}
+
+	/**
+	 * Merge sorted lists
+	 * @param sources lists sorted by message time, null messages are skipped
+	 * @return merged list sorted by time
+	 */
+	public static List<Message> merge(List<? extends List<Message>> sources) {
+		int total=0;
+		PriorityQueue<Cursor> queue=new PriorityQueue<Cursor>(Math.max(sources.size(), 1));
+		for (int i=0; i<sources.size(); i++) {
+			List<Message> source=sources.get(i);
+			if (source==null)
+				continue;
+			total+=source.size();
+			Cursor cursor=new Cursor(source, i);
+			if (cursor.advance())
+				queue.add(cursor);
+		}
+		List<Message> result=new ArrayList<Message>(total);
+		// messages with time of last emitted message, duplicates can be only among them
+		List<Message> sameTime=new ArrayList<Message>();
+		List<Integer> sameTimeSources=new ArrayList<Integer>();
+		while (!queue.isEmpty()) {
+			Cursor cursor=queue.poll();
+			Message message=cursor.current;
+			if (!sameTime.isEmpty() && sameTime.get(0).getTime()!=message.getTime()) {
+				sameTime.clear();
+				sameTimeSources.clear();
+			}
+			if (!isDuplicate(message, cursor.sourceIndex, sameTime, sameTimeSources)) {
+				result.add(message);
+				sameTime.add(message);
+				sameTimeSources.add(cursor.sourceIndex);
+			}
+			if (cursor.advance())
+				queue.add(cursor);
+		}
+		return result;
+	}
+
+	private static boolean isDuplicate(Message message, int sourceIndex, List<Message> sameTime, List<Integer> sameTimeSources) {
+		for (int i=0; i<sameTime.size(); i++) {
+			Message other=sameTime.get(i);
+			if (sameTimeSources.get(i)!=sourceIndex && other.getFlags()==message.getFlags() &&
+					other.getMessageType()==message.getMessageType())
+				return true;
+		}
+		return false;
+	}
+
+	private static final class Cursor implements Comparable<Cursor> {
+		private final List<Message> source;
+		private final int sourceIndex;
+		private int position;
+		private Message current;
+
+		Cursor(List<Message> source, int sourceIndex) {
+			this.source=source;
+			this.sourceIndex=sourceIndex;
+		}
+
+		boolean advance() {
+			while (position<source.size()) {
+				current=source.get(position++);
+				if (current!=null)
+					return true;
+			}
+			current=null;
+			return false;
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			if (current.getTime()!=other.current.getTime())
+				return current.getTime()<other.current.getTime() ? -1 : 1;
+			return sourceIndex<other.sourceIndex ? -1 : (sourceIndex==other.sourceIndex ? 0 : 1);
+		}
+	}
+}
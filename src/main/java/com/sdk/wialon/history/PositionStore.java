@@ -0,0 +1,460 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.core.EventHandler;
+import com.sdk.wialon.core.MessagesLoader;
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.item.Item;
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.messages.PositionVisitor;
+import com.sdk.wialon.messages.UnitData;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Local store of units positions history outside of Java heap.
+ * Positions are appended to memory-mapped column files, one directory per UTC day:
+ * unit ID, time, latitude, longitude, speed, course, altitude and satellites count.
+ * Per unit time index is kept in memory and rebuilt from files when day is opened.
+ * Positions of the same unit with the same time are stored once.
+ * Store can be filled from session events and messages loader, see attach.
+ * Only limited count of recently used days is kept open, every open day holds 9 mapped files.
+ */
+public class PositionStore implements Closeable {
+	private static final long SECONDS_PER_DAY=86400;
+	/** Initial capacity of day files, in rows */
+	private static final int INITIAL_DAY_ROWS=65536;
+	/** Default max count of open days */
+	public static final int DEFAULT_MAX_OPEN_DAYS=31;
+
+	private final File directory;
+	private final int maxOpenDays;
+	/** Open days in access order, the least recently used day is closed first */
+	private final LinkedHashMap<Long, Day> days=new LinkedHashMap<Long, Day>(16, 0.75f, true);
+	private EventHandler sessionHandler;
+	private EventHandler loaderHandler;
+	private MessagesLoader attachedLoader;
+	private boolean closed;
+
+	/**
+	 * Open store
+	 * @param directory store directory, created if missing
+	 * @param maxOpenDays max count of days which files are kept open
+	 */
+	public PositionStore(File directory, int maxOpenDays) throws IOException {
+		if (maxOpenDays<=0)
+			throw new IllegalArgumentException("Max open days count should be positive");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Can't create directory "+directory);
+		this.directory=directory;
+		this.maxOpenDays=maxOpenDays;
+	}
+
+	/**
+	 * Open store with default limit of open days
+	 * @param directory store directory, created if missing
+	 */
+	public PositionStore(File directory) throws IOException {
+		this(directory, DEFAULT_MAX_OPEN_DAYS);
+	}
+
+	/**
+	 * Store positions of new unit messages from session events and of messages loaded with session messages loader.
+	 * Should be called after login, messages loader is recreated for every session.
+	 * @param session session
+	 */
+	public synchronized void attach(Session session) {
+		detach(session);
+		sessionHandler=new EventHandler() {
+			@Override
+			public void onEvent(Enum event, Object object, Object oldData, Object newData) {
+				if (object instanceof Item && newData instanceof Message)
+					appendMessage(((Item)object).getId(), (Message)newData);
+			}
+		};
+		session.addListener(sessionHandler, Session.events.messageReceived);
+		attachedLoader=session.getMessagesLoader();
+		if (attachedLoader!=null) {
+			loaderHandler=new EventHandler() {
+				@Override
+				public void onEvent(Enum event, Object object, Object oldData, Object newData) {
+					if (oldData instanceof Long && newData instanceof Message[])
+						for (Message message : (Message[])newData)
+							appendMessage((Long)oldData, message);
+				}
+			};
+			attachedLoader.addListener(loaderHandler, MessagesLoader.events.messagesLoaded);
+		}
+	}
+
+	/**
+	 * Stop storing session messages
+	 * @param session session
+	 */
+	public synchronized void detach(Session session) {
+		if (sessionHandler!=null)
+			session.removeListener(sessionHandler, Session.events.messageReceived);
+		if (attachedLoader!=null && loaderHandler!=null)
+			attachedLoader.removeListener(loaderHandler, MessagesLoader.events.messagesLoaded);
+		sessionHandler=null;
+		loaderHandler=null;
+		attachedLoader=null;
+	}
+
+	/**
+	 * Append position of unit message, messages without position are skipped
+	 * @param unitId unit ID
+	 * @param message message
+	 * @return true if position was stored
+	 */
+	public boolean appendMessage(long unitId, Message message) {
+		if (!(message instanceof UnitData))
+			return false;
+		UnitData.Position position=((UnitData)message).getPosition();
+		if (position==null)
+			return false;
+		try {
+			return append(unitId, message.getTime(), position.getLatitude(), position.getLongitude(),
+					position.getSpeed(), position.getCourse(), position.getAltitude(), position.getSatellitesCount());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Append position
+	 * @param unitId unit ID
+	 * @param time position UTC time
+	 * @return false if position with such time already stored for unit
+	 */
+	public synchronized boolean append(long unitId, long time, double latitude, double longitude, int speed, int course, int altitude, int satellites) throws IOException {
+		if (closed)
+			throw new IOException("Store is closed");
+		return getDay(time/SECONDS_PER_DAY, true).append(unitId, time, latitude, longitude, speed, course, altitude, satellites);
+	}
+
+	/**
+	 * Visit unit positions in time interval, ordered by time. Visitor is called under store lock.
+	 * @param unitId unit ID
+	 * @param timeFrom interval begin, UTC, inclusive
+	 * @param timeTo interval end, UTC, inclusive
+	 * @param visitor positions receiver
+	 * @return count of visited positions
+	 */
+	public synchronized int query(long unitId, long timeFrom, long timeTo, PositionVisitor visitor) throws IOException {
+		if (closed)
+			throw new IOException("Store is closed");
+		int visited=0;
+		for (long day=timeFrom/SECONDS_PER_DAY; day<=timeTo/SECONDS_PER_DAY; day++) {
+			Day dayData=getDay(day, false);
+			if (dayData!=null)
+				visited+=dayData.query(unitId, timeFrom, timeTo, visitor);
+		}
+		return visited;
+	}
+
+	/**
+	 * Count of stored positions of unit in time interval
+	 */
+	public synchronized int count(long unitId, long timeFrom, long timeTo) throws IOException {
+		return query(unitId, timeFrom, timeTo, new PositionVisitor() {
+			@Override
+			public void visit(long time, double latitude, double longitude, int speed, int course, int altitude, int satellites) {
+			}
+		});
+	}
+
+	/**
+	 * Write changes of mapped files to disk
+	 */
+	public synchronized void flush() {
+		for (Day day : days.values())
+			day.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed=true;
+		IOException error=null;
+		for (Day day : days.values())
+			try {
+				day.close();
+			} catch (IOException e) {
+				error=e;
+			}
+		days.clear();
+		if (error!=null)
+			throw error;
+	}
+
+	private Day getDay(long day, boolean create) throws IOException {
+		Day dayData=days.get(day);
+		if (dayData==null) {
+			File dayDirectory=new File(directory, LocalDate.ofEpochDay(day).toString());
+			if (!dayDirectory.isDirectory()) {
+				if (!create)
+					return null;
+				if (!dayDirectory.mkdirs())
+					throw new IOException("Can't create directory "+dayDirectory);
+			}
+			dayData=new Day(dayDirectory);
+			days.put(day, dayData);
+			closeEldestDays();
+		}
+		return dayData;
+	}
+
+	/**
+	 * Close least recently used days above limit, they are reopened from files when needed
+	 */
+	private void closeEldestDays() throws IOException {
+		IOException error=null;
+		Iterator<Day> iterator=days.values().iterator();
+		while (days.size()>maxOpenDays) {
+			Day eldest=iterator.next();
+			iterator.remove();
+			try {
+				eldest.close();
+			} catch (IOException e) {
+				error=e;
+			}
+		}
+		if (error!=null)
+			throw error;
+	}
+
+	/**
+	 * Count of days which files are open now
+	 */
+	synchronized int getOpenDaysCount() {
+		return days.size();
+	}
+
+	/**
+	 * Positions of one day
+	 */
+	private static final class Day {
+		private final Column meta;
+		private final Column units;
+		private final Column times;
+		private final Column latitudes;
+		private final Column longitudes;
+		private final Column speeds;
+		private final Column courses;
+		private final Column altitudes;
+		private final Column satellites;
+		private final Column[] columns;
+		private int count;
+		/** Rows of every unit sorted by time */
+		private final Map<Long, UnitRows> index=new HashMap<Long, UnitRows>();
+
+		Day(File directory) throws IOException {
+			meta=new Column(new File(directory, "meta"), 8, 1);
+			units=new Column(new File(directory, "unit"), 8, INITIAL_DAY_ROWS);
+			times=new Column(new File(directory, "t"), 4, INITIAL_DAY_ROWS);
+			latitudes=new Column(new File(directory, "lat"), 8, INITIAL_DAY_ROWS);
+			longitudes=new Column(new File(directory, "lon"), 8, INITIAL_DAY_ROWS);
+			speeds=new Column(new File(directory, "speed"), 2, INITIAL_DAY_ROWS);
+			courses=new Column(new File(directory, "course"), 2, INITIAL_DAY_ROWS);
+			altitudes=new Column(new File(directory, "alt"), 4, INITIAL_DAY_ROWS);
+			satellites=new Column(new File(directory, "sats"), 1, INITIAL_DAY_ROWS);
+			columns=new Column[] {meta, units, times, latitudes, longitudes, speeds, courses, altitudes, satellites};
+			// rebuild index from stored rows, count is checked so offsets of rows are inside of mapped files
+			long storedCount=meta.buffer.getLong(0);
+			for (Column column : columns)
+				if (column!=meta && (storedCount<0 || storedCount>column.capacity)) {
+					close();
+					throw new IOException("Broken positions day "+directory);
+				}
+			count=(int)storedCount;
+			for (int row=0; row<count; row++)
+				insert(getRows(units.buffer.getLong(row*8)), row);
+		}
+
+		boolean append(long unitId, long time, double latitude, double longitude, int speed, int course, int altitude, int satelliteCount) throws IOException {
+			UnitRows rows=getRows(unitId);
+			int position=rows.search(this, time);
+			if (position>=0)
+				return false;
+			for (Column column : columns)
+				column.ensureCapacity(count+1);
+			int row=count;
+			units.buffer.putLong(row*8, unitId);
+			times.buffer.putInt(row*4, (int)time);
+			latitudes.buffer.putDouble(row*8, latitude);
+			longitudes.buffer.putDouble(row*8, longitude);
+			speeds.buffer.putChar(row*2, (char)speed);
+			courses.buffer.putChar(row*2, (char)course);
+			altitudes.buffer.putInt(row*4, altitude);
+			satellites.buffer.put(row, (byte)satelliteCount);
+			count++;
+			// count is updated last, so interrupted append doesn't produce broken row
+			meta.buffer.putLong(0, count);
+			rows.insert(-position-1, row);
+			return true;
+		}
+
+		int query(long unitId, long timeFrom, long timeTo, PositionVisitor visitor) {
+			UnitRows rows=index.get(unitId);
+			if (rows==null)
+				return 0;
+			int position=rows.search(this, timeFrom);
+			if (position<0)
+				position=-position-1;
+			int visited=0;
+			for (; position<rows.size; position++) {
+				int row=rows.rows[position];
+				long time=getTime(row);
+				if (time>timeTo)
+					break;
+				visitor.visit(time, latitudes.buffer.getDouble(row*8), longitudes.buffer.getDouble(row*8),
+						speeds.buffer.getChar(row*2), courses.buffer.getChar(row*2), altitudes.buffer.getInt(row*4),
+						satellites.buffer.get(row) & 0xFF);
+				visited++;
+			}
+			return visited;
+		}
+
+		long getTime(int row) {
+			return times.buffer.getInt(row*4) & 0xFFFFFFFFL;
+		}
+
+		void flush() {
+			for (Column column : columns)
+				column.buffer.force();
+		}
+
+		void close() throws IOException {
+			flush();
+			for (Column column : columns)
+				column.close();
+		}
+
+		private UnitRows getRows(long unitId) {
+			UnitRows rows=index.get(unitId);
+			if (rows==null) {
+				rows=new UnitRows();
+				index.put(unitId, rows);
+			}
+			return rows;
+		}
+
+		private void insert(UnitRows rows, int row) {
+			int position=rows.search(this, getTime(row));
+			if (position<0)
+				rows.insert(-position-1, row);
+		}
+	}
+
+	/**
+	 * Rows of unit positions, sorted by time
+	 */
+	private static final class UnitRows {
+		private int[] rows=new int[16];
+		private int size;
+
+		/**
+		 * Binary search of row with given time
+		 * @return position of row or (-(insertion point)-1)
+		 */
+		int search(Day day, long time) {
+			int low=0, high=size-1;
+			// positions usually arrive in time order
+			if (size>0 && day.getTime(rows[high])<time)
+				return -size-1;
+			while (low<=high) {
+				int middle=(low+high)>>>1;
+				long middleTime=day.getTime(rows[middle]);
+				if (middleTime<time)
+					low=middle+1;
+				else if (middleTime>time)
+					high=middle-1;
+				else
+					return middle;
+			}
+			return -low-1;
+		}
+
+		void insert(int position, int row) {
+			if (size==rows.length)
+				rows=Arrays.copyOf(rows, size*2);
+			if (position<size)
+				System.arraycopy(rows, position, rows, position+1, size-position);
+			rows[position]=row;
+			size++;
+		}
+	}
+
+	/**
+	 * Memory-mapped file of fixed width values
+	 */
+	private static final class Column {
+		private final RandomAccessFile file;
+		private final int width;
+		private MappedByteBuffer buffer;
+		private int capacity;
+
+		Column(File path, int width, int rows) throws IOException {
+			this.file=new RandomAccessFile(path, "rw");
+			this.width=width;
+			long fileRows=file.length()/width;
+			if (fileRows>Integer.MAX_VALUE/width) {
+				file.close();
+				throw new IOException("File is too big "+path);
+			}
+			map((int)Math.max(rows, fileRows));
+		}
+
+		/**
+		 * Grow file, buffer offsets are int, so file can't exceed 2 GB and row*width never overflows
+		 */
+		void ensureCapacity(int rows) throws IOException {
+			if (rows<=capacity)
+				return;
+			int maxRows=Integer.MAX_VALUE/width;
+			if (rows>maxRows)
+				throw new IOException("Positions day is full");
+			map((int)Math.min(Math.max(rows, (long)capacity*2), maxRows));
+		}
+
+		void close() throws IOException {
+			// mapping is released by garbage collector, file descriptor is closed now
+			buffer=null;
+			file.close();
+		}
+
+		private void map(int rows) throws IOException {
+			buffer=file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long)rows*width);
+			capacity=rows;
+		}
+	}
+}
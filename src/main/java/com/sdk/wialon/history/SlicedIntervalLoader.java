@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.core.MessagesIterator;
+import com.sdk.wialon.core.MessagesLoader;
+import com.sdk.wialon.core.PagedIterator;
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.messages.Message;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Loader of long time intervals split into time slices. Every slice is loaded into server loader separately and read
+ * page by page, slice which failed with timeout is split in halves and loaded again until min slice length is reached.
+ * Results of slices are combined with ordered merge which drops duplicates at slice boundaries, see MessageMerger.
+ * Loader works through Session.getInstance(), so throughput is limited to one session: slices are loaded one by one.
+ * Load is blocking, it should not be called from callbacks of remote calls.
+ */
+public class SlicedIntervalLoader {
+	/** Server error code of request which exceeded execution time */
+	static final int SERVER_TIMEOUT_ERROR=5;
+	private final long itemId;
+	private final long timeFrom;
+	private final long timeTo;
+	private final long sliceInterval;
+	private long minSliceInterval=3600;
+	private long flags;
+	private long flagsMask;
+	private int pageSize=10000;
+	private long pageTimeout=PagedIterator.DEFAULT_PAGE_TIMEOUT;
+	private int slicesLoaded;
+
+	/**
+	 * Create loader
+	 * @param itemId item ID
+	 * @param timeFrom interval beginning
+	 * @param timeTo interval ending
+	 * @param sliceInterval length of one slice, in seconds
+	 */
+	public SlicedIntervalLoader(long itemId, long timeFrom, long timeTo, long sliceInterval) {
+		if (sliceInterval<=0)
+			throw new IllegalArgumentException("Slice interval should be positive");
+		this.itemId=itemId;
+		this.timeFrom=timeFrom;
+		this.timeTo=timeTo;
+		this.sliceInterval=sliceInterval;
+	}
+
+	/**
+	 * Messages flags filter, see MessagesLoader.loadInterval
+	 */
+	public void setFlags(long flags, long flagsMask) {
+		this.flags=flags;
+		this.flagsMask=flagsMask;
+	}
+
+	/**
+	 * Min length of slice, slices are not split after timeout below this length
+	 * @param minSliceInterval length in seconds
+	 */
+	public void setMinSliceInterval(long minSliceInterval) {
+		this.minSliceInterval=minSliceInterval;
+	}
+
+	/**
+	 * Count of messages requested at once
+	 */
+	public void setPageSize(int pageSize) {
+		this.pageSize=pageSize;
+	}
+
+	/**
+	 * Max time of waiting for one request of slice
+	 * @param pageTimeout timeout in milliseconds
+	 */
+	public void setPageTimeout(long pageTimeout) {
+		this.pageTimeout=pageTimeout;
+	}
+
+	/**
+	 * Count of loaded slices including split ones, available after load
+	 */
+	public int getSlicesLoaded() {
+		return slicesLoaded;
+	}
+
+	/**
+	 * Load messages of interval
+	 * @return messages sorted by time
+	 * @throws PagedIterator.FetchException if slice can not be loaded
+	 */
+	public List<Message> load() {
+		MessagesLoader loader=Session.getInstance().getMessagesLoader();
+		if (loader==null)
+			throw new IllegalStateException("Session is not initialized");
+		LinkedList<long[]> slices=new LinkedList<long[]>();
+		for (long from=timeFrom; from<=timeTo; from+=sliceInterval)
+			slices.add(new long[]{from, Math.min(from+sliceInterval-1, timeTo)});
+		slicesLoaded=0;
+		List<List<Message>> results=new ArrayList<List<Message>>();
+		while (!slices.isEmpty()) {
+			long[] slice=slices.removeFirst();
+			try {
+				results.add(loadSlice(loader, slice[0], slice[1]));
+				slicesLoaded++;
+			} catch (PagedIterator.FetchException e) {
+				long length=slice[1]-slice[0]+1;
+				if (!isTimeout(e) || length/2<minSliceInterval)
+					throw e;
+				// retry slice in halves, keep order of slices
+				long middle=slice[0]+length/2;
+				slices.addFirst(new long[]{middle, slice[1]});
+				slices.addFirst(new long[]{slice[0], middle-1});
+			}
+		}
+		return MessageMerger.merge(results);
+	}
+
+	/**
+	 * Check if slice failed because of timeout and can be loaded in smaller parts.
+	 * Other failures with code 6, e.g. malformed data, are not timeouts.
+	 */
+	static boolean isTimeout(PagedIterator.FetchException e) {
+		for (Throwable cause=e.getCause(); cause!=null; cause=cause.getCause())
+			if (cause instanceof SocketTimeoutException || cause instanceof TimeoutException)
+				return true;
+		// server answers with error 5 when request takes too long
+		return e.getErrorCode()==SERVER_TIMEOUT_ERROR && e.getCause()==null;
+	}
+
+	private List<Message> loadSlice(MessagesLoader loader, long from, long to) {
+		MessagesIterator iterator=loader.iterateInterval(itemId, from, to, flags, flagsMask, pageSize);
+		iterator.setPageTimeout(pageTimeout);
+		try {
+			List<Message> messages=new ArrayList<Message>();
+			while (iterator.hasNext())
+				messages.add(iterator.next());
+			return messages;
+		} finally {
+			iterator.close();
+		}
+	}
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.core.EventHandler;
+import com.sdk.wialon.core.MessagesLoader;
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.item.Item;
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.messages.UnitData;
+import com.sdk.wialon.util.Gis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Incremental per unit aggregates of messages over fixed time buckets, e.g. minutes or hours:
+ * messages count, min, max and average speed, distance and statistics of selected numeric parameters.
+ * Aggregates are kept in primitive arrays, count of buckets per unit is limited, oldest buckets are dropped.
+ * Distance is counted between positions in time order, positions older than last one of unit add no distance.
+ * Times of added messages are kept per bucket and messages with already added unit and time are skipped,
+ * so the same interval loaded again, e.g. by iterator prefetch or history cache, is not counted twice.
+ * Rollup can be filled from session events and messages loader, see attach.
+ */
+public class TelemetryRollup {
+	public static final int MINUTE=60;
+	public static final int HOUR=3600;
+
+	/**
+	 * Receiver of buckets
+	 */
+	public interface BucketVisitor {
+		/**
+		 * Visit bucket
+		 * @param bucket bucket data, object is reused for next bucket
+		 */
+		void visit(Bucket bucket);
+	}
+
+	private final int resolution;
+	private final int maxBuckets;
+	private final String[] paramNames;
+	private final Map<Long, Series> units=new HashMap<Long, Series>();
+	private EventHandler sessionHandler;
+	private EventHandler loaderHandler;
+	private MessagesLoader attachedLoader;
+
+	/**
+	 * Create rollup
+	 * @param resolution length of bucket, in seconds, e.g. MINUTE or HOUR
+	 * @param maxBuckets max count of buckets kept per unit
+	 * @param paramNames names of numeric message parameters to collect statistics for
+	 */
+	public TelemetryRollup(int resolution, int maxBuckets, String... paramNames) {
+		if (resolution<=0 || maxBuckets<=0)
+			throw new IllegalArgumentException("Resolution and max buckets count should be positive");
+		this.resolution=resolution;
+		this.maxBuckets=maxBuckets;
+		this.paramNames=paramNames.clone();
+	}
+
+	public int getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * Names of parameters with statistics, index of name is used by Bucket parameters getters
+	 */
+	public String[] getParamNames() {
+		return paramNames.clone();
+	}
+
+	/**
+	 * Add new unit messages from session events and messages loaded with session messages loader.
+	 * Should be called after login, messages loader is recreated for every session.
+	 * @param session session
+	 */
+	public synchronized void attach(Session session) {
+		detach(session);
+		sessionHandler=new EventHandler() {
+			@Override
+			public void onEvent(Enum event, Object object, Object oldData, Object newData) {
+				if (object instanceof Item && newData instanceof Message)
+					addMessage(((Item)object).getId(), (Message)newData);
+			}
+		};
+		session.addListener(sessionHandler, Session.events.messageReceived);
+		attachedLoader=session.getMessagesLoader();
+		if (attachedLoader!=null) {
+			loaderHandler=new EventHandler() {
+				@Override
+				public void onEvent(Enum event, Object object, Object oldData, Object newData) {
+					if (oldData instanceof Long && newData instanceof Message[])
+						for (Message message : (Message[])newData)
+							addMessage((Long)oldData, message);
+				}
+			};
+			attachedLoader.addListener(loaderHandler, MessagesLoader.events.messagesLoaded);
+		}
+	}
+
+	/**
+	 * Stop collecting session messages
+	 * @param session session
+	 */
+	public synchronized void detach(Session session) {
+		if (sessionHandler!=null)
+			session.removeListener(sessionHandler, Session.events.messageReceived);
+		if (attachedLoader!=null && loaderHandler!=null)
+			attachedLoader.removeListener(loaderHandler, MessagesLoader.events.messagesLoaded);
+		sessionHandler=null;
+		loaderHandler=null;
+		attachedLoader=null;
+	}
+
+	/**
+	 * Add unit data message, other messages are skipped
+	 * @param unitId unit ID
+	 * @param message message
+	 * @return true if message was added
+	 */
+	public boolean addMessage(long unitId, Message message) {
+		if (!(message instanceof UnitData))
+			return false;
+		UnitData.Position position=((UnitData)message).getPosition();
+		if (position==null)
+			return add(unitId, message.getTime(), false, 0, 0, 0, message.getParameters());
+		return add(unitId, message.getTime(), true, position.getLatitude(), position.getLongitude(),
+				position.getSpeed(), message.getParameters());
+	}
+
+	/**
+	 * Add message data
+	 * @param unitId unit ID
+	 * @param time message time
+	 * @param hasPosition false if message has no position, coordinates and speed are ignored
+	 * @param latitude latitude
+	 * @param longitude longitude
+	 * @param speed speed, km/h
+	 * @param params message parameters or null
+	 * @return false if message is older than kept buckets of unit or message with the same time was already added
+	 */
+	public synchronized boolean add(long unitId, long time, boolean hasPosition, double latitude, double longitude, int speed, Map<String, Object> params) {
+		Series series=units.get(unitId);
+		if (series==null) {
+			series=new Series();
+			units.put(unitId, series);
+		}
+		long bucketTime=time-Math.floorMod(time, (long)resolution);
+		int index=series.getBucket(bucketTime);
+		if (index<0 || !series.markAdded(index, (int)(time-bucketTime)))
+			return false;
+		series.counts[index]++;
+		if (hasPosition) {
+			if (series.speedCounts[index]==0 || speed<series.minSpeeds[index])
+				series.minSpeeds[index]=speed;
+			if (series.speedCounts[index]==0 || speed>series.maxSpeeds[index])
+				series.maxSpeeds[index]=speed;
+			series.speedCounts[index]++;
+			series.speedSums[index]+=speed;
+			if (series.lastPositionTime!=Long.MIN_VALUE && time>series.lastPositionTime)
+				series.distances[index]+=Gis.getDistance(series.lastLatitude, series.lastLongitude, latitude, longitude);
+			if (time>series.lastPositionTime) {
+				series.lastPositionTime=time;
+				series.lastLatitude=latitude;
+				series.lastLongitude=longitude;
+			}
+		}
+		if (params!=null)
+			for (int i=0; i<paramNames.length; i++) {
+				Object value=params.get(paramNames[i]);
+				if (!(value instanceof Number))
+					continue;
+				double number=((Number)value).doubleValue();
+				int offset=index*paramNames.length+i;
+				if (series.paramCounts[offset]==0 || number<series.paramMins[offset])
+					series.paramMins[offset]=number;
+				if (series.paramCounts[offset]==0 || number>series.paramMaxs[offset])
+					series.paramMaxs[offset]=number;
+				series.paramCounts[offset]++;
+				series.paramSums[offset]+=number;
+			}
+		return true;
+	}
+
+	/**
+	 * Visit buckets of unit in time interval
+	 * @param unitId unit ID
+	 * @param timeFrom interval beginning, bucket is visited if its beginning is in interval
+	 * @param timeTo interval ending
+	 * @param visitor buckets receiver
+	 * @return count of visited buckets
+	 */
+	public synchronized int forEach(long unitId, long timeFrom, long timeTo, BucketVisitor visitor) {
+		Series series=units.get(unitId);
+		if (series==null)
+			return 0;
+		Bucket bucket=new Bucket(paramNames.length);
+		int visited=0;
+		for (int i=series.find(timeFrom); i<series.size && series.times[i]<=timeTo; i++) {
+			bucket.clear(series.times[i]);
+			series.addTo(i, bucket);
+			visitor.visit(bucket);
+			visited++;
+		}
+		return visited;
+	}
+
+	/**
+	 * Aggregate buckets of unit in time interval into one
+	 * @param unitId unit ID
+	 * @param timeFrom interval beginning
+	 * @param timeTo interval ending
+	 * @return aggregate, its time is interval beginning
+	 */
+	public synchronized Bucket aggregate(long unitId, long timeFrom, long timeTo) {
+		Bucket bucket=new Bucket(paramNames.length);
+		bucket.clear(timeFrom);
+		Series series=units.get(unitId);
+		if (series!=null)
+			for (int i=series.find(timeFrom); i<series.size && series.times[i]<=timeTo; i++)
+				series.addTo(i, bucket);
+		return bucket;
+	}
+
+	/**
+	 * Remove data of unit
+	 */
+	public synchronized void remove(long unitId) {
+		units.remove(unitId);
+	}
+
+	public synchronized void clear() {
+		units.clear();
+	}
+
+	/**
+	 * Buckets of one unit sorted by time
+	 */
+	private final class Series {
+		private int size;
+		private long[] times=new long[16];
+		private int[] counts=new int[16];
+		private int[] speedCounts=new int[16];
+		private int[] minSpeeds=new int[16];
+		private int[] maxSpeeds=new int[16];
+		private long[] speedSums=new long[16];
+		private double[] distances=new double[16];
+		private int[] paramCounts=new int[16*paramNames.length];
+		private double[] paramMins=new double[16*paramNames.length];
+		private double[] paramMaxs=new double[16*paramNames.length];
+		private double[] paramSums=new double[16*paramNames.length];
+		/** Sorted offsets of added messages times from bucket beginning */
+		private int[][] addedTimes=new int[16][];
+		private int[] addedCounts=new int[16];
+		private long lastPositionTime=Long.MIN_VALUE;
+		private double lastLatitude;
+		private double lastLongitude;
+
+		/**
+		 * Index of first bucket which begins not before time
+		 */
+		int find(long time) {
+			int low=0, high=size;
+			while (low<high) {
+				int middle=(low+high)>>>1;
+				if (times[middle]<time)
+					low=middle+1;
+				else
+					high=middle;
+			}
+			return low;
+		}
+
+		/**
+		 * Get or create bucket
+		 * @return bucket index or -1 if bucket is older than kept ones and limit of buckets is reached
+		 */
+		int getBucket(long time) {
+			if (size>0 && times[size-1]==time)
+				return size-1;
+			int index=find(time);
+			if (index<size && times[index]==time)
+				return index;
+			if (size==maxBuckets) {
+				if (index==0)
+					return -1;
+				// drop oldest bucket
+				remove(0);
+				index--;
+			}
+			insert(index, time);
+			return index;
+		}
+
+		/**
+		 * Remember time of message added to bucket
+		 * @param index bucket index
+		 * @param offset message time offset from bucket beginning
+		 * @return false if message with this time was already added
+		 */
+		boolean markAdded(int index, int offset) {
+			int[] added=addedTimes[index];
+			int count=addedCounts[index];
+			int position=count;
+			// messages usually come in time order
+			if (count>0 && added[count-1]>=offset) {
+				position=Arrays.binarySearch(added, 0, count, offset);
+				if (position>=0)
+					return false;
+				position=-position-1;
+			}
+			if (added==null || count==added.length) {
+				added=added==null ? new int[8] : Arrays.copyOf(added, count*2);
+				addedTimes[index]=added;
+			}
+			System.arraycopy(added, position, added, position+1, count-position);
+			added[position]=offset;
+			addedCounts[index]=count+1;
+			return true;
+		}
+
+		void addTo(int index, Bucket bucket) {
+			if (speedCounts[index]>0) {
+				if (bucket.speedCount==0 || minSpeeds[index]<bucket.minSpeed)
+					bucket.minSpeed=minSpeeds[index];
+				if (bucket.speedCount==0 || maxSpeeds[index]>bucket.maxSpeed)
+					bucket.maxSpeed=maxSpeeds[index];
+			}
+			bucket.count+=counts[index];
+			bucket.speedCount+=speedCounts[index];
+			bucket.speedSum+=speedSums[index];
+			bucket.distance+=distances[index];
+			for (int i=0; i<paramNames.length; i++) {
+				int offset=index*paramNames.length+i;
+				if (paramCounts[offset]==0)
+					continue;
+				if (bucket.paramCounts[i]==0 || paramMins[offset]<bucket.paramMins[i])
+					bucket.paramMins[i]=paramMins[offset];
+				if (bucket.paramCounts[i]==0 || paramMaxs[offset]>bucket.paramMaxs[i])
+					bucket.paramMaxs[i]=paramMaxs[offset];
+				bucket.paramCounts[i]+=paramCounts[offset];
+				bucket.paramSums[i]+=paramSums[offset];
+			}
+		}
+
+		private void insert(int index, long time) {
+			if (size==times.length)
+				grow(Math.min(times.length*2, Math.max(maxBuckets, 16)));
+			shift(index, index+1, size-index);
+			size++;
+			times[index]=time;
+			counts[index]=0;
+			speedCounts[index]=0;
+			minSpeeds[index]=0;
+			maxSpeeds[index]=0;
+			speedSums[index]=0;
+			distances[index]=0;
+			addedTimes[index]=null;
+			addedCounts[index]=0;
+			int params=paramNames.length;
+			Arrays.fill(paramCounts, index*params, (index+1)*params, 0);
+			Arrays.fill(paramMins, index*params, (index+1)*params, 0);
+			Arrays.fill(paramMaxs, index*params, (index+1)*params, 0);
+			Arrays.fill(paramSums, index*params, (index+1)*params, 0);
+		}
+
+		private void remove(int index) {
+			shift(index+1, index, size-index-1);
+			size--;
+			// release times of dropped bucket
+			addedTimes[size]=null;
+		}
+
+		private void shift(int from, int to, int length) {
+			System.arraycopy(times, from, times, to, length);
+			System.arraycopy(counts, from, counts, to, length);
+			System.arraycopy(speedCounts, from, speedCounts, to, length);
+			System.arraycopy(minSpeeds, from, minSpeeds, to, length);
+			System.arraycopy(maxSpeeds, from, maxSpeeds, to, length);
+			System.arraycopy(speedSums, from, speedSums, to, length);
+			System.arraycopy(distances, from, distances, to, length);
+			System.arraycopy(addedTimes, from, addedTimes, to, length);
+			System.arraycopy(addedCounts, from, addedCounts, to, length);
+			int params=paramNames.length;
+			System.arraycopy(paramCounts, from*params, paramCounts, to*params, length*params);
+			System.arraycopy(paramMins, from*params, paramMins, to*params, length*params);
+			System.arraycopy(paramMaxs, from*params, paramMaxs, to*params, length*params);
+			System.arraycopy(paramSums, from*params, paramSums, to*params, length*params);
+		}
+
+		private void grow(int capacity) {
+			times=Arrays.copyOf(times, capacity);
+			counts=Arrays.copyOf(counts, capacity);
+			speedCounts=Arrays.copyOf(speedCounts, capacity);
+			minSpeeds=Arrays.copyOf(minSpeeds, capacity);
+			maxSpeeds=Arrays.copyOf(maxSpeeds, capacity);
+			speedSums=Arrays.copyOf(speedSums, capacity);
+			distances=Arrays.copyOf(distances, capacity);
+			addedTimes=Arrays.copyOf(addedTimes, capacity);
+			addedCounts=Arrays.copyOf(addedCounts, capacity);
+			int params=paramNames.length;
+			paramCounts=Arrays.copyOf(paramCounts, capacity*params);
+			paramMins=Arrays.copyOf(paramMins, capacity*params);
+			paramMaxs=Arrays.copyOf(paramMaxs, capacity*params);
+			paramSums=Arrays.copyOf(paramSums, capacity*params);
+		}
+	}
+
+	/**
+	 * Aggregated data of bucket or interval
+	 */
+	public static class Bucket {
+		private long time;
+		private int count;
+		private int speedCount;
+		private int minSpeed;
+		private int maxSpeed;
+		private long speedSum;
+		private double distance;
+		private final int[] paramCounts;
+		private final double[] paramMins;
+		private final double[] paramMaxs;
+		private final double[] paramSums;
+
+		Bucket(int params) {
+			paramCounts=new int[params];
+			paramMins=new double[params];
+			paramMaxs=new double[params];
+			paramSums=new double[params];
+		}
+
+		void clear(long time) {
+			this.time=time;
+			count=0;
+			speedCount=0;
+			minSpeed=0;
+			maxSpeed=0;
+			speedSum=0;
+			distance=0;
+			Arrays.fill(paramCounts, 0);
+			Arrays.fill(paramMins, 0);
+			Arrays.fill(paramMaxs, 0);
+			Arrays.fill(paramSums, 0);
+		}
+
+		/** Bucket beginning */
+		public long getTime() {
+			return time;
+		}
+
+		/** Count of messages */
+		public int getCount() {
+			return count;
+		}
+
+		/** Count of positions */
+		public int getPositionsCount() {
+			return speedCount;
+		}
+
+		/** Min speed, km/h, 0 if there are no positions */
+		public int getMinSpeed() {
+			return minSpeed;
+		}
+
+		/** Max speed, km/h, 0 if there are no positions */
+		public int getMaxSpeed() {
+			return maxSpeed;
+		}
+
+		/** Average speed of positions, km/h */
+		public double getAverageSpeed() {
+			return speedCount==0 ? 0 : (double)speedSum/speedCount;
+		}
+
+		/** Distance, meters */
+		public double getDistance() {
+			return distance;
+		}
+
+		/**
+		 * Count of numeric values of parameter
+		 * @param param index of parameter in TelemetryRollup.getParamNames
+		 */
+		public int getParamCount(int param) {
+			return paramCounts[param];
+		}
+
+		/** Min value of parameter, NaN if there are no values */
+		public double getParamMin(int param) {
+			return paramCounts[param]==0 ? Double.NaN : paramMins[param];
+		}
+
+		/** Max value of parameter, NaN if there are no values */
+		public double getParamMax(int param) {
+			return paramCounts[param]==0 ? Double.NaN : paramMaxs[param];
+		}
+
+		/** Average value of parameter, NaN if there are no values */
+		public double getParamAverage(int param) {
+			return paramCounts[param]==0 ? Double.NaN : paramSums[param]/paramCounts[param];
+		}
+	}
+}
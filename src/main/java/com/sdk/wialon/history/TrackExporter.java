@@ -0,0 +1,268 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.messages.PositionVisitor;
+import com.sdk.wialon.messages.UnitData;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming writer of unit track in GPX, KML or CSV format. Points are written as they come through fixed size
+ * byte buffer, so memory usage doesn't depend on track length. GPX and KML points have no speed and course,
+ * only CSV keeps all position properties. Exporter is position visitor,
+ * so it can be fed from messages, PositionHistory and PositionStore. Track is finished on close.
+ */
+public class TrackExporter implements PositionVisitor, Closeable {
+	public static enum Format {
+		GPX,
+		KML,
+		CSV
+	}
+
+	private static final int BUFFER_SIZE=64*1024;
+
+	private final Format format;
+	private final WritableByteChannel channel;
+	private final GZIPOutputStream gzipStream;
+	private final ByteBuffer buffer=ByteBuffer.allocate(BUFFER_SIZE);
+	private final StringBuilder line=new StringBuilder(256);
+	private long pointsCount;
+	/** Error of visit call, thrown on close */
+	private IOException error;
+	private boolean closed;
+
+	/**
+	 * Create exporter and write track header
+	 * @param out output stream, closed on close
+	 * @param format track format
+	 * @param trackName track name, e.g. unit name
+	 * @param gzip compress output with gzip
+	 */
+	public TrackExporter(OutputStream out, Format format, String trackName, boolean gzip) throws IOException {
+		this.format=format;
+		gzipStream=gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+		channel=out instanceof FileOutputStream && !gzip ?
+				((FileOutputStream)out).getChannel() : Channels.newChannel(gzip ? gzipStream : out);
+		writeHeader(trackName==null ? "" : trackName);
+	}
+
+	/**
+	 * Create exporter writing to file
+	 * @param file output file
+	 * @param format track format
+	 * @param trackName track name
+	 * @param gzip compress output with gzip
+	 */
+	public TrackExporter(File file, Format format, String trackName, boolean gzip) throws IOException {
+		this(new FileOutputStream(file), format, trackName, gzip);
+	}
+
+	public long getPointsCount() {
+		return pointsCount;
+	}
+
+	/**
+	 * Write position of message, messages without position are skipped
+	 * @param message message
+	 * @return true if point was written
+	 */
+	public boolean write(Message message) throws IOException {
+		if (!(message instanceof UnitData))
+			return false;
+		UnitData.Position position=((UnitData)message).getPosition();
+		if (position==null)
+			return false;
+		writePoint(message.getTime(), position.getLatitude(), position.getLongitude(), position.getSpeed(),
+				position.getCourse(), position.getAltitude(), position.getSatellitesCount());
+		return true;
+	}
+
+	/**
+	 * Write positions of all messages, e.g. of MessagesIterator
+	 * @param messages messages sorted by time
+	 * @return count of written points
+	 */
+	public long write(Iterator<? extends Message> messages) throws IOException {
+		long count=0;
+		while (messages.hasNext())
+			if (write(messages.next()))
+				count++;
+		return count;
+	}
+
+	@Override
+	public void visit(long time, double latitude, double longitude, int speed, int course, int altitude, int satellites) {
+		if (error!=null)
+			return;
+		try {
+			writePoint(time, latitude, longitude, speed, course, altitude, satellites);
+		} catch (IOException e) {
+			error=e;
+		}
+	}
+
+	/**
+	 * Write track footer and close output
+	 * @throws IOException if writing of some point or footer failed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed=true;
+		try {
+			if (error==null) {
+				writeFooter();
+				flush();
+			}
+			if (gzipStream!=null)
+				gzipStream.finish();
+		} finally {
+			channel.close();
+		}
+		if (error!=null)
+			throw error;
+	}
+
+	private void writePoint(long time, double latitude, double longitude, int speed, int course, int altitude, int satellites) throws IOException {
+		if (closed)
+			throw new IOException("Exporter is closed");
+		line.setLength(0);
+		switch (format) {
+			case GPX:
+				line.append("<trkpt lat=\"").append(latitude).append("\" lon=\"").append(longitude).append("\">")
+						.append("<ele>").append(altitude).append("</ele>")
+						.append("<time>").append(formatTime(time)).append("</time>")
+						.append("<sat>").append(satellites).append("</sat>")
+						.append("</trkpt>\n");
+				break;
+			case KML:
+				line.append(longitude).append(',').append(latitude).append(',').append(altitude).append('\n');
+				break;
+			case CSV:
+				line.append(time).append(',').append(latitude).append(',').append(longitude).append(',')
+						.append(speed).append(',').append(course).append(',').append(altitude).append(',')
+						.append(satellites).append('\n');
+				break;
+		}
+		append(line);
+		pointsCount++;
+	}
+
+	private void writeHeader(String trackName) throws IOException {
+		line.setLength(0);
+		switch (format) {
+			case GPX:
+				line.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+						.append("<gpx version=\"1.1\" creator=\"Wialon SDK\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n")
+						.append("<trk><name>").append(escapeXml(trackName)).append("</name><trkseg>\n");
+				break;
+			case KML:
+				line.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+						.append("<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document>\n")
+						.append("<Placemark><name>").append(escapeXml(trackName)).append("</name>")
+						.append("<LineString><altitudeMode>absolute</altitudeMode><coordinates>\n");
+				break;
+			case CSV:
+				line.append("time,latitude,longitude,speed,course,altitude,satellites\n");
+				break;
+		}
+		append(line);
+	}
+
+	private void writeFooter() throws IOException {
+		line.setLength(0);
+		switch (format) {
+			case GPX:
+				line.append("</trkseg></trk>\n</gpx>\n");
+				break;
+			case KML:
+				line.append("</coordinates></LineString></Placemark>\n</Document></kml>\n");
+				break;
+			case CSV:
+				break;
+		}
+		append(line);
+	}
+
+	/**
+	 * Append text to buffer, text is encoded as UTF-8
+	 */
+	private void append(CharSequence text) throws IOException {
+		for (int i=0; i<text.length(); i++) {
+			char c=text.charAt(i);
+			if (buffer.remaining()<4)
+				flush();
+			if (c<0x80)
+				buffer.put((byte)c);
+			else if (c<0x800) {
+				buffer.put((byte)(0xC0 | (c>>6)));
+				buffer.put((byte)(0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i+1<text.length()) {
+				int codePoint=Character.toCodePoint(c, text.charAt(++i));
+				buffer.put((byte)(0xF0 | (codePoint>>18)));
+				buffer.put((byte)(0x80 | ((codePoint>>12) & 0x3F)));
+				buffer.put((byte)(0x80 | ((codePoint>>6) & 0x3F)));
+				buffer.put((byte)(0x80 | (codePoint & 0x3F)));
+			} else {
+				buffer.put((byte)(0xE0 | (c>>12)));
+				buffer.put((byte)(0x80 | ((c>>6) & 0x3F)));
+				buffer.put((byte)(0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	private static String formatTime(long time) {
+		return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(time));
+	}
+
+	private static String escapeXml(String text) {
+		StringBuilder result=new StringBuilder(text.length());
+		for (int i=0; i<text.length(); i++) {
+			char c=text.charAt(i);
+			switch (c) {
+				case '<': result.append("&lt;"); break;
+				case '>': result.append("&gt;"); break;
+				case '&': result.append("&amp;"); break;
+				case '"': result.append("&quot;"); break;
+				case '\'': result.append("&apos;"); break;
+				default: result.append(c);
+			}
+		}
+		return result.toString();
+	}
+}
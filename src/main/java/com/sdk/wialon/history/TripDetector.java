@@ -0,0 +1,415 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.core.EventHandler;
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.item.Item;
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.messages.UnitData;
+import com.sdk.wialon.util.Gis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local detector of trips, stops and parkings of units over positions in time order, without server reports.
+ * Unit moves when speed is not less than min moving speed. Standing shorter than min stay duration is part of trip,
+ * trips shorter than min trip duration or distance are merged into surrounding standing,
+ * standing shorter than min parking duration is stop, longer one is parking.
+ * Interval between messages longer than max messages interval finishes current segments.
+ * Segments are passed to listener when they are finished, standing segment is finished by start of next trip.
+ * Detector can work on session events, see attach, and on loaded messages, see detect.
+ */
+public class TripDetector {
+	public static enum SegmentType {
+		TRIP,
+		STOP,
+		PARKING
+	}
+
+	/**
+	 * Receiver of detected segments
+	 */
+	public interface SegmentListener {
+		void onSegment(Segment segment);
+	}
+
+	private int minMovingSpeed=1;
+	private long minStayDuration=300;
+	private long minTripDuration=60;
+	private double minTripDistance=100;
+	private long minParkingDuration=1800;
+	private long maxMessagesInterval=3600;
+	private final SegmentListener listener;
+	private final Map<Long, State> units=new HashMap<Long, State>();
+	private EventHandler sessionHandler;
+
+	/**
+	 * Create detector
+	 * @param listener segments receiver, called in thread of added message
+	 */
+	public TripDetector(SegmentListener listener) {
+		this.listener=listener;
+	}
+
+	/**
+	 * Min speed of moving, km/h
+	 */
+	public void setMinMovingSpeed(int minMovingSpeed) {
+		this.minMovingSpeed=minMovingSpeed;
+	}
+
+	/**
+	 * Min duration of standing which finishes trip, in seconds
+	 */
+	public void setMinStayDuration(long minStayDuration) {
+		this.minStayDuration=minStayDuration;
+	}
+
+	/**
+	 * Min duration of trip, in seconds
+	 */
+	public void setMinTripDuration(long minTripDuration) {
+		this.minTripDuration=minTripDuration;
+	}
+
+	/**
+	 * Min distance of trip, in meters
+	 */
+	public void setMinTripDistance(double minTripDistance) {
+		this.minTripDistance=minTripDistance;
+	}
+
+	/**
+	 * Min duration of parking, shorter standing is stop, in seconds.
+	 * It should be greater than min stay duration, otherwise standing between trips is always parking.
+	 */
+	public void setMinParkingDuration(long minParkingDuration) {
+		this.minParkingDuration=minParkingDuration;
+	}
+
+	/**
+	 * Max interval between messages, longer interval finishes current segments, in seconds
+	 */
+	public void setMaxMessagesInterval(long maxMessagesInterval) {
+		this.maxMessagesInterval=maxMessagesInterval;
+	}
+
+	/**
+	 * Detect segments on new unit messages from session events
+	 * @param session session
+	 */
+	public synchronized void attach(Session session) {
+		detach(session);
+		sessionHandler=new EventHandler() {
+			@Override
+			public void onEvent(Enum event, Object object, Object oldData, Object newData) {
+				if (object instanceof Item && newData instanceof Message)
+					addMessage(((Item)object).getId(), (Message)newData);
+			}
+		};
+		session.addListener(sessionHandler, Session.events.messageReceived);
+	}
+
+	/**
+	 * Stop detection on session events
+	 * @param session session
+	 */
+	public synchronized void detach(Session session) {
+		if (sessionHandler!=null)
+			session.removeListener(sessionHandler, Session.events.messageReceived);
+		sessionHandler=null;
+	}
+
+	/**
+	 * Detect segments of loaded messages, e.g. of MessagesIterator, unit state is finished at the end
+	 * @param unitId unit ID
+	 * @param messages messages sorted by time
+	 * @return detected segments, they are passed to listener as well
+	 */
+	public List<Segment> detect(long unitId, Iterator<? extends Message> messages) {
+		final List<Segment> segments=new ArrayList<Segment>();
+		State state=new State(unitId);
+		while (messages.hasNext()) {
+			Message message=messages.next();
+			if (message instanceof UnitData && ((UnitData)message).getPosition()!=null) {
+				UnitData.Position position=((UnitData)message).getPosition();
+				add(state, message.getTime(), position.getLatitude(), position.getLongitude(), position.getSpeed(), segments);
+			}
+		}
+		finish(state, segments);
+		return segments;
+	}
+
+	/**
+	 * Add unit message, messages without position are skipped
+	 * @param unitId unit ID
+	 * @param message message
+	 */
+	public void addMessage(long unitId, Message message) {
+		if (!(message instanceof UnitData))
+			return;
+		UnitData.Position position=((UnitData)message).getPosition();
+		if (position!=null)
+			add(unitId, message.getTime(), position.getLatitude(), position.getLongitude(), position.getSpeed());
+	}
+
+	/**
+	 * Add unit position, positions older than last one of unit are ignored
+	 * @param unitId unit ID
+	 * @param time position time
+	 * @param latitude latitude
+	 * @param longitude longitude
+	 * @param speed speed, km/h
+	 */
+	public synchronized void add(long unitId, long time, double latitude, double longitude, int speed) {
+		State state=units.get(unitId);
+		if (state==null) {
+			state=new State(unitId);
+			units.put(unitId, state);
+		}
+		add(state, time, latitude, longitude, speed, null);
+	}
+
+	/**
+	 * Check if unit is in trip now
+	 * @param unitId unit ID
+	 */
+	public synchronized boolean isMoving(long unitId) {
+		State state=units.get(unitId);
+		return state!=null && state.trip!=null && state.stayFrom==null;
+	}
+
+	/**
+	 * Finish current segments of unit, e.g. when live tracking is stopped
+	 * @param unitId unit ID
+	 */
+	public synchronized void finish(long unitId) {
+		State state=units.remove(unitId);
+		if (state!=null)
+			finish(state, null);
+	}
+
+	private void add(State state, long time, double latitude, double longitude, int speed, List<Segment> segments) {
+		Point point=new Point(time, latitude, longitude);
+		if (state.last!=null) {
+			if (time<=state.last.time)
+				return;
+			if (time-state.last.time>maxMessagesInterval)
+				finish(state, segments);
+		}
+		boolean moving=speed>=minMovingSpeed;
+		if (state.trip==null) {
+			if (!moving) {
+				if (state.standing==null)
+					state.standing=new Segment(state.unitId, SegmentType.STOP, point);
+				state.standing.extend(point, speed, 0);
+			} else {
+				state.trip=new Segment(state.unitId, SegmentType.TRIP, state.last!=null ? state.last : point);
+				state.trip.extend(point, speed, distance(state.last, point));
+			}
+		} else {
+			state.trip.extend(point, speed, distance(state.last, point));
+			if (moving)
+				state.stayFrom=null;
+			else if (state.stayFrom==null)
+				state.stayFrom=point;
+			else if (time-state.stayFrom.time>=minStayDuration)
+				finishTrip(state, state.stayFrom, point, segments);
+		}
+		state.last=point;
+	}
+
+	/**
+	 * Finish trip at beginning of standing
+	 */
+	private void finishTrip(State state, Point stayFrom, Point now, List<Segment> segments) {
+		Segment trip=state.trip;
+		state.trip=null;
+		state.stayFrom=null;
+		if (stayFrom!=null)
+			trip.cut(stayFrom);
+		if (trip.getDuration()>=minTripDuration && trip.distance>=minTripDistance) {
+			emit(state.standing, segments);
+			emit(trip, segments);
+			state.standing=stayFrom!=null ? new Segment(state.unitId, SegmentType.STOP, stayFrom) : null;
+		} else if (state.standing==null)
+			state.standing=new Segment(state.unitId, SegmentType.STOP, trip.from);
+		if (state.standing!=null)
+			state.standing.extend(now, 0, 0);
+	}
+
+	private void finish(State state, List<Segment> segments) {
+		if (state.trip!=null)
+			finishTrip(state, state.stayFrom, state.last, segments);
+		emit(state.standing, segments);
+		state.standing=null;
+		state.last=null;
+	}
+
+	private void emit(Segment segment, List<Segment> segments) {
+		if (segment==null || segment.to.time<=segment.from.time)
+			return;
+		if (segment.type!=SegmentType.TRIP)
+			segment.type=segment.getDuration()>=minParkingDuration ? SegmentType.PARKING : SegmentType.STOP;
+		if (segments!=null)
+			segments.add(segment);
+		if (listener!=null)
+			listener.onSegment(segment);
+	}
+
+	private static double distance(Point from, Point to) {
+		return from==null ? 0 : Gis.getDistance(from.latitude, from.longitude, to.latitude, to.longitude);
+	}
+
+	private static final class State {
+		private final long unitId;
+		private Point last;
+		/** Current standing, finished by next valid trip */
+		private Segment standing;
+		/** Current trip candidate */
+		private Segment trip;
+		/** Beginning of standing inside of trip */
+		private Point stayFrom;
+
+		State(long unitId) {
+			this.unitId=unitId;
+		}
+	}
+
+	private static final class Point {
+		private final long time;
+		private final double latitude;
+		private final double longitude;
+		/** Totals of segment up to this point, used to cut trip */
+		private double distance;
+		private int maxSpeed;
+		private long speedSum;
+		private int messagesCount;
+
+		Point(long time, double latitude, double longitude) {
+			this.time=time;
+			this.latitude=latitude;
+			this.longitude=longitude;
+		}
+	}
+
+	/**
+	 * Trip, stop or parking
+	 */
+	public static class Segment {
+		private final long unitId;
+		private SegmentType type;
+		private Point from;
+		private Point to;
+		private double distance;
+		private int maxSpeed;
+		private long speedSum;
+		private int messagesCount;
+
+		Segment(long unitId, SegmentType type, Point from) {
+			this.unitId=unitId;
+			this.type=type;
+			this.from=from;
+			this.to=from;
+		}
+
+		void extend(Point point, int speed, double distance) {
+			to=point;
+			this.distance+=distance;
+			if (speed>maxSpeed)
+				maxSpeed=speed;
+			speedSum+=speed;
+			messagesCount++;
+			point.distance=this.distance;
+			point.maxSpeed=maxSpeed;
+			point.speedSum=speedSum;
+			point.messagesCount=messagesCount;
+		}
+
+		/**
+		 * Cut segment at point of it, totals are restored to values at this point
+		 */
+		void cut(Point point) {
+			to=point;
+			distance=point.distance;
+			maxSpeed=point.maxSpeed;
+			speedSum=point.speedSum;
+			messagesCount=point.messagesCount;
+		}
+
+		public long getUnitId() {
+			return unitId;
+		}
+
+		public SegmentType getType() {
+			return type;
+		}
+
+		public long getTimeFrom() {
+			return from.time;
+		}
+
+		public long getTimeTo() {
+			return to.time;
+		}
+
+		/** Duration, in seconds */
+		public long getDuration() {
+			return to.time-from.time;
+		}
+
+		public double getLatitudeFrom() {
+			return from.latitude;
+		}
+
+		public double getLongitudeFrom() {
+			return from.longitude;
+		}
+
+		public double getLatitudeTo() {
+			return to.latitude;
+		}
+
+		public double getLongitudeTo() {
+			return to.longitude;
+		}
+
+		/** Distance, in meters, 0 for standing */
+		public double getDistance() {
+			return distance;
+		}
+
+		/** Max speed, km/h */
+		public int getMaxSpeed() {
+			return maxSpeed;
+		}
+
+		/** Average speed of segment messages, km/h */
+		public double getAverageSpeed() {
+			return messagesCount==0 ? 0 : (double)speedSum/messagesCount;
+		}
+
+		public int getMessagesCount() {
+			return messagesCount;
+		}
+	}
+}
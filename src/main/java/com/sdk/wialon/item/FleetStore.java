@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.item;
+
+import com.sdk.wialon.messages.UnitData;
+import com.sdk.wialon.util.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact store of hot units state: position, last message time, counters and calculation flags.
+ * Values are kept in primitive parallel arrays, one slot per unit. Units bound to store
+ * don't keep own position, counters and last message objects, their getters read from the store.
+ * Store is used for big fleets, see Session.setFleetStore.
+ */
+public class FleetStore {
+	/** Marker of missing counter value */
+	private static final long NO_VALUE=Long.MIN_VALUE;
+	/** Slot has position */
+	private static final byte HAS_POSITION=0x1;
+	/** Slot has last message time */
+	private static final byte HAS_LAST_MESSAGE=0x2;
+
+	/** Counters indexes */
+	static final int CALC_FLAGS=0;
+	static final int MILEAGE=1;
+	static final int ENGINE_HOURS=2;
+	static final int TRAFFIC=3;
+	private static final int COUNTERS_COUNT=4;
+
+	private final LongIntHashMap slotsById;
+	private long[] ids;
+	/** Units bound to slots, used to unbind them on clear */
+	private Unit[] units;
+	private byte[] state;
+	private long[] positionTime;
+	private double[] latitude;
+	private double[] longitude;
+	private int[] altitude;
+	private int[] speed;
+	private int[] course;
+	private int[] satellites;
+	private long[] lastMessageTime;
+	private long[][] counters;
+	/** Released slots, reused by new units */
+	private int[] freeSlots;
+	private int freeCount;
+	/** Count of ever allocated slots */
+	private int slotsCount;
+
+	/**
+	 * Create store
+	 * @param expectedUnits expected count of units, store grows when needed
+	 */
+	public FleetStore(int expectedUnits) {
+		int capacity=Math.max(expectedUnits, 16);
+		slotsById=new LongIntHashMap(capacity);
+		ids=new long[capacity];
+		units=new Unit[capacity];
+		state=new byte[capacity];
+		positionTime=new long[capacity];
+		latitude=new double[capacity];
+		longitude=new double[capacity];
+		altitude=new int[capacity];
+		speed=new int[capacity];
+		course=new int[capacity];
+		satellites=new int[capacity];
+		lastMessageTime=new long[capacity];
+		counters=new long[COUNTERS_COUNT][capacity];
+		freeSlots=new int[16];
+	}
+
+	public FleetStore() {
+		this(1024);
+	}
+
+	/**
+	 * Count of units in store
+	 * @return units count
+	 */
+	public synchronized int size() {
+		return slotsById.size();
+	}
+
+	/**
+	 * Check if unit is in store
+	 * @param unitId unit ID
+	 * @return true if unit has slot in store
+	 */
+	public synchronized boolean contains(long unitId) {
+		return slotsById.containsKey(unitId);
+	}
+
+	/**
+	 * Bind unit to store: allocate slot, move unit hot state to the store.
+	 * Other unit object with the same ID, if any, is released first.
+	 * @param unit unit to bind
+	 */
+	public void bind(Unit unit) {
+		if (unit==null)
+			return;
+		Unit previous;
+		synchronized (this) {
+			int slot=slotsById.get(unit.getId());
+			previous=slot<0 ? null : units[slot];
+		}
+		if (previous!=null && previous!=unit)
+			release(previous);
+		unit.bindFleetStore(this);
+	}
+
+	/**
+	 * Release unit slot, state is moved back to unit object
+	 * @param unit unit to release
+	 */
+	public void release(Unit unit) {
+		if (unit!=null && unit.getFleetStore()==this)
+			unit.unbindFleetStore();
+	}
+
+	/**
+	 * Remove all units from store, their state is moved back to unit objects
+	 */
+	public void clear() {
+		List<Unit> bound=new ArrayList<Unit>();
+		synchronized (this) {
+			for (int slot=0; slot<slotsCount; slot++)
+				if (units[slot]!=null)
+					bound.add(units[slot]);
+		}
+		// units are released out of store lock, unit lock is always taken before store one
+		for (Unit unit : bound)
+			release(unit);
+		synchronized (this) {
+			slotsById.clear();
+			Arrays.fill(units, null);
+			freeCount=0;
+			slotsCount=0;
+		}
+	}
+
+	/**
+	 * Get unit position time by unit ID without unit object access
+	 * @param unitId unit ID
+	 * @return position time or 0 if no position
+	 */
+	public synchronized long getPositionTime(long unitId) {
+		int slot=slotsById.get(unitId);
+		return slot<0 || (state[slot] & HAS_POSITION)==0 ? 0 : positionTime[slot];
+	}
+
+	/**
+	 * Get unit last message time by unit ID without unit object access
+	 * @param unitId unit ID
+	 * @return last message time or 0 if no last message
+	 */
+	public synchronized long getLastMessageTime(long unitId) {
+		int slot=slotsById.get(unitId);
+		return slot<0 || (state[slot] & HAS_LAST_MESSAGE)==0 ? 0 : lastMessageTime[slot];
+	}
+
+	synchronized int allocate(Unit unit) {
+		long unitId=unit.getId();
+		int slot=slotsById.get(unitId);
+		if (slot>=0) {
+			units[slot]=unit;
+			return slot;
+		}
+		if (freeCount>0)
+			slot=freeSlots[--freeCount];
+		else {
+			if (slotsCount==ids.length)
+				grow(ids.length*2);
+			slot=slotsCount++;
+		}
+		ids[slot]=unitId;
+		units[slot]=unit;
+		state[slot]=0;
+		for (long[] counter : counters)
+			counter[slot]=NO_VALUE;
+		slotsById.put(unitId, slot);
+		return slot;
+	}
+
+	synchronized void free(int slot) {
+		if (slot<0 || slotsById.get(ids[slot])!=slot)
+			return;
+		slotsById.remove(ids[slot]);
+		units[slot]=null;
+		if (freeCount==freeSlots.length)
+			freeSlots=Arrays.copyOf(freeSlots, freeCount*2);
+		freeSlots[freeCount++]=slot;
+	}
+
+	synchronized UnitData.Position getPosition(int slot) {
+		if ((state[slot] & HAS_POSITION)==0)
+			return null;
+		return new UnitData.Position(positionTime[slot], latitude[slot], longitude[slot], altitude[slot],
+				speed[slot], course[slot], satellites[slot]);
+	}
+
+	synchronized void setPosition(int slot, UnitData.Position position) {
+		if (position==null) {
+			state[slot]&=~HAS_POSITION;
+			return;
+		}
+		state[slot]|=HAS_POSITION;
+		positionTime[slot]=position.getTime();
+		latitude[slot]=position.getLatitude();
+		longitude[slot]=position.getLongitude();
+		altitude[slot]=position.getAltitude();
+		speed[slot]=position.getSpeed();
+		course[slot]=position.getCourse();
+		satellites[slot]=position.getSatellitesCount();
+	}
+
+	synchronized Long getLastMessageTime(int slot) {
+		return (state[slot] & HAS_LAST_MESSAGE)==0 ? null : lastMessageTime[slot];
+	}
+
+	synchronized void setLastMessageTime(int slot, Long time) {
+		if (time==null)
+			state[slot]&=~HAS_LAST_MESSAGE;
+		else {
+			state[slot]|=HAS_LAST_MESSAGE;
+			lastMessageTime[slot]=time;
+		}
+	}
+
+	synchronized Long getCounter(int slot, int counter) {
+		long value=counters[counter][slot];
+		return value==NO_VALUE ? null : value;
+	}
+
+	synchronized void setCounter(int slot, int counter, Long value) {
+		counters[counter][slot]=value==null ? NO_VALUE : value;
+	}
+
+	private void grow(int capacity) {
+		ids=Arrays.copyOf(ids, capacity);
+		units=Arrays.copyOf(units, capacity);
+		state=Arrays.copyOf(state, capacity);
+		positionTime=Arrays.copyOf(positionTime, capacity);
+		latitude=Arrays.copyOf(latitude, capacity);
+		longitude=Arrays.copyOf(longitude, capacity);
+		altitude=Arrays.copyOf(altitude, capacity);
+		speed=Arrays.copyOf(speed, capacity);
+		course=Arrays.copyOf(course, capacity);
+		satellites=Arrays.copyOf(satellites, capacity);
+		lastMessageTime=Arrays.copyOf(lastMessageTime, capacity);
+		for (int i=0; i<COUNTERS_COUNT; i++)
+			counters[i]=Arrays.copyOf(counters[i], capacity);
+	}
+}
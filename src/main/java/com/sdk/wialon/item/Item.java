@@ -25,7 +25,11 @@ import com.sdk.wialon.remote.handlers.ResponseHandler;
 import com.sdk.wialon.messages.Message;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.sdk.wialon.util.JsonStreams;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -359,6 +363,52 @@ public abstract class Item extends EventProvider {
 		return true;
 	}
 
+	/**
+	 * Read item property from server item data, used by ItemTypeAdapter instead of reflection
+	 * @param name property name
+	 * @param in reader positioned at property value
+	 * @return true if property is known and was read, otherwise value should be skipped
+	 */
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (name.equals("nm"))
+			nm=JsonStreams.readString(in);
+		else if (name.equals("id"))
+			id=JsonStreams.readLong(in);
+		else if (name.equals("uacl"))
+			uacl=JsonStreams.readLong(in);
+		else if (name.equals("crt"))
+			crt=JsonStreams.readLong(in);
+		else if (name.equals("bact"))
+			bact=JsonStreams.readLong(in);
+		else if (name.equals("mu"))
+			mu=JsonStreams.readInteger(in);
+		else if (name.equals("prp"))
+			prp=JsonStreams.readStringMap(in);
+		else if (name.equals("flds"))
+			flds=JsonStreams.readStringMap(in);
+		else if (name.equals("aflds"))
+			aflds=JsonStreams.readStringMap(in);
+		else
+			return false;
+		return true;
+	}
+
+	/**
+	 * Write item properties in server item data format, used by ItemTypeAdapter
+	 * @param out writer inside of item object
+	 */
+	protected void writeFields(JsonWriter out) throws IOException {
+		out.name("nm").value(nm);
+		out.name("id").value(id);
+		out.name("uacl").value(uacl);
+		out.name("crt").value(crt);
+		out.name("bact").value(bact);
+		out.name("mu").value(mu);
+		JsonStreams.writeStringMap(out, "prp", prp);
+		JsonStreams.writeStringMap(out, "flds", flds);
+		JsonStreams.writeStringMap(out, "aflds", aflds);
+	}
+
 	public static enum ItemType {
 		/** unit */
 		avl_unit(Unit.class),
@@ -375,13 +425,13 @@ public abstract class Item extends EventProvider {
 		/** route */
 		avl_route (null);
 
-		private Class mItemClass;
+		private Class<? extends Item> mItemClass;
 
-		private ItemType(Class itemClass) {
+		private ItemType(Class<? extends Item> itemClass) {
 			this.mItemClass=itemClass;
 		}
 
-		public Class getItemClass() {
+		public Class<? extends Item> getItemClass() {
 			return this.mItemClass;
 		}
 
@@ -17,13 +17,17 @@
 package com.sdk.wialon.item;
 
 import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.sdk.wialon.core.EventProvider;
 import com.sdk.wialon.core.Session;
 import com.sdk.wialon.remote.handlers.BinaryResponseHandler;
 import com.sdk.wialon.remote.RemoteHttpClient;
 import com.sdk.wialon.remote.handlers.ResponseHandler;
+import com.sdk.wialon.util.JsonStreams;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -87,6 +91,26 @@ public class ItemIcon extends Item {
 	}
 
 
+	@Override
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (super.readField(name, in))
+			return true;
+		if (name.equals("ugi"))
+			ugi=JsonStreams.readInteger(in);
+		else if (name.equals("uri"))
+			uri=JsonStreams.readString(in);
+		else
+			return false;
+		return true;
+	}
+
+	@Override
+	protected void writeFields(JsonWriter out) throws IOException {
+		super.writeFields(out);
+		out.name("ugi").value(ugi);
+		out.name("uri").value(uri);
+	}
+
 	public void updateIcon(File file, ResponseHandler callback) {
 		RemoteHttpClient.getInstance().uploadFile(file, "unit/upload_image", "{\"itemId\":" + getId() + "}", callback, 10000);
 	}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.item;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Streaming Gson adapter for items, reads server item data without reflection.
+ * Every item class reads and writes own properties in readField/writeFields.
+ * @param <T> item class
+ */
+public abstract class ItemTypeAdapter<T extends Item> extends TypeAdapter<T> {
+
+	/**
+	 * Create new empty item
+	 * @return item
+	 */
+	protected abstract T create();
+
+	@Override
+	public T read(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		T item=create();
+		in.beginObject();
+		while (in.hasNext()) {
+			String name=in.nextName();
+			if (!item.readField(name, in))
+				in.skipValue();
+		}
+		in.endObject();
+		return item;
+	}
+
+	@Override
+	public void write(JsonWriter out, T item) throws IOException {
+		if (item==null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		item.writeFields(out);
+		out.endObject();
+	}
+
+	/**
+	 * Register adapters for all items classes
+	 * @param builder session Gson builder
+	 */
+	public static void registerAll(GsonBuilder builder) {
+		builder.registerTypeAdapter(Unit.class, new ItemTypeAdapter<Unit>() {
+			@Override
+			protected Unit create() {
+				return new Unit();
+			}
+		});
+		builder.registerTypeAdapter(UnitGroup.class, new ItemTypeAdapter<UnitGroup>() {
+			@Override
+			protected UnitGroup create() {
+				return new UnitGroup();
+			}
+		});
+		builder.registerTypeAdapter(User.class, new ItemTypeAdapter<User>() {
+			@Override
+			protected User create() {
+				return new User();
+			}
+		});
+		builder.registerTypeAdapter(Resource.class, new ItemTypeAdapter<Resource>() {
+			@Override
+			protected Resource create() {
+				return new Resource();
+			}
+		});
+	}
+}
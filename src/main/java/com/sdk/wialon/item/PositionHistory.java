@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.item;
+
+import com.sdk.wialon.messages.PositionVisitor;
+import com.sdk.wialon.messages.UnitData;
+
+/**
+ * Fixed capacity ring buffer of last unit positions, oldest positions are overwritten by new ones.
+ * Positions are kept in primitive arrays, index 0 is the oldest kept position.
+ * Visitors are called under buffer lock and should not block.
+ */
+public class PositionHistory {
+	private final long[] times;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final int[] speeds;
+	private final int[] courses;
+	private final int[] altitudes;
+	private final int[] satellites;
+	/** Index of the oldest position in arrays */
+	private int head;
+	private int size;
+
+	/**
+	 * Create history
+	 * @param capacity max count of kept positions
+	 */
+	public PositionHistory(int capacity) {
+		if (capacity<=0)
+			throw new IllegalArgumentException("Capacity should be positive");
+		times=new long[capacity];
+		latitudes=new double[capacity];
+		longitudes=new double[capacity];
+		speeds=new int[capacity];
+		courses=new int[capacity];
+		altitudes=new int[capacity];
+		satellites=new int[capacity];
+	}
+
+	public int getCapacity() {
+		return times.length;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized void clear() {
+		head=0;
+		size=0;
+	}
+
+	/**
+	 * Append position, positions older than the last one are ignored
+	 * @return true if position was appended
+	 */
+	public synchronized boolean append(long time, double latitude, double longitude, int speed, int course, int altitude, int satelliteCount) {
+		if (size>0 && times[slot(size-1)]>=time)
+			return false;
+		int slot;
+		if (size<times.length)
+			slot=slot(size++);
+		else {
+			slot=head;
+			head=(head+1)%times.length;
+		}
+		times[slot]=time;
+		latitudes[slot]=latitude;
+		longitudes[slot]=longitude;
+		speeds[slot]=speed;
+		courses[slot]=course;
+		altitudes[slot]=altitude;
+		satellites[slot]=satelliteCount;
+		return true;
+	}
+
+	/**
+	 * Append unit position
+	 * @param position position with time
+	 * @return true if position was appended
+	 */
+	public boolean append(UnitData.Position position) {
+		return position!=null && append(position.getTime(), position.getLatitude(), position.getLongitude(),
+				position.getSpeed(), position.getCourse(), position.getAltitude(), position.getSatellitesCount());
+	}
+
+	public synchronized long getTime(int index) {
+		return times[slot(check(index))];
+	}
+
+	public synchronized double getLatitude(int index) {
+		return latitudes[slot(check(index))];
+	}
+
+	public synchronized double getLongitude(int index) {
+		return longitudes[slot(check(index))];
+	}
+
+	public synchronized int getSpeed(int index) {
+		return speeds[slot(check(index))];
+	}
+
+	public synchronized int getCourse(int index) {
+		return courses[slot(check(index))];
+	}
+
+	public synchronized int getAltitude(int index) {
+		return altitudes[slot(check(index))];
+	}
+
+	public synchronized int getSatellitesCount(int index) {
+		return satellites[slot(check(index))];
+	}
+
+	/**
+	 * Visit positions in time interval, from oldest to newest
+	 * @param timeFrom interval begin, UTC, inclusive
+	 * @param timeTo interval end, UTC, inclusive
+	 * @param visitor positions receiver
+	 * @return count of visited positions
+	 */
+	public synchronized int forEach(long timeFrom, long timeTo, PositionVisitor visitor) {
+		// positions are sorted by time, find first one with binary search
+		int low=0, high=size;
+		while (low<high) {
+			int middle=(low+high)>>>1;
+			if (times[slot(middle)]<timeFrom)
+				low=middle+1;
+			else
+				high=middle;
+		}
+		int visited=0;
+		for (int i=low; i<size; i++) {
+			int slot=slot(i);
+			if (times[slot]>timeTo)
+				break;
+			visit(slot, visitor);
+			visited++;
+		}
+		return visited;
+	}
+
+	/**
+	 * Visit last positions, from oldest to newest
+	 * @param count max count of positions, nothing is visited if not positive
+	 * @param visitor positions receiver
+	 * @return count of visited positions
+	 */
+	public synchronized int forEachLast(int count, PositionVisitor visitor) {
+		int from=Math.max(0, size-Math.max(0, count));
+		for (int i=from; i<size; i++)
+			visit(slot(i), visitor);
+		return size-from;
+	}
+
+	/**
+	 * Copy times and coordinates of last positions to given arrays, from oldest to newest
+	 * @param times destination for times, can be null
+	 * @param latitudes destination for latitudes, can be null
+	 * @param longitudes destination for longitudes, can be null
+	 * @param count max count of positions, nothing is copied if not positive
+	 * @return count of copied positions
+	 */
+	public synchronized int copyLast(long[] times, double[] latitudes, double[] longitudes, int count) {
+		int copied=Math.max(0, Math.min(count, size));
+		for (int i=0; i<copied; i++) {
+			int slot=slot(size-copied+i);
+			if (times!=null)
+				times[i]=this.times[slot];
+			if (latitudes!=null)
+				latitudes[i]=this.latitudes[slot];
+			if (longitudes!=null)
+				longitudes[i]=this.longitudes[slot];
+		}
+		return copied;
+	}
+
+	private void visit(int slot, PositionVisitor visitor) {
+		visitor.visit(times[slot], latitudes[slot], longitudes[slot], speeds[slot], courses[slot], altitudes[slot], satellites[slot]);
+	}
+
+	private int check(int index) {
+		if (index<0 || index>=size)
+			throw new IndexOutOfBoundsException("Index: "+index+", size: "+size);
+		return index;
+	}
+
+	private int slot(int index) {
+		int slot=head+index;
+		return slot>=times.length ? slot-times.length : slot;
+	}
+}
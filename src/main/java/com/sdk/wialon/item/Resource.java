@@ -16,9 +16,13 @@
 
 package com.sdk.wialon.item;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.sdk.wialon.item.prop.ItemPropertiesData;
 import com.sdk.wialon.item.prop.Report;
+import com.sdk.wialon.util.JsonStreams;
 
+import java.io.IOException;
 import java.util.Map;
 
 public class Resource extends Item {
@@ -40,6 +44,26 @@ public class Resource extends Item {
 		return notificationPlugin==null ? notificationPlugin=new ItemPropertiesData(unf, "unf", this, events.updateNotification, "resource/update_notification", "resource/get_notification_data") : notificationPlugin;
 	}
 
+	@Override
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (super.readField(name, in))
+			return true;
+		if (name.equals("rep"))
+			rep=JsonStreams.readStringMap(in);
+		else if (name.equals("unf"))
+			unf=JsonStreams.readStringMap(in);
+		else
+			return false;
+		return true;
+	}
+
+	@Override
+	protected void writeFields(JsonWriter out) throws IOException {
+		super.writeFields(out);
+		JsonStreams.writeStringMap(out, "rep", rep);
+		JsonStreams.writeStringMap(out, "unf", unf);
+	}
+
 	/** Data flags constants */
 	public static enum dataFlag{
 		/** Drivers plugin */
@@ -18,6 +18,8 @@ package com.sdk.wialon.item;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.sdk.wialon.core.Session;
 import com.sdk.wialon.item.prop.ItemProperties;
 import com.sdk.wialon.item.prop.Sensor;
@@ -25,8 +27,9 @@ import com.sdk.wialon.messages.Message;
 import com.sdk.wialon.messages.UnitData;
 import com.sdk.wialon.remote.RemoteHttpClient;
 import com.sdk.wialon.remote.handlers.ResponseHandler;
+import com.sdk.wialon.util.JsonStreams;
 
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -43,11 +46,16 @@ public class Unit extends ItemIcon {
 	private Long cnm;
 	private Long cneh;
 	private Long cnkb;
-	private Map<String, Object> prms;
+	private UnitParams prms;
 	private Sensor sensorPlugin;
 	private Map<String, String> sens;
 	private Map<String, String> cml;
 	private ItemProperties commandDefinitionsPlugin;
+	/** Store of hot state for big fleets, position, last message time and counters are kept there when set */
+	private FleetStore fleetStore;
+	private int fleetSlot=-1;
+	/** Last positions, optional */
+	private PositionHistory positionHistory;
 
 	public ItemProperties getCommandDefinitionsPlugin() {
 		return commandDefinitionsPlugin == null ? commandDefinitionsPlugin = new ItemProperties(cml, "cml", this, events.updateCommandDefinition, "unit/update_command_definition") : commandDefinitionsPlugin;
@@ -183,8 +191,8 @@ public class Unit extends ItemIcon {
 	 * Unit calculation flags
 	 * @return flags value
 	 */
-	public Long getCalcFlags() {
-		return cfl;
+	public synchronized Long getCalcFlags() {
+		return fleetStore!=null ? fleetStore.getCounter(fleetSlot, FleetStore.CALC_FLAGS) : cfl;
 	}
 
 	/**
@@ -192,19 +200,26 @@ public class Unit extends ItemIcon {
 	 * @param calcFlags new flags value
 	 */
 	private void setCalcFlags(Long calcFlags) {
-		if (this.cfl==null || !this.cfl.equals(calcFlags)) {
-			Long oldFlags=this.cfl==null ? null : new Long(cfl);
-			this.cfl = calcFlags;
-			fireEvent(events.changeCalcFlags, this, oldFlags, cfl);
+		Long oldFlags;
+		// counter is changed under unit lock, so it is not lost while unit is moved to or from fleet store
+		synchronized (this) {
+			oldFlags=getCalcFlags();
+			if (oldFlags!=null && oldFlags.equals(calcFlags))
+				return;
+			if (fleetStore!=null)
+				fleetStore.setCounter(fleetSlot, FleetStore.CALC_FLAGS, calcFlags);
+			else
+				this.cfl = calcFlags;
 		}
+		fireEvent(events.changeCalcFlags, this, oldFlags, calcFlags);
 	}
 
 	/**
 	 * Unit mileage counter
 	 * @return mileage counter current value
 	 */
-	public Long getMileageCounter() {
-		return cnm;
+	public synchronized Long getMileageCounter() {
+		return fleetStore!=null ? fleetStore.getCounter(fleetSlot, FleetStore.MILEAGE) : cnm;
 	}
 
 	/**
@@ -212,19 +227,26 @@ public class Unit extends ItemIcon {
 	 * @param mileageCounter new mileage counter value
 	 */
 	private void setMileageCounter(Long mileageCounter) {
-		if (this.cnm==null || !this.cnm.equals(mileageCounter)) {
-			Long oldMileage=this.cnm==null ? null : new Long(cnm);
-			this.cnm = mileageCounter;
-			fireEvent(events.changeMileageCounter, this, oldMileage, cnm);
+		Long oldMileage;
+		// counter is changed under unit lock, so it is not lost while unit is moved to or from fleet store
+		synchronized (this) {
+			oldMileage=getMileageCounter();
+			if (oldMileage!=null && oldMileage.equals(mileageCounter))
+				return;
+			if (fleetStore!=null)
+				fleetStore.setCounter(fleetSlot, FleetStore.MILEAGE, mileageCounter);
+			else
+				this.cnm = mileageCounter;
 		}
+		fireEvent(events.changeMileageCounter, this, oldMileage, mileageCounter);
 	}
 
 	/**
 	 * Unit engine hours counter, in hours
 	 * @return engine hours counter current value
 	 */
-	public Long getEngineHoursCounter() {
-		return cneh;
+	public synchronized Long getEngineHoursCounter() {
+		return fleetStore!=null ? fleetStore.getCounter(fleetSlot, FleetStore.ENGINE_HOURS) : cneh;
 	}
 
 	/**
@@ -232,19 +254,26 @@ public class Unit extends ItemIcon {
 	 * @param engineHoursCounter new engine hours counter value
 	 */
 	private void setEngineHoursCounter(Long engineHoursCounter) {
-		if (this.cneh==null || !this.cneh.equals(engineHoursCounter)) {
-			Long oldEngine=this.cneh==null ? null : new Long(cneh);
-			this.cneh = engineHoursCounter;
-			fireEvent(events.changeEngineHoursCounter, this, oldEngine, cneh);
+		Long oldEngine;
+		// counter is changed under unit lock, so it is not lost while unit is moved to or from fleet store
+		synchronized (this) {
+			oldEngine=getEngineHoursCounter();
+			if (oldEngine!=null && oldEngine.equals(engineHoursCounter))
+				return;
+			if (fleetStore!=null)
+				fleetStore.setCounter(fleetSlot, FleetStore.ENGINE_HOURS, engineHoursCounter);
+			else
+				this.cneh = engineHoursCounter;
 		}
+		fireEvent(events.changeEngineHoursCounter, this, oldEngine, engineHoursCounter);
 	}
 
 	/**
 	 * Unit GPRS traffic counter, in KB
 	 * @return traffic counter current value
 	 */
-	public Long getTrafficCounter() {
-		return cnkb;
+	public synchronized Long getTrafficCounter() {
+		return fleetStore!=null ? fleetStore.getCounter(fleetSlot, FleetStore.TRAFFIC) : cnkb;
 	}
 
 	/**
@@ -252,45 +281,137 @@ public class Unit extends ItemIcon {
 	 * @param trafficCounter new traffic counter value
 	 */
 	private void setTrafficCounter(Long trafficCounter) {
-		if (cnkb==null || !cnkb.equals(trafficCounter)) {
-			Long oldTraffic= cnkb==null ? null : new Long(cnkb);
-			this.cnkb = trafficCounter;
-			fireEvent(events.changeTrafficCounter, this, oldTraffic, cnkb);
+		Long oldTraffic;
+		// counter is changed under unit lock, so it is not lost while unit is moved to or from fleet store
+		synchronized (this) {
+			oldTraffic=getTrafficCounter();
+			if (oldTraffic!=null && oldTraffic.equals(trafficCounter))
+				return;
+			if (fleetStore!=null)
+				fleetStore.setCounter(fleetSlot, FleetStore.TRAFFIC, trafficCounter);
+			else
+				this.cnkb = trafficCounter;
 		}
+		fireEvent(events.changeTrafficCounter, this, oldTraffic, trafficCounter);
 	}
 
 	/**
-	 * Message parameters change
-	 * @return map of parameters
+	 * Message parameters, map view in form {name: {v: value, ct: change time, at: actual time}}
+	 * @return parameters store
 	 */
-	public Map<String, Object> getMessageParams() {
+	public UnitParams getMessageParams() {
 		return prms;
 	}
 
 	/**
-	 * Message parameters change
-	 * @param messageParams new map of parameters
+	 * Apply message parameters update, event is fired only if some parameters values have changed
+	 * @param data parameters update from server
 	 */
-	private void setMessageParams(Map<String, Object> messageParams) {
-		this.prms = messageParams;
-		fireEvent(events.changeMessageParams, this, null, messageParams);
+	private void updateMessageParams(JsonObject data) {
+		if (prms==null)
+			prms=new UnitParams();
+		List<String> changed=prms.update(data);
+		if (!changed.isEmpty())
+			fireEvent(events.changeMessageParams, this, changed, prms);
 	}
 
 	/**
 	 * Unit position
 	 * @return get unit position
 	 */
-	public UnitData.Position getPosition() {
-		return pos;
+	public synchronized UnitData.Position getPosition() {
+		return fleetStore!=null ? fleetStore.getPosition(fleetSlot) : pos;
 	}
 
 	/**
-	 * Unit last message
+	 * Unit last message, not kept for units bound to fleet store
 	 * @return get unit last message
 	 */
 	public UnitData getLastMessage() {
 		return lmsg;
 	}
+
+	/**
+	 * Unit last message time
+	 * @return last message time or null if unit has no last message
+	 */
+	public synchronized Long getLastMessageTime() {
+		if (fleetStore!=null)
+			return fleetStore.getLastMessageTime(fleetSlot);
+		return lmsg==null ? null : lmsg.getTime();
+	}
+
+	/**
+	 * Keep last positions of unit, positions are added from new messages and position updates
+	 * @param capacity count of kept positions, zero to disable history
+	 */
+	public synchronized void setPositionHistoryCapacity(int capacity) {
+		if (capacity<=0)
+			positionHistory=null;
+		else if (positionHistory==null || positionHistory.getCapacity()!=capacity) {
+			positionHistory=new PositionHistory(capacity);
+			positionHistory.append(getPosition());
+		}
+	}
+
+	/**
+	 * Last positions of unit
+	 * @return history or null if not enabled, see setPositionHistoryCapacity
+	 */
+	public PositionHistory getPositionHistory() {
+		return positionHistory;
+	}
+
+	/**
+	 * Fleet store unit is bound to
+	 * @return store or null
+	 */
+	public synchronized FleetStore getFleetStore() {
+		return fleetStore;
+	}
+
+	/**
+	 * Move hot state to store slot, see FleetStore.bind
+	 */
+	synchronized void bindFleetStore(FleetStore store) {
+		if (fleetStore==store)
+			return;
+		// last message object is not kept in store, carry its time over when unit is moved between stores
+		Long lastMessageTime=getLastMessageTime();
+		if (fleetStore!=null)
+			unbindFleetStore();
+		int slot=store.allocate(this);
+		store.setPosition(slot, pos);
+		store.setLastMessageTime(slot, lastMessageTime);
+		store.setCounter(slot, FleetStore.CALC_FLAGS, cfl);
+		store.setCounter(slot, FleetStore.MILEAGE, cnm);
+		store.setCounter(slot, FleetStore.ENGINE_HOURS, cneh);
+		store.setCounter(slot, FleetStore.TRAFFIC, cnkb);
+		fleetStore=store;
+		fleetSlot=slot;
+		pos=null;
+		lmsg=null;
+		cfl=null;
+		cnm=null;
+		cneh=null;
+		cnkb=null;
+	}
+
+	/**
+	 * Move hot state back from store slot, last message object is not restored
+	 */
+	synchronized void unbindFleetStore() {
+		if (fleetStore==null)
+			return;
+		pos=fleetStore.getPosition(fleetSlot);
+		cfl=fleetStore.getCounter(fleetSlot, FleetStore.CALC_FLAGS);
+		cnm=fleetStore.getCounter(fleetSlot, FleetStore.MILEAGE);
+		cneh=fleetStore.getCounter(fleetSlot, FleetStore.ENGINE_HOURS);
+		cnkb=fleetStore.getCounter(fleetSlot, FleetStore.TRAFFIC);
+		fleetStore.free(fleetSlot);
+		fleetStore=null;
+		fleetSlot=-1;
+	}
 	/**
 	 * Schedule remote command to unit, require ACL of current user not lower then specified in command properties
 	 * @param commandName command name
@@ -430,14 +551,10 @@ public class Unit extends ItemIcon {
 		//Log.d("Updating message", "Updating message");
 		if (message!=null && message.getMessageType().equals(Message.MessageType.UnitData)) {
 			// check last message
-			UnitData currLastMsg = this.getLastMessage();
-			if (currLastMsg==null || currLastMsg.getTime() < message.getTime()) {
-				if (currLastMsg==null)
-					setLastMessage((UnitData) message);
-				else {
-					setLastMessage((UnitData)message);
-					//Todo: create copy of new message and add all properties that exists in previous message and not overridden in new one
-				}
+			Long currLastMsgTime = this.getLastMessageTime();
+			if (currLastMsgTime==null || currLastMsgTime < message.getTime()) {
+				setLastMessage((UnitData)message);
+				//Todo: create copy of new message and add all properties that exists in previous message and not overridden in new one
 			}
 			// check position
 			if (((UnitData)message).getPosition()!=null) {
@@ -455,12 +572,25 @@ public class Unit extends ItemIcon {
 	}
 
 	private void setLastMessage(UnitData message) {
-		this.lmsg=message;
+		synchronized (this) {
+			if (fleetStore!=null)
+				fleetStore.setLastMessageTime(fleetSlot, message==null ? null : message.getTime());
+			else
+				this.lmsg=message;
+		}
 		fireEvent(events.changeLastMessage, this, null, message);
 	}
 
 	private void setPosition(UnitData.Position position) {
-		this.pos=position;
+		synchronized (this) {
+			if (fleetStore!=null)
+				fleetStore.setPosition(fleetSlot, position);
+			else
+				this.pos=position;
+		}
+		PositionHistory history=positionHistory;
+		if (history!=null)
+			history.append(position);
 		fireEvent(events.changePosition, this, null, position);
 	}
 
@@ -494,27 +624,87 @@ public class Unit extends ItemIcon {
 			} else if (key.equals("cnkb") && data.getAsNumber()!=null) {
 				setTrafficCounter(data.getAsLong());
 			} else if (key.equals("prms") && data.isJsonObject()) {
-				Map<String, Object> dataParams=new HashMap<String, Object>();
-				dataParams=Session.getInstance().getGson().fromJson(data, dataParams.getClass());
-				Map<String, Object> oldParams = getMessageParams();
-				if (oldParams==null)
-					oldParams = new HashMap<String, Object>();
-				for (Map.Entry<String, Object> entry : dataParams.entrySet()){
-					if (entry.getValue() instanceof Number){
-						Object oldParam=oldParams.get(entry.getKey());
-						if (oldParam!=null && oldParam instanceof Map)
-							((Map) oldParam).put("at", ((Number) entry.getValue()).longValue());
-					} else {
-						oldParams.put(entry.getKey(), entry.getValue());
-					}
-				}
-				setMessageParams(oldParams);
+				updateMessageParams(data.getAsJsonObject());
 			} else
 				return false;
 			return true;
 		}
 	}
 
+	@Override
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (super.readField(name, in))
+			return true;
+		if (name.equals("uid"))
+			uid=JsonStreams.readString(in);
+		else if (name.equals("hw"))
+			hw=JsonStreams.readLong(in);
+		else if (name.equals("ph"))
+			ph=JsonStreams.readString(in);
+		else if (name.equals("ph2"))
+			ph2=JsonStreams.readString(in);
+		else if (name.equals("psw"))
+			psw=JsonStreams.readString(in);
+		else if (name.equals("cmds"))
+			cmds=(List)JsonStreams.readObject(in);
+		else if (name.equals("pos"))
+			pos=Session.getInstance().getGson().getAdapter(UnitData.Position.class).read(in);
+		else if (name.equals("lmsg"))
+			lmsg=Session.getInstance().getGson().getAdapter(UnitData.class).read(in);
+		else if (name.equals("cfl"))
+			cfl=JsonStreams.readLong(in);
+		else if (name.equals("cnm"))
+			cnm=JsonStreams.readLong(in);
+		else if (name.equals("cneh"))
+			cneh=JsonStreams.readLong(in);
+		else if (name.equals("cnkb"))
+			cnkb=JsonStreams.readLong(in);
+		else if (name.equals("prms")) {
+			prms=new UnitParams();
+			prms.read(in);
+		}
+		else if (name.equals("sens"))
+			sens=JsonStreams.readStringMap(in);
+		else if (name.equals("cml"))
+			cml=JsonStreams.readStringMap(in);
+		else
+			return false;
+		return true;
+	}
+
+	@Override
+	protected void writeFields(JsonWriter out) throws IOException {
+		super.writeFields(out);
+		out.name("uid").value(uid);
+		out.name("hw").value(hw);
+		out.name("ph").value(ph);
+		out.name("ph2").value(ph2);
+		out.name("psw").value(psw);
+		if (cmds!=null) {
+			out.name("cmds");
+			JsonStreams.writeObject(out, cmds);
+		}
+		UnitData.Position position=getPosition();
+		if (position!=null) {
+			out.name("pos");
+			Session.getInstance().getGson().getAdapter(UnitData.Position.class).write(out, position);
+		}
+		if (lmsg!=null) {
+			out.name("lmsg");
+			Session.getInstance().getGson().getAdapter(UnitData.class).write(out, lmsg);
+		}
+		out.name("cfl").value(getCalcFlags());
+		out.name("cnm").value(getMileageCounter());
+		out.name("cneh").value(getEngineHoursCounter());
+		out.name("cnkb").value(getTrafficCounter());
+		if (prms!=null) {
+			out.name("prms");
+			JsonStreams.writeObject(out, prms);
+		}
+		JsonStreams.writeStringMap(out, "sens", sens);
+		JsonStreams.writeStringMap(out, "cml", cml);
+	}
+
 	/** Data flags constants */
 	public static enum dataFlag {
 		/** Unit restricted props*/
@@ -765,7 +955,7 @@ public class Unit extends ItemIcon {
 		changeEngineHoursCounter,
 		/** Unit GPRS traffic counter property has changed */
 		changeTrafficCounter,
-		/** Message params has changed */
+		/** Message params has changed, old data is list of changed parameters names, new data is parameters store */
 		changeMessageParams,
 		updateSensor,
 		updateCommandDefinition
@@ -20,6 +20,11 @@ import com.sdk.wialon.core.Session;
 import com.sdk.wialon.remote.RemoteHttpClient;
 import com.sdk.wialon.remote.handlers.ResponseHandler;
 import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.IOException;
 
 public class UnitGroup extends ItemIcon {
 	private Long[] u;
@@ -79,6 +84,23 @@ public class UnitGroup extends ItemIcon {
 		}
 	}
 
+	@Override
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (super.readField(name, in))
+			return true;
+		if (name.equals("u"))
+			u=JsonStreams.readLongArray(in);
+		else
+			return false;
+		return true;
+	}
+
+	@Override
+	protected void writeFields(JsonWriter out) throws IOException {
+		super.writeFields(out);
+		JsonStreams.writeLongArray(out, "u", u);
+	}
+
 	private void setUnits(Long[] units) {
 		if (this.u==null || !this.u.equals(units)) {
 			Long[] oldUnits=this.u==null? null : u.clone();
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.item;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+/**
+ * Unit message parameters store. Server sends parameters in form {name: {v: value, ct: change time, at: actual time}},
+ * updates contain full parameter object or only new actual time {name: at}.
+ * Numeric values are kept in primitive slots and updated in place, parameters names are interned.
+ * Store is also read-only map view with values in server form.
+ */
+public class UnitParams extends AbstractMap<String, Object> {
+	private final Map<String, Integer> slots=new HashMap<String, Integer>();
+	private String[] names=new String[8];
+	/** Numeric values */
+	private double[] numbers=new double[8];
+	/** Non-numeric values, null for numeric ones */
+	private Object[] objects=new Object[8];
+	private long[] changeTimes=new long[8];
+	private long[] actualTimes=new long[8];
+	private int count;
+	private EntrySet entrySet;
+
+	/**
+	 * Read parameters from server data
+	 * @param in reader positioned at parameters object
+	 */
+	public synchronized void read(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return;
+		}
+		in.beginObject();
+		while (in.hasNext()) {
+			int slot=getSlot(in.nextName());
+			if (in.peek()!=JsonToken.BEGIN_OBJECT) {
+				actualTimes[slot]=JsonStreams.readLong(in, 0);
+				continue;
+			}
+			in.beginObject();
+			while (in.hasNext()) {
+				String field=in.nextName();
+				if (field.equals("v")) {
+					Object value=JsonStreams.readObject(in);
+					if (value instanceof Double) {
+						numbers[slot]=(Double)value;
+						objects[slot]=null;
+					} else
+						objects[slot]=value;
+				} else if (field.equals("ct"))
+					changeTimes[slot]=JsonStreams.readLong(in, 0);
+				else if (field.equals("at"))
+					actualTimes[slot]=JsonStreams.readLong(in, 0);
+				else
+					in.skipValue();
+			}
+			in.endObject();
+		}
+		in.endObject();
+	}
+
+	/**
+	 * Apply parameters update from server
+	 * @param data update in form {name: {v: value, ct: 0, at: 0}} or {name: at}
+	 * @return names of parameters which value or change time has changed, empty if only actual times were updated
+	 */
+	public synchronized List<String> update(JsonObject data) {
+		List<String> changed=new ArrayList<String>();
+		for (Map.Entry<String, JsonElement> entry : data.entrySet()) {
+			JsonElement param=entry.getValue();
+			if (isNumber(param)) {
+				// only actual time of existing parameter
+				Integer slot=slots.get(entry.getKey());
+				if (slot!=null)
+					actualTimes[slot]=param.getAsLong();
+			} else if (param.isJsonObject()) {
+				boolean added=!slots.containsKey(entry.getKey());
+				int slot=getSlot(entry.getKey());
+				if (updateSlot(slot, param.getAsJsonObject()) || added)
+					changed.add(names[slot]);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Check if parameter exists
+	 * @param name parameter name
+	 * @return true if unit has such parameter
+	 */
+	public synchronized boolean hasParam(String name) {
+		return slots.containsKey(name);
+	}
+
+	/**
+	 * Get numeric parameter value without boxing
+	 * @param name parameter name
+	 * @param defaultValue value returned for missing or non-numeric parameter
+	 * @return value
+	 */
+	public synchronized double getNumber(String name, double defaultValue) {
+		Integer slot=slots.get(name);
+		return slot==null || objects[slot]!=null ? defaultValue : numbers[slot];
+	}
+
+	/**
+	 * Get parameter value
+	 * @param name parameter name
+	 * @return Double for numeric parameters, String, Map or List for others, null if missing
+	 */
+	public synchronized Object getValue(String name) {
+		Integer slot=slots.get(name);
+		return slot==null ? null : getValue(slot);
+	}
+
+	/**
+	 * Get time of last parameter value change
+	 * @param name parameter name
+	 * @return UTC time or 0 if missing
+	 */
+	public synchronized long getChangeTime(String name) {
+		Integer slot=slots.get(name);
+		return slot==null ? 0 : changeTimes[slot];
+	}
+
+	/**
+	 * Get time of last message with parameter
+	 * @param name parameter name
+	 * @return UTC time or 0 if missing
+	 */
+	public synchronized long getActualTime(String name) {
+		Integer slot=slots.get(name);
+		return slot==null ? 0 : actualTimes[slot];
+	}
+
+	/**
+	 * Get parameter in server form
+	 * @param key parameter name
+	 * @return map {v: value, ct: change time, at: actual time} or null
+	 */
+	@Override
+	public synchronized Object get(Object key) {
+		Integer slot=slots.get(key);
+		return slot==null ? null : getParam(slot);
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key) {
+		return slots.containsKey(key);
+	}
+
+	@Override
+	public synchronized int size() {
+		return count;
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		return entrySet==null ? entrySet=new EntrySet() : entrySet;
+	}
+
+	private boolean updateSlot(int slot, JsonObject param) {
+		boolean changed=false;
+		JsonElement value=param.get("v");
+		if (value!=null && !value.isJsonNull()) {
+			if (isNumber(value)) {
+				double number=value.getAsDouble();
+				if (objects[slot]!=null || Double.doubleToLongBits(numbers[slot])!=Double.doubleToLongBits(number)) {
+					numbers[slot]=number;
+					objects[slot]=null;
+					changed=true;
+				}
+			} else {
+				Object object=value.isJsonPrimitive() && ((JsonPrimitive)value).isString() ? value.getAsString() : toObject(value);
+				if (!object.equals(objects[slot])) {
+					objects[slot]=object;
+					changed=true;
+				}
+			}
+		}
+		JsonElement changeTime=param.get("ct");
+		if (isNumber(changeTime) && changeTime.getAsLong()!=changeTimes[slot]) {
+			changeTimes[slot]=changeTime.getAsLong();
+			changed=true;
+		}
+		JsonElement actualTime=param.get("at");
+		if (isNumber(actualTime))
+			actualTimes[slot]=actualTime.getAsLong();
+		return changed;
+	}
+
+	/**
+	 * Check if element is number, time fields may be null or missing in server data
+	 */
+	private static boolean isNumber(JsonElement element) {
+		return element!=null && element.isJsonPrimitive() && ((JsonPrimitive)element).isNumber();
+	}
+
+	private int getSlot(String name) {
+		Integer slot=slots.get(name);
+		if (slot!=null)
+			return slot;
+		if (count==names.length) {
+			int capacity=count*2;
+			names=Arrays.copyOf(names, capacity);
+			numbers=Arrays.copyOf(numbers, capacity);
+			objects=Arrays.copyOf(objects, capacity);
+			changeTimes=Arrays.copyOf(changeTimes, capacity);
+			actualTimes=Arrays.copyOf(actualTimes, capacity);
+		}
+		// parameters names are the same for most units of fleet
+		name=name.intern();
+		names[count]=name;
+		slots.put(name, count);
+		return count++;
+	}
+
+	private Object getValue(int slot) {
+		return objects[slot]!=null ? objects[slot] : (Object)numbers[slot];
+	}
+
+	private Map<String, Object> getParam(int slot) {
+		Map<String, Object> param=new LinkedHashMap<String, Object>();
+		param.put("v", getValue(slot));
+		param.put("ct", changeTimes[slot]);
+		param.put("at", actualTimes[slot]);
+		return param;
+	}
+
+	private static Object toObject(JsonElement value) {
+		try {
+			return JsonStreams.readObject(new JsonReader(new StringReader(value.toString())));
+		} catch (IOException e) {
+			return value.toString();
+		}
+	}
+
+	private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+		@Override
+		public Iterator<Entry<String, Object>> iterator() {
+			final List<Entry<String, Object>> entries=new ArrayList<Entry<String, Object>>();
+			synchronized (UnitParams.this) {
+				for (int i=0; i<count; i++)
+					entries.add(new SimpleImmutableEntry<String, Object>(names[i], getParam(i)));
+			}
+			return Collections.unmodifiableList(entries).iterator();
+		}
+
+		@Override
+		public int size() {
+			return UnitParams.this.size();
+		}
+	}
+}
@@ -18,11 +18,15 @@ package com.sdk.wialon.item;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.sdk.wialon.core.Session;
 import com.sdk.wialon.item.prop.ItemProperties;
 import com.sdk.wialon.remote.RemoteHttpClient;
 import com.sdk.wialon.remote.handlers.ResponseHandler;
+import com.sdk.wialon.util.JsonStreams;
 
+import java.io.IOException;
 import java.util.Map;
 
 public class User extends Item {
@@ -170,6 +174,29 @@ public class User extends Item {
 		}
 	}
 
+	@Override
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (super.readField(name, in))
+			return true;
+		if (name.equals("fl"))
+			fl=JsonStreams.readLong(in);
+		else if (name.equals("hm"))
+			hm=JsonStreams.readString(in);
+		else if (name.equals("mapps"))
+			mapps=JsonStreams.readStringMap(in);
+		else
+			return false;
+		return true;
+	}
+
+	@Override
+	protected void writeFields(JsonWriter out) throws IOException {
+		super.writeFields(out);
+		out.name("fl").value(fl);
+		out.name("hm").value(hm);
+		JsonStreams.writeStringMap(out, "mapps", mapps);
+	}
+
 	private void setUserFlags(Long userFlags) {
 		if (this.fl==null || !this.fl.equals(userFlags)) {
 			Long oldFlags=this.fl==null ? null : new Long(this.fl);
@@ -25,6 +25,7 @@ import com.sdk.wialon.item.Item;
 import com.sdk.wialon.remote.RemoteHttpClient;
 import com.sdk.wialon.remote.handlers.ResponseHandler;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 
@@ -33,9 +34,20 @@ public class ItemProperties {
 	private String ajaxPath;
 	private Enum event;
 	protected Item item;
+	/** Incremented on every change of properties */
+	private volatile int version;
 
 	private void setData(Map<String, String> data){
 		this.data=data;
+		version++;
+	}
+
+	/**
+	 * Get version of properties data, e.g. to rebuild data derived from properties after change
+	 * @return version, changed on every update of properties
+	 */
+	public int getVersion(){
+		return version;
 	}
 
 	public ItemProperties (Map<String, String> data, String propName, Item item, Enum event, String ajaxPath) {
@@ -64,6 +76,14 @@ public class ItemProperties {
 	public Collection<String> getProperties(){
 		return data==null ? null : data.values();
 	}
+
+	/**
+	 * Return copy of item properties json, it can be iterated while properties are updated from other thread
+	 * @return collection of item properties
+	 */
+	public synchronized Collection<String> copyProperties(){
+		return data==null ? null : new ArrayList<String>(data.values());
+	}
 	/**
 	 * Return property item json
 	 * @param id item index
@@ -87,12 +107,16 @@ public class ItemProperties {
 				String newData=null;
 				if (!jsonArrayResult.get(1).isJsonNull())
 					newData=jsonArrayResult.get(1).toString();
-				String oldData=data.get(id);
-				if (newData != null)
-					// update/create item
-					data.put(id, newData);
-				else if (oldData!=null &&!skipFlag)
-					data.remove(id);
+				String oldData;
+				synchronized (this) {
+					oldData=data.get(id);
+					if (newData != null)
+						// update/create item
+						data.put(id, newData);
+					else if (oldData!=null &&!skipFlag)
+						data.remove(id);
+					version++;
+				}
 				// fire property update event
 				if (!skipFlag && !String.valueOf(newData).equals(String.valueOf(oldData)))
 					item.fireItemPropertyEvent(event, oldData, newData);
@@ -19,6 +19,7 @@ package com.sdk.wialon.item.prop;
 import com.sdk.wialon.core.Session;
 import com.sdk.wialon.item.Item;
 import com.sdk.wialon.remote.RemoteHttpClient;
+import com.sdk.wialon.remote.handlers.ReportResponseHandler;
 import com.sdk.wialon.remote.handlers.ResponseHandler;
 import com.sdk.wialon.render.Renderer;
 
@@ -50,7 +51,7 @@ public class Report extends ItemPropertiesData {
 	 * @param reportObjectId    report object ID
 	 * @param reportObjectSecId secondary report object ID, e.g. driver id for driver reports
 	 * @param interval          report interval specification
-	 * @param callback          callback that will receive information about new layer addition
+	 * @param callback          callback that will receive information about new layer addition, ReportResponseHandler gets parsed ReportResult
 	 */
 	public void execReport(long reportId, long reportObjectId, long reportObjectSecId, ReportInterval interval, ResponseHandler callback) {
 		//reportTemplate: reportTemplate,
@@ -98,8 +99,20 @@ public class Report extends ItemPropertiesData {
 			callback.onFailure(6, null);
 			return;
 		}
+		ReportResult reportResult;
+		try {
+			reportResult = ReportResult.parse(result);
+		} catch (Exception e) {
+			callback.onFailure(6, e);
+			return;
+		}
+		// update session renderer
+		Renderer renderer = Session.getInstance().getRenderer();
+		if (renderer != null)
+			renderer.setReportLayer(reportResult.getLayer());
 		callback.onSuccess(result);
-		//TODO: update session render
+		if (callback instanceof ReportResponseHandler)
+			((ReportResponseHandler) callback).onSuccessReport(reportResult);
 	}
 
 	/**
@@ -111,7 +124,7 @@ public class Report extends ItemPropertiesData {
 		Renderer renderer = Session.getInstance().getRenderer();
 		// update renderer
 		if (renderer != null)
-			renderer.hashCode();//TODO: update session render
+			renderer.setReportLayer(null);
 		// pass code to callback if available
 		callback.onSuccess(result);
 	}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+package com.sdk.wialon.item.prop;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sdk.wialon.core.PagedIterator;
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.remote.RemoteHttpClient;
+import com.sdk.wialon.remote.handlers.ReportResponseHandler;
+import com.sdk.wialon.remote.handlers.ResponseHandler;
+import com.sdk.wialon.render.Layer;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Result of report execution loaded into session. Result keeps tables description only,
+ * rows are requested from server by index ranges, see getRows and iterateRows.
+ * Result is valid until report/cleanup_result or next report execution.
+ */
+public class ReportResult {
+	private final List<Table> tables=new ArrayList<Table>();
+	private final List<String[]> stats=new ArrayList<String[]>();
+	private int messagesRendered;
+	private Layer layer;
+
+	/**
+	 * Parse result of report/exec_report
+	 * @param result server response
+	 * @return report result
+	 * @throws IllegalArgumentException if response has no report result
+	 */
+	public static ReportResult parse(String result) {
+		JsonElement json=Session.getInstance().getJsonParser().parse(result);
+		if (!json.isJsonObject() || !json.getAsJsonObject().has("reportResult") ||
+				!json.getAsJsonObject().get("reportResult").isJsonObject())
+			throw new IllegalArgumentException("Report result expected");
+		ReportResult reportResult=new ReportResult();
+		JsonObject resultObject=json.getAsJsonObject().getAsJsonObject("reportResult");
+		if (resultObject.has("msgsRendered"))
+			reportResult.messagesRendered=resultObject.get("msgsRendered").getAsInt();
+		if (resultObject.has("tables") && resultObject.get("tables").isJsonArray()) {
+			JsonArray tables=resultObject.getAsJsonArray("tables");
+			for (int i=0; i<tables.size(); i++)
+				reportResult.tables.add(new Table(i, tables.get(i).getAsJsonObject()));
+		}
+		if (resultObject.has("stats") && resultObject.get("stats").isJsonArray())
+			for (JsonElement stat : resultObject.getAsJsonArray("stats"))
+				if (stat.isJsonArray())
+					reportResult.stats.add(toStrings(stat.getAsJsonArray()));
+		JsonElement layer=json.getAsJsonObject().get("reportLayer");
+		if (layer!=null && layer.isJsonObject())
+			reportResult.layer=Session.getInstance().getGson().fromJson(layer, Layer.class);
+		return reportResult;
+	}
+
+	public List<Table> getTables() {
+		return Collections.unmodifiableList(tables);
+	}
+
+	/**
+	 * Get table by name, e.g. "unit_trips"
+	 * @param name table name
+	 * @return table or null
+	 */
+	public Table getTable(String name) {
+		for (Table table : tables)
+			if (table.name.equals(name))
+				return table;
+		return null;
+	}
+
+	/**
+	 * Statistics rows in form [name, value]
+	 */
+	public List<String[]> getStats() {
+		return Collections.unmodifiableList(stats);
+	}
+
+	public int getMessagesRendered() {
+		return messagesRendered;
+	}
+
+	/**
+	 * Get layer of report, added to session renderer
+	 * @return layer or null if report has no map output
+	 */
+	public Layer getLayer() {
+		return layer;
+	}
+
+	/**
+	 * Get rows of table
+	 * @param tableIndex table index
+	 * @param indexFrom starting row index (inclusive)
+	 * @param indexTo ending row index (inclusive)
+	 * @param callback callback that get rows in onSuccessRows
+	 */
+	public void getRows(int tableIndex, int indexFrom, int indexTo, ReportResponseHandler callback) {
+		RemoteHttpClient.getInstance().remoteCall(
+				"report/get_result_rows",
+				"{\"tableIndex\":"+tableIndex+",\"indexFrom\":"+indexFrom+",\"indexTo\":"+indexTo+"}",
+				new ResponseHandler(callback) {
+					@Override
+					public void onSuccess(String response) {
+						onRowsReceived(response, getCallback());
+					}
+				}
+		);
+	}
+
+	/**
+	 * Iterate over rows of table page by page, next page is requested while current one is consumed.
+	 * Iterator is blocking, it should not be used from callbacks of remote calls.
+	 * @param tableIndex table index
+	 * @param pageSize count of rows requested at once
+	 * @return iterator
+	 */
+	public PagedIterator<Row> iterateRows(int tableIndex, int pageSize) {
+		if (tableIndex<0 || tableIndex>=tables.size())
+			throw new IndexOutOfBoundsException("Table index: "+tableIndex);
+		return new RowsIterator(tableIndex, tables.get(tableIndex).rowsCount, pageSize);
+	}
+
+	private void onRowsReceived(String response, ResponseHandler callback) {
+		if (response==null) {
+			callback.onFailure(6, null);
+			return;
+		}
+		List<Row> rows=new ArrayList<Row>();
+		try {
+			JsonReader in=new JsonReader(new StringReader(response));
+			in.beginArray();
+			while (in.hasNext())
+				rows.add(Row.read(in));
+			in.endArray();
+		} catch (Exception e) {
+			callback.onFailure(6, e);
+			return;
+		}
+		callback.onSuccess(response);
+		if (callback instanceof ReportResponseHandler)
+			((ReportResponseHandler)callback).onSuccessRows(rows.toArray(new Row[rows.size()]));
+	}
+
+	private static String[] toStrings(JsonArray array) {
+		String[] strings=new String[array.size()];
+		for (int i=0; i<array.size(); i++)
+			strings[i]=cellText(array.get(i));
+		return strings;
+	}
+
+	private static String cellText(JsonElement cell) {
+		if (cell==null || cell.isJsonNull())
+			return "";
+		if (cell.isJsonObject() && cell.getAsJsonObject().has("t"))
+			return cell.getAsJsonObject().get("t").getAsString();
+		return cell.isJsonPrimitive() ? cell.getAsString() : cell.toString();
+	}
+
+	private final class RowsIterator extends PagedIterator<Row> {
+		private final int tableIndex;
+
+		RowsIterator(int tableIndex, int rowsCount, int pageSize) {
+			super(pageSize);
+			this.tableIndex=tableIndex;
+			setTotalCount(rowsCount);
+		}
+
+		@Override
+		protected void fetchPage(int indexFrom, int indexTo, final CompletableFuture<List<Row>> result) {
+			getRows(tableIndex, indexFrom, indexTo, new ReportResponseHandler() {
+				@Override
+				public void onSuccessRows(Row... rows) {
+					result.complete(Arrays.asList(rows));
+				}
+
+				@Override
+				public void onFailure(int errorCode, Throwable throwableError) {
+					result.completeExceptionally(new FetchException(errorCode, throwableError));
+				}
+			});
+		}
+	}
+
+	/**
+	 * Report table description
+	 */
+	public static class Table {
+		private final int index;
+		private final String name;
+		private final String label;
+		private final long flags;
+		private final int rowsCount;
+		private final int level;
+		private final String[] header;
+		private final String[] total;
+
+		Table(int index, JsonObject json) {
+			this.index=index;
+			name=json.has("name") ? json.get("name").getAsString() : "";
+			label=json.has("label") ? json.get("label").getAsString() : "";
+			flags=json.has("flags") ? json.get("flags").getAsLong() : 0;
+			rowsCount=json.has("rows") ? json.get("rows").getAsInt() : 0;
+			level=json.has("level") ? json.get("level").getAsInt() : 0;
+			header=json.has("header") && json.get("header").isJsonArray() ? toStrings(json.getAsJsonArray("header")) : new String[0];
+			total=json.has("total") && json.get("total").isJsonArray() ? toStrings(json.getAsJsonArray("total")) : new String[0];
+		}
+
+		/** Index of table, used to request rows */
+		public int getIndex() {
+			return index;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public long getFlags() {
+			return flags;
+		}
+
+		/** Count of top level rows */
+		public int getRowsCount() {
+			return rowsCount;
+		}
+
+		/** Count of grouping levels */
+		public int getLevel() {
+			return level;
+		}
+
+		public String[] getHeader() {
+			return header.clone();
+		}
+
+		/** Total row, empty if table has no total */
+		public String[] getTotal() {
+			return total.clone();
+		}
+	}
+
+	/**
+	 * Row of report table
+	 */
+	public static class Row {
+		private int level;
+		private long timeFrom;
+		private long timeTo;
+		private long messageFrom;
+		private long messageTo;
+		private int subrowsCount;
+		private Object[] cells=new Object[0];
+
+		/**
+		 * Read row in form {n: 0, i1: 0, i2: 0, t1: 0, t2: 0, d: 0, c: [...]}
+		 */
+		static Row read(JsonReader in) throws IOException {
+			Row row=new Row();
+			in.beginObject();
+			while (in.hasNext()) {
+				String name=in.nextName();
+				if (name.equals("n"))
+					row.subrowsCount=JsonStreams.readInt(in, 0);
+				else if (name.equals("i1"))
+					row.messageFrom=JsonStreams.readLong(in, 0);
+				else if (name.equals("i2"))
+					row.messageTo=JsonStreams.readLong(in, 0);
+				else if (name.equals("t1"))
+					row.timeFrom=JsonStreams.readLong(in, 0);
+				else if (name.equals("t2"))
+					row.timeTo=JsonStreams.readLong(in, 0);
+				else if (name.equals("d"))
+					row.level=JsonStreams.readInt(in, 0);
+				else if (name.equals("c") && in.peek()==JsonToken.BEGIN_ARRAY) {
+					List<Object> cells=new ArrayList<Object>();
+					in.beginArray();
+					while (in.hasNext())
+						cells.add(JsonStreams.readObject(in));
+					in.endArray();
+					row.cells=cells.toArray();
+				} else
+					in.skipValue();
+			}
+			in.endObject();
+			return row;
+		}
+
+		/** Nesting level of row */
+		public int getLevel() {
+			return level;
+		}
+
+		/** Count of subrows of grouping row */
+		public int getSubrowsCount() {
+			return subrowsCount;
+		}
+
+		public long getTimeFrom() {
+			return timeFrom;
+		}
+
+		public long getTimeTo() {
+			return timeTo;
+		}
+
+		/** Index of first message of row in report messages */
+		public long getMessageFrom() {
+			return messageFrom;
+		}
+
+		/** Index of last message of row in report messages */
+		public long getMessageTo() {
+			return messageTo;
+		}
+
+		public int getCellsCount() {
+			return cells.length;
+		}
+
+		/**
+		 * Get text of cell
+		 * @param column column index
+		 * @return cell text, empty string for missing cell
+		 */
+		public String getText(int column) {
+			if (column<0 || column>=cells.length || cells[column]==null)
+				return "";
+			Object cell=cells[column];
+			if (cell instanceof Map) {
+				Object text=((Map)cell).get("t");
+				return text==null ? "" : text.toString();
+			}
+			return cell.toString();
+		}
+
+		/**
+		 * Get cell value as it is sent by server
+		 * @param column column index
+		 * @return String or Map for cells with additional data, e.g. coordinates, null for missing cell
+		 */
+		public Object getCell(int column) {
+			return column<0 || column>=cells.length ? null : cells[column];
+		}
+	}
+}
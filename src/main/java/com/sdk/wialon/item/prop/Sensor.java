@@ -1,18 +1,30 @@
 package com.sdk.wialon.item.prop;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.sdk.wialon.core.Session;
 import com.sdk.wialon.item.Item;
 import com.sdk.wialon.remote.RemoteHttpClient;
 import com.sdk.wialon.remote.handlers.ResponseHandler;
+import com.sdk.wialon.remote.handlers.SensorValuesResponseHandler;
 
-import java.util.Map;
+import java.util.*;
 
 public class Sensor extends ItemProperties {
+	private SensorEngine engine;
+
 	public Sensor(Map<String, String> data, String propName, Item item, Enum event, String ajaxPath) {
 		super(data, propName, item, event, ajaxPath);
 	}
 
+	/**
+	 * Get engine for local calculation of sensors values from unit messages, without remote calls
+	 * @return engine, sensors are compiled again after they are changed
+	 */
+	public synchronized SensorEngine getEngine() {
+		return engine==null ? engine=new SensorEngine(this) : engine;
+	}
+
 	/**
 	 * Perform remote sensors calculation by the latest unit message
 	 * @param sensors optional sensor indexes, pass empty array to obtain all sensors
@@ -27,6 +39,66 @@ public class Sensor extends ItemProperties {
 				callback
 		);
 	}
+	/**
+	 * Perform remote sensors calculation by the latest messages of many units, calls are sent
+	 * in core/batch requests of up to batchSize units each. Calculation fails with code 4 at once
+	 * if batch of remote calls is already started in calling thread.
+	 * @param units units
+	 * @param sensors optional sensor indexes, pass empty array to obtain all sensors
+	 * @param batchSize max count of units in one batch request
+	 * @param callback callback, that get matrix of values with failures of units
+	 */
+	public static void remoteCalculateLastMessage(Collection<? extends Item> units, int[] sensors, int batchSize, SensorValuesResponseHandler callback) {
+		if (sensors==null)
+			sensors=new int[0];
+		if (batchSize<=0)
+			batchSize=DEFAULT_BATCH_SIZE;
+		RemoteHttpClient client=RemoteHttpClient.getInstance();
+		if (client.isBatchStarted()) {
+			// own batch requests can't be sent inside of caller's batch
+			callback.onFailure(4, new IllegalStateException("Batch of remote calls is already started in this thread"));
+			return;
+		}
+		List<Long> unitIds=new ArrayList<Long>(units.size());
+		for (Item unit : units)
+			unitIds.add(unit.getId());
+		String sensorsJson=Session.getInstance().getGson().toJson(sensors);
+		final BatchCalculation calculation=new BatchCalculation(unitIds, (unitIds.size()+batchSize-1)/batchSize, callback);
+		if (unitIds.isEmpty()) {
+			calculation.finish();
+			return;
+		}
+		for (int from=0; from<unitIds.size(); from+=batchSize) {
+			final List<Long> chunk=unitIds.subList(from, Math.min(from+batchSize, unitIds.size()));
+			if (!client.startBatch()) {
+				// batch of this thread is already started by caller
+				calculation.chunkDone(chunk, 4);
+				continue;
+			}
+			for (final Long unitId : chunk)
+				client.remoteCall(
+						"unit/calc_last_message",
+						"{\"sensors\":"+sensorsJson+",\"unitId\":"+unitId+"}",
+						calculation.getUnitHandler(unitId)
+				);
+			client.finishBatch(new ResponseHandler() {
+				@Override
+				public void onSuccess(String response) {
+					calculation.chunkDone(chunk, 3);
+				}
+
+				@Override
+				public void onFailure(int errorCode, Throwable throwableError) {
+					calculation.chunkDone(chunk, errorCode==0 ? 3 : errorCode);
+				}
+			});
+		}
+	}
+
+	public static void remoteCalculateLastMessage(Collection<? extends Item> units, int[] sensors, SensorValuesResponseHandler callback) {
+		remoteCalculateLastMessage(units, sensors, DEFAULT_BATCH_SIZE, callback);
+	}
+
 	/**
 	 * Calculate sensor value
 	 * @param source empty string for the messages loader, otherwise <layerName> for renderer
@@ -51,4 +123,99 @@ public class Sensor extends ItemProperties {
 
 	/** Invalid sensor value constant */
 	public static final double invalidValue=-348201.3876;
+	/** Default count of units in one batch request of sensors calculation */
+	public static final int DEFAULT_BATCH_SIZE=50;
+
+	/**
+	 * Results of sensors calculation for many units, callback is called when all batches are completed
+	 */
+	private static final class BatchCalculation {
+		private final List<Long> unitIds;
+		private final SensorValuesResponseHandler callback;
+		private final Map<Long, Map<Long, Double>> results=new HashMap<Long, Map<Long, Double>>();
+		private final Map<Long, Integer> failures=new HashMap<Long, Integer>();
+		private int pendingChunks;
+
+		BatchCalculation(List<Long> unitIds, int chunks, SensorValuesResponseHandler callback) {
+			this.unitIds=unitIds;
+			this.pendingChunks=chunks;
+			this.callback=callback;
+		}
+
+		ResponseHandler getUnitHandler(final long unitId) {
+			return new ResponseHandler() {
+				@Override
+				public void onSuccess(String response) {
+					Map<Long, Double> values=new HashMap<Long, Double>();
+					try {
+						JsonElement json=Session.getInstance().getJsonParser().parse(response);
+						if (!json.isJsonObject()) {
+							onFailure(6, null);
+							return;
+						}
+						for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject().entrySet())
+							if (entry.getValue().isJsonPrimitive() && entry.getValue().getAsJsonPrimitive().isNumber())
+								values.put(Long.valueOf(entry.getKey()), entry.getValue().getAsDouble());
+					} catch (Exception e) {
+						onFailure(6, e);
+						return;
+					}
+					synchronized (BatchCalculation.this) {
+						results.put(unitId, values);
+					}
+				}
+
+				@Override
+				public void onFailure(int errorCode, Throwable throwableError) {
+					synchronized (BatchCalculation.this) {
+						if (!results.containsKey(unitId))
+							failures.put(unitId, errorCode);
+					}
+				}
+			};
+		}
+
+		/**
+		 * Mark batch as completed, units of batch without result fail with given error code
+		 */
+		void chunkDone(List<Long> chunk, int errorCode) {
+			synchronized (this) {
+				for (Long unitId : chunk)
+					if (!results.containsKey(unitId) && !failures.containsKey(unitId))
+						failures.put(unitId, errorCode);
+				if (--pendingChunks>0)
+					return;
+			}
+			finish();
+		}
+
+		void finish() {
+			SensorValues values;
+			synchronized (this) {
+				TreeSet<Long> sensorIdsSet=new TreeSet<Long>();
+				for (Map<Long, Double> unitValues : results.values())
+					sensorIdsSet.addAll(unitValues.keySet());
+				long[] sensorIds=new long[sensorIdsSet.size()];
+				int column=0;
+				for (Long sensorId : sensorIdsSet)
+					sensorIds[column++]=sensorId;
+				long[] ids=new long[unitIds.size()];
+				double[] matrix=new double[ids.length*sensorIds.length];
+				Arrays.fill(matrix, invalidValue);
+				for (int row=0; row<ids.length; row++) {
+					ids[row]=unitIds.get(row);
+					Map<Long, Double> unitValues=results.get(ids[row]);
+					if (unitValues==null)
+						continue;
+					for (column=0; column<sensorIds.length; column++) {
+						Double value=unitValues.get(sensorIds[column]);
+						if (value!=null)
+							matrix[row*sensorIds.length+column]=value;
+					}
+				}
+				values=new SensorValues(ids, sensorIds, matrix, new HashMap<Long, Integer>(failures));
+			}
+			callback.onSuccessSensorValues(values);
+		}
+	}
 }
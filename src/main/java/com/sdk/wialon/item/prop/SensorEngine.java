@@ -0,0 +1,563 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.item.prop;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.messages.UnitData;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Local calculation of unit sensors values from sensor definitions, without unit/calc_last_message
+ * and unit/calc_sensors calls. Sensor parameter expression is compiled once, supported are message parameters,
+ * speed, altitude, course, sats, lat, lon, inN and outN, constN constants, numbers, operators + - * /,
+ * parentheses, bit of parameter in form param:N and other sensors in form [sensor name].
+ * Calibration table and lower and upper bounds of sensor configuration are applied to expression value.
+ * Sensors which can't be compiled or calculated give Sensor.invalidValue, as well as messages without
+ * required data. Validation of sensors by other sensors is not applied.
+ * Compiled sensors are published as immutable snapshot, so engine can be used from many threads.
+ */
+public class SensorEngine {
+	private static final JsonParser jsonParser=new JsonParser();
+	/** Max depth of sensor references */
+	private static final int MAX_DEPTH=8;
+
+	private final Sensor sensor;
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Create engine for sensors of unit, see Unit.getSensorPlugin
+	 * @param sensor sensors property of unit
+	 */
+	public SensorEngine(Sensor sensor) {
+		this.sensor=sensor;
+	}
+
+	/**
+	 * Calculate value of sensor
+	 * @param sensorId sensor ID
+	 * @param message unit data message
+	 * @return value or Sensor.invalidValue
+	 */
+	public double calculate(long sensorId, UnitData message) {
+		CompiledSensor compiled=getSensors().get(sensorId);
+		return compiled==null || message==null ? Sensor.invalidValue : compiled.calculate(message, 0);
+	}
+
+	/**
+	 * Calculate values of all sensors
+	 * @param message unit data message
+	 * @return values by sensor ID, in order of sensors
+	 */
+	public Map<Long, Double> calculate(UnitData message) {
+		Map<Long, CompiledSensor> current=getSensors();
+		Map<Long, Double> values=new LinkedHashMap<Long, Double>(current.size()*2);
+		for (Map.Entry<Long, CompiledSensor> entry : current.entrySet())
+			values.put(entry.getKey(), message==null ? Sensor.invalidValue : entry.getValue().calculate(message, 0));
+		return values;
+	}
+
+	/**
+	 * Calculate values of sensor for messages, e.g. loaded with MessagesLoader
+	 * @param sensorId sensor ID
+	 * @param messages messages, values of messages other than unit data are invalid
+	 * @return values in order of messages
+	 */
+	public double[] calculate(long sensorId, Message[] messages) {
+		CompiledSensor compiled=getSensors().get(sensorId);
+		double[] values=new double[messages.length];
+		for (int i=0; i<messages.length; i++)
+			values[i]=compiled==null || !(messages[i] instanceof UnitData) ?
+					Sensor.invalidValue : compiled.calculate((UnitData)messages[i], 0);
+		return values;
+	}
+
+	/**
+	 * Check if sensor definition was compiled
+	 * @param sensorId sensor ID
+	 * @return false if sensor is missing or its expression is not supported
+	 */
+	public boolean isSupported(long sensorId) {
+		CompiledSensor compiled=getSensors().get(sensorId);
+		return compiled!=null && compiled.expression!=null;
+	}
+
+	/**
+	 * Get compiled sensors, sensors are compiled again when sensors of unit are changed
+	 */
+	private Map<Long, CompiledSensor> getSensors() {
+		Snapshot current=snapshot;
+		int version=sensor.getVersion();
+		if (current!=null && current.version==version)
+			return current.sensors;
+		synchronized (this) {
+			current=snapshot;
+			if (current==null || current.version!=version) {
+				current=compile(version, sensor.copyProperties());
+				snapshot=current;
+			}
+			return current.sensors;
+		}
+	}
+
+	private Snapshot compile(int version, Collection<String> data) {
+		Map<Long, CompiledSensor> sensors=new LinkedHashMap<Long, CompiledSensor>();
+		Map<String, CompiledSensor> sensorsByName=new HashMap<String, CompiledSensor>();
+		if (data!=null)
+			for (String sensorJson : data) {
+				CompiledSensor compiled;
+				try {
+					compiled=parseSensor(sensorJson, sensorsByName);
+				} catch (RuntimeException e) {
+					// malformed sensor, e.g. non-numeric id or calibration table row
+					compiled=null;
+				}
+				if (compiled!=null) {
+					sensors.put(compiled.id, compiled);
+					sensorsByName.put(compiled.name, compiled);
+				}
+			}
+		return new Snapshot(version, Collections.unmodifiableMap(sensors));
+	}
+
+	/**
+	 * Parse sensor definition
+	 * @param sensorJson sensor JSON
+	 * @param sensorsByName sensors of the same snapshot, used to resolve references to other sensors
+	 * @return compiled sensor or null if sensor JSON is not object with ID
+	 */
+	private CompiledSensor parseSensor(String sensorJson, Map<String, CompiledSensor> sensorsByName) {
+		JsonObject json;
+		try {
+			JsonElement element=jsonParser.parse(sensorJson);
+			if (!element.isJsonObject())
+				return null;
+			json=element.getAsJsonObject();
+		} catch (Exception e) {
+			return null;
+		}
+		if (!json.has("id"))
+			return null;
+		CompiledSensor compiled=new CompiledSensor(json.get("id").getAsLong(),
+				json.has("n") ? json.get("n").getAsString() : "");
+		try {
+			if (json.has("p"))
+				compiled.expression=new ExpressionParser(json.get("p").getAsString(), sensorsByName).parse();
+		} catch (IllegalArgumentException e) {
+			compiled.expression=null;
+		}
+		if (json.has("tbl") && json.get("tbl").isJsonArray()) {
+			JsonArray table=json.getAsJsonArray("tbl");
+			compiled.tableX=new double[table.size()];
+			compiled.tableA=new double[table.size()];
+			compiled.tableB=new double[table.size()];
+			for (int i=0; i<table.size(); i++) {
+				JsonObject row=table.get(i).getAsJsonObject();
+				compiled.tableX[i]=row.has("x") ? row.get("x").getAsDouble() : 0;
+				compiled.tableA[i]=row.has("a") ? row.get("a").getAsDouble() : 1;
+				compiled.tableB[i]=row.has("b") ? row.get("b").getAsDouble() : 0;
+			}
+		}
+		if (json.has("c")) {
+			try {
+				JsonElement config=json.get("c").isJsonPrimitive() ? jsonParser.parse(json.get("c").getAsString()) : json.get("c");
+				if (config.isJsonObject()) {
+					JsonObject configObject=config.getAsJsonObject();
+					compiled.lowerBound=readBound(configObject, "lower_bound", Double.NEGATIVE_INFINITY);
+					compiled.upperBound=readBound(configObject, "upper_bound", Double.POSITIVE_INFINITY);
+				}
+			} catch (Exception e) {
+				// configuration without bounds
+			}
+		}
+		return compiled;
+	}
+
+	private static double readBound(JsonObject config, String name, double defaultValue) {
+		JsonElement value=config.get(name);
+		if (value==null || !value.isJsonPrimitive())
+			return defaultValue;
+		try {
+			return value.getAsDouble();
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Compiled sensors of one version of sensors data
+	 */
+	private static final class Snapshot {
+		private final int version;
+		private final Map<Long, CompiledSensor> sensors;
+
+		Snapshot(int version, Map<Long, CompiledSensor> sensors) {
+			this.version=version;
+			this.sensors=sensors;
+		}
+	}
+
+	private final class CompiledSensor {
+		private final long id;
+		private final String name;
+		private Expression expression;
+		private double[] tableX;
+		private double[] tableA;
+		private double[] tableB;
+		private double lowerBound=Double.NEGATIVE_INFINITY;
+		private double upperBound=Double.POSITIVE_INFINITY;
+
+		CompiledSensor(long id, String name) {
+			this.id=id;
+			this.name=name;
+		}
+
+		double calculate(UnitData message, int depth) {
+			if (expression==null || depth>MAX_DEPTH)
+				return Sensor.invalidValue;
+			double value=expression.evaluate(message, depth);
+			if (Double.isNaN(value) || Double.isInfinite(value) || value<lowerBound || value>upperBound)
+				return Sensor.invalidValue;
+			if (tableX==null || tableX.length==0)
+				return value;
+			// segment with greatest x not greater than value, first segment below table
+			int segment=0;
+			for (int i=1; i<tableX.length; i++)
+				if (tableX[i]<=value)
+					segment=i;
+			return tableA[segment]*value+tableB[segment];
+		}
+	}
+
+	/**
+	 * Compiled expression, evaluation gives NaN when message has no required data
+	 */
+	private abstract class Expression {
+		abstract double evaluate(UnitData message, int depth);
+	}
+
+	private final class Constant extends Expression {
+		private final double value;
+
+		Constant(double value) {
+			this.value=value;
+		}
+
+		@Override
+		double evaluate(UnitData message, int depth) {
+			return value;
+		}
+	}
+
+	private final class Parameter extends Expression {
+		private final String name;
+
+		Parameter(String name) {
+			this.name=name;
+		}
+
+		@Override
+		double evaluate(UnitData message, int depth) {
+			Map<String, Object> params=message.getParameters();
+			Object value=params==null ? null : params.get(name);
+			return value instanceof Number ? ((Number)value).doubleValue() : Double.NaN;
+		}
+	}
+
+	private final class PositionValue extends Expression {
+		private final char field;
+
+		PositionValue(char field) {
+			this.field=field;
+		}
+
+		@Override
+		double evaluate(UnitData message, int depth) {
+			UnitData.Position position=message.getPosition();
+			if (position==null)
+				return Double.NaN;
+			switch (field) {
+				case 's': return position.getSpeed();
+				case 'z': return position.getAltitude();
+				case 'c': return position.getCourse();
+				case 'n': return position.getSatellitesCount();
+				case 'y': return position.getLatitude();
+				default: return position.getLongitude();
+			}
+		}
+	}
+
+	private final class InputOutput extends Expression {
+		private final boolean input;
+		private final int bit;
+
+		InputOutput(boolean input, int bit) {
+			this.input=input;
+			this.bit=bit;
+		}
+
+		@Override
+		double evaluate(UnitData message, int depth) {
+			long value=input ? message.getInputData() : message.getOutputData();
+			return (value>>>bit) & 1;
+		}
+	}
+
+	private final class Bit extends Expression {
+		private final Expression operand;
+		private final int bit;
+
+		Bit(Expression operand, int bit) {
+			this.operand=operand;
+			this.bit=bit;
+		}
+
+		@Override
+		double evaluate(UnitData message, int depth) {
+			double value=operand.evaluate(message, depth);
+			return Double.isNaN(value) ? value : ((long)value>>>bit) & 1;
+		}
+	}
+
+	private final class SensorReference extends Expression {
+		private final String name;
+		private final Map<String, CompiledSensor> sensorsByName;
+
+		SensorReference(String name, Map<String, CompiledSensor> sensorsByName) {
+			this.name=name;
+			this.sensorsByName=sensorsByName;
+		}
+
+		@Override
+		double evaluate(UnitData message, int depth) {
+			CompiledSensor referenced=sensorsByName.get(name);
+			if (referenced==null)
+				return Double.NaN;
+			double value=referenced.calculate(message, depth+1);
+			return value==Sensor.invalidValue ? Double.NaN : value;
+		}
+	}
+
+	private final class Negation extends Expression {
+		private final Expression operand;
+
+		Negation(Expression operand) {
+			this.operand=operand;
+		}
+
+		@Override
+		double evaluate(UnitData message, int depth) {
+			return -operand.evaluate(message, depth);
+		}
+	}
+
+	private final class Operation extends Expression {
+		private final char operator;
+		private final Expression left;
+		private final Expression right;
+
+		Operation(char operator, Expression left, Expression right) {
+			this.operator=operator;
+			this.left=left;
+			this.right=right;
+		}
+
+		@Override
+		double evaluate(UnitData message, int depth) {
+			double a=left.evaluate(message, depth);
+			double b=right.evaluate(message, depth);
+			switch (operator) {
+				case '+': return a+b;
+				case '-': return a-b;
+				case '*': return a*b;
+				default: return b==0 ? Double.NaN : a/b;
+			}
+		}
+	}
+
+	/**
+	 * Recursive descent parser of sensor parameter expression
+	 */
+	private final class ExpressionParser {
+		private final String text;
+		private final Map<String, CompiledSensor> sensorsByName;
+		private int position;
+
+		ExpressionParser(String text, Map<String, CompiledSensor> sensorsByName) {
+			this.text=text;
+			this.sensorsByName=sensorsByName;
+		}
+
+		Expression parse() {
+			if (text.trim().isEmpty())
+				throw new IllegalArgumentException("Empty expression");
+			Expression expression=parseSum();
+			skipSpaces();
+			if (position<text.length())
+				throw new IllegalArgumentException("Unexpected character at "+position);
+			return expression;
+		}
+
+		private Expression parseSum() {
+			Expression expression=parseProduct();
+			while (true) {
+				char c=peek();
+				if (c!='+' && c!='-')
+					return expression;
+				position++;
+				expression=new Operation(c, expression, parseProduct());
+			}
+		}
+
+		private Expression parseProduct() {
+			Expression expression=parseUnary();
+			while (true) {
+				char c=peek();
+				if (c!='*' && c!='/')
+					return expression;
+				position++;
+				expression=new Operation(c, expression, parseUnary());
+			}
+		}
+
+		private Expression parseUnary() {
+			char c=peek();
+			if (c=='-') {
+				position++;
+				return new Negation(parseUnary());
+			}
+			if (c=='+') {
+				position++;
+				return parseUnary();
+			}
+			Expression operand=parseOperand();
+			if (peek()==':') {
+				position++;
+				skipSpaces();
+				int start=position;
+				while (position<text.length() && Character.isDigit(text.charAt(position)))
+					position++;
+				if (start==position)
+					throw new IllegalArgumentException("Bit number expected at "+start);
+				operand=new Bit(operand, Integer.parseInt(text.substring(start, position))-1);
+			}
+			return operand;
+		}
+
+		private Expression parseOperand() {
+			char c=peek();
+			if (c=='(') {
+				position++;
+				Expression expression=parseSum();
+				if (peek()!=')')
+					throw new IllegalArgumentException("Closing parenthesis expected at "+position);
+				position++;
+				return expression;
+			}
+			if (c=='[') {
+				int end=text.indexOf(']', position);
+				if (end<0)
+					throw new IllegalArgumentException("Closing bracket expected");
+				String name=text.substring(position+1, end);
+				position=end+1;
+				return new SensorReference(name, sensorsByName);
+			}
+			if (Character.isDigit(c) || c=='.') {
+				int start=position;
+				while (position<text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position)=='.'))
+					position++;
+				return new Constant(parseNumber(text.substring(start, position)));
+			}
+			int start=position;
+			while (position<text.length() && isNameChar(text.charAt(position)))
+				position++;
+			if (start==position)
+				throw new IllegalArgumentException("Operand expected at "+start);
+			return createValue(text.substring(start, position));
+		}
+
+		private Expression createValue(String name) {
+			if (name.startsWith("#"))
+				name=name.substring(1);
+			if (name.startsWith("const") && name.length()>5)
+				return new Constant(parseNumber(name.substring(5)));
+			if (name.equals("speed"))
+				return new PositionValue('s');
+			if (name.equals("altitude"))
+				return new PositionValue('z');
+			if (name.equals("course"))
+				return new PositionValue('c');
+			if (name.equals("sats"))
+				return new PositionValue('n');
+			if (name.equals("lat"))
+				return new PositionValue('y');
+			if (name.equals("lon"))
+				return new PositionValue('x');
+			int bit=parseIndex(name, "in");
+			if (bit>0)
+				return new InputOutput(true, bit-1);
+			bit=parseIndex(name, "out");
+			if (bit>0)
+				return new InputOutput(false, bit-1);
+			return new Parameter(name);
+		}
+
+		/**
+		 * Parse index of inN/outN name
+		 * @return index or 0 if name is not in form prefixN
+		 */
+		private int parseIndex(String name, String prefix) {
+			if (!name.startsWith(prefix) || name.length()==prefix.length() || name.length()>prefix.length()+2)
+				return 0;
+			for (int i=prefix.length(); i<name.length(); i++)
+				if (!Character.isDigit(name.charAt(i)))
+					return 0;
+			int index=Integer.parseInt(name.substring(prefix.length()));
+			return index<=64 ? index : 0;
+		}
+
+		private double parseNumber(String number) {
+			try {
+				return Double.parseDouble(number);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid number "+number);
+			}
+		}
+
+		private boolean isNameChar(char c) {
+			return Character.isLetterOrDigit(c) || c=='_' || c=='#' || c=='.';
+		}
+
+		private char peek() {
+			skipSpaces();
+			return position<text.length() ? text.charAt(position) : 0;
+		}
+
+		private void skipSpaces() {
+			while (position<text.length() && Character.isWhitespace(text.charAt(position)))
+				position++;
+		}
+	}
+}
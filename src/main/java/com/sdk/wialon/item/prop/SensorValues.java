@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+package com.sdk.wialon.item.prop;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sensors values of many units: matrix with row per unit and column per sensor ID met in results.
+ * Missing values are Sensor.invalidValue. Units which calculation failed have error codes and invalid values.
+ */
+public class SensorValues {
+	private final long[] unitIds;
+	private final long[] sensorIds;
+	private final double[] values;
+	private final Map<Long, Integer> failures;
+	private final Map<Long, Integer> unitIndexes=new HashMap<Long, Integer>();
+
+	SensorValues(long[] unitIds, long[] sensorIds, double[] values, Map<Long, Integer> failures) {
+		this.unitIds=unitIds;
+		this.sensorIds=sensorIds;
+		this.values=values;
+		this.failures=Collections.unmodifiableMap(failures);
+		for (int i=0; i<unitIds.length; i++)
+			unitIndexes.put(unitIds[i], i);
+	}
+
+	/**
+	 * IDs of units, in order of rows
+	 */
+	public long[] getUnitIds() {
+		return unitIds.clone();
+	}
+
+	/**
+	 * Sorted IDs of sensors, in order of columns
+	 */
+	public long[] getSensorIds() {
+		return sensorIds.clone();
+	}
+
+	/**
+	 * Get sensor value
+	 * @param unitId unit ID
+	 * @param sensorId sensor ID
+	 * @return value or Sensor.invalidValue if unit has no value of sensor
+	 */
+	public double getValue(long unitId, long sensorId) {
+		Integer row=unitIndexes.get(unitId);
+		int column=Arrays.binarySearch(sensorIds, sensorId);
+		if (row==null || column<0)
+			return Sensor.invalidValue;
+		return values[row*sensorIds.length+column];
+	}
+
+	/**
+	 * Get values of unit
+	 * @param unitId unit ID
+	 * @return values in order of getSensorIds or null if unit was not requested
+	 */
+	public double[] getValues(long unitId) {
+		Integer row=unitIndexes.get(unitId);
+		if (row==null)
+			return null;
+		return Arrays.copyOfRange(values, row*sensorIds.length, (row+1)*sensorIds.length);
+	}
+
+	public boolean isFailed(long unitId) {
+		return failures.containsKey(unitId);
+	}
+
+	/**
+	 * Error codes of units which calculation failed
+	 * @return error code by unit ID
+	 */
+	public Map<Long, Integer> getFailures() {
+		return failures;
+	}
+}
@@ -16,6 +16,12 @@
 
 package com.sdk.wialon.messages;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 
 public class Message {
@@ -32,14 +38,64 @@ public class Message {
 		return f;
 	}
 
+	void setFlags(long flags) {
+		this.f=flags;
+	}
+
 	public Map<String, Object> getParameters() {
 		return p;
 	}
 
+	void setParameters(Map<String, Object> parameters) {
+		this.p=parameters;
+	}
+
 	public MessageType getMessageType() {
 		return messageType;
 	}
 
+	/**
+	 * Read message property from server message data, used by MessageTypeAdapter instead of reflection
+	 * @param name property name
+	 * @param in reader positioned at property value
+	 * @return true if property is known and was read, otherwise value should be skipped
+	 */
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (name.equals("t"))
+			t=JsonStreams.readLong(in, 0);
+		else if (name.equals("f"))
+			f=JsonStreams.readLong(in, 0);
+		else if (name.equals("p"))
+			p=JsonStreams.readObjectMap(in);
+		else
+			return false;
+		return true;
+	}
+
+	/**
+	 * Clear properties before instance is reused for another message, see MessageDecoder
+	 */
+	protected void reset() {
+		t=0;
+		f=0;
+		p=null;
+	}
+
+	/**
+	 * Write message properties in server message format, used by MessageTypeAdapter
+	 * @param out writer inside of message object
+	 */
+	protected void writeFields(JsonWriter out) throws IOException {
+		out.name("t").value(t);
+		out.name("f").value(f);
+		if (messageType!=null)
+			out.name("tp").value(messageType.getValue());
+		if (p!=null) {
+			out.name("p");
+			JsonStreams.writeObject(out, p);
+		}
+	}
+
 	public static enum MessageType {
 		/** Unit data message */
 		UnitData(UnitData.class, Message.messageFlag.typeUnitData, "ud"),
@@ -59,6 +115,21 @@ public class Message {
 		private Class messageClass;
 		private messageFlag messageFlag;
 		private String value;
+		/** Types by tp value, then by type byte of flag value, first declared type wins */
+		private static final Map<String, MessageType[]> typesByValue=new HashMap<String, MessageType[]>();
+
+		static {
+			for (MessageType type : values()) {
+				MessageType[] types=typesByValue.get(type.value);
+				if (types==null) {
+					types=new MessageType[256];
+					typesByValue.put(type.value, types);
+				}
+				int index=Message.messageFlag.typeIndex(type.messageFlag.getValue());
+				if (types[index]==null)
+					types[index]=type;
+			}
+		}
 
 		private MessageType(Class messageClass, messageFlag messageFlag, String value) {
 			this.messageClass=messageClass;
@@ -67,10 +138,25 @@ public class Message {
 		}
 
 		public static Class getMessageClass(messageFlag messageFlag, String tp) {
-			for (MessageType type :values())
-				if (tp.equals(type.getValue()) && (type.getMessageFlag().getValue()==messageFlag.getValue()))
-					return type.messageClass;
-			return null;
+			MessageType type=getMessageType(messageFlag, tp);
+			return type==null ? null : type.messageClass;
+		}
+
+		/**
+		 * Get message type by flag and tp value of message
+		 * @param messageFlag message type flag
+		 * @param tp message tp value
+		 * @return type or null if unknown
+		 */
+		public static MessageType getMessageType(messageFlag messageFlag, String tp) {
+			if (messageFlag==null || tp==null)
+				return null;
+			MessageType[] types=typesByValue.get(tp);
+			return types==null ? null : types[Message.messageFlag.typeIndex(messageFlag.getValue())];
+		}
+
+		public Class getMessageClass() {
+			return messageClass;
 		}
 
 		public Message.messageFlag getMessageFlag() {
@@ -110,17 +196,28 @@ public class Message {
 		typeOther(0xFF00);
 		/** Flag value */
 		private long value;
+		/** Flags by type byte of flag value, first declared flag wins */
+		private static final messageFlag[] flagsByType=new messageFlag[256];
+
+		static {
+			for (messageFlag flag : values()) {
+				int index=typeIndex(flag.value);
+				if (flagsByType[index]==null)
+					flagsByType[index]=flag;
+			}
+		}
 
 		private messageFlag (long value) {
 			this.value=value;
 		}
 
 		public static messageFlag getMessageFlag(long flagValue){
-			for (messageFlag flag : values()) {
-				if ((flag.getValue()&typeMask.getValue())==(flagValue&typeMask.getValue()))
-					return flag;
-			}
-			return null;
+			return flagsByType[typeIndex(flagValue)];
+		}
+
+		/** Index of type byte, see typeMask */
+		static int typeIndex(long flagValue) {
+			return (int)((flagValue & 0xFF00)>>>8);
 		}
 
 		public long getValue() {
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.messages;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only buffer of messages with bounded heap usage. Messages are kept in heap until estimated size
+ * of kept messages exceeds heap budget, following messages are written to temporary memory-mapped file
+ * as length-prefixed JSON in server message format and decoded again on access.
+ * Spilled messages returned by get are new objects for every call. Temporary file is deleted on close.
+ */
+public class MessageBuffer implements Closeable {
+	private static final Charset UTF8=Charset.forName("UTF-8");
+	/** Default size of one mapped region of temporary file */
+	static final int SEGMENT_SIZE=64*1024*1024;
+	private static final Gson gson;
+
+	static {
+		GsonBuilder builder=new GsonBuilder();
+		MessageTypeAdapter.registerAll(builder);
+		gson=builder.create();
+	}
+
+	private final long heapBudget;
+	private final File tempDirectory;
+	/** Size of one mapped region of temporary file */
+	private final int segmentSize;
+	private final List<Message> heapMessages=new ArrayList<Message>();
+	private long heapBytes;
+	private File file;
+	private RandomAccessFile randomAccessFile;
+	private final List<MappedByteBuffer> segments=new ArrayList<MappedByteBuffer>();
+	/** Offsets of spilled messages in file */
+	private long[] offsets=new long[1024];
+	private int spilledCount;
+	private long fileSize;
+	private final MessageDecoder decoder=new MessageDecoder();
+	private boolean closed;
+
+	/**
+	 * Create buffer
+	 * @param heapBudget max estimated size of messages kept in heap, in bytes
+	 * @param tempDirectory directory for temporary file, null for default one
+	 */
+	public MessageBuffer(long heapBudget, File tempDirectory) {
+		this(heapBudget, tempDirectory, SEGMENT_SIZE);
+	}
+
+	MessageBuffer(long heapBudget, File tempDirectory, int segmentSize) {
+		this.heapBudget=heapBudget;
+		this.tempDirectory=tempDirectory;
+		this.segmentSize=segmentSize;
+	}
+
+	public MessageBuffer(long heapBudget) {
+		this(heapBudget, null);
+	}
+
+	/**
+	 * Add message to the end of buffer
+	 * @param message message, messages decoded in reuse mode can be added only after buffer is spilled
+	 */
+	public synchronized void add(Message message) throws IOException {
+		if (message==null)
+			throw new IllegalArgumentException("Message is null");
+		if (closed)
+			throw new IOException("Buffer is closed");
+		if (file==null) {
+			long size=estimateSize(message);
+			if (heapBytes+size<=heapBudget) {
+				heapMessages.add(message);
+				heapBytes+=size;
+				return;
+			}
+			openFile();
+		}
+		spill(message);
+	}
+
+	/**
+	 * Read messages array and add all messages to buffer, messages are not kept as array in heap
+	 * @param in reader positioned at messages array
+	 * @param filter messages filter or null
+	 * @return count of added messages
+	 */
+	public int readArray(JsonReader in, MessageFilter filter) throws IOException {
+		final int[] count=new int[1];
+		final IOException[] error=new IOException[1];
+		MessageDecoder arrayDecoder=new MessageDecoder();
+		arrayDecoder.setFilter(filter);
+		arrayDecoder.forEach(in, new MessageDecoder.Visitor() {
+			@Override
+			public void visit(int index, Message message) {
+				if (error[0]!=null)
+					return;
+				try {
+					add(message);
+					count[0]++;
+				} catch (IOException e) {
+					error[0]=e;
+				}
+			}
+		});
+		if (error[0]!=null)
+			throw error[0];
+		return count[0];
+	}
+
+	/**
+	 * Add messages of messages loader response: {count: N, messages: [...]} or array of messages
+	 * @param response server response
+	 * @param filter messages filter or null
+	 * @return count of added messages
+	 */
+	public int readResponse(String response, MessageFilter filter) throws IOException {
+		JsonReader in=new JsonReader(new StringReader(response));
+		if (in.peek()==JsonToken.BEGIN_ARRAY)
+			return readArray(in, filter);
+		int count=0;
+		if (in.peek()!=JsonToken.BEGIN_OBJECT)
+			return count;
+		in.beginObject();
+		while (in.hasNext()) {
+			if (in.nextName().equals("messages") && in.peek()==JsonToken.BEGIN_ARRAY)
+				count+=readArray(in, filter);
+			else
+				in.skipValue();
+		}
+		in.endObject();
+		return count;
+	}
+
+	/**
+	 * Get message by index
+	 * @param index index of message in order of adding
+	 * @return message, new object for spilled messages
+	 */
+	public synchronized Message get(int index) throws IOException {
+		if (index<0 || index>=size())
+			throw new IndexOutOfBoundsException("Index: "+index+", size: "+size());
+		if (index<heapMessages.size())
+			return heapMessages.get(index);
+		if (closed)
+			throw new IOException("Buffer is closed");
+		long offset=offsets[index-heapMessages.size()];
+		MappedByteBuffer segment=segments.get((int)(offset/segmentSize));
+		int position=(int)(offset%segmentSize);
+		int length=segment.getInt(position);
+		byte[] data=new byte[length];
+		ByteBuffer view=segment.duplicate();
+		view.position(position+4);
+		view.get(data);
+		return decoder.read(new JsonReader(new StringReader(new String(data, UTF8))));
+	}
+
+	public synchronized int size() {
+		return heapMessages.size()+spilledCount;
+	}
+
+	/**
+	 * Check if messages were written to temporary file
+	 */
+	public synchronized boolean isSpilled() {
+		return file!=null;
+	}
+
+	/**
+	 * Estimated size of messages kept in heap, in bytes
+	 */
+	public synchronized long getHeapBytes() {
+		return heapBytes;
+	}
+
+	/**
+	 * Size of spilled messages data, in bytes
+	 */
+	public synchronized long getSpilledBytes() {
+		return fileSize;
+	}
+
+	/**
+	 * Read-only list view of buffer, IOException of access is rethrown as IllegalStateException
+	 */
+	public List<Message> asList() {
+		return new AbstractList<Message>() {
+			@Override
+			public Message get(int index) {
+				try {
+					return MessageBuffer.this.get(index);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			@Override
+			public int size() {
+				return MessageBuffer.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Release memory and delete temporary file
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed=true;
+		heapMessages.clear();
+		heapBytes=0;
+		segments.clear();
+		if (randomAccessFile!=null)
+			randomAccessFile.close();
+		if (file!=null && !file.delete())
+			file.deleteOnExit();
+	}
+
+	private void openFile() throws IOException {
+		file=File.createTempFile("messages", ".buf", tempDirectory);
+		file.deleteOnExit();
+		randomAccessFile=new RandomAccessFile(file, "rw");
+	}
+
+	private void spill(Message message) throws IOException {
+		byte[] data=gson.toJson(message, message.getMessageType().getMessageClass()).getBytes(UTF8);
+		int length=data.length+4;
+		if (length>segmentSize)
+			throw new IOException("Message is too large");
+		// messages don't cross segments boundaries, filled segment is followed by new one
+		int position=(int)(fileSize%segmentSize);
+		if (segments.isEmpty() || fileSize>=(long)segments.size()*segmentSize || position+length>segmentSize) {
+			fileSize=(long)segments.size()*segmentSize;
+			segments.add(randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, fileSize, segmentSize));
+			position=0;
+		}
+		MappedByteBuffer segment=segments.get(segments.size()-1);
+		segment.putInt(position, data.length);
+		ByteBuffer view=segment.duplicate();
+		view.position(position+4);
+		view.put(data);
+		if (spilledCount==offsets.length)
+			offsets=Arrays.copyOf(offsets, offsets.length*2);
+		offsets[spilledCount++]=fileSize;
+		fileSize+=length;
+	}
+
+	/**
+	 * Rough size of message object with parameters in heap
+	 */
+	private static long estimateSize(Message message) {
+		long size=48;
+		if (message instanceof UnitData && ((UnitData)message).getPosition()!=null)
+			size+=56;
+		if (message.getParameters()!=null)
+			size+=64+message.getParameters().size()*72L;
+		return size;
+	}
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.messages;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming decoder of server messages. Message class is resolved by flags and tp value with lookup tables,
+ * message properties are read directly from the stream.
+ * In reuse mode one instance per message type is filled again for every message,
+ * such messages are valid only until next message is decoded.
+ * Parameters of messages can be decoded into shared columns, see setParamColumns.
+ * Messages rejected by filter are dropped while decoded, see setFilter. Decoder is not thread safe.
+ */
+public class MessageDecoder {
+	/**
+	 * Receiver of decoded messages
+	 */
+	public interface Visitor {
+		/**
+		 * Visit message
+		 * @param index index of message in array
+		 * @param message decoded message, in reuse mode it is valid only during call
+		 */
+		void visit(int index, Message message);
+	}
+
+	private static final JsonParser jsonParser=new JsonParser();
+	private final boolean reuse;
+	private final Message[] instances=new Message[Message.MessageType.values().length];
+	private ParamColumns paramColumns;
+	private MessageFilter filter;
+	/** Last read message was rejected by filter */
+	private boolean rejected;
+
+	/**
+	 * Create decoder
+	 * @param reuse fill the same instance for all messages of one type
+	 */
+	public MessageDecoder(boolean reuse) {
+		this.reuse=reuse;
+	}
+
+	public MessageDecoder() {
+		this(false);
+	}
+
+	/**
+	 * Decode parameters of messages into columns, one row per decoded message,
+	 * messages get parameters map view of own row
+	 * @param paramColumns columns or null to decode parameters into maps
+	 */
+	public void setParamColumns(ParamColumns paramColumns) {
+		this.paramColumns=paramColumns;
+	}
+
+	public ParamColumns getParamColumns() {
+		return paramColumns;
+	}
+
+	/**
+	 * Drop messages not accepted by filter: message type and flags are checked before message object is created,
+	 * the rest of conditions right after message is read, instance of rejected message is used for next message
+	 * @param filter filter or null to accept all messages
+	 */
+	public void setFilter(MessageFilter filter) {
+		this.filter=filter;
+	}
+
+	public MessageFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Get message type by message flags and tp value
+	 * @param flags message flags
+	 * @param tp message tp value
+	 * @return type or null if unknown
+	 */
+	public static Message.MessageType getMessageType(long flags, String tp) {
+		return Message.MessageType.getMessageType(Message.messageFlag.getMessageFlag(flags), tp);
+	}
+
+	/**
+	 * Read one message
+	 * @param in reader positioned at message object
+	 * @return message or null if message type is unknown or message is rejected by filter
+	 */
+	public Message read(JsonReader in) throws IOException {
+		rejected=false;
+		if (in.peek()!=JsonToken.BEGIN_OBJECT) {
+			in.skipValue();
+			return null;
+		}
+		Message message=null;
+		int row=-1;
+		long time=0, flags=0;
+		boolean hasFlags=false;
+		String tp=null;
+		// properties met before message type became known, usually empty as server writes t, f, tp first
+		Map<String, JsonElement> pending=null;
+		in.beginObject();
+		while (in.hasNext()) {
+			String name=in.nextName();
+			if (message!=null) {
+				if (row>=0 && name.equals("p"))
+					readParams(message, row, in);
+				else if (!message.readField(name, in))
+					in.skipValue();
+				continue;
+			}
+			if (name.equals("t"))
+				time=JsonStreams.readLong(in, 0);
+			else if (name.equals("f")) {
+				flags=JsonStreams.readLong(in, 0);
+				hasFlags=true;
+			} else if (name.equals("tp"))
+				tp=JsonStreams.readString(in);
+			else {
+				if (pending==null)
+					pending=new LinkedHashMap<String, JsonElement>();
+				pending.put(name, jsonParser.parse(in));
+			}
+			if (hasFlags && tp!=null) {
+				Message.MessageType type=getMessageType(flags, tp);
+				if (filter!=null && type!=null && !filter.acceptsType(flags, type)) {
+					rejected=true;
+					type=null;
+				}
+				message=getInstance(type);
+				if (message==null) {
+					// unknown or rejected type, skip the rest
+					while (in.hasNext()) {
+						in.nextName();
+						in.skipValue();
+					}
+					break;
+				}
+				message.t=time;
+				message.setFlags(flags);
+				if (paramColumns!=null)
+					row=paramColumns.addRow();
+				if (pending!=null)
+					for (Map.Entry<String, JsonElement> entry : pending.entrySet()) {
+						JsonReader elementReader=new JsonReader(new StringReader(entry.getValue().toString()));
+						// value can be a primitive
+						elementReader.setLenient(true);
+						if (row>=0 && entry.getKey().equals("p"))
+							readParams(message, row, elementReader);
+						else if (!message.readField(entry.getKey(), elementReader))
+							elementReader.skipValue();
+					}
+			}
+		}
+		in.endObject();
+		if (filter!=null && message!=null && !filter.accepts(message)) {
+			rejected=true;
+			if (row>=0)
+				paramColumns.removeLastRow();
+			// keep instance for next message
+			instances[message.getMessageType().ordinal()]=message;
+			return null;
+		}
+		return message;
+	}
+
+	/**
+	 * Read array of messages, new instances are created even in reuse mode
+	 * @param in reader positioned at messages array
+	 * @return messages, unknown messages are null, messages rejected by filter are omitted
+	 */
+	public Message[] readArray(JsonReader in) throws IOException {
+		MessageDecoder decoder=this;
+		if (reuse) {
+			decoder=new MessageDecoder(false);
+			decoder.setParamColumns(paramColumns);
+			decoder.setFilter(filter);
+		}
+		List<Message> messages=new ArrayList<Message>();
+		in.beginArray();
+		while (in.hasNext()) {
+			Message message=decoder.read(in);
+			if (!decoder.rejected)
+				messages.add(message);
+		}
+		in.endArray();
+		return messages.toArray(new Message[messages.size()]);
+	}
+
+	/**
+	 * Visit every message of array
+	 * @param in reader positioned at messages array
+	 * @param visitor messages receiver, unknown and rejected messages are skipped
+	 * @return count of messages in array
+	 */
+	public int forEach(JsonReader in, Visitor visitor) throws IOException {
+		int index=0;
+		in.beginArray();
+		while (in.hasNext()) {
+			Message message=read(in);
+			if (message!=null)
+				visitor.visit(index, message);
+			index++;
+		}
+		in.endArray();
+		return index;
+	}
+
+	/**
+	 * Read messages of messages loader response: {count: N, messages: [...]} or array of messages
+	 * @param response server response
+	 * @return messages, unknown messages are null, rejected messages are omitted, null if response has no messages
+	 */
+	public Message[] readResponse(String response) throws IOException {
+		JsonReader in=new JsonReader(new StringReader(response));
+		if (in.peek()==JsonToken.BEGIN_ARRAY)
+			return readArray(in);
+		if (in.peek()!=JsonToken.BEGIN_OBJECT)
+			return null;
+		Message[] messages=null;
+		in.beginObject();
+		while (in.hasNext()) {
+			if (in.nextName().equals("messages") && in.peek()==JsonToken.BEGIN_ARRAY)
+				messages=readArray(in);
+			else
+				in.skipValue();
+		}
+		in.endObject();
+		return messages;
+	}
+
+	private void readParams(Message message, int row, JsonReader in) throws IOException {
+		paramColumns.read(in, row);
+		message.setParameters(paramColumns.getParams(row));
+	}
+
+	private Message getInstance(Message.MessageType type) {
+		if (type==null)
+			return null;
+		Message message=instances[type.ordinal()];
+		if (message!=null) {
+			if (!reuse)
+				// instance of rejected message
+				instances[type.ordinal()]=null;
+			message.reset();
+			return message;
+		}
+		try {
+			message=(Message)type.getMessageClass().newInstance();
+		} catch (Exception e) {
+			return null;
+		}
+		if (reuse)
+			instances[type.ordinal()]=message;
+		return message;
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.messages;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Filter of loaded messages. Conditions which can be expressed with flags and flags mask are passed to server,
+ * see getFlags and getFlagsMask, the rest is checked by MessageDecoder while messages are decoded.
+ * Speed and bounding box conditions accept only unit data messages with position.
+ */
+public class MessageFilter {
+	private Set<Message.MessageType> messageTypes;
+	private boolean positionRequired;
+	private int minSpeed=-1;
+	private int maxSpeed=-1;
+	private boolean hasBoundingBox;
+	private double minLatitude;
+	private double minLongitude;
+	private double maxLatitude;
+	private double maxLongitude;
+	private final List<ParamCondition> paramConditions=new ArrayList<ParamCondition>();
+	private long flags;
+	private long flagsMask;
+
+	/**
+	 * Accept only messages of given types
+	 * @param types message types, empty for all types
+	 */
+	public void setMessageTypes(Message.MessageType... types) {
+		messageTypes=types.length==0 ? null : EnumSet.of(types[0], types);
+	}
+
+	/**
+	 * Accept only unit data messages with position
+	 */
+	public void setPositionRequired(boolean positionRequired) {
+		this.positionRequired=positionRequired;
+	}
+
+	/**
+	 * Accept only positions with speed in range
+	 * @param minSpeed min speed, km/h, inclusive, negative for no limit
+	 * @param maxSpeed max speed, km/h, inclusive, negative for no limit
+	 */
+	public void setSpeedRange(int minSpeed, int maxSpeed) {
+		this.minSpeed=minSpeed;
+		this.maxSpeed=maxSpeed;
+	}
+
+	/**
+	 * Accept only positions inside of bounding box
+	 */
+	public void setBoundingBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+		this.hasBoundingBox=true;
+		this.minLatitude=minLatitude;
+		this.minLongitude=minLongitude;
+		this.maxLatitude=maxLatitude;
+		this.maxLongitude=maxLongitude;
+	}
+
+	/**
+	 * Accept only messages with numeric parameter in range
+	 * @param name parameter name
+	 * @param min min value, inclusive
+	 * @param max max value, inclusive
+	 */
+	public void addParamRange(String name, double min, double max) {
+		paramConditions.add(new ParamCondition(name, min, max, true));
+	}
+
+	/**
+	 * Accept only messages with parameter
+	 * @param name parameter name
+	 */
+	public void addParamExists(String name) {
+		paramConditions.add(new ParamCondition(name, 0, 0, false));
+	}
+
+	/**
+	 * Additional raw flags condition, see Message.messageFlag and UnitData.dataMessageFlag
+	 */
+	public void setFlags(long flags, long flagsMask) {
+		this.flags=flags;
+		this.flagsMask=flagsMask;
+	}
+
+	/**
+	 * Flags to pass to server, include message type if single type is selected and position flag if position is required
+	 */
+	public long getFlags() {
+		long result=flags & flagsMask;
+		Message.MessageType type=getSingleType();
+		if (type!=null)
+			result|=type.getMessageFlag().getValue();
+		if (isPositionNeeded() && (type==null || type==Message.MessageType.UnitData))
+			result|=UnitData.dataMessageFlag.position.getValue();
+		return result;
+	}
+
+	/**
+	 * Flags mask to pass to server
+	 */
+	public long getFlagsMask() {
+		long result=flagsMask;
+		Message.MessageType type=getSingleType();
+		if (type!=null)
+			result|=Message.messageFlag.typeMask.getValue();
+		if (isPositionNeeded() && type==Message.MessageType.UnitData)
+			// position flag has meaning only for unit data messages
+			result|=UnitData.dataMessageFlag.position.getValue();
+		return result;
+	}
+
+	/**
+	 * Check message type, done before message object is read
+	 * @param messageFlags message flags
+	 * @param type message type
+	 * @return false if message should be skipped
+	 */
+	public boolean acceptsType(long messageFlags, Message.MessageType type) {
+		if ((messageFlags & flagsMask)!=(flags & flagsMask))
+			return false;
+		if (messageTypes!=null && !messageTypes.contains(type))
+			return false;
+		return !isPositionNeeded() || type==Message.MessageType.UnitData;
+	}
+
+	/**
+	 * Check decoded message
+	 * @param message message
+	 * @return true if message passes all conditions
+	 */
+	public boolean accepts(Message message) {
+		if (message==null || !acceptsType(message.getFlags(), message.getMessageType()))
+			return false;
+		if (isPositionNeeded()) {
+			UnitData.Position position=((UnitData)message).getPosition();
+			if (position==null)
+				return false;
+			if (minSpeed>=0 && position.getSpeed()<minSpeed)
+				return false;
+			if (maxSpeed>=0 && position.getSpeed()>maxSpeed)
+				return false;
+			if (hasBoundingBox && (position.getLatitude()<minLatitude || position.getLatitude()>maxLatitude ||
+					position.getLongitude()<minLongitude || position.getLongitude()>maxLongitude))
+				return false;
+		}
+		if (!paramConditions.isEmpty()) {
+			Map<String, Object> params=message.getParameters();
+			if (params==null)
+				return false;
+			for (ParamCondition condition : paramConditions)
+				if (!condition.accepts(params.get(condition.name)))
+					return false;
+		}
+		return true;
+	}
+
+	private boolean isPositionNeeded() {
+		return positionRequired || minSpeed>=0 || maxSpeed>=0 || hasBoundingBox;
+	}
+
+	private Message.MessageType getSingleType() {
+		if (messageTypes!=null && messageTypes.size()==1)
+			return messageTypes.iterator().next();
+		if (isPositionNeeded())
+			return Message.MessageType.UnitData;
+		return null;
+	}
+
+	private static final class ParamCondition {
+		private final String name;
+		private final double min;
+		private final double max;
+		private final boolean range;
+
+		ParamCondition(String name, double min, double max, boolean range) {
+			this.name=name;
+			this.min=min;
+			this.max=max;
+			this.range=range;
+		}
+
+		boolean accepts(Object value) {
+			if (value==null)
+				return false;
+			if (!range)
+				return true;
+			if (!(value instanceof Number))
+				return false;
+			double number=((Number)value).doubleValue();
+			return number>=min && number<=max;
+		}
+	}
+}
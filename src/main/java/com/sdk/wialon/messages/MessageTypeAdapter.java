@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.messages;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Streaming Gson adapter for messages, reads server message data without reflection.
+ * Every message class reads and writes own properties in readField/writeFields.
+ * @param <T> message class
+ */
+public abstract class MessageTypeAdapter<T extends Message> extends TypeAdapter<T> {
+
+	/**
+	 * Create new empty message
+	 * @return message
+	 */
+	protected abstract T create();
+
+	@Override
+	public T read(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		T message=create();
+		in.beginObject();
+		while (in.hasNext()) {
+			String name=in.nextName();
+			if (!message.readField(name, in))
+				in.skipValue();
+		}
+		in.endObject();
+		return message;
+	}
+
+	@Override
+	public void write(JsonWriter out, T message) throws IOException {
+		if (message==null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		message.writeFields(out);
+		out.endObject();
+	}
+
+	/**
+	 * Register adapters for all messages classes and unit position
+	 * @param builder session Gson builder
+	 */
+	public static void registerAll(GsonBuilder builder) {
+		builder.registerTypeAdapter(UnitData.class, new MessageTypeAdapter<UnitData>() {
+			@Override
+			protected UnitData create() {
+				return new UnitData();
+			}
+		});
+		builder.registerTypeAdapter(UnitSMS.class, new MessageTypeAdapter<UnitSMS>() {
+			@Override
+			protected UnitSMS create() {
+				return new UnitSMS();
+			}
+		});
+		builder.registerTypeAdapter(UnitCmd.class, new MessageTypeAdapter<UnitCmd>() {
+			@Override
+			protected UnitCmd create() {
+				return new UnitCmd();
+			}
+		});
+		builder.registerTypeAdapter(UnitEvent.class, new MessageTypeAdapter<UnitEvent>() {
+			@Override
+			protected UnitEvent create() {
+				return new UnitEvent();
+			}
+		});
+		builder.registerTypeAdapter(Notification.class, new MessageTypeAdapter<Notification>() {
+			@Override
+			protected Notification create() {
+				return new Notification();
+			}
+		});
+		builder.registerTypeAdapter(Billing.class, new MessageTypeAdapter<Billing>() {
+			@Override
+			protected Billing create() {
+				return new Billing();
+			}
+		});
+		builder.registerTypeAdapter(DriverSMS.class, new MessageTypeAdapter<DriverSMS>() {
+			@Override
+			protected DriverSMS create() {
+				return new DriverSMS();
+			}
+		});
+		builder.registerTypeAdapter(UnitData.Position.class, new TypeAdapter<UnitData.Position>() {
+			@Override
+			public UnitData.Position read(JsonReader in) throws IOException {
+				return UnitData.Position.read(in);
+			}
+
+			@Override
+			public void write(JsonWriter out, UnitData.Position position) throws IOException {
+				if (position==null)
+					out.nullValue();
+				else
+					position.write(out);
+			}
+		});
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.messages;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decoder of messages/get_packed_messages response. Response can be gzip or zlib compressed,
+ * it contains messages array or object with messages array. Messages are read with streaming parser
+ * directly from response buffer, positions of unit data messages are put into columns without creation of message objects.
+ */
+public class PackedMessagesDecoder {
+	private static final Charset UTF8=Charset.forName("UTF-8");
+
+	/**
+	 * Decode response
+	 * @param data response data, buffer position is not changed
+	 * @param columns columns to add positions to
+	 * @return count of added positions
+	 * @throws ErrorResponseException if server returned error
+	 */
+	public static int decode(ByteBuffer data, PositionColumns columns) throws IOException {
+		JsonReader in=new JsonReader(new InputStreamReader(open(data), UTF8));
+		try {
+			int added=0;
+			if (in.peek()==JsonToken.BEGIN_ARRAY)
+				return readMessages(in, columns);
+			in.beginObject();
+			while (in.hasNext()) {
+				String name=in.nextName();
+				if (name.equals("messages"))
+					added+=readMessages(in, columns);
+				else if (name.equals("error")) {
+					int error=JsonStreams.readInt(in, 0);
+					if (error!=0)
+						throw new ErrorResponseException(error);
+				} else
+					in.skipValue();
+			}
+			in.endObject();
+			return added;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int readMessages(JsonReader in, PositionColumns columns) throws IOException {
+		int added=0;
+		in.beginArray();
+		while (in.hasNext())
+			if (readMessage(in, columns))
+				added++;
+		in.endArray();
+		return added;
+	}
+
+	private static boolean readMessage(JsonReader in, PositionColumns columns) throws IOException {
+		if (in.peek()!=JsonToken.BEGIN_OBJECT) {
+			in.skipValue();
+			return false;
+		}
+		long time=0, flags=0;
+		String type=null;
+		boolean hasPosition=false;
+		double latitude=0, longitude=0;
+		int speed=0, course=0, altitude=0, satellites=0;
+		in.beginObject();
+		while (in.hasNext()) {
+			String name=in.nextName();
+			if (name.equals("t"))
+				time=JsonStreams.readLong(in, 0);
+			else if (name.equals("f"))
+				flags=JsonStreams.readLong(in, 0);
+			else if (name.equals("tp"))
+				type=JsonStreams.readString(in);
+			else if (name.equals("pos") && in.peek()==JsonToken.BEGIN_OBJECT) {
+				hasPosition=true;
+				in.beginObject();
+				while (in.hasNext()) {
+					String field=in.nextName();
+					if (field.equals("y"))
+						latitude=JsonStreams.readDouble(in, 0);
+					else if (field.equals("x"))
+						longitude=JsonStreams.readDouble(in, 0);
+					else if (field.equals("s"))
+						speed=JsonStreams.readInt(in, 0);
+					else if (field.equals("c"))
+						course=JsonStreams.readInt(in, 0);
+					else if (field.equals("z"))
+						altitude=JsonStreams.readInt(in, 0);
+					else if (field.equals("sc"))
+						satellites=JsonStreams.readInt(in, 0);
+					else
+						in.skipValue();
+				}
+				in.endObject();
+			} else
+				in.skipValue();
+		}
+		in.endObject();
+		boolean unitData=type!=null ? type.equals(Message.MessageType.UnitData.getValue())
+				: (flags & Message.messageFlag.typeMask.getValue())==Message.messageFlag.typeUnitData.getValue();
+		if (!hasPosition || !unitData)
+			return false;
+		columns.add(time, flags, latitude, longitude, speed, course, altitude, satellites);
+		return true;
+	}
+
+	/**
+	 * Open stream over buffer content, compression is detected by header
+	 */
+	private static InputStream open(ByteBuffer data) throws IOException {
+		ByteBuffer buffer=data.duplicate();
+		InputStream stream=buffer.hasArray()
+				? new ByteArrayInputStream(buffer.array(), buffer.arrayOffset()+buffer.position(), buffer.remaining())
+				: new ByteBufferInputStream(buffer);
+		if (buffer.remaining()<2)
+			return stream;
+		int first=buffer.get(buffer.position()) & 0xFF;
+		int second=buffer.get(buffer.position()+1) & 0xFF;
+		if (first==0x1F && second==0x8B)
+			return new GZIPInputStream(stream, 8192);
+		if (first==0x78 && ((first<<8)|second)%31==0)
+			return new InflaterInputStream(stream);
+		return stream;
+	}
+
+	/**
+	 * Server error in packed messages response
+	 */
+	public static class ErrorResponseException extends IOException {
+		private static final long serialVersionUID=1L;
+		private final int errorCode;
+
+		public ErrorResponseException(int errorCode) {
+			super("Server error "+errorCode);
+			this.errorCode=errorCode;
+		}
+
+		public int getErrorCode() {
+			return errorCode;
+		}
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer=buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining())
+				return -1;
+			length=Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+	}
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.messages;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Parameters of batch of messages in columns: one key table for the batch and one column per parameter,
+ * one row per message. Integer values are kept in long columns, other numbers in double columns,
+ * non-numeric values in object columns. Messages get lightweight map view of own row.
+ * Not thread safe while filled, read-only access can be concurrent.
+ */
+public class ParamColumns {
+	private static final byte ABSENT=0;
+	private static final byte DOUBLE=1;
+	private static final byte LONG=2;
+	private static final byte OBJECT=3;
+
+	private final Map<String, Integer> keys=new HashMap<String, Integer>();
+	private final List<Column> columns=new ArrayList<Column>();
+	private int rows;
+	private int capacity;
+
+	public ParamColumns(int expectedRows) {
+		capacity=Math.max(expectedRows, 16);
+	}
+
+	public ParamColumns() {
+		this(1024);
+	}
+
+	/**
+	 * Add empty row
+	 * @return row index
+	 */
+	public int addRow() {
+		if (rows==capacity) {
+			capacity*=2;
+			for (Column column : columns)
+				column.grow(capacity);
+		}
+		return rows++;
+	}
+
+	/**
+	 * Remove last added row, e.g. row of message rejected by filter
+	 */
+	public void removeLastRow() {
+		if (rows==0)
+			return;
+		rows--;
+		for (Column column : columns) {
+			column.kinds[rows]=ABSENT;
+			if (column.objects!=null)
+				column.objects[rows]=null;
+		}
+	}
+
+	public int getRowsCount() {
+		return rows;
+	}
+
+	/**
+	 * Names of all parameters met in batch
+	 */
+	public Set<String> getKeys() {
+		return Collections.unmodifiableSet(keys.keySet());
+	}
+
+	/**
+	 * Read parameters object of message into row
+	 * @param in reader positioned at parameters object
+	 * @param row row index
+	 */
+	public void read(JsonReader in, int row) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return;
+		}
+		in.beginObject();
+		while (in.hasNext()) {
+			Column column=getColumn(in.nextName());
+			if (in.peek()==JsonToken.NUMBER) {
+				String number=in.nextString();
+				long longValue=parseLong(number);
+				if (longValue!=Long.MIN_VALUE) {
+					column.ensureLongs();
+					column.longs[row]=longValue;
+					column.kinds[row]=LONG;
+				} else {
+					column.doubles[row]=Double.parseDouble(number);
+					column.kinds[row]=DOUBLE;
+				}
+			} else {
+				Object value=JsonStreams.readObject(in);
+				if (value==null)
+					continue;
+				column.ensureObjects();
+				column.objects[row]=value;
+				column.kinds[row]=OBJECT;
+			}
+		}
+		in.endObject();
+	}
+
+	public boolean has(int row, String name) {
+		Column column=findColumn(name);
+		return column!=null && column.kinds[row]!=ABSENT;
+	}
+
+	/**
+	 * Get numeric parameter value
+	 * @param row row index
+	 * @param name parameter name
+	 * @param defaultValue value for missing and non-numeric parameters
+	 * @return value
+	 */
+	public double getDouble(int row, String name, double defaultValue) {
+		Column column=findColumn(name);
+		if (column==null)
+			return defaultValue;
+		switch (column.kinds[row]) {
+			case DOUBLE:
+				return column.doubles[row];
+			case LONG:
+				return column.longs[row];
+			default:
+				return defaultValue;
+		}
+	}
+
+	/**
+	 * Get integer parameter value without precision loss, e.g. for bit masks
+	 * @param row row index
+	 * @param name parameter name
+	 * @param defaultValue value for missing and non-numeric parameters
+	 * @return value
+	 */
+	public long getLong(int row, String name, long defaultValue) {
+		Column column=findColumn(name);
+		if (column==null)
+			return defaultValue;
+		switch (column.kinds[row]) {
+			case DOUBLE:
+				return (long)column.doubles[row];
+			case LONG:
+				return column.longs[row];
+			default:
+				return defaultValue;
+		}
+	}
+
+	/**
+	 * Get parameter value as it is returned by message parameters map
+	 * @return Double for numbers, String, Map or List for others, null if missing
+	 */
+	public Object getValue(int row, String name) {
+		Column column=findColumn(name);
+		return column==null ? null : column.getValue(row);
+	}
+
+	/**
+	 * Copy numeric values of parameter for all rows
+	 * @param name parameter name
+	 * @param destination array of rows count length at least
+	 * @param missingValue value for rows without numeric value
+	 */
+	public void copyColumn(String name, double[] destination, double missingValue) {
+		Column column=findColumn(name);
+		for (int row=0; row<rows; row++)
+			destination[row]=column==null ? missingValue : getDouble(row, name, missingValue);
+	}
+
+	/**
+	 * Map view of row parameters
+	 * @param row row index
+	 * @return read-only map
+	 */
+	public Map<String, Object> getParams(int row) {
+		return new RowParams(row);
+	}
+
+	private Column getColumn(String name) {
+		Integer index=keys.get(name);
+		if (index!=null)
+			return columns.get(index);
+		Column column=new Column(name.intern(), capacity);
+		keys.put(column.name, columns.size());
+		columns.add(column);
+		return column;
+	}
+
+	private Column findColumn(String name) {
+		Integer index=keys.get(name);
+		return index==null ? null : columns.get(index);
+	}
+
+	/**
+	 * Parse integer literal
+	 * @return value or Long.MIN_VALUE if number is not integer
+	 */
+	private static long parseLong(String number) {
+		int length=number.length();
+		if (length==0 || length>18)
+			return Long.MIN_VALUE;
+		int start=number.charAt(0)=='-' ? 1 : 0;
+		if (start==length)
+			return Long.MIN_VALUE;
+		long value=0;
+		for (int i=start; i<length; i++) {
+			char c=number.charAt(i);
+			if (c<'0' || c>'9')
+				return Long.MIN_VALUE;
+			value=value*10+(c-'0');
+		}
+		return start==1 ? -value : value;
+	}
+
+	private static final class Column {
+		private final String name;
+		private byte[] kinds;
+		private double[] doubles;
+		private long[] longs;
+		private Object[] objects;
+
+		Column(String name, int capacity) {
+			this.name=name;
+			kinds=new byte[capacity];
+			doubles=new double[capacity];
+		}
+
+		void grow(int capacity) {
+			kinds=Arrays.copyOf(kinds, capacity);
+			doubles=Arrays.copyOf(doubles, capacity);
+			if (longs!=null)
+				longs=Arrays.copyOf(longs, capacity);
+			if (objects!=null)
+				objects=Arrays.copyOf(objects, capacity);
+		}
+
+		void ensureLongs() {
+			if (longs==null)
+				longs=new long[kinds.length];
+		}
+
+		void ensureObjects() {
+			if (objects==null)
+				objects=new Object[kinds.length];
+		}
+
+		Object getValue(int row) {
+			switch (kinds[row]) {
+				case DOUBLE:
+					return doubles[row];
+				case LONG:
+					return (double)longs[row];
+				case OBJECT:
+					return objects[row];
+				default:
+					return null;
+			}
+		}
+	}
+
+	/**
+	 * Parameters of one message
+	 */
+	private final class RowParams extends AbstractMap<String, Object> {
+		private final int row;
+
+		RowParams(int row) {
+			this.row=row;
+		}
+
+		@Override
+		public Object get(Object key) {
+			Integer index=keys.get(key);
+			return index==null ? null : columns.get(index).getValue(row);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			Integer index=keys.get(key);
+			return index!=null && columns.get(index).kinds[row]!=ABSENT;
+		}
+
+		@Override
+		public Set<Entry<String, Object>> entrySet() {
+			return new AbstractSet<Entry<String, Object>>() {
+				@Override
+				public Iterator<Entry<String, Object>> iterator() {
+					List<Entry<String, Object>> entries=new ArrayList<Entry<String, Object>>();
+					for (Column column : columns)
+						if (column.kinds[row]!=ABSENT)
+							entries.add(new SimpleImmutableEntry<String, Object>(column.name, column.getValue(row)));
+					return entries.iterator();
+				}
+
+				@Override
+				public int size() {
+					int size=0;
+					for (Column column : columns)
+						if (column.kinds[row]!=ABSENT)
+							size++;
+					return size;
+				}
+			};
+		}
+	}
+}
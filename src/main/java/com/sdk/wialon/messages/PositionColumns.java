@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.messages;
+
+import java.util.Arrays;
+
+/**
+ * Positions of unit data messages in primitive columns, one row per message.
+ * Filled by decoders without creation of message objects.
+ */
+public class PositionColumns {
+	private long[] times;
+	private long[] flags;
+	private double[] latitudes;
+	private double[] longitudes;
+	private int[] speeds;
+	private int[] courses;
+	private int[] altitudes;
+	private int[] satellites;
+	private int size;
+
+	public PositionColumns(int capacity) {
+		capacity=Math.max(capacity, 16);
+		times=new long[capacity];
+		flags=new long[capacity];
+		latitudes=new double[capacity];
+		longitudes=new double[capacity];
+		speeds=new int[capacity];
+		courses=new int[capacity];
+		altitudes=new int[capacity];
+		satellites=new int[capacity];
+	}
+
+	public PositionColumns() {
+		this(1024);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size=0;
+	}
+
+	/**
+	 * Add row
+	 * @param time message time
+	 * @param messageFlags message flags
+	 */
+	public void add(long time, long messageFlags, double latitude, double longitude, int speed, int course, int altitude, int satelliteCount) {
+		if (size==times.length)
+			grow(size*2);
+		times[size]=time;
+		flags[size]=messageFlags;
+		latitudes[size]=latitude;
+		longitudes[size]=longitude;
+		speeds[size]=speed;
+		courses[size]=course;
+		altitudes[size]=altitude;
+		satellites[size]=satelliteCount;
+		size++;
+	}
+
+	public long getTime(int row) {
+		return times[row];
+	}
+
+	public long getFlags(int row) {
+		return flags[row];
+	}
+
+	public double getLatitude(int row) {
+		return latitudes[row];
+	}
+
+	public double getLongitude(int row) {
+		return longitudes[row];
+	}
+
+	public int getSpeed(int row) {
+		return speeds[row];
+	}
+
+	public int getCourse(int row) {
+		return courses[row];
+	}
+
+	public int getAltitude(int row) {
+		return altitudes[row];
+	}
+
+	public int getSatellitesCount(int row) {
+		return satellites[row];
+	}
+
+	/**
+	 * Visit all rows in order of adding
+	 * @param visitor positions receiver
+	 */
+	public void forEach(PositionVisitor visitor) {
+		for (int row=0; row<size; row++)
+			visitor.visit(times[row], latitudes[row], longitudes[row], speeds[row], courses[row], altitudes[row], satellites[row]);
+	}
+
+	private void grow(int capacity) {
+		times=Arrays.copyOf(times, capacity);
+		flags=Arrays.copyOf(flags, capacity);
+		latitudes=Arrays.copyOf(latitudes, capacity);
+		longitudes=Arrays.copyOf(longitudes, capacity);
+		speeds=Arrays.copyOf(speeds, capacity);
+		courses=Arrays.copyOf(courses, capacity);
+		altitudes=Arrays.copyOf(altitudes, capacity);
+		satellites=Arrays.copyOf(satellites, capacity);
+	}
+}
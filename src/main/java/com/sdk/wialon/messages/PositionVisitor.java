@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.messages;
+
+/**
+ * Receiver of positions read from primitive storages without creation of position objects
+ */
+public interface PositionVisitor {
+	/**
+	 * Visit one position
+	 * @param time position UTC time
+	 * @param latitude latitude
+	 * @param longitude longitude
+	 * @param speed speed, km/h
+	 * @param course course, degrees
+	 * @param altitude altitude, meters
+	 * @param satellites satellites count
+	 */
+	void visit(long time, double latitude, double longitude, int speed, int course, int altitude, int satellites);
+}
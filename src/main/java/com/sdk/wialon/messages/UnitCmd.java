@@ -16,6 +16,12 @@
 
 package com.sdk.wialon.messages;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.IOException;
+
 public class UnitCmd extends Message {
 	/* command name */
 	private String ca;
@@ -63,4 +69,51 @@ public class UnitCmd extends Message {
 	public String getExecutionTime() {
 		return et;
 	}
+
+	@Override
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (super.readField(name, in))
+			return true;
+		if (name.equals("ca"))
+			ca=JsonStreams.readString(in);
+		else if (name.equals("cn"))
+			cn=JsonStreams.readString(in);
+		else if (name.equals("cp"))
+			cp=JsonStreams.readString(in);
+		else if (name.equals("ui"))
+			ui=JsonStreams.readString(in);
+		else if (name.equals("ln"))
+			ln=JsonStreams.readString(in);
+		else if (name.equals("lt"))
+			lt=JsonStreams.readString(in);
+		else if (name.equals("et"))
+			et=JsonStreams.readString(in);
+		else
+			return false;
+		return true;
+	}
+
+	@Override
+	protected void reset() {
+		super.reset();
+		ca=null;
+		cn=null;
+		cp=null;
+		ui=null;
+		ln=null;
+		lt=null;
+		et=null;
+	}
+
+	@Override
+	protected void writeFields(JsonWriter out) throws IOException {
+		super.writeFields(out);
+		out.name("ca").value(ca);
+		out.name("cn").value(cn);
+		out.name("cp").value(cp);
+		out.name("ui").value(ui);
+		out.name("ln").value(ln);
+		out.name("lt").value(lt);
+		out.name("et").value(et);
+	}
 }
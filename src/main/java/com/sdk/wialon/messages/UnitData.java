@@ -16,10 +16,19 @@
 
 package com.sdk.wialon.messages;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.IOException;
+
 public class UnitData extends Message {
 	private Position pos;
 	private long i;
 	private long o;
+	/** Position object kept for reuse of message instance */
+	private Position spare;
 
 	public UnitData(){
 		this.messageType=MessageType.UnitData;
@@ -37,7 +46,43 @@ public class UnitData extends Message {
 		return o;
 	}
 
-	public class Position {
+	@Override
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (super.readField(name, in))
+			return true;
+		if (name.equals("pos"))
+			pos=Position.read(in, spare);
+		else if (name.equals("i"))
+			i=JsonStreams.readLong(in, 0);
+		else if (name.equals("o"))
+			o=JsonStreams.readLong(in, 0);
+		else
+			return false;
+		return true;
+	}
+
+	@Override
+	protected void reset() {
+		super.reset();
+		if (pos!=null)
+			spare=pos;
+		pos=null;
+		i=0;
+		o=0;
+	}
+
+	@Override
+	protected void writeFields(JsonWriter out) throws IOException {
+		super.writeFields(out);
+		if (pos!=null) {
+			out.name("pos");
+			pos.write(out);
+		}
+		out.name("i").value(i);
+		out.name("o").value(o);
+	}
+
+	public static class Position {
 		private long t;
 		private double y;
 		private double x;
@@ -46,6 +91,19 @@ public class UnitData extends Message {
 		private int c;
 		private int sc;
 
+		public Position() {
+		}
+
+		public Position(long time, double latitude, double longitude, int altitude, int speed, int course, int satellitesCount) {
+			this.t=time;
+			this.y=latitude;
+			this.x=longitude;
+			this.z=altitude;
+			this.s=speed;
+			this.c=course;
+			this.sc=satellitesCount;
+		}
+
 		public void setTime(long time) {
 			this.t=time;
 		}
@@ -77,6 +135,77 @@ public class UnitData extends Message {
 		public long getTime() {
 			return t;
 		}
+
+		/**
+		 * Read position from server data in form {t: 0, y: 0.0, x: 0.0, z: 0, s: 0, c: 0, sc: 0}
+		 * @param in reader positioned at position object
+		 * @return position or null
+		 */
+		public static Position read(JsonReader in) throws IOException {
+			return read(in, null);
+		}
+
+		/**
+		 * Read position into existing object
+		 * @param in reader positioned at position object
+		 * @param reuse position to fill, new one is created if null
+		 * @return position or null
+		 */
+		public static Position read(JsonReader in, Position reuse) throws IOException {
+			if (in.peek()==JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			Position position=reuse;
+			if (position==null)
+				position=new Position();
+			else
+				position.clear();
+			in.beginObject();
+			while (in.hasNext()) {
+				String name=in.nextName();
+				if (name.equals("t"))
+					position.t=JsonStreams.readLong(in, 0);
+				else if (name.equals("y"))
+					position.y=JsonStreams.readDouble(in, 0);
+				else if (name.equals("x"))
+					position.x=JsonStreams.readDouble(in, 0);
+				else if (name.equals("z"))
+					position.z=JsonStreams.readInt(in, 0);
+				else if (name.equals("s"))
+					position.s=JsonStreams.readInt(in, 0);
+				else if (name.equals("c"))
+					position.c=JsonStreams.readInt(in, 0);
+				else if (name.equals("sc"))
+					position.sc=JsonStreams.readInt(in, 0);
+				else
+					in.skipValue();
+			}
+			in.endObject();
+			return position;
+		}
+
+		private void clear() {
+			t=0;
+			y=0;
+			x=0;
+			z=0;
+			s=0;
+			c=0;
+			sc=0;
+		}
+
+		public void write(JsonWriter out) throws IOException {
+			out.beginObject();
+			out.name("t").value(t);
+			out.name("y").value(y);
+			out.name("x").value(x);
+			out.name("z").value(z);
+			out.name("s").value(s);
+			out.name("c").value(c);
+			out.name("sc").value(sc);
+			out.endObject();
+		}
 	}
 	/** Message flags constants, unit data messages only */
 	public static enum dataMessageFlag{
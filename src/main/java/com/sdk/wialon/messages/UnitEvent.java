@@ -16,6 +16,12 @@
 
 package com.sdk.wialon.messages;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.IOException;
+
 public class UnitEvent extends Message {
 	/* text of event */
 	private String et;
@@ -40,6 +46,37 @@ public class UnitEvent extends Message {
 		return x;
 	}
 
+	@Override
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (super.readField(name, in))
+			return true;
+		if (name.equals("et"))
+			et=JsonStreams.readString(in);
+		else if (name.equals("y"))
+			y=JsonStreams.readDouble(in, 0);
+		else if (name.equals("x"))
+			x=JsonStreams.readDouble(in, 0);
+		else
+			return false;
+		return true;
+	}
+
+	@Override
+	protected void reset() {
+		super.reset();
+		et=null;
+		y=0;
+		x=0;
+	}
+
+	@Override
+	protected void writeFields(JsonWriter out) throws IOException {
+		super.writeFields(out);
+		out.name("et").value(et);
+		out.name("y").value(y);
+		out.name("x").value(x);
+	}
+
 	/** Message flags constants, unit event messages only */
 	public static enum eventMessageFlag{
 		/** AVL event type mask */
@@ -16,6 +16,12 @@
 
 package com.sdk.wialon.messages;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.sdk.wialon.util.JsonStreams;
+
+import java.io.IOException;
+
 public class UnitSMS extends Message {
 	private String st;
 	private String mp;
@@ -30,4 +36,31 @@ public class UnitSMS extends Message {
 	public String getModemPhoneNumber() {
 		return mp;
 	}
+
+	@Override
+	protected boolean readField(String name, JsonReader in) throws IOException {
+		if (super.readField(name, in))
+			return true;
+		if (name.equals("st"))
+			st=JsonStreams.readString(in);
+		else if (name.equals("mp"))
+			mp=JsonStreams.readString(in);
+		else
+			return false;
+		return true;
+	}
+
+	@Override
+	protected void reset() {
+		super.reset();
+		st=null;
+		mp=null;
+	}
+
+	@Override
+	protected void writeFields(JsonWriter out) throws IOException {
+		super.writeFields(out);
+		out.name("st").value(st);
+		out.name("mp").value(mp);
+	}
 }
@@ -68,6 +68,13 @@ public class RemoteHttpClient {
 		return true;
 	}
 
+	/**
+	 * Check if batch is started in current thread
+	 */
+	public boolean isBatchStarted() {
+		return batchCalls.containsKey(Thread.currentThread().getId());
+	}
+
 	/**
 	 * Finish batch - perform all delayed calls in one AJAX request
 	 *
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+package com.sdk.wialon.remote.handlers;
+
+import com.sdk.wialon.item.prop.ReportResult;
+
+public class ReportResponseHandler extends ResponseHandler {
+	/**
+	 * This method calls on success report execution
+	 * @param result report result
+	 */
+	public void onSuccessReport(ReportResult result) {
+		if (callback!=null && callback instanceof ReportResponseHandler)
+			((ReportResponseHandler)callback).onSuccessReport(result);
+	}
+
+	/**
+	 * This method calls on success receive of report table rows
+	 * @param rows rows, maybe empty
+	 */
+	public void onSuccessRows(ReportResult.Row... rows) {
+		if (callback!=null && callback instanceof ReportResponseHandler)
+			((ReportResponseHandler)callback).onSuccessRows(rows);
+	}
+}
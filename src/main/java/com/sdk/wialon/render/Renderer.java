@@ -59,11 +59,26 @@ public class Renderer extends EventProvider {
 	 */
 	public Layer getReportLayer() {
 		for (Layer layer : this.layers)
-			if (layer.getName().substring(0, 6).equals("report"))
+			if (layer.getName()!=null && layer.getName().startsWith("report"))
 				return layer;
 		return null;
 	}
 
+	/**
+	 * Replace report layer with layer of new report result, see Report.execReport
+	 * @param layer layer of report or null to remove report layer only
+	 */
+	public void setReportLayer(Layer layer) {
+		Layer reportLayer=getReportLayer();
+		if (reportLayer==null && layer==null)
+			return;
+		if (reportLayer!=null)
+			this.layers.remove(reportLayer);
+		if (layer!=null)
+			this.layers.add(layer);
+		this.upVersion();
+	}
+
 	/**
 	 * Get URL for 256x256 GMaps style tile
 	 * @param x  X coordinate (lon?)
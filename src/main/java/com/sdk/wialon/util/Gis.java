@@ -98,4 +98,24 @@ public class Gis {
 		nameValuePairs.put("uid", String.valueOf(Session.getInstance().getCurrUser().getId()));
 		RemoteHttpClient.getInstance().get(Session.getInstance().getBaseGisUrl(Session.GisType.GEOCODE) + "/gis_geocode", nameValuePairs, callback);
 	}
+
+	/** Mean Earth radius, meters */
+	private static final double EARTH_RADIUS=6371000;
+
+	/**
+	 * Calculate distance between two points by haversine formula, without remote call
+	 *
+	 * @param latitude1  latitude of first point
+	 * @param longitude1 longitude of first point
+	 * @param latitude2  latitude of second point
+	 * @param longitude2 longitude of second point
+	 * @return distance, in meters
+	 */
+	public static double getDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
+		double dLatitude=Math.toRadians(latitude2-latitude1);
+		double dLongitude=Math.toRadians(longitude2-longitude1);
+		double a=Math.sin(dLatitude/2)*Math.sin(dLatitude/2)+
+				Math.cos(Math.toRadians(latitude1))*Math.cos(Math.toRadians(latitude2))*Math.sin(dLongitude/2)*Math.sin(dLongitude/2);
+		return 2*EARTH_RADIUS*Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
+	}
 }
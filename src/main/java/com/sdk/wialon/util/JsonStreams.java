@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.util;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Helpers for hand-written streaming type adapters.
+ * Values are read with the same rules as session Gson uses for reflective deserialization.
+ */
+public class JsonStreams {
+	private static final JsonParser jsonParser=new JsonParser();
+
+	/**
+	 * Read string value, numbers and booleans are converted to string, objects and arrays are returned as JSON text
+	 */
+	public static String readString(JsonReader in) throws IOException {
+		JsonToken token=in.peek();
+		switch (token) {
+			case NULL:
+				in.nextNull();
+				return null;
+			case BOOLEAN:
+				return String.valueOf(in.nextBoolean());
+			case STRING:
+			case NUMBER:
+				return in.nextString();
+			default:
+				return jsonParser.parse(in).toString();
+		}
+	}
+
+	public static Long readLong(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextLong();
+	}
+
+	public static Integer readInteger(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextInt();
+	}
+
+	public static long readLong(JsonReader in, long defaultValue) throws IOException {
+		Long value=readLong(in);
+		return value==null ? defaultValue : value;
+	}
+
+	public static int readInt(JsonReader in, int defaultValue) throws IOException {
+		Integer value=readInteger(in);
+		return value==null ? defaultValue : value;
+	}
+
+	public static double readDouble(JsonReader in, double defaultValue) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return defaultValue;
+		}
+		return in.nextDouble();
+	}
+
+	/**
+	 * Read object with string values, e.g. item properties plugins data
+	 */
+	public static Map<String, String> readStringMap(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		Map<String, String> map=new LinkedHashMap<String, String>();
+		in.beginObject();
+		while (in.hasNext()) {
+			String name=in.nextName();
+			map.put(name, readString(in));
+		}
+		in.endObject();
+		return map;
+	}
+
+	/**
+	 * Read object with any values, e.g. message parameters
+	 */
+	public static Map<String, Object> readObjectMap(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		Map<String, Object> map=new LinkedHashMap<String, Object>();
+		in.beginObject();
+		while (in.hasNext()) {
+			String name=in.nextName();
+			map.put(name, readObject(in));
+		}
+		in.endObject();
+		return map;
+	}
+
+	/**
+	 * Read any value: objects as maps, arrays as lists, numbers as doubles
+	 */
+	public static Object readObject(JsonReader in) throws IOException {
+		switch (in.peek()) {
+			case BEGIN_OBJECT:
+				return readObjectMap(in);
+			case BEGIN_ARRAY:
+				List<Object> list=new ArrayList<Object>();
+				in.beginArray();
+				while (in.hasNext())
+					list.add(readObject(in));
+				in.endArray();
+				return list;
+			case STRING:
+				return in.nextString();
+			case NUMBER:
+				return in.nextDouble();
+			case BOOLEAN:
+				return in.nextBoolean();
+			default:
+				in.nextNull();
+				return null;
+		}
+	}
+
+	public static Long[] readLongArray(JsonReader in) throws IOException {
+		if (in.peek()==JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		List<Long> list=new ArrayList<Long>();
+		in.beginArray();
+		while (in.hasNext())
+			list.add(readLong(in));
+		in.endArray();
+		return list.toArray(new Long[list.size()]);
+	}
+
+	public static void writeStringMap(JsonWriter out, String name, Map<String, String> map) throws IOException {
+		if (map==null)
+			return;
+		out.name(name).beginObject();
+		for (Map.Entry<String, String> entry : map.entrySet())
+			out.name(entry.getKey()).value(entry.getValue());
+		out.endObject();
+	}
+
+	public static void writeObject(JsonWriter out, Object value) throws IOException {
+		if (value==null)
+			out.nullValue();
+		else if (value instanceof Map) {
+			out.beginObject();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+				out.name(String.valueOf(entry.getKey()));
+				writeObject(out, entry.getValue());
+			}
+			out.endObject();
+		} else if (value instanceof Collection) {
+			out.beginArray();
+			for (Object element : (Collection<?>)value)
+				writeObject(out, element);
+			out.endArray();
+		} else if (value instanceof Number)
+			out.value((Number)value);
+		else if (value instanceof Boolean)
+			out.value((Boolean)value);
+		else
+			out.value(value.toString());
+	}
+
+	public static void writeLongArray(JsonWriter out, String name, Long[] array) throws IOException {
+		if (array==null)
+			return;
+		out.name(name).beginArray();
+		for (Long value : array)
+			out.value(value);
+		out.endArray();
+	}
+}
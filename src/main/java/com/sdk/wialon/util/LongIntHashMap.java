@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+package com.sdk.wialon.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long keys (items IDs) to non-negative int values (slots, indexes) without boxing.
+ * Open addressing with linear probing, not thread safe.
+ */
+public class LongIntHashMap {
+	/** Value returned for missing keys */
+	public static final int NO_VALUE=-1;
+
+	private long[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+
+	public LongIntHashMap(int expectedSize) {
+		int capacity=Integer.highestOneBit(Math.max(expectedSize, 8)*2-1)*2;
+		allocate(capacity);
+	}
+
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int get(long key) {
+		int index=indexOf(key);
+		return index<0 ? NO_VALUE : values[index];
+	}
+
+	public boolean containsKey(long key) {
+		return indexOf(key)>=0;
+	}
+
+	/**
+	 * Put value for key
+	 * @param key key
+	 * @param value non-negative value
+	 * @return previous value or NO_VALUE
+	 */
+	public int put(long key, int value) {
+		if (value<0)
+			throw new IllegalArgumentException("Value should be non-negative");
+		int index=slot(key);
+		while (values[index]!=NO_VALUE) {
+			if (keys[index]==key) {
+				int previous=values[index];
+				values[index]=value;
+				return previous;
+			}
+			index=(index+1) & mask;
+		}
+		keys[index]=key;
+		values[index]=value;
+		if (++size*2>values.length)
+			rehash(values.length*2);
+		return NO_VALUE;
+	}
+
+	/**
+	 * Remove key
+	 * @param key key
+	 * @return removed value or NO_VALUE
+	 */
+	public int remove(long key) {
+		int index=indexOf(key);
+		if (index<0)
+			return NO_VALUE;
+		int previous=values[index];
+		values[index]=NO_VALUE;
+		size--;
+		// shift following entries of the same cluster back, so lookups don't stop at removed entry
+		int next=(index+1) & mask;
+		while (values[next]!=NO_VALUE) {
+			int home=slot(keys[next]);
+			if (((next-home) & mask)>=((next-index) & mask)) {
+				keys[index]=keys[next];
+				values[index]=values[next];
+				values[next]=NO_VALUE;
+				index=next;
+			}
+			next=(next+1) & mask;
+		}
+		return previous;
+	}
+
+	public void clear() {
+		Arrays.fill(values, NO_VALUE);
+		size=0;
+	}
+
+	private int indexOf(long key) {
+		int index=slot(key);
+		while (values[index]!=NO_VALUE) {
+			if (keys[index]==key)
+				return index;
+			index=(index+1) & mask;
+		}
+		return -1;
+	}
+
+	private int slot(long key) {
+		long hash=key*0x9E3779B97F4A7C15L;
+		return (int)(hash^(hash>>>32)) & mask;
+	}
+
+	private void allocate(int capacity) {
+		keys=new long[capacity];
+		values=new int[capacity];
+		Arrays.fill(values, NO_VALUE);
+		mask=capacity-1;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys=keys;
+		int[] oldValues=values;
+		allocate(capacity);
+		size=0;
+		for (int i=0; i<oldValues.length; i++)
+			if (oldValues[i]!=NO_VALUE)
+				put(oldKeys[i], oldValues[i]);
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.core;
+
+import com.sdk.wialon.item.Item;
+import com.sdk.wialon.item.Unit;
+import com.sdk.wialon.remote.FakeHttpClient;
+import com.sdk.wialon.remote.handlers.ResponseHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DataFlagsManagerTest {
+	private FakeHttpClient client;
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+		client.setDefaultResponse("core/update_data_flags", "[]");
+	}
+
+	@After
+	public void tearDown() {
+		FakeHttpClient.logout();
+	}
+
+	@Test
+	public void flagsOfOwnersAreCombined() {
+		DataFlagsManager manager=Session.getInstance().getDataFlagsManager();
+		Object first=new Object();
+		Object second=new Object();
+		manager.subscribe(first, Arrays.asList(10L, 11L), 0x400, null);
+		manager.subscribe(second, Arrays.asList(10L), 0x100, null);
+		assertEquals(0x501, manager.getFlags(10L));
+		assertEquals(0x401, manager.getFlags(11L));
+		assertEquals(0x100, manager.getFlags(second, 10L));
+		manager.unsubscribeAll(first, null);
+		assertEquals(0x101, manager.getFlags(10L));
+		assertEquals(0, manager.getFlags(11L));
+		List<FakeHttpClient.Call> calls=client.getCalls("core/update_data_flags");
+		assertEquals(3, calls.size());
+		// last call removes flags of first owner from item 10 and unloads item 11
+		String params=calls.get(2).params;
+		assertTrue(params, params.contains("\"data\":[11]"));
+		assertTrue(params, params.contains("\"flags\":1024,\"mode\":2"));
+	}
+
+	@Test
+	public void unchangedSubscriptionIsNotSent() {
+		DataFlagsManager manager=Session.getInstance().getDataFlagsManager();
+		Object owner=new Object();
+		manager.subscribe(owner, Arrays.asList(10L), 0x400, null);
+		manager.subscribe(owner, Arrays.asList(10L), 0x400, null);
+		assertEquals(1, client.getCalls("core/update_data_flags").size());
+	}
+
+	@Test
+	public void failedChunkIsResent() {
+		DataFlagsManager manager=Session.getInstance().getDataFlagsManager();
+		Object owner=new Object();
+		client.addError("core/update_data_flags", 7);
+		final int[] error=new int[1];
+		manager.subscribe(owner, Arrays.asList(10L), 0x400, new ResponseHandler() {
+			@Override
+			public void onFailure(int errorCode, Throwable throwableError) {
+				error[0]=errorCode;
+			}
+		});
+		assertEquals(7, error[0]);
+		manager.subscribe(owner, Arrays.asList(11L), 0x400, null);
+		String params=client.getCalls("core/update_data_flags").get(1).params;
+		assertTrue(params, params.contains("\"data\":[10,11]"));
+	}
+
+	@Test
+	public void bigUpdateFiresEventsInOrderOnCallingThread() {
+		int count=1500;
+		StringBuilder created=new StringBuilder("[");
+		StringBuilder renamed=new StringBuilder("[");
+		for (int i=0; i<count; i++) {
+			if (i>0) {
+				created.append(',');
+				renamed.append(',');
+			}
+			created.append("{\"i\":").append(100+i).append(",\"f\":1,\"d\":{\"nm\":\"unit\",\"cls\":2,\"id\":").append(100+i).append(",\"mu\":0}}");
+			renamed.append("{\"i\":").append(100+i).append(",\"f\":1,\"d\":{\"nm\":\"unit ").append(i).append("\"}}");
+		}
+		Session session=Session.getInstance();
+		client.addResponse("core/update_data_flags", created.append(']').toString());
+		Object owner=new Object();
+		List<Long> ids=new ArrayList<Long>();
+		for (int i=0; i<count; i++)
+			ids.add(100L+i);
+		session.getDataFlagsManager().subscribe(owner, ids, 1, null);
+		assertEquals(count, session.getItems(Unit.class).size());
+
+		final Thread thread=Thread.currentThread();
+		final List<Long> renamedIds=new ArrayList<Long>();
+		EventHandler handler=new EventHandler() {
+			@Override
+			public void onEvent(Enum event, Object object, Object oldData, Object newData) {
+				assertSame(thread, Thread.currentThread());
+				renamedIds.add(((Item)object).getId());
+			}
+		};
+		for (Long id : ids)
+			session.getItem(id).addListener(handler, Item.events.changeName);
+		client.addResponse("core/update_data_flags", renamed.append(']').toString());
+		session.updateDataFlags(new com.sdk.wialon.extra.UpdateSpec[0], new ResponseHandler() {});
+		assertEquals(ids, renamedIds);
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.core;
+
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.remote.FakeHttpClient;
+import com.sdk.wialon.remote.RemoteHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MessagesIteratorTest {
+	private FakeHttpClient client;
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+	}
+
+	@After
+	public void tearDown() {
+		FakeHttpClient.logout();
+	}
+
+	private static String messages(long... times) {
+		StringBuilder result=new StringBuilder("[");
+		for (int i=0; i<times.length; i++) {
+			if (i>0)
+				result.append(',');
+			result.append("{\"t\":").append(times[i]).append(",\"f\":0,\"tp\":\"ud\",\"pos\":null,\"i\":0,\"o\":0,\"p\":{}}");
+		}
+		return result.append("]").toString();
+	}
+
+	@Test
+	public void messagesAreRequestedByPages() {
+		client.addResponse("messages/load_interval", "{\"count\":5,\"messages\":[]}");
+		client.addResponse("messages/get_messages", messages(1, 2));
+		client.addResponse("messages/get_messages", messages(3, 4));
+		client.addResponse("messages/get_messages", messages(5));
+		MessagesIterator iterator=Session.getInstance().getMessagesLoader().iterateInterval(1, 0, 100, 0, 0, 2);
+		List<Long> times=new ArrayList<Long>();
+		while (iterator.hasNext())
+			times.add(iterator.next().getTime());
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), times);
+		assertEquals(5, iterator.getTotalCount());
+		List<FakeHttpClient.Call> calls=client.getCalls("messages/get_messages");
+		assertEquals(3, calls.size());
+		assertTrue(calls.get(2).params, calls.get(2).params.contains("\"indexFrom\":4,\"indexTo\":4"));
+		assertEquals(1, client.getCalls("messages/unload").size());
+		String load=client.getCalls("messages/load_interval").get(0).params;
+		assertTrue(load, load.contains("\"loadCount\":0"));
+	}
+
+	@Test
+	public void emptyIntervalIsNotRequested() {
+		client.addResponse("messages/load_interval", "{\"count\":0,\"messages\":[]}");
+		MessagesIterator iterator=Session.getInstance().getMessagesLoader().iterateInterval(1, 0, 100, 0, 0, 2);
+		assertFalse(iterator.hasNext());
+		assertEquals(0, client.getCalls("messages/get_messages").size());
+		assertEquals(1, client.getCalls("messages/unload").size());
+	}
+
+	@Test
+	public void failedPageClosesIterator() {
+		client.addResponse("messages/load_interval", "{\"count\":5,\"messages\":[]}");
+		client.addResponse("messages/get_messages", messages(1, 2));
+		client.addError("messages/get_messages", 4);
+		MessagesIterator iterator=Session.getInstance().getMessagesLoader().iterateInterval(1, 0, 100, 0, 0, 2);
+		assertEquals(1, iterator.next().getTime());
+		assertEquals(2, iterator.next().getTime());
+		try {
+			iterator.hasNext();
+			fail("FetchException expected");
+		} catch (PagedIterator.FetchException e) {
+			assertEquals(4, e.getErrorCode());
+		}
+		assertEquals(1, client.getCalls("messages/unload").size());
+	}
+
+	@Test
+	public void closedIteratorUnloadsMessages() {
+		client.addResponse("messages/load_interval", "{\"count\":5,\"messages\":[]}");
+		client.addResponse("messages/get_messages", messages(1, 2));
+		MessagesIterator iterator=Session.getInstance().getMessagesLoader().iterateInterval(1, 0, 100, 0, 0, 2);
+		Message message=iterator.next();
+		assertNotNull(message);
+		iterator.close();
+		assertFalse(iterator.hasNext());
+		assertEquals(1, client.getCalls("messages/unload").size());
+	}
+
+	@Test
+	public void closeWaitsForUnload() {
+		// unload is answered from another thread, like by pool of real http client
+		final FakeHttpClient slowClient=new FakeHttpClient() {
+			@Override
+			public void post(final String url, final Map<String, String> params, final Callback callback, final int timeout) {
+				if (!url.contains("svc=messages/unload")) {
+					super.post(url, params, callback, timeout);
+					return;
+				}
+				new Thread() {
+					@Override
+					public void run() {
+						try {
+							Thread.sleep(200);
+						} catch (InterruptedException e) {
+							return;
+						}
+						slowPost(url, params, callback, timeout);
+					}
+				}.start();
+			}
+
+			private void slowPost(String url, Map<String, String> params, Callback callback, int timeout) {
+				super.post(url, params, callback, timeout);
+			}
+		};
+		RemoteHttpClient.getInstance().setHttpClient(slowClient);
+		slowClient.addResponse("messages/load_interval", "{\"count\":5,\"messages\":[]}");
+		slowClient.addResponse("messages/get_messages", messages(1, 2));
+		MessagesIterator iterator=Session.getInstance().getMessagesLoader().iterateInterval(1, 0, 100, 0, 0, 2);
+		iterator.next();
+		iterator.close();
+		assertEquals(1, slowClient.getCalls("messages/unload").size());
+	}
+}
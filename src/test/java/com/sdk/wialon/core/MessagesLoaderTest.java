@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.core;
+
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.remote.FakeHttpClient;
+import com.sdk.wialon.remote.handlers.MessagesResponseHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessagesLoaderTest {
+	private FakeHttpClient client;
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+	}
+
+	@After
+	public void tearDown() {
+		FakeHttpClient.logout();
+	}
+
+	private static class Result extends MessagesResponseHandler {
+		final List<String> calls=new ArrayList<String>();
+
+		@Override
+		public void onSuccess(String response) {
+			calls.add("success");
+		}
+
+		@Override
+		public void onSuccessMessages(Message... messages) {
+			calls.add("messages:"+messages.length);
+		}
+
+		@Override
+		public void onFailure(int errorCode, Throwable throwableError) {
+			calls.add("failure:"+errorCode);
+		}
+	}
+
+	@Test
+	public void decodedResponseIsReportedAsSuccess() {
+		client.addResponse("messages/get_messages", "[{\"t\":1,\"f\":0,\"tp\":\"ud\",\"pos\":null,\"i\":0,\"o\":0,\"p\":{}}]");
+		Result result=new Result();
+		Session.getInstance().getMessagesLoader().getMessages(0, 0, result);
+		assertEquals(Arrays.asList("success", "messages:1"), result.calls);
+	}
+
+	@Test
+	public void malformedResponseIsReportedAsFailureOnly() {
+		client.addResponse("messages/get_messages", "[{\"t\":1,\"f\":0,\"tp\":\"ud\",\"pos\":{\"y\":");
+		Result result=new Result();
+		Session.getInstance().getMessagesLoader().getMessages(0, 0, result);
+		assertEquals(Arrays.asList("failure:6"), result.calls);
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class PagedIteratorTest {
+
+	/**
+	 * Iterator over numbers 0..count-1, pages are completed immediately
+	 */
+	private static class NumbersIterator extends PagedIterator<Integer> {
+		final List<int[]> requests=new ArrayList<int[]>();
+		final int count;
+		int failAt=-1;
+		boolean closed;
+
+		NumbersIterator(int count, int pageSize) {
+			super(pageSize);
+			this.count=count;
+		}
+
+		@Override
+		protected void fetchPage(int indexFrom, int indexTo, CompletableFuture<List<Integer>> result) {
+			requests.add(new int[]{indexFrom, indexTo});
+			if (indexFrom==failAt) {
+				result.completeExceptionally(new FetchException(7, null));
+				return;
+			}
+			List<Integer> page=new ArrayList<Integer>();
+			for (int i=indexFrom; i<=indexTo && i<count; i++)
+				page.add(i);
+			result.complete(page);
+		}
+
+		@Override
+		protected void onClose() {
+			closed=true;
+		}
+	}
+
+	@Test
+	public void iteratesAllPages() {
+		NumbersIterator iterator=new NumbersIterator(5, 2);
+		List<Integer> values=new ArrayList<Integer>();
+		while (iterator.hasNext())
+			values.add(iterator.next());
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4), values);
+		assertEquals(3, iterator.requests.size());
+		assertTrue(iterator.closed);
+	}
+
+	@Test
+	public void nextPageIsPrefetched() {
+		NumbersIterator iterator=new NumbersIterator(10, 2);
+		assertTrue(iterator.hasNext());
+		// first page is consumed, second one is already requested
+		assertEquals(2, iterator.requests.size());
+		assertArrayEquals(new int[]{2, 3}, iterator.requests.get(1));
+	}
+
+	@Test
+	public void knownTotalCountAvoidsEmptyPage() {
+		NumbersIterator iterator=new NumbersIterator(4, 2) {
+			@Override
+			protected void fetchPage(int indexFrom, int indexTo, CompletableFuture<List<Integer>> result) {
+				setTotalCount(count);
+				super.fetchPage(indexFrom, indexTo, result);
+			}
+		};
+		int consumed=0;
+		while (iterator.hasNext()) {
+			iterator.next();
+			consumed++;
+		}
+		assertEquals(4, consumed);
+		assertEquals(2, iterator.requests.size());
+	}
+
+	@Test
+	public void emptyTotalCountRequestsNothing() {
+		NumbersIterator iterator=new NumbersIterator(0, 2);
+		iterator.setTotalCount(0);
+		assertFalse(iterator.hasNext());
+		assertTrue(iterator.requests.isEmpty());
+		assertTrue(iterator.closed);
+	}
+
+	@Test
+	public void nullElementsAreSkipped() {
+		PagedIterator<String> iterator=new PagedIterator<String>(3) {
+			@Override
+			protected void fetchPage(int indexFrom, int indexTo, CompletableFuture<List<String>> result) {
+				result.complete(indexFrom==0 ? Arrays.asList("a", null, "b") : Collections.<String>emptyList());
+			}
+		};
+		assertEquals(Arrays.asList("a", "b"), iterator.stream().collect(Collectors.toList()));
+	}
+
+	@Test
+	public void failedPageThrowsFetchException() {
+		NumbersIterator iterator=new NumbersIterator(10, 2);
+		iterator.failAt=2;
+		assertEquals(Integer.valueOf(0), iterator.next());
+		assertEquals(Integer.valueOf(1), iterator.next());
+		try {
+			iterator.hasNext();
+			fail("FetchException expected");
+		} catch (PagedIterator.FetchException e) {
+			assertEquals(7, e.getErrorCode());
+		}
+		assertTrue(iterator.closed);
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void pageTimeoutThrowsFetchException() {
+		PagedIterator<String> iterator=new PagedIterator<String>(3) {
+			@Override
+			protected void fetchPage(int indexFrom, int indexTo, CompletableFuture<List<String>> result) {
+				// never completed
+			}
+		};
+		iterator.setPageTimeout(10);
+		try {
+			iterator.hasNext();
+			fail("FetchException expected");
+		} catch (PagedIterator.FetchException e) {
+			assertEquals(5, e.getErrorCode());
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.core;
+
+import com.sdk.wialon.item.Resource;
+import com.sdk.wialon.item.prop.Report;
+import com.sdk.wialon.item.prop.ReportResult;
+import com.sdk.wialon.remote.FakeHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReportSchedulerTest {
+	private FakeHttpClient client;
+	private Report report;
+	private long clock=1000000;
+	private ReportScheduler scheduler;
+	private final List<Long> executed=new ArrayList<Long>();
+	private final List<String> failures=new ArrayList<String>();
+	private final LinkedList<Runnable> pending=new LinkedList<Runnable>();
+	private final ReportScheduler.JobHandler handler=new ReportScheduler.JobHandler() {
+		@Override
+		public void onExecuted(ReportScheduler.Job job, ReportResult result, Runnable done) {
+			executed.add(job.getReportId());
+			pending.add(done);
+		}
+
+		@Override
+		public void onFailed(ReportScheduler.Job job, int errorCode, Throwable throwableError) {
+			failures.add(job.getReportId()+":"+errorCode);
+		}
+	};
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+		client.setDefaultResponse("report/exec_report", "{\"reportResult\":{\"tables\":[]}}");
+		report=Session.getInstance().getGson().fromJson("{\"nm\":\"resource\",\"id\":10,\"cls\":3}", Resource.class).getReportPlugin();
+		scheduler=new ReportScheduler() {
+			@Override
+			long now() {
+				return clock;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdown();
+		FakeHttpClient.logout();
+	}
+
+	private ReportScheduler.Job submit(long reportId, String group, int priority) {
+		return scheduler.submit(report, reportId, 1, 0, new Report.ReportInterval(0, 100, 0), group, priority, handler);
+	}
+
+	/**
+	 * Finish processing of running job, it takes 100 ms
+	 */
+	private void finishRunning() {
+		clock+=100;
+		pending.removeFirst().run();
+	}
+
+	@Test
+	public void jobsAreTakenByPriorityThenBySubmission() {
+		submit(0, null, 0);
+		submit(1, null, 1);
+		submit(2, null, 5);
+		submit(3, null, 1);
+		assertEquals(3, scheduler.getQueueSize());
+		while (!pending.isEmpty())
+			finishRunning();
+		assertEquals(Arrays.asList(0L, 2L, 1L, 3L), executed);
+		assertEquals(4, scheduler.getMetrics().getCompleted());
+		assertEquals(4, client.getCalls("report/cleanup_result").size());
+	}
+
+	@Test
+	public void groupsShareExecutionByWeights() {
+		submit(0, "a", 0);
+		scheduler.setGroupWeight("b", 2);
+		for (int i=1; i<=3; i++)
+			submit(i, "a", 0);
+		for (int i=1; i<=3; i++)
+			submit(10+i, "b", 0);
+		while (!pending.isEmpty())
+			finishRunning();
+		// jobs of b take half of time of a, on equal time group created first goes first
+		assertEquals(Arrays.asList(0L, 11L, 12L, 1L, 13L, 2L, 3L), executed);
+	}
+
+	@Test
+	public void idleGroupDoesNotTakeOverQueue() {
+		submit(100, "x", 0);
+		finishRunning();
+		for (int i=1; i<=8; i++)
+			submit(200+i, "y", 0);
+		for (int i=1; i<=5; i++)
+			finishRunning();
+		// y6 is running, y7 and y8 are queued, x was idle with less used time
+		for (int i=1; i<=3; i++)
+			submit(100+i, "x", 0);
+		executed.clear();
+		while (!pending.isEmpty())
+			finishRunning();
+		assertEquals(Arrays.asList(101L, 102L, 207L, 103L, 208L), executed);
+	}
+
+	@Test
+	public void cancelledJobIsReported() {
+		submit(0, null, 0);
+		ReportScheduler.Job job=submit(1, null, 0);
+		assertTrue(scheduler.cancel(job));
+		assertFalse(scheduler.cancel(job));
+		assertEquals(Arrays.asList("1:0"), failures);
+		assertEquals(1, scheduler.getMetrics().getCancelled());
+	}
+
+	@Test
+	public void failingHandlerIsReportedAndNextJobStarts() {
+		ReportScheduler.JobHandler failing=new ReportScheduler.JobHandler() {
+			@Override
+			public void onExecuted(ReportScheduler.Job job, ReportResult result, Runnable done) {
+				throw new IllegalStateException("broken");
+			}
+
+			@Override
+			public void onFailed(ReportScheduler.Job job, int errorCode, Throwable throwableError) {
+				failures.add(job.getReportId()+":"+errorCode+":"+throwableError.getMessage());
+			}
+		};
+		submit(0, null, 0);
+		scheduler.submit(report, 1, 1, 0, new Report.ReportInterval(0, 100, 0), null, 0, failing);
+		submit(2, null, 0);
+		finishRunning();
+		assertEquals(Arrays.asList("1:6:broken"), failures);
+		assertEquals(Arrays.asList(0L, 2L), executed);
+		assertEquals(1, scheduler.getMetrics().getFailed());
+		assertEquals(2, client.getCalls("report/cleanup_result").size());
+	}
+
+	@Test
+	public void retryingJobFailsOnShutdown() {
+		scheduler.setRetryDelay(60000);
+		client.addError("report/exec_report", 1003);
+		submit(1, null, 0);
+		submit(2, null, 0);
+		assertEquals(1, scheduler.getMetrics().getRetries());
+		assertTrue(failures.isEmpty());
+		scheduler.shutdown();
+		assertEquals(Arrays.asList("1:1003", "2:0"), failures);
+		assertEquals(1, scheduler.getMetrics().getFailed());
+		assertEquals(1, scheduler.getMetrics().getCancelled());
+		assertTrue(executed.isEmpty());
+	}
+
+	@Test
+	public void jobsFailWithoutRetriesLeft() {
+		scheduler.setMaxRetries(0);
+		client.addError("report/exec_report", 1003);
+		submit(1, null, 0);
+		submit(2, null, 0);
+		assertEquals(Arrays.asList("1:1003"), failures);
+		assertEquals(Arrays.asList(2L), executed);
+	}
+}
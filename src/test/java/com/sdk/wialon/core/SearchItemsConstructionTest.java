@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.core;
+
+import com.sdk.wialon.extra.SearchSpec;
+import com.sdk.wialon.item.Item;
+import com.sdk.wialon.item.Resource;
+import com.sdk.wialon.item.Unit;
+import com.sdk.wialon.remote.FakeHttpClient;
+import com.sdk.wialon.remote.handlers.SearchResponseHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SearchItemsConstructionTest {
+	private FakeHttpClient client;
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+	}
+
+	@After
+	public void tearDown() {
+		FakeHttpClient.logout();
+	}
+
+	private Item[] search(int count) {
+		StringBuilder items=new StringBuilder();
+		for (int i=0; i<count; i++) {
+			if (i>0)
+				items.append(',');
+			// mix classes, so class lookup cache is switched
+			int cls=i%3==0 ? 3 : 2;
+			items.append("{\"nm\":\"item ").append(i).append("\",\"cls\":").append(cls).append(",\"id\":").append(100+i).append(",\"mu\":0}");
+		}
+		client.addResponse("core/search_items", "{\"searchSpec\":{},\"dataFlags\":1,\"totalItemsCount\":"+count+
+				",\"indexFrom\":0,\"indexTo\":"+(count-1)+",\"items\":["+items+"]}");
+		final Item[][] result=new Item[1][];
+		Session.getInstance().searchItems(new SearchSpec(), 1, 1, 0, count-1, new SearchResponseHandler() {
+			@Override
+			public void onSuccessSearch(Item... items) {
+				result[0]=items;
+			}
+		});
+		return result[0];
+	}
+
+	private static void checkItems(Item[] items, int count) {
+		assertEquals(count, items.length);
+		for (int i=0; i<count; i++) {
+			assertEquals(100+i, items[i].getId().longValue());
+			assertEquals("item "+i, items[i].getName());
+			assertEquals(i%3==0 ? Resource.class : Unit.class, items[i].getClass());
+			assertEquals(1, items[i].getDataFlags().longValue());
+		}
+	}
+
+	@Test
+	public void smallResultIsConstructedInOrder() {
+		checkItems(search(10), 10);
+	}
+
+	@Test
+	public void bigResultIsConstructedInOrder() {
+		checkItems(search(3000), 3000);
+	}
+}
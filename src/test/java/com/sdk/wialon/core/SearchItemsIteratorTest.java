@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.core;
+
+import com.sdk.wialon.extra.SearchSpec;
+import com.sdk.wialon.item.Item;
+import com.sdk.wialon.remote.FakeHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SearchItemsIteratorTest {
+	private FakeHttpClient client;
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+	}
+
+	@After
+	public void tearDown() {
+		FakeHttpClient.logout();
+	}
+
+	private static String page(long total, long... ids) {
+		StringBuilder items=new StringBuilder();
+		for (long id : ids) {
+			if (items.length()>0)
+				items.append(',');
+			items.append("{\"nm\":\"unit ").append(id).append("\",\"cls\":2,\"id\":").append(id).append(",\"mu\":0}");
+		}
+		return "{\"searchSpec\":{},\"dataFlags\":1,\"totalItemsCount\":"+total+",\"indexFrom\":0,\"indexTo\":0,\"items\":["+items+"]}";
+	}
+
+	private static SearchSpec spec() {
+		SearchSpec spec=new SearchSpec();
+		spec.setItemsType(Item.ItemType.avl_unit);
+		spec.setPropName("sys_name");
+		spec.setPropValueMask("*");
+		spec.setSortType("sys_name");
+		return spec;
+	}
+
+	@Test
+	public void totalCountStopsIteration() {
+		client.addResponse("core/search_items", page(4, 1, 2));
+		client.addResponse("core/search_items", page(4, 3, 4));
+		SearchItemsIterator iterator=Session.getInstance().searchItemsPaged(spec(), 1, 1, 2);
+		List<Long> ids=new ArrayList<Long>();
+		while (iterator.hasNext())
+			ids.add(iterator.next().getId());
+		assertEquals(4, ids.size());
+		assertEquals(4, iterator.getTotalCount());
+		// no request for empty third page
+		assertEquals(2, client.getCalls("core/search_items").size());
+	}
+
+	@Test
+	public void responseWithoutItemsFinishesIteration() {
+		client.addResponse("core/search_items", "{\"searchSpec\":{},\"dataFlags\":1,\"totalItemsCount\":0,\"indexFrom\":0,\"indexTo\":0}");
+		SearchItemsIterator iterator=Session.getInstance().searchItemsPaged(spec(), 1, 1, 2);
+		iterator.setPageTimeout(1000);
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test
+	public void serverErrorIsThrown() {
+		client.addError("core/search_items", 4);
+		SearchItemsIterator iterator=Session.getInstance().searchItemsPaged(spec(), 1, 1, 2);
+		try {
+			iterator.hasNext();
+			fail("FetchException expected");
+		} catch (PagedIterator.FetchException e) {
+			assertEquals(4, e.getErrorCode());
+		}
+	}
+}
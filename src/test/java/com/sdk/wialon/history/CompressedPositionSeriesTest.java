@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.messages.PositionVisitor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressedPositionSeriesTest {
+	private static final class Recorder implements PositionVisitor {
+		final List<long[]> points=new ArrayList<long[]>();
+
+		@Override
+		public void visit(long time, double latitude, double longitude, int speed, int course, int altitude, int satellites) {
+			points.add(new long[]{time, Double.doubleToRawLongBits(latitude), Double.doubleToRawLongBits(longitude),
+					speed, course, altitude, satellites});
+		}
+	}
+
+	private static List<long[]> randomTrack(CompressedPositionSeries series, Recorder expected, int count, long seed) {
+		Random random=new Random(seed);
+		long time=1400000000;
+		double latitude=53.9, longitude=27.5;
+		int altitude=200;
+		for (int i=0; i<count; i++) {
+			// regular intervals with occasional gaps and repeated times
+			time+=random.nextInt(20)==0 ? random.nextInt(100000) : (random.nextInt(10)==0 ? 0 : 10);
+			latitude+=(random.nextDouble()-0.5)*0.001;
+			longitude+=random.nextInt(5)==0 ? 0 : (random.nextDouble()-0.5)*0.001;
+			int speed=random.nextInt(8)==0 ? random.nextInt(300) : 60;
+			int course=random.nextInt(360);
+			altitude+=random.nextInt(50)==0 ? random.nextInt(20000)-10000 : random.nextInt(3)-1;
+			int satellites=random.nextInt(4)+6;
+			assertTrue(series.append(time, latitude, longitude, speed, course, altitude, satellites));
+			expected.visit(time, latitude, longitude, speed, course, altitude, satellites);
+		}
+		return expected.points;
+	}
+
+	private static void assertPoints(List<long[]> expected, List<long[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i=0; i<expected.size(); i++)
+			for (int j=0; j<7; j++)
+				assertEquals("point "+i+" field "+j, expected.get(i)[j], actual.get(i)[j]);
+	}
+
+	@Test
+	public void positionsAreDecodedExactly() {
+		CompressedPositionSeries series=new CompressedPositionSeries(64);
+		List<long[]> expected=randomTrack(series, new Recorder(), 1000, 1);
+		Recorder actual=new Recorder();
+		series.forEach(actual);
+		assertPoints(expected, actual.points);
+		assertEquals(1000, series.size());
+		assertEquals(expected.get(0)[0], series.getFirstTime());
+		assertEquals(expected.get(999)[0], series.getLastTime());
+	}
+
+	@Test
+	public void specialValuesAreKept() {
+		CompressedPositionSeries series=new CompressedPositionSeries(4);
+		Recorder expected=new Recorder();
+		double[] values={0, -0.0, Double.NaN, -90, 180, Double.MIN_VALUE, 1e300};
+		int[] ints={0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 64, -63, 65};
+		for (int i=0; i<values.length; i++) {
+			series.append(100+i*1000000L, values[i], values[values.length-1-i], ints[i], ints[(i+1)%7], ints[(i+2)%7], ints[(i+3)%7]);
+			expected.visit(100+i*1000000L, values[i], values[values.length-1-i], ints[i], ints[(i+1)%7], ints[(i+2)%7], ints[(i+3)%7]);
+		}
+		Recorder actual=new Recorder();
+		series.forEach(actual);
+		assertPoints(expected.points, actual.points);
+	}
+
+	@Test
+	public void intervalIsSelected() {
+		CompressedPositionSeries series=new CompressedPositionSeries(16);
+		for (int i=0; i<100; i++)
+			series.append(1000+i*10, 53, 27, i, 0, 0, 8);
+		Recorder actual=new Recorder();
+		assertEquals(11, series.forEach(1495, 1600, actual));
+		assertEquals(1500, actual.points.get(0)[0]);
+		assertEquals(1600, actual.points.get(10)[0]);
+		assertEquals(0, series.forEach(5000, 6000, new Recorder()));
+	}
+
+	@Test
+	public void olderPositionsAreRejected() {
+		CompressedPositionSeries series=new CompressedPositionSeries();
+		assertTrue(series.append(100, 1, 1, 0, 0, 0, 0));
+		assertFalse(series.append(99, 1, 1, 0, 0, 0, 0));
+		assertTrue(series.append(100, 1, 1, 0, 0, 0, 0));
+		assertEquals(2, series.size());
+	}
+
+	@Test
+	public void oldBlocksAreTrimmed() {
+		CompressedPositionSeries series=new CompressedPositionSeries(10);
+		for (int i=0; i<35; i++)
+			series.append(i, 53, 27, 0, 0, 0, 8);
+		// only whole blocks are dropped, last block is kept
+		assertEquals(20, series.trim(25));
+		assertEquals(15, series.size());
+		assertEquals(20, series.getFirstTime());
+		assertEquals(10, series.trim(1000));
+		assertEquals(30, series.getFirstTime());
+	}
+
+	@Test
+	public void regularTrackIsCompressed() {
+		CompressedPositionSeries series=new CompressedPositionSeries();
+		for (int i=0; i<10000; i++)
+			series.append(1400000000+i*10, 53.9+i*0.00001, 27.5, 60, 90, 200, 8);
+		// raw primitives take 44 bytes per position
+		assertTrue(series.getMemoryBytes()+" bytes", series.getMemoryBytes()<10000*44/4);
+	}
+}
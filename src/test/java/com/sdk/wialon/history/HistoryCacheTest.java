@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.remote.FakeHttpClient;
+import com.sdk.wialon.remote.handlers.MessagesResponseHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistoryCacheTest {
+	/** Server time of test session */
+	private static final long NOW=1400000000;
+	private FakeHttpClient client;
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+	}
+
+	@After
+	public void tearDown() {
+		FakeHttpClient.logout();
+	}
+
+	static String messages(long... times) {
+		StringBuilder result=new StringBuilder("{\"count\":"+times.length+",\"messages\":[");
+		for (int i=0; i<times.length; i++) {
+			if (i>0)
+				result.append(',');
+			result.append("{\"t\":").append(times[i]).append(",\"f\":1,\"tp\":\"ud\",\"pos\":{\"y\":53.9,\"x\":27.5,\"z\":0,\"s\":")
+					.append(i).append(",\"c\":0,\"sc\":9},\"i\":0,\"o\":0,\"p\":{}}");
+		}
+		return result.append("]}").toString();
+	}
+
+	private static class Result extends MessagesResponseHandler {
+		Message[] messages;
+		int errorCode;
+
+		@Override
+		public void onSuccessMessages(Message... messages) {
+			this.messages=messages;
+		}
+
+		@Override
+		public void onFailure(int errorCode, Throwable throwableError) {
+			this.errorCode=errorCode;
+		}
+	}
+
+	@Test
+	public void cachedIntervalIsNotLoadedAgain() {
+		HistoryCache cache=new HistoryCache(1000);
+		client.addResponse("messages/load_interval", messages(NOW-300, NOW-200, NOW-100));
+		Result first=new Result();
+		cache.loadInterval(1, NOW-300, NOW-100, 0, 0, first);
+		assertEquals(3, first.messages.length);
+		Result second=new Result();
+		cache.loadInterval(1, NOW-250, NOW-100, 0, 0, second);
+		assertEquals(2, second.messages.length);
+		assertEquals(NOW-200, second.messages[0].getTime());
+		assertEquals(1, client.getCalls("messages/load_interval").size());
+		assertEquals(3, cache.getMessagesCount());
+	}
+
+	@Test
+	public void onlyGapIsLoaded() {
+		HistoryCache cache=new HistoryCache(1000);
+		client.addResponse("messages/load_interval", messages(NOW-300, NOW-200));
+		cache.loadInterval(1, NOW-300, NOW-200, 0, 0, new Result());
+		client.addResponse("messages/load_interval", messages(NOW-150, NOW-100));
+		Result result=new Result();
+		cache.loadInterval(1, NOW-300, NOW-100, 0, 0, result);
+		assertEquals(4, result.messages.length);
+		assertEquals(NOW-100, result.messages[3].getTime());
+		String params=client.getCalls("messages/load_interval").get(1).params;
+		assertTrue(params, params.contains("\"timeFrom\":"+(NOW-199)));
+	}
+
+	@Test
+	public void intervalAfterServerTimeIsNotCached() {
+		HistoryCache cache=new HistoryCache(1000);
+		client.addResponse("messages/load_interval", messages(NOW-100, NOW+100));
+		Result result=new Result();
+		cache.loadInterval(1, NOW-200, NOW+200, 0, 0, result);
+		assertEquals(2, result.messages.length);
+		assertEquals(1, cache.getMessagesCount());
+		client.addResponse("messages/load_interval", messages(NOW+100));
+		cache.loadInterval(1, NOW-200, NOW+200, 0, 0, new Result());
+		assertEquals(2, client.getCalls("messages/load_interval").size());
+	}
+
+	@Test
+	public void entryAboveLimitIsNotKept() {
+		HistoryCache cache=new HistoryCache(2);
+		client.addResponse("messages/load_interval", messages(NOW-300, NOW-200));
+		cache.loadInterval(1, NOW-300, NOW-200, 0, 0, new Result());
+		assertEquals(2, cache.getMessagesCount());
+		client.addResponse("messages/load_interval", messages(NOW-150, NOW-100));
+		Result result=new Result();
+		cache.loadInterval(1, NOW-300, NOW-100, 0, 0, result);
+		assertEquals(4, result.messages.length);
+		for (int i=1; i<result.messages.length; i++)
+			assertTrue(result.messages[i-1].getTime()<result.messages[i].getTime());
+		assertTrue(cache.getMessagesCount()<=2);
+	}
+
+	@Test
+	public void failureIsPassedAndNextRequestIsExecuted() {
+		HistoryCache cache=new HistoryCache(1000);
+		client.addError("messages/load_interval", 4);
+		client.addResponse("messages/load_interval", messages(NOW-300));
+		Result failed=new Result();
+		Result next=new Result();
+		cache.loadInterval(1, NOW-300, NOW-100, 0, 0, failed);
+		cache.loadInterval(2, NOW-300, NOW-100, 0, 0, next);
+		assertEquals(4, failed.errorCode);
+		assertEquals(1, next.messages.length);
+	}
+
+	@Test
+	public void longQueueOfCachedRequestsDoesNotGrowStack() {
+		final HistoryCache cache=new HistoryCache(1000);
+		client.addResponse("messages/load_interval", messages(NOW-300, NOW-200));
+		final List<Result> results=new ArrayList<Result>();
+		cache.loadInterval(1, NOW-300, NOW-100, 0, 0, new MessagesResponseHandler() {
+			@Override
+			public void onSuccessMessages(Message... messages) {
+				// requests are queued while first one is completed
+				for (int i=0; i<50000; i++) {
+					Result result=new Result();
+					results.add(result);
+					cache.loadInterval(1, NOW-300, NOW-100, 0, 0, result);
+				}
+			}
+		});
+		assertEquals(50000, results.size());
+		for (Result result : results)
+			assertEquals(2, result.messages.length);
+		assertEquals(1, client.getCalls("messages/load_interval").size());
+	}
+}
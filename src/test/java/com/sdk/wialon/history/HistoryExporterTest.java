@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.core.MessagesLoader;
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.remote.FakeHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistoryExporterTest {
+	private FakeHttpClient client;
+	private final List<String> received=new ArrayList<String>();
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+	}
+
+	@After
+	public void tearDown() {
+		FakeHttpClient.logout();
+	}
+
+	private HistoryExporter.ChunkConsumer consumer() {
+		return new HistoryExporter.ChunkConsumer() {
+			@Override
+			public void onChunk(long unitId, long timeFrom, long timeTo, List<Message> messages) {
+				received.add(unitId+" "+timeFrom+" "+timeTo+" "+messages.size());
+			}
+		};
+	}
+
+	private void addChunk(long... times) {
+		client.addResponse("messages/load_interval", "{\"count\":"+times.length+",\"messages\":[]}");
+		if (times.length>0)
+			client.addResponse("messages/get_messages", HistoryCacheTest.messages(times));
+	}
+
+	@Test
+	public void chunksArePassedInOrder() throws Exception {
+		addChunk(100, 150);
+		addChunk(250);
+		addChunk();
+		addChunk(110);
+		HistoryExporter exporter=new HistoryExporter(Arrays.asList(1L, 2L), 100, 299, 100);
+		HistoryExporter.Metrics metrics=exporter.run(consumer());
+		assertEquals(Arrays.asList("1 100 199 2", "1 200 299 1", "2 100 199 0", "2 200 299 1"), received);
+		assertEquals(4, metrics.getChunksTotal());
+		assertEquals(4, metrics.getChunksDone());
+		assertEquals(4, metrics.getMessages());
+	}
+
+	@Test
+	public void failedChunkIsRetriedAndReported() throws Exception {
+		client.addError("messages/load_interval", 4);
+		client.addError("messages/load_interval", 4);
+		addChunk(200);
+		HistoryExporter exporter=new HistoryExporter(Arrays.asList(1L), 100, 299, 100);
+		exporter.setMaxRetries(1);
+		HistoryExporter.Metrics metrics=exporter.run(consumer());
+		assertEquals(Arrays.asList("1 200 299 1"), received);
+		assertEquals(1, metrics.getChunksFailed());
+		assertEquals(Arrays.asList("1 100 199"), metrics.getFailedChunks());
+	}
+
+	@Test
+	public void unexpectedDownloadErrorIsThrown() throws Exception {
+		HistoryExporter exporter=new HistoryExporter(Arrays.asList(1L, 2L), 100, 299, 100) {
+			@Override
+			void download(MessagesLoader loader, Chunk chunk) {
+				if (chunk.toString().startsWith("2 "))
+					throw new IllegalStateException("broken");
+				super.download(loader, chunk);
+			}
+		};
+		addChunk(100);
+		addChunk(200);
+		try {
+			exporter.run(consumer());
+			fail("exception expected");
+		} catch (IllegalStateException e) {
+			assertEquals("broken", e.getMessage());
+		}
+		assertEquals(Arrays.asList("1 100 199 1", "1 200 299 1"), received);
+		assertEquals(1, exporter.getMetrics().getChunksFailed());
+	}
+
+	@Test
+	public void checkpointSkipsProcessedChunks() throws Exception {
+		File checkpoint=File.createTempFile("export", ".txt");
+		try {
+			addChunk(100);
+			HistoryExporter exporter=new HistoryExporter(Arrays.asList(1L), 100, 199, 100);
+			exporter.setCheckpointFile(checkpoint);
+			exporter.run(consumer());
+			exporter=new HistoryExporter(Arrays.asList(1L), 100, 299, 100);
+			exporter.setCheckpointFile(checkpoint);
+			addChunk(200);
+			HistoryExporter.Metrics metrics=exporter.run(consumer());
+			assertEquals(Arrays.asList("1 100 199 1", "1 200 299 1"), received);
+			assertEquals(1, metrics.getChunksSkipped());
+			assertEquals(2, metrics.getChunksTotal());
+		} finally {
+			checkpoint.delete();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.messages.MessageDecoder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageMergerTest {
+	private static List<Message> messages(long... times) throws IOException {
+		return new ArrayList<Message>(Arrays.asList(new MessageDecoder().readResponse(HistoryCacheTest.messages(times))));
+	}
+
+	private static List<Long> times(List<Message> messages) {
+		List<Long> times=new ArrayList<Long>();
+		for (Message message : messages)
+			times.add(message.getTime());
+		return times;
+	}
+
+	@Test
+	public void listsAreMergedByTime() throws IOException {
+		List<List<Message>> sources=new ArrayList<List<Message>>();
+		sources.add(messages(1, 4, 7));
+		sources.add(messages(2, 5));
+		sources.add(messages(3, 6, 8, 9));
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L), times(MessageMerger.merge(sources)));
+	}
+
+	@Test
+	public void duplicatesAtBoundariesAreDropped() throws IOException {
+		List<List<Message>> sources=new ArrayList<List<Message>>();
+		List<Message> first=messages(1, 2, 3);
+		List<Message> second=messages(3, 4);
+		sources.add(first);
+		sources.add(second);
+		List<Message> merged=MessageMerger.merge(sources);
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L), times(merged));
+		// message of first list is kept
+		assertSame(first.get(2), merged.get(2));
+	}
+
+	@Test
+	public void equalTimesOfOneListAreKept() throws IOException {
+		List<List<Message>> sources=new ArrayList<List<Message>>();
+		sources.add(messages(1, 1, 2));
+		sources.add(messages(1));
+		assertEquals(Arrays.asList(1L, 1L, 2L), times(MessageMerger.merge(sources)));
+	}
+
+	@Test
+	public void emptyAndNullSourcesAreSkipped() throws IOException {
+		List<List<Message>> sources=new ArrayList<List<Message>>();
+		sources.add(null);
+		sources.add(Collections.<Message>emptyList());
+		List<Message> withNull=messages(5);
+		withNull.add(0, null);
+		sources.add(withNull);
+		assertEquals(Arrays.asList(5L), times(MessageMerger.merge(sources)));
+		assertTrue(MessageMerger.merge(new ArrayList<List<Message>>()).isEmpty());
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.messages.PositionVisitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PositionStoreTest {
+	private static final long DAY=86400;
+	private static final long START=1400000000/DAY*DAY;
+	private File directory;
+
+	private static class Times implements PositionVisitor {
+		final List<Long> times=new ArrayList<Long>();
+		final List<Integer> speeds=new ArrayList<Integer>();
+
+		@Override
+		public void visit(long time, double latitude, double longitude, int speed, int course, int altitude, int satellites) {
+			times.add(time);
+			speeds.add(speed);
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory=File.createTempFile("positions", "");
+		assertTrue(directory.delete());
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] children=file.listFiles();
+		if (children!=null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	@Test
+	public void positionsAreQueriedByUnitAndTime() throws IOException {
+		PositionStore store=new PositionStore(directory);
+		try {
+			assertTrue(store.append(1, START+100, 53.9, 27.5, 60, 90, 200, 9));
+			assertTrue(store.append(2, START+150, 50, 20, 10, 0, 0, 5));
+			assertTrue(store.append(1, START+50, 53.8, 27.4, 40, 90, 200, 9));
+			assertFalse(store.append(1, START+100, 0, 0, 0, 0, 0, 0));
+			Times visitor=new Times();
+			assertEquals(2, store.query(1, START, START+DAY, visitor));
+			assertEquals(START+50, visitor.times.get(0).longValue());
+			assertEquals(60, visitor.speeds.get(1).intValue());
+			assertEquals(1, store.count(1, START+60, START+200));
+			assertEquals(0, store.count(3, START, START+DAY));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void storeIsReopened() throws IOException {
+		PositionStore store=new PositionStore(directory);
+		for (int i=0; i<1000; i++)
+			store.append(i%10, START+i, i, i, i%200, 0, 0, 0);
+		store.close();
+		store=new PositionStore(directory);
+		try {
+			assertEquals(100, store.count(3, START, START+DAY));
+			assertFalse(store.append(3, START+3, 0, 0, 0, 0, 0, 0));
+			assertTrue(store.append(3, START+1003, 0, 0, 0, 0, 0, 0));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void openDaysAreLimited() throws IOException {
+		PositionStore store=new PositionStore(directory, 3);
+		try {
+			for (int day=0; day<20; day++) {
+				store.append(1, START+day*DAY+10, 0, 0, day, 0, 0, 0);
+				assertTrue(store.getOpenDaysCount()<=3);
+			}
+			Times visitor=new Times();
+			assertEquals(20, store.query(1, START, START+20*DAY, visitor));
+			for (int day=0; day<20; day++)
+				assertEquals(day, visitor.speeds.get(day).intValue());
+			assertEquals(3, store.getOpenDaysCount());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void brokenDayIsRejected() throws IOException {
+		PositionStore store=new PositionStore(directory);
+		store.append(1, START+10, 0, 0, 0, 0, 0, 0);
+		store.close();
+		File[] days=directory.listFiles();
+		assertEquals(1, days.length);
+		RandomAccessFile meta=new RandomAccessFile(new File(days[0], "meta"), "rw");
+		meta.writeLong(Long.MAX_VALUE);
+		meta.close();
+		store=new PositionStore(directory);
+		try {
+			store.count(1, START, START+DAY);
+			fail("IOException expected");
+		} catch (IOException e) {
+			// expected
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void closedStoreIsNotQueried() throws IOException {
+		PositionStore store=new PositionStore(directory);
+		store.close();
+		store.count(1, START, START+DAY);
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.core.PagedIterator;
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.remote.FakeHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class SlicedIntervalLoaderTest {
+	private FakeHttpClient client;
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+	}
+
+	@After
+	public void tearDown() {
+		FakeHttpClient.logout();
+	}
+
+	private void addSlice(long... times) {
+		client.addResponse("messages/load_interval", "{\"count\":"+times.length+",\"messages\":[]}");
+		if (times.length>0)
+			client.addResponse("messages/get_messages", HistoryCacheTest.messages(times));
+	}
+
+	private List<String> loadedIntervals() {
+		List<String> intervals=new ArrayList<String>();
+		for (FakeHttpClient.Call call : client.getCalls("messages/load_interval")) {
+			int from=call.params.indexOf("\"timeFrom\":");
+			int to=call.params.indexOf(",\"flags\"");
+			intervals.add(call.params.substring(from, to));
+		}
+		return intervals;
+	}
+
+	@Test
+	public void timedOutSliceIsHalved() {
+		client.addTransportFailure("messages/load_interval", new SocketTimeoutException("Read timed out"));
+		client.addError("messages/load_interval", 5);
+		addSlice(100, 3599);
+		addSlice();
+		addSlice(7200, 14399);
+		SlicedIntervalLoader loader=new SlicedIntervalLoader(1, 0, 14399, 14400);
+		loader.setMinSliceInterval(3600);
+		List<Message> messages=loader.load();
+		assertEquals(Arrays.asList(
+				"\"timeFrom\":0,\"timeTo\":14399",
+				"\"timeFrom\":0,\"timeTo\":7199",
+				"\"timeFrom\":0,\"timeTo\":3599",
+				"\"timeFrom\":3600,\"timeTo\":7199",
+				"\"timeFrom\":7200,\"timeTo\":14399"), loadedIntervals());
+		assertEquals(3, loader.getSlicesLoaded());
+		assertEquals(4, messages.size());
+		assertEquals(100, messages.get(0).getTime());
+		assertEquals(14399, messages.get(3).getTime());
+	}
+
+	@Test
+	public void sliceIsNotSplitBelowMinLength() {
+		client.addError("messages/load_interval", 5);
+		client.addError("messages/load_interval", 5);
+		SlicedIntervalLoader loader=new SlicedIntervalLoader(1, 0, 7199, 7200);
+		loader.setMinSliceInterval(3600);
+		try {
+			loader.load();
+			fail("FetchException expected");
+		} catch (PagedIterator.FetchException e) {
+			assertEquals(5, e.getErrorCode());
+		}
+		assertEquals(2, loadedIntervals().size());
+	}
+
+	@Test
+	public void otherErrorsAreThrown() {
+		client.addError("messages/load_interval", 4);
+		SlicedIntervalLoader loader=new SlicedIntervalLoader(1, 0, 7199, 7200);
+		try {
+			loader.load();
+			fail("FetchException expected");
+		} catch (PagedIterator.FetchException e) {
+			assertEquals(4, e.getErrorCode());
+		}
+		assertEquals(1, loadedIntervals().size());
+	}
+
+	@Test
+	public void timeoutIsDetectedByCause() {
+		assertTrue(SlicedIntervalLoader.isTimeout(new PagedIterator.FetchException(5, null)));
+		assertTrue(SlicedIntervalLoader.isTimeout(new PagedIterator.FetchException(5, new TimeoutException())));
+		assertTrue(SlicedIntervalLoader.isTimeout(new PagedIterator.FetchException(6,
+				new RuntimeException(new SocketTimeoutException()))));
+		assertFalse(SlicedIntervalLoader.isTimeout(new PagedIterator.FetchException(6, null)));
+		assertFalse(SlicedIntervalLoader.isTimeout(new PagedIterator.FetchException(6, new IOException())));
+		assertFalse(SlicedIntervalLoader.isTimeout(new PagedIterator.FetchException(5, new InterruptedException())));
+		assertFalse(SlicedIntervalLoader.isTimeout(new PagedIterator.FetchException(4, null)));
+	}
+
+	@Test
+	public void malformedDataIsNotSplit() {
+		client.addResponse("messages/load_interval", "{\"count\":");
+		SlicedIntervalLoader loader=new SlicedIntervalLoader(1, 0, 7199, 7200);
+		loader.setMinSliceInterval(1);
+		try {
+			loader.load();
+			fail("FetchException expected");
+		} catch (PagedIterator.FetchException e) {
+			assertEquals(6, e.getErrorCode());
+		}
+		assertEquals(1, loadedIntervals().size());
+	}
+
+	@Test
+	public void slicesAreMerged() {
+		addSlice(100, 200);
+		addSlice(300);
+		SlicedIntervalLoader loader=new SlicedIntervalLoader(1, 0, 399, 250);
+		List<Message> messages=loader.load();
+		assertEquals(3, messages.size());
+		assertEquals(300, messages.get(2).getTime());
+		assertEquals(2, loader.getSlicesLoaded());
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.remote.FakeHttpClient;
+import com.sdk.wialon.remote.handlers.MessagesResponseHandler;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TelemetryRollupTest {
+	private static Map<String, Object> params(String name, double value) {
+		Map<String, Object> params=new HashMap<String, Object>();
+		params.put(name, value);
+		return params;
+	}
+
+	@Test
+	public void messagesAreAggregatedByBuckets() {
+		TelemetryRollup rollup=new TelemetryRollup(TelemetryRollup.MINUTE, 10, "fuel");
+		rollup.add(1, 60, true, 53.9, 27.5, 40, params("fuel", 10));
+		rollup.add(1, 90, true, 53.91, 27.5, 60, params("fuel", 20));
+		rollup.add(1, 119, false, 0, 0, 0, null);
+		rollup.add(1, 120, true, 53.92, 27.5, 80, null);
+		TelemetryRollup.Bucket first=rollup.aggregate(1, 60, 60);
+		assertEquals(3, first.getCount());
+		assertEquals(2, first.getPositionsCount());
+		assertEquals(40, first.getMinSpeed());
+		assertEquals(60, first.getMaxSpeed());
+		assertEquals(50, first.getAverageSpeed(), 1e-9);
+		assertEquals(1112, first.getDistance(), 5);
+		assertEquals(15, first.getParamAverage(0), 1e-9);
+		assertEquals(20, first.getParamMax(0), 1e-9);
+		TelemetryRollup.Bucket second=rollup.aggregate(1, 61, 120);
+		assertEquals(1, second.getCount());
+		assertTrue(Double.isNaN(second.getParamMin(0)));
+		assertEquals(4, rollup.aggregate(1, 0, 1000).getCount());
+	}
+
+	@Test
+	public void duplicateMessagesAreSkipped() {
+		TelemetryRollup rollup=new TelemetryRollup(TelemetryRollup.MINUTE, 10);
+		assertTrue(rollup.add(1, 100, true, 53.9, 27.5, 40, null));
+		assertTrue(rollup.add(1, 70, true, 53.8, 27.5, 20, null));
+		assertFalse(rollup.add(1, 100, true, 53.9, 27.5, 40, null));
+		assertFalse(rollup.add(1, 70, true, 53.8, 27.5, 20, null));
+		// the same time of other unit is not a duplicate
+		assertTrue(rollup.add(2, 100, true, 53.9, 27.5, 40, null));
+		assertEquals(2, rollup.aggregate(1, 0, 1000).getCount());
+	}
+
+	@Test
+	public void oldestBucketsAreDropped() {
+		TelemetryRollup rollup=new TelemetryRollup(TelemetryRollup.MINUTE, 3);
+		for (int minute=0; minute<5; minute++)
+			rollup.add(1, minute*60+1, false, 0, 0, 0, null);
+		assertFalse(rollup.add(1, 2, false, 0, 0, 0, null));
+		assertEquals(3, rollup.forEach(1, 0, 1000, new TelemetryRollup.BucketVisitor() {
+			@Override
+			public void visit(TelemetryRollup.Bucket bucket) {
+				assertTrue(bucket.getTime()>=120);
+			}
+		}));
+		// times of dropped bucket don't affect new bucket at the same index
+		assertTrue(rollup.add(1, 301, false, 0, 0, 0, null));
+		assertFalse(rollup.add(1, 241, false, 0, 0, 0, null));
+	}
+
+	@Test
+	public void intervalLoadedTwiceIsCountedOnce() {
+		FakeHttpClient client=FakeHttpClient.login();
+		try {
+			TelemetryRollup rollup=new TelemetryRollup(TelemetryRollup.MINUTE, 100);
+			rollup.attach(Session.getInstance());
+			String response=HistoryCacheTest.messages(60, 70, 80, 130);
+			client.addResponse("messages/load_interval", response);
+			client.addResponse("messages/load_interval", response);
+			Session.getInstance().getMessagesLoader().loadInterval(1, 0, 200, 0, 0, 4, new MessagesResponseHandler() {});
+			TelemetryRollup.Bucket first=rollup.aggregate(1, 0, 200);
+			Session.getInstance().getMessagesLoader().loadInterval(1, 0, 200, 0, 0, 4, new MessagesResponseHandler() {});
+			TelemetryRollup.Bucket second=rollup.aggregate(1, 0, 200);
+			assertEquals(4, first.getCount());
+			assertEquals(first.getCount(), second.getCount());
+			assertEquals(first.getPositionsCount(), second.getPositionsCount());
+			assertEquals(first.getAverageSpeed(), second.getAverageSpeed(), 1e-9);
+			assertEquals(first.getDistance(), second.getDistance(), 1e-9);
+			rollup.detach(Session.getInstance());
+		} finally {
+			FakeHttpClient.logout();
+		}
+	}
+}
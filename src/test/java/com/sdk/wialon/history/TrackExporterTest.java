@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.history;
+
+import com.sdk.wialon.messages.Message;
+import com.sdk.wialon.messages.MessageDecoder;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class TrackExporterTest {
+	private static final Charset UTF8=Charset.forName("UTF-8");
+
+	@Test
+	public void csvKeepsAllProperties() throws IOException {
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		TrackExporter exporter=new TrackExporter(out, TrackExporter.Format.CSV, "unit", false);
+		exporter.visit(1400000000, 53.9, 27.5, 60, 90, 210, 8);
+		exporter.close();
+		assertEquals("time,latitude,longitude,speed,course,altitude,satellites\n1400000000,53.9,27.5,60,90,210,8\n",
+				new String(out.toByteArray(), UTF8));
+		assertEquals(1, exporter.getPointsCount());
+	}
+
+	@Test
+	public void gpxIsWrittenWithEscapedName() throws IOException {
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		TrackExporter exporter=new TrackExporter(out, TrackExporter.Format.GPX, "Truck <1> & ТС", false);
+		exporter.visit(1400000000, 53.9, 27.5, 60, 90, 210, 8);
+		exporter.close();
+		String gpx=new String(out.toByteArray(), UTF8);
+		assertTrue(gpx, gpx.contains("<name>Truck &lt;1&gt; &amp; ТС</name>"));
+		assertTrue(gpx, gpx.contains("<trkpt lat=\"53.9\" lon=\"27.5\"><ele>210</ele><time>2014-05-13T16:53:20Z</time>"));
+		assertTrue(gpx, gpx.endsWith("</trkseg></trk>\n</gpx>\n"));
+	}
+
+	@Test
+	public void kmlHasLongitudeFirst() throws IOException {
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		TrackExporter exporter=new TrackExporter(out, TrackExporter.Format.KML, "unit", false);
+		exporter.visit(1400000000, 53.9, 27.5, 60, 90, 210, 8);
+		exporter.close();
+		String kml=new String(out.toByteArray(), UTF8);
+		assertTrue(kml, kml.contains("<coordinates>\n27.5,53.9,210\n</coordinates>"));
+	}
+
+	@Test
+	public void messagesWithoutPositionAreSkipped() throws IOException {
+		Message[] messages=new MessageDecoder().readResponse("["+
+				"{\"t\":100,\"f\":1,\"tp\":\"ud\",\"pos\":{\"y\":1,\"x\":2,\"s\":3},\"i\":0,\"o\":0,\"p\":{}},"+
+				"{\"t\":110,\"f\":0,\"tp\":\"ud\",\"pos\":null,\"i\":0,\"o\":0,\"p\":{}},"+
+				"{\"t\":120,\"f\":1536,\"tp\":\"evt\",\"et\":\"event\"}]");
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		TrackExporter exporter=new TrackExporter(out, TrackExporter.Format.CSV, null, false);
+		assertEquals(1, exporter.write(Arrays.asList(messages).iterator()));
+		exporter.close();
+		assertEquals(1, exporter.getPointsCount());
+	}
+
+	@Test
+	public void longTrackIsCompressed() throws IOException {
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		TrackExporter exporter=new TrackExporter(out, TrackExporter.Format.CSV, "unit", true);
+		for (int i=0; i<20000; i++)
+			exporter.visit(1400000000+i, 53.9, 27.5, i%100, 0, 0, 8);
+		exporter.close();
+		InputStream in=new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+		ByteArrayOutputStream csv=new ByteArrayOutputStream();
+		byte[] data=new byte[8192];
+		int read;
+		while ((read=in.read(data))>0)
+			csv.write(data, 0, read);
+		String[] lines=new String(csv.toByteArray(), UTF8).split("\n");
+		assertEquals(20001, lines.length);
+		assertEquals("1400019999,53.9,27.5,99,0,0,8", lines[20000]);
+	}
+
+	@Test
+	public void closedExporterRejectsPoints() throws IOException {
+		Message[] messages=new MessageDecoder().readResponse(HistoryCacheTest.messages(100));
+		TrackExporter exporter=new TrackExporter(new ByteArrayOutputStream(), TrackExporter.Format.CSV, "unit", false);
+		exporter.close();
+		try {
+			exporter.write(messages[0]);
+			fail("IOException expected");
+		} catch (IOException e) {
+			// closed
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.history;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TripDetectorTest {
+	/** Latitude step of 10 seconds at 60 km/h */
+	private static final double STEP=0.0015;
+
+	private final List<TripDetector.Segment> segments=new ArrayList<TripDetector.Segment>();
+	private final TripDetector detector=new TripDetector(new TripDetector.SegmentListener() {
+		@Override
+		public void onSegment(TripDetector.Segment segment) {
+			segments.add(segment);
+		}
+	});
+
+	/**
+	 * Add positions every 10 seconds
+	 * @return latitude of last position
+	 */
+	private double move(long timeFrom, long timeTo, double latitude, int speed) {
+		for (long time=timeFrom; time<=timeTo; time+=10) {
+			if (speed>0)
+				latitude+=STEP;
+			detector.add(1, time, latitude, 27.5, speed);
+		}
+		return latitude;
+	}
+
+	@Test
+	public void tripIsCutAtBeginningOfStanding() {
+		detector.add(1, 0, 53.9, 27.5, 0);
+		double latitude=move(10, 290, 53.9, 60);
+		latitude+=STEP;
+		detector.add(1, 300, latitude, 27.5, 90);
+		latitude=move(310, 600, latitude, 60);
+		move(610, 2500, latitude, 0);
+		detector.finish(1);
+
+		assertEquals(2, segments.size());
+		TripDetector.Segment trip=segments.get(0);
+		assertEquals(TripDetector.SegmentType.TRIP, trip.getType());
+		assertEquals(0, trip.getTimeFrom());
+		assertEquals(610, trip.getTimeTo());
+		// 60 moving positions and first standing one
+		assertEquals(61, trip.getMessagesCount());
+		assertEquals(90, trip.getMaxSpeed());
+		assertEquals((60*59+90)/61.0, trip.getAverageSpeed(), 1e-9);
+		assertEquals(60*167, trip.getDistance(), 60*2);
+
+		TripDetector.Segment parking=segments.get(1);
+		assertEquals(TripDetector.SegmentType.PARKING, parking.getType());
+		assertEquals(610, parking.getTimeFrom());
+		assertEquals(2500, parking.getTimeTo());
+		assertEquals(0, parking.getDistance(), 1e-9);
+	}
+
+	@Test
+	public void slowPositionsOfStandingAreCutOff() {
+		detector.setMinMovingSpeed(5);
+		double latitude=move(0, 300, 53.9, 60);
+		// slow drift while standing is cut off with standing
+		detector.add(1, 310, latitude, 27.5, 4);
+		move(320, 700, latitude, 0);
+		detector.finish(1);
+		TripDetector.Segment trip=segments.get(0);
+		assertEquals(310, trip.getTimeTo());
+		assertEquals(32, trip.getMessagesCount());
+		assertEquals(60*31+4, trip.getAverageSpeed()*32, 1e-6);
+	}
+
+	@Test
+	public void shortTripIsMergedIntoStanding() {
+		move(0, 400, 53.9, 0);
+		double latitude=move(410, 430, 53.9, 60);
+		move(440, 2000, latitude, 0);
+		detector.finish(1);
+		assertEquals(1, segments.size());
+		assertEquals(TripDetector.SegmentType.PARKING, segments.get(0).getType());
+		assertEquals(0, segments.get(0).getTimeFrom());
+		assertEquals(2000, segments.get(0).getTimeTo());
+	}
+
+	@Test
+	public void shortStandingIsStop() {
+		// default durations, standing is longer than min stay and shorter than min parking
+		double latitude=move(0, 300, 53.9, 60);
+		latitude=move(310, 700, latitude, 0);
+		move(710, 1000, latitude, 60);
+		detector.finish(1);
+		assertEquals(3, segments.size());
+		assertEquals(TripDetector.SegmentType.TRIP, segments.get(0).getType());
+		assertEquals(TripDetector.SegmentType.STOP, segments.get(1).getType());
+		assertEquals(310, segments.get(1).getTimeFrom());
+		assertEquals(TripDetector.SegmentType.TRIP, segments.get(2).getType());
+		assertEquals(700, segments.get(2).getTimeFrom());
+		assertFalse(detector.isMoving(1));
+	}
+
+	@Test
+	public void gapFinishesSegments() {
+		detector.setMaxMessagesInterval(600);
+		double latitude=move(0, 300, 53.9, 60);
+		assertTrue(detector.isMoving(1));
+		move(2000, 2300, latitude, 60);
+		assertEquals(1, segments.size());
+		assertEquals(300, segments.get(0).getTimeTo());
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.item;
+
+import com.google.gson.JsonPrimitive;
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.messages.UnitData;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FleetStoreTest {
+
+	@Before
+	public void setUp() {
+		Session.getInstance().initSession("http://localhost");
+	}
+
+	private static Unit unit(long id, long time) {
+		return Session.getInstance().getGson().fromJson("{\"nm\":\"unit\",\"id\":"+id+",\"cnm\":100,\"cfl\":3,"+
+				"\"pos\":{\"t\":"+time+",\"y\":53.9,\"x\":27.5,\"z\":200,\"s\":60,\"c\":90,\"sc\":9},"+
+				"\"lmsg\":{\"t\":"+time+",\"f\":1,\"tp\":\"ud\",\"i\":0,\"o\":0}}", Unit.class);
+	}
+
+	@Test
+	public void stateIsMovedToStoreAndBack() {
+		FleetStore store=new FleetStore(4);
+		Unit unit=unit(1, 1000);
+		store.bind(unit);
+		assertSame(store, unit.getFleetStore());
+		assertTrue(store.contains(1L));
+		assertNull(unit.getLastMessage());
+		assertEquals(1000, unit.getLastMessageTime().longValue());
+		assertEquals(1000, store.getLastMessageTime(1L));
+		assertEquals(100, unit.getMileageCounter().longValue());
+		unit.updateItemData("cnm", new JsonPrimitive(150));
+		assertEquals(150, unit.getMileageCounter().longValue());
+		assertEquals(60, unit.getPosition().getSpeed());
+		store.release(unit);
+		assertNull(unit.getFleetStore());
+		assertFalse(store.contains(1L));
+		assertEquals(150, unit.getMileageCounter().longValue());
+		assertEquals(53.9, unit.getPosition().getLatitude(), 1e-9);
+	}
+
+	@Test
+	public void clearUnbindsUnits() {
+		FleetStore store=new FleetStore(4);
+		Unit first=unit(1, 1000);
+		store.bind(first);
+		first.updateItemData("cnm", new JsonPrimitive(200));
+		store.clear();
+		assertNull(first.getFleetStore());
+		assertEquals(0, store.size());
+		assertEquals(200, first.getMileageCounter().longValue());
+		// slot of first unit is reused, units don't share state
+		Unit second=unit(2, 2000);
+		store.bind(second);
+		second.updateItemData("cnm", new JsonPrimitive(300));
+		first.updateItemData("cnm", new JsonPrimitive(250));
+		assertEquals(300, second.getMileageCounter().longValue());
+		assertEquals(250, first.getMileageCounter().longValue());
+	}
+
+	@Test
+	public void slotsAreReused() {
+		FleetStore store=new FleetStore(2);
+		Unit[] units=new Unit[40];
+		for (int i=0; i<units.length; i++) {
+			units[i]=unit(i+1, 1000+i);
+			store.bind(units[i]);
+		}
+		for (int i=0; i<units.length; i+=2)
+			store.release(units[i]);
+		assertEquals(20, store.size());
+		for (int i=0; i<units.length; i+=2)
+			store.bind(units[i]);
+		for (int i=0; i<units.length; i++) {
+			assertSame(store, units[i].getFleetStore());
+			assertEquals(i+1, units[i].getId().longValue());
+			assertEquals(1000+i, units[i].getPosition().getTime());
+		}
+	}
+
+	@Test
+	public void lastMessageTimeIsKeptWhenUnitIsMovedBetweenStores() {
+		FleetStore first=new FleetStore(4);
+		FleetStore second=new FleetStore(4);
+		Unit unit=unit(1, 1000);
+		first.bind(unit);
+		second.bind(unit);
+		assertSame(second, unit.getFleetStore());
+		assertFalse(first.contains(1L));
+		assertEquals(1000, unit.getLastMessageTime().longValue());
+		assertEquals(1000, second.getLastMessageTime(1L));
+	}
+
+	@Test
+	public void newUnitObjectReplacesOldOne() {
+		FleetStore store=new FleetStore(4);
+		Unit old=unit(1, 1000);
+		store.bind(old);
+		Unit unit=unit(1, 2000);
+		store.bind(unit);
+		assertNull(old.getFleetStore());
+		assertSame(store, unit.getFleetStore());
+		assertEquals(2000, store.getLastMessageTime(1L));
+		assertEquals(53.9, old.getPosition().getLatitude(), 1e-9);
+	}
+
+	@Test
+	public void updatesAreNotLostWhileUnitIsMoved() throws InterruptedException {
+		final FleetStore store=new FleetStore(4);
+		final Unit unit=unit(1, 1000);
+		final int count=20000;
+		Thread mover=new Thread() {
+			@Override
+			public void run() {
+				for (int i=0; i<count; i++) {
+					store.bind(unit);
+					store.release(unit);
+				}
+			}
+		};
+		mover.start();
+		for (int i=1; i<=count; i++) {
+			unit.updateItemData("cnm", new JsonPrimitive(i));
+			UnitData.Position position=unit.getPosition();
+			assertNotNull(position);
+		}
+		mover.join();
+		assertEquals(count, unit.getMileageCounter().longValue());
+	}
+}
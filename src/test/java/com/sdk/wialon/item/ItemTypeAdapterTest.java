@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.item;
+
+import com.google.gson.Gson;
+import com.sdk.wialon.core.Session;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ItemTypeAdapterTest {
+	private static final String UNIT="{\"nm\":\"truck\",\"cls\":2,\"id\":25,\"uacl\":-1,\"mu\":0,\"prp\":{\"color\":\"red\"},\"unknown\":[{\"x\":1}],"+
+			"\"uid\":\"12345\",\"hw\":7,\"ph\":\"+100\",\"cnm\":1500,"+
+			"\"pos\":{\"t\":1400000000,\"y\":53.9,\"x\":27.5,\"z\":200,\"s\":60,\"c\":90,\"sc\":9},"+
+			"\"lmsg\":{\"t\":1400000000,\"f\":3,\"tp\":\"ud\",\"pos\":{\"y\":53.9,\"x\":27.5,\"z\":200,\"s\":60,\"c\":90,\"sc\":9},\"i\":0,\"o\":0,\"p\":{\"adc1\":1.5}}}";
+	private Gson gson;
+
+	@Before
+	public void setUp() {
+		Session.getInstance().initSession("http://localhost");
+		gson=Session.getInstance().getGson();
+	}
+
+	@Test
+	public void unitIsRead() {
+		Unit unit=gson.fromJson(UNIT, Unit.class);
+		assertEquals("truck", unit.getName());
+		assertEquals(25, unit.getId().longValue());
+		assertEquals("12345", unit.getUniqueId());
+		assertEquals(7, unit.getDeviceTypeId().longValue());
+		assertEquals("+100", unit.getPhoneNumber());
+		assertEquals(1500, unit.getMileageCounter().longValue());
+		assertEquals(60, unit.getPosition().getSpeed());
+		assertEquals(1400000000, unit.getLastMessage().getTime());
+		assertEquals(1.5, ((Number)unit.getLastMessage().getParameters().get("adc1")).doubleValue(), 1e-9);
+	}
+
+	@Test
+	public void unitRoundTrip() {
+		Unit unit=gson.fromJson(UNIT, Unit.class);
+		Unit copy=gson.fromJson(gson.toJson(unit), Unit.class);
+		assertEquals(unit.getName(), copy.getName());
+		assertEquals(unit.getId(), copy.getId());
+		assertEquals(unit.getUniqueId(), copy.getUniqueId());
+		assertEquals(unit.getMileageCounter(), copy.getMileageCounter());
+		assertEquals(unit.getPosition().getLatitude(), copy.getPosition().getLatitude(), 1e-9);
+		assertEquals(unit.getLastMessage().getTime(), copy.getLastMessage().getTime());
+	}
+
+	@Test
+	public void nullValuesAreRead() {
+		Unit unit=gson.fromJson("{\"nm\":null,\"id\":3,\"pos\":null,\"lmsg\":null}", Unit.class);
+		assertNull(unit.getName());
+		assertNull(unit.getPosition());
+		assertNull(unit.getLastMessage());
+		assertNull(gson.fromJson("null", Unit.class));
+	}
+}
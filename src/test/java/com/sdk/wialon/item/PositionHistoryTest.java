@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.item;
+
+import com.sdk.wialon.messages.PositionVisitor;
+import com.sdk.wialon.messages.UnitData;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PositionHistoryTest {
+
+	private static class Times implements PositionVisitor {
+		final List<Long> times=new ArrayList<Long>();
+
+		@Override
+		public void visit(long time, double latitude, double longitude, int speed, int course, int altitude, int satellites) {
+			times.add(time);
+		}
+	}
+
+	private static PositionHistory history(int capacity, long... times) {
+		PositionHistory history=new PositionHistory(capacity);
+		for (long time : times)
+			history.append(time, time/10.0, time/20.0, (int)time%100, 0, 0, 7);
+		return history;
+	}
+
+	@Test
+	public void oldestPositionsAreOverwritten() {
+		PositionHistory history=history(3, 10, 20, 30, 40, 50);
+		assertEquals(3, history.size());
+		assertEquals(30, history.getTime(0));
+		assertEquals(50, history.getTime(2));
+		assertEquals(4.0, history.getLatitude(1), 1e-9);
+		assertEquals(7, history.getSatellitesCount(2));
+	}
+
+	@Test
+	public void outdatedPositionIsIgnored() {
+		PositionHistory history=history(3, 10, 20);
+		assertFalse(history.append(20, 0, 0, 0, 0, 0, 0));
+		assertFalse(history.append(15, 0, 0, 0, 0, 0, 0));
+		assertFalse(history.append(null));
+		assertTrue(history.append(new UnitData.Position(25, 1, 2, 3, 4, 5, 6)));
+		assertEquals(3, history.size());
+		assertEquals(4, history.getSpeed(2));
+	}
+
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void indexIsChecked() {
+		history(3, 10, 20).getTime(2);
+	}
+
+	@Test
+	public void intervalIsVisited() {
+		PositionHistory history=history(4, 10, 20, 30, 40, 50, 60);
+		Times visitor=new Times();
+		assertEquals(2, history.forEach(35, 55, visitor));
+		assertEquals(Arrays.asList(40L, 50L), visitor.times);
+		visitor=new Times();
+		assertEquals(4, history.forEach(0, 100, visitor));
+		assertEquals(Arrays.asList(30L, 40L, 50L, 60L), visitor.times);
+		assertEquals(0, history.forEach(61, 100, new Times()));
+	}
+
+	@Test
+	public void lastPositionsAreVisitedAndCopied() {
+		PositionHistory history=history(4, 10, 20, 30, 40, 50);
+		Times visitor=new Times();
+		assertEquals(2, history.forEachLast(2, visitor));
+		assertEquals(Arrays.asList(40L, 50L), visitor.times);
+		long[] times=new long[10];
+		double[] latitudes=new double[10];
+		assertEquals(4, history.copyLast(times, latitudes, null, 10));
+		assertEquals(20, times[0]);
+		assertEquals(5.0, latitudes[3], 1e-9);
+	}
+
+	@Test
+	public void negativeCountGivesNothing() {
+		PositionHistory history=history(4, 10, 20, 30);
+		Times visitor=new Times();
+		assertEquals(0, history.forEachLast(-5, visitor));
+		assertTrue(visitor.times.isEmpty());
+		assertEquals(0, history.copyLast(new long[3], null, null, -1));
+	}
+
+	@Test
+	public void clearRemovesPositions() {
+		PositionHistory history=history(2, 10, 20, 30);
+		history.clear();
+		assertEquals(0, history.size());
+		assertTrue(history.append(5, 0, 0, 0, 0, 0, 0));
+		assertEquals(5, history.getTime(0));
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.item;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class UnitParamsTest {
+
+	private static UnitParams read(String json) throws IOException {
+		UnitParams params=new UnitParams();
+		params.read(new JsonReader(new StringReader(json)));
+		return params;
+	}
+
+	private static JsonObject json(String json) {
+		return new JsonParser().parse(json).getAsJsonObject();
+	}
+
+	@Test
+	public void paramsAreRead() throws IOException {
+		UnitParams params=read("{\"adc1\":{\"v\":12.5,\"ct\":100,\"at\":200},\"text\":{\"v\":\"abc\",\"ct\":101,\"at\":201},\"gsm\":300}");
+		assertEquals(3, params.size());
+		assertEquals(12.5, params.getNumber("adc1", -1), 1e-9);
+		assertEquals(100, params.getChangeTime("adc1"));
+		assertEquals(200, params.getActualTime("adc1"));
+		assertEquals("abc", params.getValue("text"));
+		assertEquals(-1, params.getNumber("text", -1), 1e-9);
+		assertEquals(300, params.getActualTime("gsm"));
+		assertFalse(params.hasParam("missing"));
+		assertNull(params.getValue("missing"));
+	}
+
+	@Test
+	public void mapViewHasServerForm() throws IOException {
+		UnitParams params=read("{\"adc1\":{\"v\":12.5,\"ct\":100,\"at\":200}}");
+		@SuppressWarnings("unchecked")
+		Map<String, Object> param=(Map<String, Object>)params.get("adc1");
+		assertEquals(12.5, param.get("v"));
+		assertEquals(100L, param.get("ct"));
+		assertEquals(200L, param.get("at"));
+		assertTrue(params.containsKey("adc1"));
+		assertEquals(1, params.entrySet().size());
+		assertEquals("adc1", params.entrySet().iterator().next().getKey());
+	}
+
+	@Test
+	public void updateReportsChangedParams() throws IOException {
+		UnitParams params=read("{\"adc1\":{\"v\":12.5,\"ct\":100,\"at\":200},\"text\":{\"v\":\"abc\",\"ct\":101,\"at\":201}}");
+		// actual time only
+		List<String> changed=params.update(json("{\"adc1\":300,\"text\":{\"v\":\"abc\",\"ct\":101,\"at\":301}}"));
+		assertEquals(Collections.<String>emptyList(), changed);
+		assertEquals(300, params.getActualTime("adc1"));
+		assertEquals(301, params.getActualTime("text"));
+		// value change and new parameter
+		changed=params.update(json("{\"adc1\":{\"v\":13,\"ct\":400,\"at\":400},\"in1\":{\"v\":1,\"ct\":400,\"at\":400}}"));
+		assertEquals(Arrays.asList("adc1", "in1"), changed);
+		assertEquals(13, params.getNumber("adc1", -1), 1e-9);
+		assertEquals(1, params.getNumber("in1", -1), 1e-9);
+		// numeric value replaced by string one
+		changed=params.update(json("{\"adc1\":{\"v\":\"error\",\"ct\":400,\"at\":500}}"));
+		assertEquals(Arrays.asList("adc1"), changed);
+		assertEquals("error", params.getValue("adc1"));
+	}
+
+	@Test
+	public void nullTimesAreIgnored() throws IOException {
+		UnitParams params=read("{\"adc1\":{\"v\":12.5,\"ct\":100,\"at\":200}}");
+		assertEquals(Collections.singletonList("adc1"), params.update(json("{\"adc1\":{\"v\":13,\"ct\":null,\"at\":null}}")));
+		assertEquals(13, params.getNumber("adc1", -1), 1e-9);
+		assertEquals(100, params.getChangeTime("adc1"));
+		assertEquals(200, params.getActualTime("adc1"));
+		assertTrue(params.update(json("{\"adc1\":{\"ct\":\"x\"},\"adc2\":null}")).isEmpty());
+	}
+
+	@Test
+	public void actualTimeOfUnknownParamIsIgnored() {
+		UnitParams params=new UnitParams();
+		assertTrue(params.update(json("{\"adc1\":300}")).isEmpty());
+		assertFalse(params.hasParam("adc1"));
+	}
+
+	@Test
+	public void storeGrows() {
+		UnitParams params=new UnitParams();
+		for (int i=0; i<100; i++)
+			params.update(json("{\"p"+i+"\":{\"v\":"+i+",\"ct\":1,\"at\":1}}"));
+		assertEquals(100, params.size());
+		for (int i=0; i<100; i++)
+			assertEquals(i, params.getNumber("p"+i, -1), 1e-9);
+	}
+
+	@Test
+	public void namesAreInterned() throws IOException {
+		UnitParams first=read("{\"adc1\":{\"v\":1,\"ct\":1,\"at\":1}}");
+		UnitParams second=read("{\"adc1\":{\"v\":2,\"ct\":1,\"at\":1}}");
+		assertSame(first.entrySet().iterator().next().getKey(), second.entrySet().iterator().next().getKey());
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.item.prop;
+
+import com.sdk.wialon.core.PagedIterator;
+import com.sdk.wialon.remote.FakeHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReportResultTest {
+	private FakeHttpClient client;
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+	}
+
+	@After
+	public void tearDown() {
+		FakeHttpClient.logout();
+	}
+
+	private static String rows(int from, int to) {
+		StringBuilder result=new StringBuilder("[");
+		for (int i=from; i<=to; i++) {
+			if (i>from)
+				result.append(',');
+			result.append("{\"n\":0,\"i1\":").append(i).append(",\"i2\":").append(i)
+					.append(",\"t1\":0,\"t2\":0,\"d\":0,\"c\":[\"row ").append(i).append("\"]}");
+		}
+		return result.append(']').toString();
+	}
+
+	@Test
+	public void tableWithoutRowsIsNotRequested() {
+		ReportResult result=ReportResult.parse("{\"reportResult\":{\"tables\":[{\"name\":\"unit_trips\",\"rows\":0}]}}");
+		PagedIterator<ReportResult.Row> iterator=result.iterateRows(0, 10);
+		assertFalse(iterator.hasNext());
+		assertTrue(client.getCalls("report/get_result_rows").isEmpty());
+	}
+
+	@Test
+	public void rowsAreRequestedByPages() {
+		ReportResult result=ReportResult.parse("{\"reportResult\":{\"tables\":[{\"name\":\"unit_trips\",\"rows\":3}]}}");
+		client.addResponse("report/get_result_rows", rows(0, 1));
+		client.addResponse("report/get_result_rows", rows(2, 2));
+		List<String> texts=new ArrayList<String>();
+		PagedIterator<ReportResult.Row> iterator=result.iterateRows(0, 2);
+		while (iterator.hasNext())
+			texts.add(iterator.next().getText(0));
+		assertEquals(3, texts.size());
+		assertEquals("row 2", texts.get(2));
+		List<FakeHttpClient.Call> calls=client.getCalls("report/get_result_rows");
+		assertEquals(2, calls.size());
+		assertEquals("{\"tableIndex\":0,\"indexFrom\":0,\"indexTo\":1}", calls.get(0).params);
+		assertEquals("{\"tableIndex\":0,\"indexFrom\":2,\"indexTo\":2}", calls.get(1).params);
+	}
+
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void unknownTableIsRejected() {
+		ReportResult.parse("{\"reportResult\":{\"tables\":[]}}").iterateRows(0, 10);
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.item.prop;
+
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.item.Unit;
+import com.sdk.wialon.remote.FakeHttpClient;
+import com.sdk.wialon.remote.RemoteHttpClient;
+import com.sdk.wialon.remote.handlers.ResponseHandler;
+import com.sdk.wialon.remote.handlers.SensorValuesResponseHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SensorBatchTest {
+	private FakeHttpClient client;
+
+	private static final class Result extends SensorValuesResponseHandler {
+		SensorValues values;
+		int errorCode;
+		Throwable error;
+
+		@Override
+		public void onSuccessSensorValues(SensorValues values) {
+			this.values=values;
+		}
+
+		@Override
+		public void onFailure(int errorCode, Throwable throwableError) {
+			this.errorCode=errorCode;
+			this.error=throwableError;
+		}
+	}
+
+	@Before
+	public void setUp() {
+		client=FakeHttpClient.login();
+	}
+
+	@After
+	public void tearDown() {
+		FakeHttpClient.logout();
+	}
+
+	private static List<Unit> units(int count) {
+		List<Unit> units=new ArrayList<Unit>();
+		for (int i=1; i<=count; i++)
+			units.add(Session.getInstance().getGson().fromJson("{\"nm\":\"unit\",\"id\":"+i+",\"cls\":2}", Unit.class));
+		return units;
+	}
+
+	@Test
+	public void unitsAreCalculatedInBatches() {
+		client.addResponse("core/batch", "[{\"1\":10.5,\"2\":1},{\"1\":20}]");
+		client.addResponse("core/batch", "[{\"error\":7}]");
+		Result result=new Result();
+		Sensor.remoteCalculateLastMessage(units(3), null, 2, result);
+		assertEquals(2, client.getCalls("core/batch").size());
+		assertEquals(0, result.errorCode);
+		assertEquals(10.5, result.values.getValue(1, 1), 1e-9);
+		assertEquals(Sensor.invalidValue, result.values.getValue(2, 2), 1e-9);
+		assertEquals(Integer.valueOf(7), result.values.getFailures().get(3L));
+	}
+
+	@Test
+	public void startedBatchFailsAtOnce() {
+		RemoteHttpClient remoteClient=RemoteHttpClient.getInstance();
+		assertTrue(remoteClient.startBatch());
+		Result result=new Result();
+		try {
+			Sensor.remoteCalculateLastMessage(units(3), null, 2, result);
+		} finally {
+			remoteClient.finishBatch(new ResponseHandler() {});
+		}
+		assertEquals(4, result.errorCode);
+		assertTrue(result.error instanceof IllegalStateException);
+		assertNull(result.values);
+		assertEquals(0, client.getCalls("core/batch").size());
+		assertFalse(remoteClient.isBatchStarted());
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.item.prop;
+
+import com.google.gson.JsonParser;
+import com.sdk.wialon.item.Unit;
+import com.sdk.wialon.messages.MessageDecoder;
+import com.sdk.wialon.messages.UnitData;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SensorEngineTest {
+	private static final double DELTA=1e-9;
+	private Unit unit;
+
+	private SensorEngine engine(String... sensors) {
+		Map<String, String> data=new LinkedHashMap<String, String>();
+		for (int i=0; i<sensors.length; i++)
+			data.put(String.valueOf(i+1), sensors[i]);
+		unit=new Unit();
+		return new Sensor(data, "sens", unit, Unit.events.updateSensor, "unit/update_sensor").getEngine();
+	}
+
+	private static String sensor(long id, String name, String expression) {
+		return "{\"id\":"+id+",\"n\":\""+name+"\",\"t\":\"custom\",\"p\":\""+expression+"\",\"tbl\":[]}";
+	}
+
+	private static UnitData message(String params) throws IOException {
+		return (UnitData)new MessageDecoder().readResponse("[{\"t\":100,\"f\":7,\"tp\":\"ud\","+
+				"\"pos\":{\"y\":53.9,\"x\":27.5,\"z\":210,\"s\":60,\"c\":90,\"sc\":8},\"i\":5,\"o\":2,\"p\":"+params+"}]")[0];
+	}
+
+	@Test
+	public void expressionsAreEvaluated() throws IOException {
+		SensorEngine engine=engine(
+				sensor(1, "Fuel", "fuel*2+1"),
+				sensor(2, "Avg", "(a+b)/2"),
+				sensor(3, "Speed", "-speed+altitude"),
+				sensor(4, "Input", "in1+in2*10+out2*100"),
+				sensor(5, "Bit", "io:3"),
+				sensor(6, "Const", "const10-#a"),
+				sensor(7, "Ref", "[Fuel]*2"),
+				sensor(8, "Position", "lat+lon+sats+course"));
+		UnitData message=message("{\"fuel\":10,\"a\":3,\"b\":5,\"io\":4}");
+		assertEquals(21, engine.calculate(1, message), DELTA);
+		assertEquals(4, engine.calculate(2, message), DELTA);
+		assertEquals(150, engine.calculate(3, message), DELTA);
+		assertEquals(101, engine.calculate(4, message), DELTA);
+		assertEquals(1, engine.calculate(5, message), DELTA);
+		assertEquals(7, engine.calculate(6, message), DELTA);
+		assertEquals(42, engine.calculate(7, message), DELTA);
+		assertEquals(53.9+27.5+8+90, engine.calculate(8, message), DELTA);
+		Map<Long, Double> values=engine.calculate(message);
+		assertEquals(8, values.size());
+		assertEquals(21, values.get(1L), DELTA);
+	}
+
+	@Test
+	public void missingDataGivesInvalidValue() throws IOException {
+		SensorEngine engine=engine(
+				sensor(1, "Fuel", "fuel"),
+				sensor(2, "Div", "a/b"),
+				sensor(3, "Ref", "[Missing]+1"),
+				sensor(4, "Self", "[Self]+1"));
+		UnitData message=message("{\"a\":1,\"b\":0,\"fuel\":\"text\"}");
+		assertEquals(Sensor.invalidValue, engine.calculate(1, message), DELTA);
+		assertEquals(Sensor.invalidValue, engine.calculate(2, message), DELTA);
+		assertEquals(Sensor.invalidValue, engine.calculate(3, message), DELTA);
+		assertEquals(Sensor.invalidValue, engine.calculate(4, message), DELTA);
+		assertEquals(Sensor.invalidValue, engine.calculate(99, message), DELTA);
+		assertEquals(Sensor.invalidValue, engine.calculate(1, (UnitData)null), DELTA);
+	}
+
+	@Test
+	public void malformedSensorsAreSkipped() throws IOException {
+		SensorEngine engine=engine(
+				sensor(1, "Bad", "a+"),
+				sensor(2, "Parenthesis", "(a+1"),
+				"{\"id\":\"x\",\"n\":\"Bad id\",\"p\":\"a\"}",
+				"{\"id\":4,\"n\":\"Bad table\",\"p\":\"a\",\"tbl\":[1,2]}",
+				"not json",
+				sensor(6, "Good", "a"));
+		assertFalse(engine.isSupported(1));
+		assertFalse(engine.isSupported(2));
+		assertFalse(engine.isSupported(4));
+		assertTrue(engine.isSupported(6));
+		assertEquals(3, engine.calculate(6, message("{\"a\":3}")), DELTA);
+		// sensors with unsupported expressions are kept with invalid values
+		assertEquals(3, engine.calculate(message("{\"a\":3}")).size());
+	}
+
+	@Test
+	public void calibrationTableIsApplied() throws IOException {
+		SensorEngine engine=engine("{\"id\":1,\"n\":\"Level\",\"p\":\"v\","+
+				"\"tbl\":[{\"x\":0,\"a\":2,\"b\":0},{\"x\":10,\"a\":1,\"b\":10},{\"x\":20,\"a\":0,\"b\":30}]}");
+		assertEquals(10, engine.calculate(1, message("{\"v\":5}")), DELTA);
+		assertEquals(20, engine.calculate(1, message("{\"v\":10}")), DELTA);
+		assertEquals(25, engine.calculate(1, message("{\"v\":15}")), DELTA);
+		assertEquals(30, engine.calculate(1, message("{\"v\":50}")), DELTA);
+		// values below table use first segment
+		assertEquals(-2, engine.calculate(1, message("{\"v\":-1}")), DELTA);
+	}
+
+	@Test
+	public void boundsAreApplied() throws IOException {
+		SensorEngine engine=engine("{\"id\":1,\"n\":\"Temp\",\"p\":\"v\",\"tbl\":[],"+
+				"\"c\":\"{\\\"lower_bound\\\":-40,\\\"upper_bound\\\":85}\"}");
+		assertEquals(20, engine.calculate(1, message("{\"v\":20}")), DELTA);
+		assertEquals(Sensor.invalidValue, engine.calculate(1, message("{\"v\":-50}")), DELTA);
+		assertEquals(Sensor.invalidValue, engine.calculate(1, message("{\"v\":100}")), DELTA);
+	}
+
+	@Test
+	public void changedSensorsAreCompiledAgain() throws IOException {
+		SensorEngine engine=engine(sensor(1, "Fuel", "fuel"));
+		UnitData message=message("{\"fuel\":10}");
+		assertEquals(10, engine.calculate(1, message), DELTA);
+		unit.updateItemData("sensu", new JsonParser().parse("[1,"+sensor(1, "Fuel", "fuel*3")+"]"));
+		assertEquals(30, engine.calculate(1, message), DELTA);
+		unit.updateItemData("sensu", new JsonParser().parse("[1,null]"));
+		assertFalse(engine.isSupported(1));
+	}
+
+	@Test
+	public void sensorsAreCompiledWhileUpdated() throws Exception {
+		SensorEngine engine=engine(sensor(1, "Fuel", "fuel"));
+		UnitData message=message("{\"fuel\":10}");
+		final JsonParser parser=new JsonParser();
+		final Throwable[] error=new Throwable[1];
+		final long until=System.currentTimeMillis()+300;
+		Thread writer=new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i=0; System.currentTimeMillis()<until; i++) {
+						long id=2+i%50;
+						unit.updateItemData("sensu", parser.parse("["+id+","+(i%100<50 ? sensor(id, "S"+id, "fuel") : "null")+"]"));
+					}
+				} catch (Throwable e) {
+					error[0]=e;
+				}
+			}
+		};
+		writer.start();
+		while (writer.isAlive())
+			assertEquals(10, engine.calculate(1, message), DELTA);
+		writer.join();
+		assertNull(error[0]);
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.messages;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageBufferTest {
+	private static String messages(int count) {
+		StringBuilder result=new StringBuilder("{\"count\":"+count+",\"messages\":[");
+		for (int i=0; i<count; i++) {
+			if (i>0)
+				result.append(',');
+			result.append("{\"t\":").append(100+i).append(",\"f\":1,\"tp\":\"ud\",\"pos\":{\"y\":53.9,\"x\":27.5,\"z\":0,\"s\":")
+					.append(i).append(",\"c\":0,\"sc\":9},\"i\":0,\"o\":0,\"p\":{\"n\":").append(i).append(",\"d\":\"x\"}}");
+		}
+		return result.append("]}").toString();
+	}
+
+	@Test
+	public void messagesAreKeptInHeapWithinBudget() throws IOException {
+		MessageBuffer buffer=new MessageBuffer(1024*1024);
+		try {
+			assertEquals(10, buffer.readResponse(messages(10), null));
+			assertFalse(buffer.isSpilled());
+			assertEquals(10, buffer.size());
+			assertTrue(buffer.getHeapBytes()>0);
+			assertSame(buffer.get(3), buffer.get(3));
+		} finally {
+			buffer.close();
+		}
+	}
+
+	@Test
+	public void messagesOverBudgetAreSpilled() throws IOException {
+		MessageBuffer buffer=new MessageBuffer(500);
+		try {
+			buffer.readResponse(messages(20), null);
+			assertTrue(buffer.isSpilled());
+			assertEquals(20, buffer.size());
+			assertTrue(buffer.getSpilledBytes()>0);
+			List<Message> list=buffer.asList();
+			for (int i=0; i<20; i++) {
+				UnitData message=(UnitData)list.get(i);
+				assertEquals(100+i, message.getTime());
+				assertEquals(1, message.getFlags());
+				assertEquals(i, message.getPosition().getSpeed());
+				assertEquals(53.9, message.getPosition().getLatitude(), 1e-9);
+				assertEquals(i, ((Number)message.getParameters().get("n")).intValue());
+				assertEquals("x", message.getParameters().get("d"));
+			}
+			// spilled messages are decoded again
+			assertNotSame(buffer.get(19), buffer.get(19));
+		} finally {
+			buffer.close();
+		}
+	}
+
+	@Test
+	public void filterIsApplied() throws IOException {
+		MessageBuffer buffer=new MessageBuffer(0);
+		try {
+			MessageFilter filter=new MessageFilter();
+			filter.setSpeedRange(5, -1);
+			assertEquals(5, buffer.readResponse(messages(10), filter));
+			assertEquals(105, buffer.get(0).getTime());
+		} finally {
+			buffer.close();
+		}
+	}
+
+	@Test
+	public void closeDeletesFile() throws IOException {
+		File directory=new File(System.getProperty("java.io.tmpdir"), "message-buffer-test");
+		assertTrue(directory.isDirectory() || directory.mkdirs());
+		MessageBuffer buffer=new MessageBuffer(0, directory);
+		buffer.readResponse(messages(3), null);
+		File[] files=directory.listFiles();
+		assertEquals(1, files.length);
+		buffer.close();
+		assertFalse(files[0].exists());
+		try {
+			buffer.add(buffer.get(0));
+			fail("IOException expected");
+		} catch (IOException e) {
+			// closed buffer
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void filledSegmentIsFollowedByNewOne() throws IOException {
+		// messages 0..9 have equal size
+		MessageBuffer probe=new MessageBuffer(0);
+		long length;
+		try {
+			probe.readResponse(messages(1), null);
+			length=probe.getSpilledBytes();
+		} finally {
+			probe.close();
+		}
+		MessageBuffer buffer=new MessageBuffer(0, null, (int)length*2);
+		try {
+			assertEquals(5, buffer.readResponse(messages(5), null));
+			assertEquals(length*5, buffer.getSpilledBytes());
+			for (int i=0; i<5; i++)
+				assertEquals(100+i, buffer.get(i).getTime());
+		} finally {
+			buffer.close();
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void nullMessageIsRejected() throws IOException {
+		MessageBuffer buffer=new MessageBuffer(0);
+		try {
+			buffer.add(null);
+		} finally {
+			buffer.close();
+		}
+	}
+
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void indexIsChecked() throws IOException {
+		MessageBuffer buffer=new MessageBuffer(0);
+		try {
+			buffer.get(0);
+		} finally {
+			buffer.close();
+		}
+	}
+}
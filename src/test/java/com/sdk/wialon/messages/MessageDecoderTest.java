@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.messages;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageDecoderTest {
+	private static final String DATA="{\"t\":100,\"f\":1,\"tp\":\"ud\",\"pos\":{\"y\":53.9,\"x\":27.5,\"z\":0,\"s\":60,\"c\":90,\"sc\":8},\"i\":3,\"o\":0,\"p\":{\"pwr\":12.5}}";
+	private static final String EVENT="{\"t\":110,\"f\":1536,\"tp\":\"evt\",\"et\":\"Engine on\",\"y\":53.8,\"x\":27.4}";
+	private static final String COMMAND="{\"t\":120,\"f\":513,\"tp\":\"ucr\",\"ca\":\"reboot\",\"cn\":\"\",\"cp\":\"\",\"ui\":\"1\",\"ln\":\"\",\"lt\":\"tcp\",\"et\":0}";
+	private static final String UNKNOWN="{\"t\":130,\"f\":0,\"tp\":\"zz\",\"p\":{}}";
+
+	@Test
+	public void typesAreResolvedByFlagsAndValue() {
+		assertEquals(Message.MessageType.UnitData, MessageDecoder.getMessageType(0x0, "ud"));
+		assertEquals(Message.MessageType.UnitData, MessageDecoder.getMessageType(0x3, "ud"));
+		assertEquals(Message.MessageType.UnitSMS, MessageDecoder.getMessageType(0x100, "us"));
+		assertEquals(Message.MessageType.UnitCmd, MessageDecoder.getMessageType(0x201, "ucr"));
+		assertEquals(Message.MessageType.UnitEvent, MessageDecoder.getMessageType(0x600, "evt"));
+		// types sharing tp value are told apart by flags
+		assertEquals(Message.MessageType.Notification, MessageDecoder.getMessageType(0x300, "xx"));
+		assertEquals(Message.MessageType.Balance, MessageDecoder.getMessageType(0x500, "xx"));
+		assertEquals(Message.MessageType.DriverSMS, MessageDecoder.getMessageType(0x900, "xx"));
+		assertNull(MessageDecoder.getMessageType(0x0, "evt"));
+		assertNull(MessageDecoder.getMessageType(0x0, "zz"));
+		assertNull(MessageDecoder.getMessageType(0x0, null));
+	}
+
+	@Test
+	public void messagesAreDecoded() throws IOException {
+		Message[] messages=new MessageDecoder().readResponse("["+DATA+","+EVENT+","+COMMAND+","+UNKNOWN+"]");
+		assertEquals(4, messages.length);
+		UnitData data=(UnitData)messages[0];
+		assertEquals(100, data.getTime());
+		assertEquals(1, data.getFlags());
+		assertEquals(60, data.getPosition().getSpeed());
+		assertEquals(53.9, data.getPosition().getLatitude(), 1e-9);
+		assertEquals(3, data.getInputData());
+		assertEquals(12.5, ((Number)data.getParameters().get("pwr")).doubleValue(), 1e-9);
+		UnitEvent event=(UnitEvent)messages[1];
+		assertEquals("Engine on", event.getEventText());
+		assertEquals(27.4, event.getLongitude(), 1e-9);
+		assertEquals("reboot", ((UnitCmd)messages[2]).getCommandName());
+		assertNull(messages[3]);
+	}
+
+	@Test
+	public void fieldsBeforeTypeAreApplied() throws IOException {
+		String message="{\"pos\":{\"y\":1.5,\"x\":2.5,\"s\":10},\"i\":7,\"t\":100,\"f\":1,\"tp\":\"ud\",\"o\":0}";
+		UnitData data=(UnitData)new MessageDecoder().read(new JsonReader(new StringReader(message)));
+		assertEquals(100, data.getTime());
+		assertEquals(1.5, data.getPosition().getLatitude(), 1e-9);
+		assertEquals(7, data.getInputData());
+	}
+
+	@Test
+	public void objectResponseIsDecoded() throws IOException {
+		Message[] messages=new MessageDecoder().readResponse("{\"count\":1,\"messages\":["+DATA+"]}");
+		assertEquals(1, messages.length);
+		assertNull(new MessageDecoder().readResponse("{\"count\":0}"));
+	}
+
+	@Test
+	public void reuseModeFillsSameInstance() throws IOException {
+		MessageDecoder decoder=new MessageDecoder(true);
+		final List<Message> visited=new ArrayList<Message>();
+		final List<Long> times=new ArrayList<Long>();
+		String data2=DATA.replace("\"t\":100", "\"t\":200").replace("\"p\":{\"pwr\":12.5}", "\"p\":{}");
+		int count=decoder.forEach(new JsonReader(new StringReader("["+DATA+","+data2+","+UNKNOWN+"]")), new MessageDecoder.Visitor() {
+			@Override
+			public void visit(int index, Message message) {
+				visited.add(message);
+				times.add(message.getTime());
+			}
+		});
+		assertEquals(3, count);
+		assertEquals(2, visited.size());
+		assertSame(visited.get(0), visited.get(1));
+		assertEquals(Long.valueOf(100), times.get(0));
+		assertEquals(Long.valueOf(200), times.get(1));
+		// previous values are reset
+		assertNull(visited.get(1).getParameters().get("pwr"));
+
+		// arrays are read into new instances even in reuse mode
+		Message[] messages=decoder.readResponse("["+DATA+","+data2+"]");
+		assertNotSame(messages[0], messages[1]);
+		assertEquals(100, messages[0].getTime());
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.messages;
+
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.remote.FakeHttpClient;
+import com.sdk.wialon.remote.handlers.MessagesResponseHandler;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class MessageFilterTest {
+	private static String data(long time, long flags, String position, String params) {
+		return "{\"t\":"+time+",\"f\":"+flags+",\"tp\":\"ud\",\"pos\":"+position+",\"i\":0,\"o\":0,\"p\":"+params+"}";
+	}
+
+	private static String position(double latitude, double longitude, int speed) {
+		return "{\"y\":"+latitude+",\"x\":"+longitude+",\"z\":0,\"s\":"+speed+",\"c\":0,\"sc\":8}";
+	}
+
+	private static final String EVENT="{\"t\":50,\"f\":1536,\"tp\":\"evt\",\"et\":\"event\"}";
+
+	@Test
+	public void singleTypeIsPassedToServer() {
+		MessageFilter filter=new MessageFilter();
+		filter.setMessageTypes(Message.MessageType.UnitEvent);
+		assertEquals(0x600, filter.getFlags());
+		assertEquals(0xFF00, filter.getFlagsMask());
+		filter.setMessageTypes(Message.MessageType.UnitEvent, Message.MessageType.UnitCmd);
+		assertEquals(0, filter.getFlags());
+		assertEquals(0, filter.getFlagsMask());
+	}
+
+	@Test
+	public void positionConditionSelectsUnitData() {
+		MessageFilter filter=new MessageFilter();
+		filter.setSpeedRange(10, -1);
+		assertEquals(0x1, filter.getFlags());
+		assertEquals(0xFF01, filter.getFlagsMask());
+		assertFalse(filter.acceptsType(0x600, Message.MessageType.UnitEvent));
+		assertTrue(filter.acceptsType(0x1, Message.MessageType.UnitData));
+	}
+
+	@Test
+	public void rawFlagsAreChecked() {
+		MessageFilter filter=new MessageFilter();
+		filter.setFlags(0x2, 0x2);
+		assertEquals(0x2, filter.getFlags());
+		assertEquals(0x2, filter.getFlagsMask());
+		assertTrue(filter.acceptsType(0x3, Message.MessageType.UnitData));
+		assertFalse(filter.acceptsType(0x1, Message.MessageType.UnitData));
+	}
+
+	@Test
+	public void decodedMessagesAreFiltered() throws IOException {
+		MessageFilter filter=new MessageFilter();
+		filter.setSpeedRange(10, 100);
+		filter.setBoundingBox(53, 27, 54, 28);
+		MessageDecoder decoder=new MessageDecoder();
+		decoder.setFilter(filter);
+		Message[] messages=decoder.readResponse("["+
+				data(100, 1, position(53.5, 27.5, 50), "{}")+","+
+				data(110, 1, position(53.5, 27.5, 5), "{}")+","+
+				data(120, 1, position(55, 27.5, 50), "{}")+","+
+				data(130, 0, "null", "{}")+","+
+				EVENT+","+
+				data(140, 1, position(53.9, 27.9, 100), "{}")+"]");
+		assertEquals(2, messages.length);
+		assertEquals(100, messages[0].getTime());
+		assertEquals(140, messages[1].getTime());
+	}
+
+	@Test
+	public void parameterConditionsReleaseRowsOfRejectedMessages() throws IOException {
+		MessageFilter filter=new MessageFilter();
+		filter.addParamRange("fuel", 10, 20);
+		filter.addParamExists("driver");
+		MessageDecoder decoder=new MessageDecoder();
+		ParamColumns columns=new ParamColumns();
+		decoder.setParamColumns(columns);
+		decoder.setFilter(filter);
+		Message[] messages=decoder.readResponse("["+
+				data(100, 0, "null", "{\"fuel\":15,\"driver\":\"a\"}")+","+
+				data(110, 0, "null", "{\"fuel\":25,\"driver\":\"b\"}")+","+
+				data(120, 0, "null", "{\"fuel\":12}")+","+
+				data(130, 0, "null", "{\"fuel\":\"x\",\"driver\":\"c\"}")+","+
+				data(140, 0, "null", "{\"fuel\":20,\"driver\":\"d\"}")+"]");
+		assertEquals(2, messages.length);
+		assertEquals(2, columns.getRowsCount());
+		assertEquals("a", messages[0].getParameters().get("driver"));
+		assertEquals("d", messages[1].getParameters().get("driver"));
+	}
+
+	@Test
+	public void loaderAppliesFilterToFollowingPages() {
+		FakeHttpClient client=FakeHttpClient.login();
+		try {
+			MessageFilter filter=new MessageFilter();
+			filter.setSpeedRange(10, -1);
+			client.addResponse("messages/load_interval", "{\"count\":2,\"messages\":[]}");
+			client.addResponse("messages/get_messages", "["+data(100, 1, position(53, 27, 50), "{}")+","+
+					data(110, 1, position(53, 27, 0), "{}")+"]");
+			Session.getInstance().getMessagesLoader().loadInterval(1, 0, 200, filter, 0, new MessagesResponseHandler() {});
+			String params=client.getCalls("messages/load_interval").get(0).params;
+			assertTrue(params, params.contains("\"flags\":1,\"flagsMask\":65281"));
+			final Message[][] result=new Message[1][];
+			Session.getInstance().getMessagesLoader().getMessages(0, 1, new MessagesResponseHandler() {
+				@Override
+				public void onSuccessMessages(Message... messages) {
+					result[0]=messages;
+				}
+			});
+			assertEquals(1, result[0].length);
+			assertEquals(100, result[0][0].getTime());
+		} finally {
+			FakeHttpClient.logout();
+		}
+	}
+}
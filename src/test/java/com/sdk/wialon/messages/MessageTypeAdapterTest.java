@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.messages;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class MessageTypeAdapterTest {
+	private final Gson gson;
+
+	public MessageTypeAdapterTest() {
+		GsonBuilder builder=new GsonBuilder();
+		MessageTypeAdapter.registerAll(builder);
+		gson=builder.create();
+	}
+
+	@Test
+	public void unitDataIsRead() {
+		UnitData message=gson.fromJson("{\"t\":1400000000,\"f\":3,\"tp\":\"ud\",\"unknown\":{\"a\":[1,2]},"+
+				"\"pos\":{\"y\":53.9,\"x\":27.5,\"z\":200,\"s\":60,\"c\":90,\"sc\":9},\"i\":1,\"o\":2,"+
+				"\"p\":{\"adc1\":12.5,\"text\":\"abc\"}}", UnitData.class);
+		assertEquals(1400000000, message.getTime());
+		assertEquals(3, message.getFlags());
+		assertSame(Message.MessageType.UnitData, message.getMessageType());
+		assertEquals(53.9, message.getPosition().getLatitude(), 1e-9);
+		assertEquals(27.5, message.getPosition().getLongitude(), 1e-9);
+		assertEquals(60, message.getPosition().getSpeed());
+		assertEquals(9, message.getPosition().getSatellitesCount());
+		assertEquals(1, message.getInputData());
+		assertEquals(2, message.getOutputData());
+		assertEquals(12.5, ((Number)message.getParameters().get("adc1")).doubleValue(), 1e-9);
+		assertEquals("abc", message.getParameters().get("text"));
+	}
+
+	@Test
+	public void unitDataRoundTrip() {
+		String json="{\"t\":1400000000,\"f\":3,\"tp\":\"ud\",\"pos\":{\"y\":53.9,\"x\":27.5,\"z\":200,\"s\":60,\"c\":90,\"sc\":9},\"i\":1,\"o\":2}";
+		UnitData message=gson.fromJson(json, UnitData.class);
+		UnitData copy=gson.fromJson(gson.toJson(message), UnitData.class);
+		assertEquals(message.getTime(), copy.getTime());
+		assertEquals(message.getFlags(), copy.getFlags());
+		assertEquals(message.getPosition().getLatitude(), copy.getPosition().getLatitude(), 1e-9);
+		assertEquals(message.getPosition().getCourse(), copy.getPosition().getCourse());
+		assertEquals(message.getOutputData(), copy.getOutputData());
+	}
+
+	@Test
+	public void nullMessageIsWritten() {
+		assertEquals("null", gson.toJson(null, UnitData.class));
+		assertNull(gson.fromJson("null", UnitData.class));
+	}
+
+	@Test
+	public void messageWithoutTypeIsWritten() throws IOException {
+		Message message=new Message();
+		StringWriter writer=new StringWriter();
+		JsonWriter out=new JsonWriter(writer);
+		out.beginObject();
+		message.writeFields(out);
+		out.endObject();
+		out.close();
+		assertEquals("{\"t\":0,\"f\":0}", writer.toString());
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.messages;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PackedMessagesDecoderTest {
+	private static final Charset UTF8=Charset.forName("UTF-8");
+	private static final String MESSAGES="[" +
+			"{\"t\":100,\"f\":1,\"tp\":\"ud\",\"pos\":{\"y\":53.9,\"x\":27.5,\"z\":210,\"s\":60,\"c\":90,\"sc\":8},\"i\":0,\"o\":0,\"p\":{\"a\":[1,2]}}," +
+			"{\"t\":110,\"f\":0,\"tp\":\"ud\",\"pos\":null,\"i\":0,\"o\":0,\"p\":{}}," +
+			"{\"t\":120,\"f\":0,\"tp\":\"evt\",\"pos\":{\"y\":1,\"x\":1},\"et\":\"event\"}," +
+			"{\"t\":130,\"f\":1,\"pos\":{\"y\":54.0,\"x\":27.6,\"s\":40}}," +
+			"5]";
+
+	private static void checkColumns(PositionColumns columns) {
+		assertEquals(2, columns.size());
+		assertEquals(100, columns.getTime(0));
+		assertEquals(1, columns.getFlags(0));
+		assertEquals(53.9, columns.getLatitude(0), 1e-9);
+		assertEquals(27.5, columns.getLongitude(0), 1e-9);
+		assertEquals(60, columns.getSpeed(0));
+		assertEquals(90, columns.getCourse(0));
+		assertEquals(210, columns.getAltitude(0));
+		assertEquals(8, columns.getSatellitesCount(0));
+		// type is taken from flags when "tp" is missing
+		assertEquals(130, columns.getTime(1));
+		assertEquals(40, columns.getSpeed(1));
+	}
+
+	@Test
+	public void plainArrayIsDecoded() throws IOException {
+		PositionColumns columns=new PositionColumns();
+		assertEquals(2, PackedMessagesDecoder.decode(ByteBuffer.wrap(MESSAGES.getBytes(UTF8)), columns));
+		checkColumns(columns);
+	}
+
+	@Test
+	public void objectWithMessagesIsDecoded() throws IOException {
+		PositionColumns columns=new PositionColumns(1);
+		String response="{\"count\":5,\"messages\":"+MESSAGES+"}";
+		assertEquals(2, PackedMessagesDecoder.decode(ByteBuffer.wrap(response.getBytes(UTF8)), columns));
+		checkColumns(columns);
+	}
+
+	@Test
+	public void compressedResponseIsDecoded() throws IOException {
+		ByteArrayOutputStream gzip=new ByteArrayOutputStream();
+		GZIPOutputStream gzipStream=new GZIPOutputStream(gzip);
+		gzipStream.write(MESSAGES.getBytes(UTF8));
+		gzipStream.close();
+		PositionColumns columns=new PositionColumns();
+		PackedMessagesDecoder.decode(ByteBuffer.wrap(gzip.toByteArray()), columns);
+		checkColumns(columns);
+
+		ByteArrayOutputStream zlib=new ByteArrayOutputStream();
+		DeflaterOutputStream zlibStream=new DeflaterOutputStream(zlib);
+		zlibStream.write(MESSAGES.getBytes(UTF8));
+		zlibStream.close();
+		columns=new PositionColumns();
+		PackedMessagesDecoder.decode(ByteBuffer.wrap(zlib.toByteArray()), columns);
+		checkColumns(columns);
+	}
+
+	@Test
+	public void directBufferIsNotMoved() throws IOException {
+		byte[] bytes=MESSAGES.getBytes(UTF8);
+		ByteBuffer buffer=ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+		buffer.flip();
+		PositionColumns columns=new PositionColumns();
+		PackedMessagesDecoder.decode(buffer, columns);
+		checkColumns(columns);
+		assertEquals(0, buffer.position());
+	}
+
+	@Test
+	public void errorResponseIsThrown() throws IOException {
+		try {
+			PackedMessagesDecoder.decode(ByteBuffer.wrap("{\"error\":7}".getBytes(UTF8)), new PositionColumns());
+			fail("error expected");
+		} catch (PackedMessagesDecoder.ErrorResponseException e) {
+			assertEquals(7, e.getErrorCode());
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.messages;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ParamColumnsTest {
+	private static int addRow(ParamColumns columns, String params) throws IOException {
+		int row=columns.addRow();
+		JsonReader in=new JsonReader(new StringReader(params));
+		in.setLenient(true);
+		columns.read(in, row);
+		return row;
+	}
+
+	@Test
+	public void valuesAreKeptByKind() throws IOException {
+		ParamColumns columns=new ParamColumns();
+		int row=addRow(columns, "{\"pwr\":12.5,\"io\":9007199254740993,\"name\":\"driver\",\"neg\":-3,\"empty\":null}");
+		assertEquals(12.5, columns.getDouble(row, "pwr", 0), 1e-9);
+		// integers are not rounded to double
+		assertEquals(9007199254740993L, columns.getLong(row, "io", 0));
+		assertEquals(-3, columns.getLong(row, "neg", 0));
+		assertEquals("driver", columns.getValue(row, "name"));
+		assertEquals(-1, columns.getDouble(row, "name", -1), 1e-9);
+		assertFalse(columns.has(row, "empty"));
+		assertFalse(columns.has(row, "missing"));
+		assertEquals(7, columns.getLong(row, "missing", 7));
+		// map values keep Double type of parsed parameters
+		assertEquals(Double.valueOf(-3), columns.getValue(row, "neg"));
+	}
+
+	@Test
+	public void rowsShareColumns() throws IOException {
+		ParamColumns columns=new ParamColumns(1);
+		for (int i=0; i<40; i++)
+			addRow(columns, i%2==0 ? "{\"speed\":"+i+"}" : "{\"fuel\":"+i+".5}");
+		assertEquals(40, columns.getRowsCount());
+		assertEquals(2, columns.getKeys().size());
+		assertEquals(38, columns.getLong(38, "speed", -1));
+		assertFalse(columns.has(39, "speed"));
+		assertEquals(39.5, columns.getDouble(39, "fuel", 0), 1e-9);
+		double[] speeds=new double[40];
+		columns.copyColumn("speed", speeds, Double.NaN);
+		assertEquals(2, speeds[2], 1e-9);
+		assertTrue(Double.isNaN(speeds[3]));
+	}
+
+	@Test
+	public void lastRowIsRemoved() throws IOException {
+		ParamColumns columns=new ParamColumns();
+		addRow(columns, "{\"a\":1}");
+		addRow(columns, "{\"a\":2,\"b\":\"x\"}");
+		columns.removeLastRow();
+		assertEquals(1, columns.getRowsCount());
+		int row=addRow(columns, "{}");
+		assertEquals(1, row);
+		assertFalse(columns.has(row, "a"));
+		assertNull(columns.getValue(row, "b"));
+	}
+
+	@Test
+	public void rowMapViewContainsPresentValues() throws IOException {
+		ParamColumns columns=new ParamColumns();
+		addRow(columns, "{\"a\":1,\"b\":\"x\"}");
+		int row=addRow(columns, "{\"a\":2}");
+		Map<String, Object> params=columns.getParams(row);
+		assertEquals(1, params.size());
+		assertTrue(params.containsKey("a"));
+		assertFalse(params.containsKey("b"));
+		assertEquals(Double.valueOf(2), params.get("a"));
+		assertEquals(Double.valueOf(1), columns.getParams(0).get("a"));
+		assertEquals(2, columns.getParams(0).size());
+	}
+
+	@Test
+	public void nullParametersAreSkipped() throws IOException {
+		ParamColumns columns=new ParamColumns();
+		int row=addRow(columns, "null");
+		assertTrue(columns.getParams(row).isEmpty());
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Gurtam
+ *
+ * 	Licensed under the Apache License, Version 2.0 (the "License");
+ * 	you may not use this file except in compliance with the License.
+ * 	You may obtain a copy of the License at
+ *
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 	Unless required by applicable law or agreed to in writing, software
+ * 	distributed under the License is distributed on an "AS IS" BASIS,
+ * 	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 	See the License for the specific language governing permissions and
+ * 	limitations under the License.
+ */
+
+
+package com.sdk.wialon.remote;
+
+import com.sdk.wialon.core.Session;
+import com.sdk.wialon.remote.handlers.ResponseHandler;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Http client for tests, answers remote calls with queued responses without network
+ */
+public class FakeHttpClient implements BaseSdkHttpClient {
+	public static final String LOGIN_RESPONSE="{\"eid\":\"test\",\"tm\":1400000000,"+
+			"\"classes\":{\"avl_unit\":2,\"user\":1,\"avl_resource\":3,\"avl_unit_group\":4},"+
+			"\"user\":{\"nm\":\"user\",\"cls\":1,\"id\":1,\"prp\":{},\"crt\":1,\"bact\":1,\"mu\":0}}";
+	private static final Charset UTF8=Charset.forName("UTF-8");
+
+	private final Map<String, Queue<Object>> responses=new HashMap<String, Queue<Object>>();
+	private final Map<String, String> defaultResponses=new HashMap<String, String>();
+	private final List<Call> calls=new ArrayList<Call>();
+
+	/**
+	 * Remote call done by tested code
+	 */
+	public static final class Call {
+		public final String svc;
+		public final String params;
+
+		Call(String svc, String params) {
+			this.svc=svc;
+			this.params=params;
+		}
+	}
+
+	/**
+	 * Create client and set it to RemoteHttpClient
+	 */
+	public static FakeHttpClient install() {
+		FakeHttpClient client=new FakeHttpClient();
+		RemoteHttpClient.getInstance().setHttpClient(client);
+		return client;
+	}
+
+	/**
+	 * Install client, initialize session and login
+	 */
+	public static FakeHttpClient login() {
+		FakeHttpClient client=install();
+		Session session=Session.getInstance();
+		session.logout(0x1, null);
+		session.initSession("http://localhost");
+		client.addResponse("core/login", LOGIN_RESPONSE);
+		session.login("user", "password", new ResponseHandler() {});
+		if (session.getCurrUser()==null)
+			throw new IllegalStateException("Login failed");
+		return client;
+	}
+
+	/**
+	 * Cleanup session logged in with login()
+	 */
+	public static void logout() {
+		Session.getInstance().logout(0x1, null);
+	}
+
+	/**
+	 * Queue response for next call of service
+	 */
+	public synchronized void addResponse(String svc, String response) {
+		getQueue(svc).add(response);
+	}
+
+	/**
+	 * Set response for calls of service without queued responses, "{}" is used by default
+	 */
+	public synchronized void setDefaultResponse(String svc, String response) {
+		defaultResponses.put(svc, response);
+	}
+
+	/**
+	 * Queue server error for next call of service
+	 */
+	public synchronized void addError(String svc, int errorCode) {
+		getQueue(svc).add("{\"error\":"+errorCode+"}");
+	}
+
+	/**
+	 * Queue transport failure, e.g. socket timeout, for next call of service
+	 */
+	public synchronized void addTransportFailure(String svc, Throwable error) {
+		getQueue(svc).add(error);
+	}
+
+	/**
+	 * Get calls of service done so far
+	 */
+	public synchronized List<Call> getCalls(String svc) {
+		List<Call> result=new ArrayList<Call>();
+		for (Call call : calls)
+			if (call.svc.equals(svc))
+				result.add(call);
+		return result;
+	}
+
+	@Override
+	public void post(String url, Map<String, String> params, Callback callback, int timeout) {
+		String svc=getSvc(url);
+		Object response;
+		synchronized (this) {
+			calls.add(new Call(svc, params==null ? null : params.get("params")));
+			Queue<Object> queue=responses.get(svc);
+			response=queue==null ? null : queue.poll();
+			if (response==null)
+				response=defaultResponses.get(svc);
+		}
+		if (response==null)
+			response=svc.equals("avl_evts") ? "{\"tm\":1400000000,\"events\":[]}" : "{}";
+		if (response instanceof Throwable) {
+			callback.error=(Throwable)response;
+			callback.done(null);
+		} else
+			callback.done(response.toString().getBytes(UTF8));
+	}
+
+	@Override
+	public void get(String url, Map<String, String> params, Callback callback, int timeout) {
+		post(url, params, callback, timeout);
+	}
+
+	@Override
+	public void postFile(String url, Map<String, String> params, Callback callback, int timeout, File file) {
+		post(url, params, callback, timeout);
+	}
+
+	private Queue<Object> getQueue(String svc) {
+		Queue<Object> queue=responses.get(svc);
+		if (queue==null) {
+			queue=new LinkedList<Object>();
+			responses.put(svc, queue);
+		}
+		return queue;
+	}
+
+	private static String getSvc(String url) {
+		int index=url.indexOf("svc=");
+		if (index<0)
+			return url.substring(url.lastIndexOf('/')+1);
+		int end=url.indexOf('&', index);
+		return url.substring(index+4, end<0 ? url.length() : end);
+	}
+}